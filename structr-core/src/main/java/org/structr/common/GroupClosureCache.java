@@ -0,0 +1,393 @@
+/*
+ * Copyright (C) 2010-2020 Structr GmbH
+ *
+ * This file is part of Structr <http://structr.org>.
+ *
+ * Structr is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * Structr is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Structr.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.structr.common;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.structr.common.error.FrameworkException;
+import org.structr.core.app.App;
+import org.structr.core.app.StructrApp;
+import org.structr.core.entity.Principal;
+import org.structr.core.graph.TransactionCommand;
+
+/**
+ * Cache for the transitive group closure of principals. Each closure is
+ * stored as a sorted array of small integer indexes, which are assigned
+ * to group UUIDs on first use.
+ *
+ * Closures are computed on demand. When a membership relationship is
+ * created, the closures of the member and of all principals that contain
+ * the member are extended. When a membership is removed, only the
+ * affected closures are dropped and computed again on the next access.
+ *
+ * Closures and indexes are kept together in a table that is replaced as
+ * a whole when the number of assigned indexes exceeds a fixed limit, so
+ * the indexes of deleted principals don't accumulate.
+ *
+ * All modifications of cached closures are serialized on this class, so
+ * a closure computed before an invalidation can't be stored after it.
+ */
+public class GroupClosureCache {
+
+	private static final Logger logger       = LoggerFactory.getLogger(GroupClosureCache.class.getName());
+	private static final int MAX_SIZE        = 100000;
+	private static final int MAX_INDEXES     = 2 * MAX_SIZE;
+	private static final AtomicLong version  = new AtomicLong(0L);
+	private static volatile Table current    = new Table();
+
+	// allows tests to interleave invalidations with the storing of a computed closure
+	private static Runnable beforeStore = null;
+
+	/**
+	 * Indicates whether the given principal is a direct or indirect
+	 * member of the group with the given UUID.
+	 *
+	 * @param principal the principal
+	 * @param groupId the UUID of the group
+	 *
+	 * @return whether the principal is a member of the group
+	 */
+	public static boolean isMemberOf(final Principal principal, final String groupId) {
+
+		if (principal != null && groupId != null) {
+
+			final Table table   = current;
+			final int[] closure = getClosure(table, principal);
+			final Integer index = table.indexes.get(groupId);
+
+			return index != null && Arrays.binarySearch(closure, index) >= 0;
+		}
+
+		return false;
+	}
+
+	/**
+	 * Returns the UUIDs of all groups the given principal is a direct
+	 * or indirect member of.
+	 *
+	 * @param principal the principal
+	 * @return the group UUIDs
+	 */
+	public static List<String> getGroupIds(final Principal principal) {
+
+		final List<String> groupIds = new ArrayList<>();
+
+		if (principal != null) {
+
+			final Table table = current;
+
+			for (final int index : getClosure(table, principal)) {
+
+				// the index of a principal that was deleted in the meantime is gone
+				final String groupId = table.uuids.get(index);
+				if (groupId != null) {
+
+					groupIds.add(groupId);
+				}
+			}
+		}
+
+		return groupIds;
+	}
+
+	/**
+	 * Returns all groups the given principal is a direct or indirect
+	 * member of. This method must be called inside a transaction, the
+	 * groups are loaded only once per transaction.
+	 *
+	 * @param principal the principal
+	 * @return the groups
+	 */
+	public static List<Principal> getGroups(final Principal principal) {
+
+		final Map<String, Principal> resolved = TransactionCommand.getResolvedGroups();
+		final List<Principal> groups          = new ArrayList<>();
+		final App app                         = StructrApp.getInstance();
+
+		for (final String groupId : getGroupIds(principal)) {
+
+			Principal group = resolved != null ? resolved.get(groupId) : null;
+			if (group == null) {
+
+				try {
+
+					group = app.get(Principal.class, groupId);
+					if (group != null && resolved != null) {
+
+						resolved.put(groupId, group);
+					}
+
+				} catch (FrameworkException fex) {
+					logger.warn("Unable to load group {}: {}", groupId, fex.getMessage());
+				}
+			}
+
+			if (group != null) {
+
+				groups.add(group);
+			}
+		}
+
+		return groups;
+	}
+
+	/**
+	 * Updates the cached closures after a membership relationship between
+	 * the given group and member was committed.
+	 *
+	 * @param groupId the UUID of the group
+	 * @param memberId the UUID of the new member
+	 */
+	public static synchronized void membershipCreated(final String groupId, final String memberId) {
+
+		version.incrementAndGet();
+
+		final Table table        = current;
+		final int[] groupClosure = table.closures.get(groupId);
+
+		if (groupClosure == null) {
+
+			// closure of the group is unknown, so the affected closures can't be extended
+			invalidate(memberId);
+			return;
+		}
+
+		final int[] addition      = merge(groupClosure, new int[] { table.intern(groupId) }, -1);
+		final Integer memberIndex = table.indexes.get(memberId);
+
+		table.closures.computeIfPresent(memberId, (key, closure) -> merge(closure, addition, table.getIndex(key)));
+
+		if (memberIndex != null) {
+
+			// all principals that contain the member inherit the new groups as well
+			for (final String key : table.closures.keySet()) {
+
+				table.closures.computeIfPresent(key, (k, closure) -> Arrays.binarySearch(closure, memberIndex) >= 0 ? merge(closure, addition, table.getIndex(k)) : closure);
+			}
+		}
+	}
+
+	/**
+	 * Drops the closures of the given principal and of all principals
+	 * that contain it, e.g. after a membership was removed.
+	 *
+	 * @param principalId the UUID of the principal
+	 */
+	public static synchronized void invalidate(final String principalId) {
+
+		version.incrementAndGet();
+
+		final Table table = current;
+
+		table.closures.remove(principalId);
+
+		final Integer index = table.indexes.get(principalId);
+		if (index != null) {
+
+			table.closures.values().removeIf(closure -> Arrays.binarySearch(closure, index) >= 0);
+		}
+	}
+
+	/**
+	 * Removes the given principal from the cache after it was deleted.
+	 * The closures that contain the principal are dropped and its index
+	 * is released.
+	 *
+	 * @param principalId the UUID of the deleted principal
+	 */
+	public static synchronized void remove(final String principalId) {
+
+		invalidate(principalId);
+
+		final Table table   = current;
+		final Integer index = table.indexes.remove(principalId);
+
+		if (index != null) {
+
+			table.uuids.remove(index);
+		}
+	}
+
+	public static synchronized void clear() {
+
+		version.incrementAndGet();
+
+		current = new Table();
+	}
+
+	// ----- private methods -----
+	private static int[] getClosure(final Table table, final Principal principal) {
+
+		final String id = principal.getUuid();
+		int[] closure   = table.closures.get(id);
+
+		if (closure == null) {
+
+			final long versionBefore = version.get();
+
+			closure = compute(table, principal);
+
+			// don't store closures computed from a state that has changed in the meantime
+			// or that contains membership changes which are not committed yet
+			synchronized (GroupClosureCache.class) {
+
+				if (version.get() == versionBefore && !TransactionCommand.hasMembershipChanges()) {
+
+					if (beforeStore != null) {
+						beforeStore.run();
+					}
+
+					if (table.closures.size() >= MAX_SIZE) {
+						table.closures.clear();
+					}
+
+					table.closures.putIfAbsent(id, closure);
+				}
+			}
+
+			// indexes are never reused, so replace the table when too many were assigned
+			if (table.nextIndex.get() >= MAX_INDEXES) {
+				compact(table);
+			}
+		}
+
+		return closure;
+	}
+
+	private static synchronized void compact(final Table table) {
+
+		if (current == table) {
+
+			logger.info("Group closure cache reached {} indexes, starting over", MAX_INDEXES);
+
+			version.incrementAndGet();
+
+			current = new Table();
+		}
+	}
+
+	private static int[] compute(final Table table, final Principal principal) {
+
+		final Set<Integer> result    = new TreeSet<>();
+		final Set<String> visited    = new HashSet<>();
+		final Queue<Principal> queue = new ArrayDeque<>();
+
+		visited.add(principal.getUuid());
+		queue.add(principal);
+
+		while (!queue.isEmpty()) {
+
+			for (final Principal parent : queue.poll().getParentsPrivileged()) {
+
+				final String parentId = parent.getUuid();
+
+				if (visited.add(parentId)) {
+
+					result.add(table.intern(parentId));
+
+					// a cached closure is complete, no need to traverse it again
+					final int[] cached = table.closures.get(parentId);
+					if (cached != null) {
+
+						for (final int index : cached) {
+
+							result.add(index);
+							visited.add(table.uuids.get(index));
+						}
+
+					} else {
+
+						queue.add(parent);
+					}
+				}
+			}
+		}
+
+		// a principal is not its own group, even in the presence of cycles
+		result.remove(table.getIndex(principal.getUuid()));
+
+		return result.stream().mapToInt(Integer::intValue).toArray();
+	}
+
+	private static int[] merge(final int[] closure, final int[] addition, final int self) {
+
+		final Set<Integer> result = new TreeSet<>();
+
+		for (final int index : closure) {
+			result.add(index);
+		}
+
+		for (final int index : addition) {
+
+			if (index != self) {
+				result.add(index);
+			}
+		}
+
+		return result.stream().mapToInt(Integer::intValue).toArray();
+	}
+
+	// ----- nested classes -----
+	/**
+	 * The closures together with the indexes they refer to. A closure
+	 * must only be interpreted with the indexes of its own table.
+	 */
+	private static class Table {
+
+		private final Map<String, int[]> closures  = new ConcurrentHashMap<>();
+		private final Map<String, Integer> indexes = new ConcurrentHashMap<>();
+		private final Map<Integer, String> uuids   = new ConcurrentHashMap<>();
+		private final AtomicInteger nextIndex      = new AtomicInteger(0);
+
+		private int getIndex(final String uuid) {
+
+			final Integer index = indexes.get(uuid);
+			if (index != null) {
+
+				return index;
+			}
+
+			return -1;
+		}
+
+		private int intern(final String uuid) {
+
+			return indexes.computeIfAbsent(uuid, key -> {
+
+				final int index = nextIndex.getAndIncrement();
+
+				uuids.put(index, key);
+
+				return index;
+			});
+		}
+	}
+}
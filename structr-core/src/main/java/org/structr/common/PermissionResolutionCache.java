@@ -0,0 +1,381 @@
+/*
+ * Copyright (C) 2010-2020 Structr GmbH
+ *
+ * This file is part of Structr <http://structr.org>.
+ *
+ * Structr is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * Structr is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Structr.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.structr.common;
+
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import org.structr.api.graph.Direction;
+import org.structr.api.graph.Node;
+import org.structr.api.graph.PropertyContainer;
+import org.structr.api.graph.RelationshipType;
+import org.structr.api.util.FixedSizeCache;
+import org.structr.core.GraphObject;
+import org.structr.core.entity.Principal;
+import org.structr.core.entity.Relation;
+import org.structr.core.entity.SchemaRelationshipNode;
+import org.structr.core.graph.NodeInterface;
+
+/**
+ * Bounded, thread-safe cache for permission resolution results, keyed by
+ * (node id, principal id, permission). Positive and negative results are
+ * cached. Final results of isGranted() and the intermediate results of
+ * the permission propagation traversal are kept apart.
+ *
+ * Invalidation works with stamps from a global clock instead of removing
+ * entries. Each entry records the clock value from before its result was
+ * computed. The entry is valid only if its node and its principal were
+ * not invalidated after that time. Results that may depend on other
+ * nodes (permission propagation) are also checked against a global
+ * propagation stamp. Results that depend on group membership are
+ * invalidated through the ids of the affected principals.
+ *
+ * The stamps are bounded as well. The oldest stamps are evicted first, and
+ * the floor stamp is raised to the value of each evicted stamp, so that
+ * all entries it could have invalidated are treated as invalid.
+ */
+public class PermissionResolutionCache {
+
+	private static final int MAX_SIZE                                    = 100000;
+	private static final FixedSizeCache<CacheKey, CacheEntry> results    = new FixedSizeCache<>("Permission resolution cache", MAX_SIZE);
+	private static final FixedSizeCache<CacheKey, CacheEntry> traversals = new FixedSizeCache<>("Permission traversal cache", MAX_SIZE);
+	private static final Map<Object, Long> stamps                        = new ConcurrentHashMap<>();
+	private static final Deque<StampedId> stampOrder                     = new ArrayDeque<>();
+	private static final AtomicLong clock                                = new AtomicLong(0L);
+	private static final AtomicLong floorStamp                           = new AtomicLong(0L);
+	private static volatile long propagationStamp                        = 0L;
+
+	/**
+	 * Returns the current clock value. Call this before a permission is
+	 * resolved, and pass the value to {@link #put}.
+	 *
+	 * @return the current stamp
+	 */
+	public static long begin() {
+		return clock.get();
+	}
+
+	public static Boolean get(final NodeInterface node, final Principal principal, final Permission permission) {
+		return get(results, node, principal, permission);
+	}
+
+	public static void put(final NodeInterface node, final Principal principal, final Permission permission, final boolean value, final long stamp, final boolean propagated) {
+		put(results, node, principal, permission, value, stamp, propagated);
+	}
+
+	public static Boolean getTraversal(final NodeInterface node, final Principal principal, final Permission permission) {
+		return get(traversals, node, principal, permission);
+	}
+
+	public static void putTraversal(final NodeInterface node, final Principal principal, final Permission permission, final boolean value, final long stamp) {
+		put(traversals, node, principal, permission, value, stamp, true);
+	}
+
+	/**
+	 * Invalidates all results for the given node or principal.
+	 *
+	 * @param obj the node or principal
+	 */
+	public static void invalidate(final GraphObject obj) {
+
+		final Object id = getId(obj);
+		if (id != null) {
+
+			invalidateIds(Collections.singleton(id), false);
+		}
+	}
+
+	/**
+	 * Invalidates all results for the given node, and all results that
+	 * may depend on it through permission propagation if the node has
+	 * propagating relationships.
+	 *
+	 * @param obj the node
+	 */
+	public static void invalidateSecurity(final GraphObject obj) {
+
+		final Object id = getId(obj);
+		if (id != null) {
+
+			invalidateIds(Collections.singleton(id), obj instanceof NodeInterface && hasPropagatingRelationships((NodeInterface)obj));
+		}
+	}
+
+	/**
+	 * Invalidates all results for the given principal. The results of the
+	 * members of a group are invalidated when the transaction is finished,
+	 * see {@link org.structr.core.graph.ModificationQueue#collectPermissionChanges()}.
+	 *
+	 * @param principal the principal
+	 */
+	public static void invalidatePrincipal(final Principal principal) {
+
+		final Object id = getId(principal);
+		if (id != null) {
+
+			invalidateIds(Collections.singleton(id), false);
+		}
+	}
+
+	/**
+	 * Invalidates the results for the given node and principal ids, and
+	 * optionally all results that depend on permission propagation.
+	 *
+	 * @param ids the ids of the modified nodes and principals
+	 * @param propagation whether propagation-dependent results are invalidated
+	 */
+	public static synchronized void invalidateIds(final Collection<Object> ids, final boolean propagation) {
+
+		// synchronized so that stamps are written (and evicted) in clock order
+		final long stamp = clock.incrementAndGet();
+
+		for (final Object id : ids) {
+
+			stamps.put(id, stamp);
+			stampOrder.add(new StampedId(id, stamp));
+		}
+
+		if (propagation) {
+			propagationStamp = stamp;
+		}
+
+		// the stamp map is bounded as well, evict the oldest stamps (stale queue elements are skipped)
+		while (stamps.size() > MAX_SIZE || stampOrder.size() > 2 * MAX_SIZE) {
+
+			final StampedId oldest = stampOrder.poll();
+			if (oldest.stamp.equals(stamps.get(oldest.id))) {
+
+				// raise the floor first, so that concurrent readers never miss the invalidation
+				raiseFloorStamp(oldest.stamp);
+				stamps.remove(oldest.id);
+			}
+		}
+	}
+
+	public static synchronized void clear() {
+
+		raiseFloorStamp(clock.incrementAndGet());
+
+		stamps.clear();
+		stampOrder.clear();
+		results.clear();
+		traversals.clear();
+	}
+
+	/**
+	 * Returns the id under which results for the given object are cached.
+	 *
+	 * @param obj the node or principal
+	 * @return the id or null
+	 */
+	public static Object getId(final GraphObject obj) {
+
+		if (obj != null) {
+
+			final PropertyContainer container = obj.getPropertyContainer();
+			if (container != null) {
+
+				return container.getId();
+			}
+		}
+
+		return null;
+	}
+
+	/**
+	 * Indicates whether the given node has relationships along which
+	 * permissions are propagated, i.e. whether its permissions can affect
+	 * the permissions of other nodes. Returns true if that can't be
+	 * determined, e.g. for deleted nodes.
+	 *
+	 * @param node the node
+	 * @return whether the node has propagating relationships
+	 */
+	public static boolean hasPropagatingRelationships(final NodeInterface node) {
+
+		try {
+
+			final Node dbNode = node.getNode();
+			if (dbNode != null) {
+
+				for (final Class<Relation> propagatingType : SchemaRelationshipNode.getPropagatingRelationshipTypes()) {
+
+					final RelationshipType relType = RelationshipType.forName(Relation.getInstance(propagatingType).name());
+
+					if (dbNode.getRelationships(Direction.BOTH, relType).iterator().hasNext()) {
+						return true;
+					}
+				}
+			}
+
+			return false;
+
+		} catch (Throwable t) {
+
+			return true;
+		}
+	}
+
+	public static Map<String, Integer> getCacheInfo() {
+		return results.getCacheInfo();
+	}
+
+	// ----- private methods -----
+	private static Boolean get(final FixedSizeCache<CacheKey, CacheEntry> cache, final NodeInterface node, final Principal principal, final Permission permission) {
+
+		final CacheKey key = getKey(node, principal, permission);
+		if (key != null) {
+
+			final CacheEntry entry = cache.get(key);
+			if (entry != null && isValid(entry, key)) {
+
+				return entry.value;
+			}
+		}
+
+		return null;
+	}
+
+	private static void put(final FixedSizeCache<CacheKey, CacheEntry> cache, final NodeInterface node, final Principal principal, final Permission permission, final boolean value, final long stamp, final boolean propagated) {
+
+		final CacheKey key = getKey(node, principal, permission);
+		if (key != null) {
+
+			// an entry that was invalidated in the meantime must not be stored
+			final CacheEntry entry = new CacheEntry(value, stamp, propagated);
+			if (isValid(entry, key)) {
+
+				cache.put(key, entry);
+			}
+		}
+	}
+
+	private static boolean isValid(final CacheEntry entry, final CacheKey key) {
+
+		final long stamp = entry.stamp;
+
+		if (floorStamp.get() > stamp) {
+			return false;
+		}
+
+		if (entry.propagated && propagationStamp > stamp) {
+			return false;
+		}
+
+		if (stamps.getOrDefault(key.node, 0L) > stamp) {
+			return false;
+		}
+
+		if (key.principal != null && stamps.getOrDefault(key.principal, 0L) > stamp) {
+			return false;
+		}
+
+		return true;
+	}
+
+	private static void raiseFloorStamp(final long stamp) {
+		floorStamp.accumulateAndGet(stamp, Math::max);
+	}
+
+	private static CacheKey getKey(final NodeInterface node, final Principal principal, final Permission permission) {
+
+		final Object nodeId = getId(node);
+		if (nodeId != null) {
+
+			if (principal == null) {
+
+				return new CacheKey(nodeId, null, permission);
+			}
+
+			final Object principalId = getId(principal);
+			if (principalId != null) {
+
+				return new CacheKey(nodeId, principalId, permission);
+			}
+		}
+
+		return null;
+	}
+
+	// ----- nested classes -----
+	private static class CacheKey {
+
+		private final Object node;
+		private final Object principal;
+		private final Permission permission;
+		private final int hashCode;
+
+		public CacheKey(final Object node, final Object principal, final Permission permission) {
+
+			this.node       = node;
+			this.principal  = principal;
+			this.permission = permission;
+			this.hashCode   = Objects.hash(node, principal, permission);
+		}
+
+		@Override
+		public int hashCode() {
+			return hashCode;
+		}
+
+		@Override
+		public boolean equals(final Object other) {
+
+			if (other instanceof CacheKey) {
+
+				final CacheKey key = (CacheKey)other;
+
+				return node.equals(key.node) && Objects.equals(principal, key.principal) && permission.equals(key.permission);
+			}
+
+			return false;
+		}
+	}
+
+	private static class StampedId {
+
+		private final Object id;
+		private final Long stamp;
+
+		public StampedId(final Object id, final long stamp) {
+
+			this.id    = id;
+			this.stamp = stamp;
+		}
+	}
+
+	private static class CacheEntry {
+
+		private final boolean value;
+		private final boolean propagated;
+		private final long stamp;
+
+		public CacheEntry(final boolean value, final long stamp, final boolean propagated) {
+
+			this.value      = value;
+			this.stamp      = stamp;
+			this.propagated = propagated;
+		}
+	}
+}
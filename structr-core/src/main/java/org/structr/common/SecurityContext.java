@@ -37,7 +37,6 @@ import org.apache.commons.lang3.StringUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.structr.api.config.Settings;
-import org.structr.api.util.Iterables;
 import org.structr.core.GraphObject;
 import org.structr.core.auth.Authenticator;
 import org.structr.core.entity.AbstractNode;
@@ -601,7 +600,7 @@ public class SecurityContext {
 			final Principal owner = node.getOwnerNode();
 
 			// owner is always allowed to do anything with its nodes
-			if (user.equals(node) || user.equals(owner) || Iterables.toList(user.getParents()).contains(owner)) {
+			if (user.equals(node) || user.equals(owner) || (owner != null && GroupClosureCache.isMemberOf(user, owner.getUuid()))) {
 
 				return true;
 			}
@@ -71,8 +71,10 @@ import org.structr.cmis.info.CMISPolicyInfo;
 import org.structr.cmis.info.CMISRelationshipInfo;
 import org.structr.cmis.info.CMISSecondaryInfo;
 import org.structr.common.AccessControllable;
+import org.structr.common.GroupClosureCache;
 import org.structr.common.Permission;
 import org.structr.common.PermissionPropagation;
+import org.structr.common.PermissionResolutionCache;
 import org.structr.common.PermissionResolutionMask;
 import org.structr.common.PropertyView;
 import org.structr.common.SecurityContext;
@@ -108,11 +110,9 @@ import org.structr.schema.action.Function;
  */
 public abstract class AbstractNode implements NodeInterface, AccessControllable, CMISInfo, CMISItemInfo {
 
-	private static final int permissionResolutionMaxLevel                                                     = Settings.ResolutionDepth.getValue();
-	private static final Logger logger                                                                        = LoggerFactory.getLogger(AbstractNode.class.getName());
-	private static final FixedSizeCache<String, Boolean> isGrantedResultCache                                 = new FixedSizeCache<String, Boolean>("Grant result cache", 100000);
-	private static final FixedSizeCache<String, Object> relationshipTemplateInstanceCache                     = new FixedSizeCache<>("Relationship template cache", 1000);
-	private static final Map<String, Map<String, PermissionResolutionResult>> globalPermissionResolutionCache = new HashMap<>();
+	private static final int permissionResolutionMaxLevel                                 = Settings.ResolutionDepth.getValue();
+	private static final Logger logger                                                    = LoggerFactory.getLogger(AbstractNode.class.getName());
+	private static final FixedSizeCache<String, Object> relationshipTemplateInstanceCache = new FixedSizeCache<>("Relationship template cache", 1000);
 
 	public static final View defaultView = new View(AbstractNode.class, PropertyView.Public, id, type, name);
 
@@ -814,26 +814,58 @@ public abstract class AbstractNode implements NodeInterface, AccessControllable,
 			accessingUser = context.getUser(false);
 		}
 
-		final String cacheKey = getUuid() + "." + permission.name() + "." + context.getCachedUserId();
-		final Boolean cached  = isGrantedResultCache.get(cacheKey);
+		final boolean doLog = securityContext.hasParameter("logPermissionResolution");
 
-		if (cached != null && cached == true) {
-			return true;
+		// logged resolutions must not be answered from the cache
+		if (!doLog) {
+
+			final Boolean cached = PermissionResolutionCache.get(this, accessingUser, permission);
+
+			// a negative result does not apply to creation, which has its own shortcuts
+			if (cached != null && (cached || !isCreation)) {
+				return cached;
+			}
 		}
 
-		final boolean doLog  = securityContext.hasParameter("logPermissionResolution");
-		final boolean result = isGranted(permission, accessingUser, new PermissionResolutionMask(), 0, new AlreadyTraversed(), true, doLog, isCreation);
+		final long stamp     = PermissionResolutionCache.begin();
+		final boolean result = isGranted(permission, accessingUser, new PermissionResolutionMask(), 0, new AlreadyTraversed(stamp), true, doLog, isCreation);
 
-		isGrantedResultCache.put(cacheKey, result);
+		// results of custom permission queries can change at any time, so only positive ones are cached
+		if (!isCreation && (result || !hasCustomPermissionQuery(accessingUser, permission))) {
+
+			PermissionResolutionCache.put(this, accessingUser, permission, result, stamp, !SchemaRelationshipNode.getPropagatingRelationshipTypes().isEmpty());
+		}
 
 		return result;
 	}
 
+	private boolean hasCustomPermissionQuery(final Principal principal, final Permission permission) {
+
+		if (principal != null) {
+
+			final PropertyKey<String> permissionPropertyKey = StructrApp.getConfiguration().getPropertyKeyForJSONName(Principal.class, "customPermissionQuery" + StringUtils.capitalize(permission.name()));
+
+			if (StringUtils.isNotEmpty(principal.getProperty(permissionPropertyKey))) {
+				return true;
+			}
+
+			// custom permission queries of groups are evaluated as well
+			for (final Principal group : GroupClosureCache.getGroups(principal)) {
+
+				if (StringUtils.isNotEmpty(group.getProperty(permissionPropertyKey))) {
+					return true;
+				}
+			}
+		}
+
+		return false;
+	}
+
 	private boolean isGranted(final Permission permission, final Principal accessingUser, final PermissionResolutionMask mask, final int level, final AlreadyTraversed alreadyTraversed, final boolean resolvePermissions, final boolean doLog, final boolean isCreation) {
-		return isGranted(permission, accessingUser, mask, level, alreadyTraversed, resolvePermissions, doLog, null, isCreation);
+		return isGranted(permission, accessingUser, mask, level, alreadyTraversed, resolvePermissions, doLog, null, isCreation, true);
 	}
 
-	private boolean isGranted(final Permission permission, final Principal accessingUser, final PermissionResolutionMask mask, final int level, final AlreadyTraversed alreadyTraversed, final boolean resolvePermissions, final boolean doLog, final Map<String, Security> incomingSecurityRelationships, final boolean isCreation) {
+	private boolean isGranted(final Permission permission, final Principal accessingUser, final PermissionResolutionMask mask, final int level, final AlreadyTraversed alreadyTraversed, final boolean resolvePermissions, final boolean doLog, final Map<String, Security> incomingSecurityRelationships, final boolean isCreation, final boolean checkGroups) {
 
 		if (level > 300) {
 			logger.warn("Aborting recursive permission resolution for {} on {} because of recursion level > 300, this is quite likely an infinite loop.", permission.name(), getType() + "(" + getUuid() + ")");
@@ -950,14 +982,14 @@ public abstract class AbstractNode implements NodeInterface, AccessControllable,
 					final BFSInfo info = bfsNodes.poll();
 					if (info != null && info.level < permissionResolutionMaxLevel) {
 
-						final Boolean value = info.node.getPermissionResolutionResult(accessingUser.getUuid(), permission);
+						final Boolean value = doLog ? null : PermissionResolutionCache.getTraversal(info.node, accessingUser, permission);
 						if (value != null) {
 
 							// returning immediately
 							if (Boolean.TRUE.equals(value)) {
 
 								// do backtracking
-								backtrack(info, accessingUser.getUuid(), permission, true, 0, doLog);
+								backtrack(info, accessingUser, permission, true, 0, doLog, alreadyTraversed.stamp);
 
 								return true;
 							}
@@ -967,7 +999,7 @@ public abstract class AbstractNode implements NodeInterface, AccessControllable,
 							if (info.node.hasEffectivePermissions(info, accessingUser, permission, mask, level, alreadyTraversed, bfsNodes, doLog, isCreation)) {
 
 								// do backtracking
-								backtrack(info, accessingUser.getUuid(), permission, true, 0, doLog);
+								backtrack(info, accessingUser, permission, true, 0, doLog, alreadyTraversed.stamp);
 
 								return true;
 							}
@@ -977,14 +1009,17 @@ public abstract class AbstractNode implements NodeInterface, AccessControllable,
 				} while (!bfsNodes.isEmpty());
 
 				// do backtracking
-				backtrack(root, accessingUser.getUuid(), permission, false, 0, doLog);
+				backtrack(root, accessingUser, permission, false, 0, doLog, alreadyTraversed.stamp);
 			}
 
-			// Last: recursively check possible parent principals
-			for (Principal parent : accessingUser.getParentsPrivileged()) {
+			// Last: check all groups of the principal, the closure is transitive so no recursion is needed
+			if (checkGroups) {
 
-				if (isGranted(permission, parent, mask, level+1, alreadyTraversed, false, doLog, localIncomingSecurityRelationships, isCreation)) {
-					return true;
+				for (final Principal group : GroupClosureCache.getGroups(accessingUser)) {
+
+					if (isGranted(permission, group, mask, level+1, alreadyTraversed, false, doLog, localIncomingSecurityRelationships, isCreation, false)) {
+						return true;
+					}
 				}
 			}
 		}
@@ -992,7 +1027,7 @@ public abstract class AbstractNode implements NodeInterface, AccessControllable,
 		return false;
 	}
 
-	private void backtrack(final BFSInfo info, final String principalId, final Permission permission, final boolean value, final int level, final boolean doLog) {
+	private void backtrack(final BFSInfo info, final Principal principal, final Permission permission, final boolean value, final int level, final boolean doLog, final long stamp) {
 
 		final StringBuilder buf = new StringBuilder();
 
@@ -1013,12 +1048,12 @@ public abstract class AbstractNode implements NodeInterface, AccessControllable,
 			buf.append(info.node.getType()).append(" (").append(info.node.getUuid()).append(") --> ");
 		}
 
-		info.node.storePermissionResolutionResult(principalId, permission, value);
+		PermissionResolutionCache.putTraversal(info.node, principal, permission, value, stamp);
 
 		// go to parent(s)
 		if (info.parent != null) {
 
-			backtrack(info.parent, principalId, permission, value, level+1, doLog);
+			backtrack(info.parent, principal, permission, value, level+1, doLog, stamp);
 		}
 
 		if (doLog && level == 0) {
@@ -1056,7 +1091,7 @@ public abstract class AbstractNode implements NodeInterface, AccessControllable,
 
 							if (otherNode.isGranted(permission, principal, mask, level, alreadyTraversed, false, doLog, isCreation)) {
 
-								otherNode.storePermissionResolutionResult(principal.getUuid(), permission, true);
+								PermissionResolutionCache.putTraversal(otherNode, principal, permission, true, alreadyTraversed.stamp);
 
 								// break early
 								return true;
@@ -1197,71 +1232,6 @@ public abstract class AbstractNode implements NodeInterface, AccessControllable,
 		mask.handleProperties(rel.getDeltaProperties());
 	}
 
-	private Boolean getPermissionResolutionResult(final String principalId, final Permission permission) {
-
-		Map<String, PermissionResolutionResult> permissionResolutionCache = globalPermissionResolutionCache.get(getUuid());
-		if (permissionResolutionCache == null) {
-
-			permissionResolutionCache = new HashMap<>();
-			globalPermissionResolutionCache.put(getUuid(), permissionResolutionCache);
-		}
-
-		PermissionResolutionResult result = permissionResolutionCache.get(principalId);
-		if (result != null) {
-
-			if (permission.equals(Permission.read)) {
-				return result.read;
-			}
-
-			if (permission.equals(Permission.write)) {
-				return result.write;
-			}
-
-			if (permission.equals(Permission.delete)) {
-				return result.delete;
-			}
-
-			if (permission.equals(Permission.accessControl)) {
-				return result.accessControl;
-			}
-		}
-
-		return null;
-	}
-
-	private void storePermissionResolutionResult(final String principalId, final Permission permission, final boolean value) {
-
-		Map<String, PermissionResolutionResult> permissionResolutionCache = globalPermissionResolutionCache.get(getUuid());
-		if (permissionResolutionCache == null) {
-
-			permissionResolutionCache = new HashMap<>();
-			globalPermissionResolutionCache.put(getUuid(), permissionResolutionCache);
-		}
-
-		PermissionResolutionResult result = permissionResolutionCache.get(principalId);
-		if (result == null) {
-
-			result = new PermissionResolutionResult();
-			permissionResolutionCache.put(principalId, result);
-		}
-
-		if (permission.equals(Permission.read) && (result.read == null || result.read == false)) {
-			result.read = value;
-		}
-
-		if (permission.equals(Permission.write) && (result.write == null || result.write == false)) {
-			result.write = value;
-		}
-
-		if (permission.equals(Permission.delete) && (result.delete == null || result.delete == false)) {
-			result.delete = value;
-		}
-
-		if (permission.equals(Permission.accessControl) && (result.accessControl == null || result.accessControl == false)) {
-			result.accessControl = value;
-		}
-	}
-
 	private Security getSecurityRelationship(final Principal p, final Map<String, Security> securityRelationships) {
 
 		if (p == null) {
@@ -1301,12 +1271,12 @@ public abstract class AbstractNode implements NodeInterface, AccessControllable,
 
 	@Override
 	public void onModification(SecurityContext securityContext, ErrorBuffer errorBuffer, final ModificationQueue modificationQueue) throws FrameworkException {
-		clearCaches();
+		PermissionResolutionCache.invalidate(this);
 	}
 
 	@Override
 	public void onDeletion(SecurityContext securityContext, ErrorBuffer errorBuffer, PropertyMap properties) throws FrameworkException {
-		clearCaches();
+		PermissionResolutionCache.invalidateSecurity(this);
 	}
 
 	@Override
@@ -1323,22 +1293,22 @@ public abstract class AbstractNode implements NodeInterface, AccessControllable,
 
 	@Override
 	public void ownerModified(SecurityContext securityContext) {
-		clearCaches();
+		PermissionResolutionCache.invalidateSecurity(this);
 	}
 
 	@Override
 	public void securityModified(SecurityContext securityContext) {
-		clearCaches();
+		PermissionResolutionCache.invalidateSecurity(this);
 	}
 
 	@Override
 	public void locationModified(SecurityContext securityContext) {
-		clearCaches();
+		PermissionResolutionCache.invalidate(this);
 	}
 
 	@Override
 	public void propagatedModification(SecurityContext securityContext) {
-		clearCaches();
+		PermissionResolutionCache.invalidate(this);
 	}
 
 	@Override
@@ -1551,8 +1521,8 @@ public abstract class AbstractNode implements NodeInterface, AccessControllable,
 	}
 
 	public static void clearCaches() {
-		globalPermissionResolutionCache.clear();
-		isGrantedResultCache.clear();
+		PermissionResolutionCache.clear();
+		GroupClosureCache.clear();
 	}
 
 	public static <A extends NodeInterface, B extends NodeInterface, R extends Relation<A, B, ?, ?>> R getRelationshipForType(final Class<R> type) {
@@ -1825,7 +1795,7 @@ public abstract class AbstractNode implements NodeInterface, AccessControllable,
 			throw new FrameworkException(403, "Access control not permitted");
 		}
 
-		clearCaches();
+		PermissionResolutionCache.invalidateSecurity(this);
 
 		Security secRel = getSecurityRelationship(principal);
 		if (secRel == null) {
@@ -1880,7 +1850,7 @@ public abstract class AbstractNode implements NodeInterface, AccessControllable,
 			throw new FrameworkException(403, "Access control not permitted");
 		}
 
-		clearCaches();
+		PermissionResolutionCache.invalidateSecurity(this);
 
 		Security secRel = getSecurityRelationship(principal);
 		if (secRel != null) {
@@ -1902,7 +1872,7 @@ public abstract class AbstractNode implements NodeInterface, AccessControllable,
 			throw new FrameworkException(403, "Access control not permitted");
 		}
 
-		clearCaches();
+		PermissionResolutionCache.invalidateSecurity(this);
 
 		final Set<String> permissionSet = new HashSet<>();
 
@@ -2219,6 +2189,11 @@ public abstract class AbstractNode implements NodeInterface, AccessControllable,
 	private static class AlreadyTraversed {
 
 		private Map<String, Set<String>> sets = new LinkedHashMap<>();
+		private long stamp                    = 0L;
+
+		public AlreadyTraversed(final long stamp) {
+			this.stamp = stamp;
+		}
 
 		public boolean contains(final String key, final String uuid) {
 
@@ -2260,12 +2235,4 @@ public abstract class AbstractNode implements NodeInterface, AccessControllable,
 			}
 		}
 	}
-
-	private static class PermissionResolutionResult {
-
-		Boolean read          = null;
-		Boolean write         = null;
-		Boolean delete        = null;
-		Boolean accessControl = null;
-	}
 }
@@ -152,7 +152,7 @@ public interface Principal extends NodeInterface, AccessControllable {
 			.addParameter("arg0", PropertyKey.class.getName() + "<T>")
 			.addParameter("arg1", "T")
 			.addException(FrameworkException.class.getName())
-			.setSource("AbstractNode.clearCaches(); return super.setProperty(arg0, arg1);");
+			.setSource(PermissionResolutionCache.class.getName() + ".invalidatePrincipal(this); return super.setProperty(arg0, arg1);");
 
 		// create relationships
 		principal.relate(favoritable, "FAVORITE", Cardinality.ManyToMany, "favoriteUsers", "favorites");
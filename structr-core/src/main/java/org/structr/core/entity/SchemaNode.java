@@ -35,6 +35,7 @@ import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import org.apache.commons.lang.StringUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -77,6 +78,7 @@ import org.structr.schema.SourceFile;
 public class SchemaNode extends AbstractSchemaNode {
 
 	private static final Logger logger                  = LoggerFactory.getLogger(SchemaNode.class.getName());
+	private static final Set<Class> customVisibilityTypes = Collections.newSetFromMap(new ConcurrentHashMap<>());
 	public static final String GraphQLNodeReferenceName = "StructrNodeReference";
 
 	public static final String schemaNodeNamePattern    = "[A-Z][a-zA-Z0-9_]*";
@@ -118,6 +120,42 @@ public class SchemaNode extends AbstractSchemaNode {
 		extendsClass, implementsInterfaces, defaultSortKey, defaultSortOrder, isBuiltinType, hierarchyLevel, relCount, isInterface, isAbstract, defaultVisibleToPublic, defaultVisibleToAuth, tags
 	);
 
+	/**
+	 * Registers a type whose read permissions are not fully described by the
+	 * visibility flags, ownership and security relationships stored in the
+	 * database, i.e. types with default visibility flags or schema grants.
+	 */
+	public static void registerCustomVisibilityType(final Class type) {
+		customVisibilityTypes.add(type);
+	}
+
+	public static void clearCustomVisibilityTypes() {
+		customVisibilityTypes.clear();
+	}
+
+	/**
+	 * Indicates whether a query for the given type can return nodes of a
+	 * type that was registered with {@link #registerCustomVisibilityType}.
+	 *
+	 * @param type the type to query for, or null for all types
+	 * @return whether custom visibility rules apply
+	 */
+	public static boolean hasCustomVisibility(final Class type) {
+
+		if (type == null) {
+			return !customVisibilityTypes.isEmpty();
+		}
+
+		for (final Class customType : customVisibilityTypes) {
+
+			if (type.isAssignableFrom(customType) || customType.isAssignableFrom(type)) {
+				return true;
+			}
+		}
+
+		return false;
+	}
+
 	@Override
 	public void onCreation(SecurityContext securityContext, ErrorBuffer errorBuffer) throws FrameworkException {
 
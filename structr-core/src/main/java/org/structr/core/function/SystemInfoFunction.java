@@ -27,6 +27,7 @@ import java.util.Map;
 import org.structr.api.DatabaseService;
 import org.structr.api.config.Settings;
 import org.structr.api.util.CountResult;
+import org.structr.common.PermissionResolutionCache;
 import org.structr.common.error.FrameworkException;
 import org.structr.core.Services;
 import org.structr.core.graph.NodeService;
@@ -89,6 +90,7 @@ public class SystemInfoFunction extends AdvancedScriptingFunction {
 
 				cacheInfo.putAll(db.getCachesInfo());
 				cacheInfo.put("localizations", LocalizeFunction.getCacheInfo());
+				cacheInfo.put("permissions", PermissionResolutionCache.getCacheInfo());
 
 				info.put("counts", counts);
 				info.put("caches", cacheInfo);
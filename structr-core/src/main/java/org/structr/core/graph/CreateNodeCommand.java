@@ -18,10 +18,13 @@
  */
 package org.structr.core.graph;
 
+import java.lang.reflect.Method;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
@@ -33,6 +36,7 @@ import org.structr.api.DataFormatException;
 import org.structr.api.DatabaseService;
 import org.structr.api.graph.Node;
 import org.structr.api.graph.Relationship;
+import org.structr.api.util.NodeSpec;
 import org.structr.api.util.NodeWithOwnerResult;
 import org.structr.common.Permission;
 import org.structr.common.PropertyView;
@@ -90,145 +94,260 @@ public class CreateNodeCommand<T extends NodeInterface> extends NodeServiceComma
 		if (graphDb != null) {
 
 			final NodeFactory<T> nodeFactory = new NodeFactory<>(securityContext);
-			final PropertyMap properties     = new PropertyMap(attributes);
-			final PropertyMap toNotify       = new PropertyMap();
-			final Object typeObject          = properties.get(AbstractNode.type);
-			final Class nodeType             = getTypeOrGeneric(typeObject);
-			final String typeName            = nodeType.getSimpleName();
-			final Set<String> labels         = TypeProperty.getLabelsForType(nodeType);
-			final CreationContainer tmp      = new CreationContainer(true);
-			final Date now                   = new Date();
-			final boolean isCreation         = true;
+			final PreparedNode prepared      = prepare(user, attributes);
 
-			// use user-supplied UUID?
-			String uuid = properties.get(GraphObject.id);
-			if (uuid == null) {
+			node = finish(user, nodeFactory, prepared, createNode(graphDb, user, prepared));
+		}
 
-				// no, create new one
-				uuid = getNextUuid();
+		if (node != null) {
 
-				properties.put(GraphObject.id, uuid);
+			notifyCreation(node);
+		}
 
-			} else {
+		return node;
+	}
 
-				// enable UUID validation
-				securityContext.uuidWasSetManually(true);
-			}
+	/**
+	 * Creates nodes for all the given property sets, using the bulk
+	 * creation methods of the database service, and returns them in
+	 * the same order. Callers must make sure that all the types involved
+	 * support bulk creation, see {@link #supportsBulkCreation(Class)}.
+	 */
+	public List<T> execute(final List<PropertyMap> attributes) throws FrameworkException {
 
-			// use property keys to set property values on creation dummy
-			// set default values for common properties in creation query
-			GraphObject.id.setProperty(securityContext, tmp, uuid);
-			GraphObject.type.setProperty(securityContext, tmp, typeName);
-			AbstractNode.createdDate.setProperty(securityContext, tmp, now);
-			AbstractNode.lastModifiedDate.setProperty(securityContext, tmp, now);
+		final DatabaseService graphDb = (DatabaseService) arguments.get("graphDb");
+		final Principal user          = securityContext.getUser(false);
+		final List<T> nodes           = new ArrayList<>();
 
-			// default property values
-			AbstractNode.visibleToPublicUsers.setProperty(securityContext, tmp,        getOrDefault(properties, AbstractNode.visibleToPublicUsers, false));
-			AbstractNode.visibleToAuthenticatedUsers.setProperty(securityContext, tmp, getOrDefault(properties, AbstractNode.visibleToAuthenticatedUsers, false));
-			AbstractNode.hidden.setProperty(securityContext, tmp,                      getOrDefault(properties, AbstractNode.hidden, false));
+		if (graphDb != null && !attributes.isEmpty()) {
 
-			if (user != null) {
+			final NodeFactory<T> nodeFactory      = new NodeFactory<>(securityContext);
+			final List<PreparedNode> preparedList = new ArrayList<>();
+			final List<NodeSpec> specs            = new ArrayList<>();
 
-				final String userId = user.getProperty(GraphObject.id);
+			for (final PropertyMap properties : attributes) {
 
-				AbstractNode.createdBy.setProperty(securityContext, tmp, userId);
-				AbstractNode.lastModifiedBy.setProperty(securityContext, tmp, userId);
+				final PreparedNode prepared = prepare(user, properties);
+
+				preparedList.add(prepared);
+				specs.add(createSpec(graphDb, user, prepared));
 			}
 
-			// prevent double setting of properties
-			properties.remove(AbstractNode.id);
-			properties.remove(AbstractNode.type);
-			properties.remove(AbstractNode.visibleToPublicUsers);
-			properties.remove(AbstractNode.visibleToAuthenticatedUsers);
-			properties.remove(AbstractNode.hidden);
-			properties.remove(AbstractNode.lastModifiedDate);
-			properties.remove(AbstractNode.lastModifiedBy);
-			properties.remove(AbstractNode.createdDate);
-			properties.remove(AbstractNode.createdBy);
+			try {
 
-			// move properties to creation container that can be set directly on creation
-			tmp.filterIndexableForCreation(securityContext, properties, tmp, toNotify);
+				final List<NodeWithOwnerResult> results = graphDb.createNodes(specs);
 
-			// collect default values and try to set them on creation
-			for (final PropertyKey key : StructrApp.getConfiguration().getPropertySet(nodeType, PropertyView.All)) {
+				for (int i=0; i<results.size(); i++) {
 
-				if (key instanceof AbstractPrimitiveProperty && !tmp.hasProperty(key.jsonName())) {
+					final NodeWithOwnerResult result = results.get(i);
+					Node newNode                     = null;
 
-					final Object defaultValue = key.defaultValue();
-					if (defaultValue != null) {
+					if (result != null) {
 
-						key.setProperty(securityContext, tmp, defaultValue);
+						if (result.getSecurityRelationship() != null && result.getOwnsRelationship() != null) {
+
+							notifySecurityRelCreation(user, result.getSecurityRelationship());
+							notifyOwnsRelCreation(user, result.getOwnsRelationship());
+						}
+
+						newNode = result.getNewNode();
 					}
+
+					nodes.add(finish(user, nodeFactory, preparedList.get(i), newNode));
 				}
+
+			} catch (DataFormatException dex) {
+				throw new FrameworkException(422, dex.getMessage());
+			} catch (ConstraintViolationException qex) {
+				throw new FrameworkException(422, qex.getMessage());
 			}
 
-			node = (T) nodeFactory.instantiateWithType(createNode(graphDb, user, typeName, labels, tmp.getData()), nodeType, null, isCreation);
-			if (node != null) {
+			for (final T node : nodes) {
 
-				TransactionCommand.nodeCreated(user, node);
+				if (node != null) {
 
-				securityContext.disableModificationOfAccessTime();
-				node.setProperties(securityContext, properties, true);
-				securityContext.enableModificationOfAccessTime();
+					notifyCreation(node);
+				}
+			}
+		}
 
-				// ensure modification callbacks are called (necessary for validation)
-				for (final Entry<PropertyKey, Object> entry : toNotify.entrySet()) {
+		return nodes;
+	}
 
-					final PropertyKey key = entry.getKey();
-					final Object value    = entry.getValue();
+	/**
+	 * Indicates whether nodes of the given type can be created with the
+	 * bulk creation method, i.e. whether the type has neither an
+	 * onNodeCreation callback nor entity creation transformations that
+	 * would need to run in between the creation of individual nodes.
+	 */
+	public static boolean supportsBulkCreation(final Class type) {
 
-					if (!key.isUnvalidated()) {
-						TransactionCommand.nodeModified(securityContext.getCachedUser(), (AbstractNode)node, key, null, value);
-					}
-				}
+		if (type == null || !AbstractNode.class.isAssignableFrom(type)) {
+			return false;
+		}
 
-				properties.clear();
+		if (!StructrApp.getConfiguration().getEntityCreationTransformations(type).isEmpty()) {
+			return false;
+		}
 
-				// ensure indexing of newly created node
-				node.addToIndex();
+		try {
 
-				// invalidate UUID cache
-				StructrApp.invalidate(uuid);
-			}
+			final Method method = type.getMethod("onNodeCreation");
+
+			return AbstractNode.class.equals(method.getDeclaringClass());
+
+		} catch (NoSuchMethodException nsmex) {
+			logger.warn("Unable to determine onNodeCreation callback of type {}: {}", type.getName(), nsmex.getMessage());
 		}
 
-		if (node != null) {
+		return false;
+	}
+
+	// ----- private methods -----
+	private PreparedNode prepare(final Principal user, final PropertyMap attributes) throws FrameworkException {
+
+		final PropertyMap properties = new PropertyMap(attributes);
+		final PropertyMap toNotify   = new PropertyMap();
+		final Object typeObject      = properties.get(AbstractNode.type);
+		final Class nodeType         = getTypeOrGeneric(typeObject);
+		final String typeName        = nodeType.getSimpleName();
+		final Set<String> labels     = TypeProperty.getLabelsForType(nodeType);
+		final CreationContainer tmp  = new CreationContainer(true);
+		final Date now               = new Date();
+
+		// use user-supplied UUID?
+		String uuid = properties.get(GraphObject.id);
+		if (uuid == null) {
+
+			// no, create new one
+			uuid = getNextUuid();
+
+			properties.put(GraphObject.id, uuid);
+
+		} else {
+
+			// enable UUID validation
+			securityContext.uuidWasSetManually(true);
+		}
+
+		// use property keys to set property values on creation dummy
+		// set default values for common properties in creation query
+		GraphObject.id.setProperty(securityContext, tmp, uuid);
+		GraphObject.type.setProperty(securityContext, tmp, typeName);
+		AbstractNode.createdDate.setProperty(securityContext, tmp, now);
+		AbstractNode.lastModifiedDate.setProperty(securityContext, tmp, now);
 
-			// notify node of its creation
-			node.onNodeCreation();
+		// default property values
+		AbstractNode.visibleToPublicUsers.setProperty(securityContext, tmp,        getOrDefault(properties, AbstractNode.visibleToPublicUsers, false));
+		AbstractNode.visibleToAuthenticatedUsers.setProperty(securityContext, tmp, getOrDefault(properties, AbstractNode.visibleToAuthenticatedUsers, false));
+		AbstractNode.hidden.setProperty(securityContext, tmp,                      getOrDefault(properties, AbstractNode.hidden, false));
 
-			// iterate post creation transformations
-			final Set<Transformation<GraphObject>> transformations = StructrApp.getConfiguration().getEntityCreationTransformations(node.getClass());
-			for (Transformation<GraphObject> transformation : transformations) {
+		if (user != null) {
+
+			final String userId = user.getProperty(GraphObject.id);
+
+			AbstractNode.createdBy.setProperty(securityContext, tmp, userId);
+			AbstractNode.lastModifiedBy.setProperty(securityContext, tmp, userId);
+		}
 
-				transformation.apply(securityContext, node);
+		// prevent double setting of properties
+		properties.remove(AbstractNode.id);
+		properties.remove(AbstractNode.type);
+		properties.remove(AbstractNode.visibleToPublicUsers);
+		properties.remove(AbstractNode.visibleToAuthenticatedUsers);
+		properties.remove(AbstractNode.hidden);
+		properties.remove(AbstractNode.lastModifiedDate);
+		properties.remove(AbstractNode.lastModifiedBy);
+		properties.remove(AbstractNode.createdDate);
+		properties.remove(AbstractNode.createdBy);
+
+		// move properties to creation container that can be set directly on creation
+		tmp.filterIndexableForCreation(securityContext, properties, tmp, toNotify);
+
+		// collect default values and try to set them on creation
+		for (final PropertyKey key : StructrApp.getConfiguration().getPropertySet(nodeType, PropertyView.All)) {
+
+			if (key instanceof AbstractPrimitiveProperty && !tmp.hasProperty(key.jsonName())) {
+
+				final Object defaultValue = key.defaultValue();
+				if (defaultValue != null) {
+
+					key.setProperty(securityContext, tmp, defaultValue);
+				}
 			}
+		}
+
+		return new PreparedNode(nodeType, typeName, labels, uuid, tmp.getData(), properties, toNotify);
+	}
+
+	private T finish(final Principal user, final NodeFactory<T> nodeFactory, final PreparedNode prepared, final Node dbNode) throws FrameworkException {
+
+		final T node = (T) nodeFactory.instantiateWithType(dbNode, prepared.nodeType, null, true);
+		if (node != null) {
+
+			TransactionCommand.nodeCreated(user, node);
 
-			// return creation details?
-			if (securityContext.returnDetailedCreationResults()) {
+			securityContext.disableModificationOfAccessTime();
+			node.setProperties(securityContext, prepared.properties, true);
+			securityContext.enableModificationOfAccessTime();
 
-				final Map obj = new LinkedHashMap();
+			// ensure modification callbacks are called (necessary for validation)
+			for (final Entry<PropertyKey, Object> entry : prepared.toNotify.entrySet()) {
 
-				obj.put("type", node.getType());
-				obj.put("id", node.getUuid());
+				final PropertyKey key = entry.getKey();
+				final Object value    = entry.getValue();
 
-				securityContext.getCreationDetails().add(obj);
+				if (!key.isUnvalidated()) {
+					TransactionCommand.nodeModified(securityContext.getCachedUser(), (AbstractNode)node, key, null, value);
+				}
 			}
+
+			prepared.properties.clear();
+
+			// ensure indexing of newly created node
+			node.addToIndex();
+
+			// invalidate UUID cache
+			StructrApp.invalidate(prepared.uuid);
 		}
 
 		return node;
 	}
 
-	// ----- private methods -----
-	private Node createNode(final DatabaseService graphDb, final Principal user, final String type, final Set<String> labels, final Map<String, Object> properties) throws FrameworkException {
+	private void notifyCreation(final T node) throws FrameworkException {
+
+		// notify node of its creation
+		node.onNodeCreation();
 
-		final Map<String, Object> ownsProperties     = new HashMap<>();
-		final Map<String, Object> securityProperties = new HashMap<>();
-		final String newUuid                         = (String)properties.get("id");
+		// iterate post creation transformations
+		final Set<Transformation<GraphObject>> transformations = StructrApp.getConfiguration().getEntityCreationTransformations(node.getClass());
+		for (Transformation<GraphObject> transformation : transformations) {
+
+			transformation.apply(securityContext, node);
+		}
+
+		// return creation details?
+		if (securityContext.returnDetailedCreationResults()) {
+
+			final Map obj = new LinkedHashMap();
+
+			obj.put("type", node.getType());
+			obj.put("id", node.getUuid());
+
+			securityContext.getCreationDetails().add(obj);
+		}
+	}
+
+	private NodeSpec createSpec(final DatabaseService graphDb, final Principal user, final PreparedNode prepared) {
+
+		final Map<String, Object> properties = prepared.creationData;
 
 		if (user != null && user.shouldSkipSecurityRelationships() == false) {
 
-			final String userId = user.getUuid();
+			final Map<String, Object> ownsProperties     = new HashMap<>();
+			final Map<String, Object> securityProperties = new HashMap<>();
+			final String newUuid                         = (String)properties.get("id");
+			final String userId                          = user.getUuid();
 
 			// configure OWNS relationship creation statement for maximum performance
 			ownsProperties.put(GraphObject.id.dbName(),                          getNextUuid());
@@ -253,9 +372,21 @@ public class CreateNodeCommand<T extends NodeInterface> extends NodeServiceComma
 			securityProperties.put(Security.principalId.dbName(),                    userId);
 			securityProperties.put(Security.accessControllableId.dbName(),           newUuid);
 
-			try {
+			return new NodeSpec(prepared.typeName, prepared.labels, properties, user.getNode().getId(), ownsProperties, securityProperties);
+		}
+
+		return new NodeSpec(prepared.typeName, prepared.labels, properties);
+	}
+
+	private Node createNode(final DatabaseService graphDb, final Principal user, final PreparedNode prepared) throws FrameworkException {
 
-				final NodeWithOwnerResult result = graphDb.createNodeWithOwner(user.getNode().getId(), type, labels, properties, ownsProperties, securityProperties);
+		final NodeSpec spec = createSpec(graphDb, user, prepared);
+
+		try {
+
+			if (spec.hasOwner()) {
+
+				final NodeWithOwnerResult result = graphDb.createNodeWithOwner(spec.getOwnerId(), spec.getType(), spec.getLabels(), spec.getProperties(), spec.getOwnsProperties(), spec.getSecurityProperties());
 				final Relationship securityRel   = result.getSecurityRelationship();
 				final Relationship ownsRel       = result.getOwnsRelationship();
 				final Node newNode               = result.getNewNode();
@@ -265,24 +396,15 @@ public class CreateNodeCommand<T extends NodeInterface> extends NodeServiceComma
 
 				return newNode;
 
-			} catch (DataFormatException dex) {
-				throw new FrameworkException(422, dex.getMessage());
-			} catch (ConstraintViolationException qex) {
-				throw new FrameworkException(422, qex.getMessage());
-			}
-
-
-		} else {
-
-			try {
-
-				return graphDb.createNode(type, labels, properties);
+			} else {
 
-			} catch (DataFormatException dex) {
-				throw new FrameworkException(422, dex.getMessage());
-			} catch (ConstraintViolationException qex) {
-				throw new FrameworkException(422, qex.getMessage());
+				return graphDb.createNode(spec.getType(), spec.getLabels(), spec.getProperties());
 			}
+
+		} catch (DataFormatException dex) {
+			throw new FrameworkException(422, dex.getMessage());
+		} catch (ConstraintViolationException qex) {
+			throw new FrameworkException(422, qex.getMessage());
 		}
 	}
 
@@ -380,4 +502,27 @@ public class CreateNodeCommand<T extends NodeInterface> extends NodeServiceComma
 
 		}
 	}
+
+	// ----- nested classes -----
+	private static class PreparedNode {
+
+		private Map<String, Object> creationData = null;
+		private PropertyMap properties           = null;
+		private PropertyMap toNotify             = null;
+		private Set<String> labels               = null;
+		private String typeName                  = null;
+		private Class nodeType                   = null;
+		private String uuid                      = null;
+
+		public PreparedNode(final Class nodeType, final String typeName, final Set<String> labels, final String uuid, final Map<String, Object> creationData, final PropertyMap properties, final PropertyMap toNotify) {
+
+			this.creationData = creationData;
+			this.properties   = properties;
+			this.toNotify     = toNotify;
+			this.nodeType     = nodeType;
+			this.typeName     = typeName;
+			this.labels       = labels;
+			this.uuid         = uuid;
+		}
+	}
 }
@@ -20,14 +20,17 @@ package org.structr.core.graph;
 
 import java.io.IOException;
 import java.util.ArrayDeque;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.Queue;
 import java.util.Set;
 import java.util.TreeSet;
 import java.util.concurrent.ConcurrentSkipListMap;
@@ -39,14 +42,20 @@ import org.structr.api.graph.Node;
 import org.structr.api.graph.PropertyContainer;
 import org.structr.api.graph.Relationship;
 import org.structr.api.graph.RelationshipType;
+import org.structr.common.GroupClosureCache;
+import org.structr.common.PermissionPropagation;
+import org.structr.common.PermissionResolutionCache;
 import org.structr.common.RelType;
 import org.structr.common.SecurityContext;
 import org.structr.common.error.ErrorBuffer;
 import org.structr.common.error.FrameworkException;
 import org.structr.core.GraphObject;
 import org.structr.core.GraphObjectMap;
+import org.structr.core.app.StructrApp;
+import org.structr.core.entity.Group;
 import org.structr.core.entity.Principal;
 import org.structr.core.entity.Relation;
+import org.structr.core.entity.Security;
 import org.structr.core.function.ChangelogFunction;
 import org.structr.core.property.GenericProperty;
 import org.structr.core.property.PropertyKey;
@@ -67,6 +76,11 @@ public class ModificationQueue {
 	private final Map<String, TransactionPostProcess> postProcesses                         = new LinkedHashMap<>();
 	private final Set<String> alreadyPropagated                                             = new LinkedHashSet<>();
 	private final Set<String> synchronizationKeys                                           = new TreeSet<>();
+	private final List<MembershipChange> membershipChanges                                  = new LinkedList<>();
+	private final List<String> deletedPrincipals                                            = new LinkedList<>();
+	private final Map<String, Principal> resolvedGroups                                     = new HashMap<>();
+	private Set<Object> permissionChanges                                                   = null;
+	private boolean permissionPropagationChanged                                            = false;
 	private boolean doUpateChangelogIfEnabled                                               = true;
 	private long changelogUpdateTime                                                        = 0L;
 	private long outerCallbacksTime                                                         = 0L;
@@ -84,10 +98,10 @@ public class ModificationQueue {
 	}
 
 	/**
-	 * Returns a set containing the different entity types of
-	 * nodes modified in this queue.
+	 * Returns a set containing the synchronization keys of the unique
+	 * values and compound properties modified in this queue.
 	 *
-	 * @return the types
+	 * @return the synchronization keys
 	 */
 	public Set<String> getSynchronizationKeys() {
 		return synchronizationKeys;
@@ -245,6 +259,151 @@ public class ModificationQueue {
 		}
 	}
 
+	/**
+	 * Collects the ids of all nodes and principals in this queue whose
+	 * modification affects cached permission resolution results. This
+	 * method must be called inside the transaction.
+	 */
+	public void collectPermissionChanges() {
+
+		final Set<Object> ids = new LinkedHashSet<>();
+
+		for (final GraphObjectModificationState state : modifications.values()) {
+
+			final GraphObject object = state.getGraphObject();
+			final int status         = state.getStatus();
+
+			try {
+
+				if (state.isNode()) {
+
+					// changes that were only propagated from other nodes don't affect this node
+					if ((status & ~(GraphObjectModificationState.STATE_PROPAGATING_MODIFICATION | GraphObjectModificationState.STATE_PROPAGATED_MODIFICATION)) != 0) {
+
+						ids.add(PermissionResolutionCache.getId(object));
+					}
+
+					// only nodes with propagating relationships can affect the permissions of other nodes
+					if (affectsOtherNodes(state) && !state.isDeleted() && PermissionResolutionCache.hasPropagatingRelationships((NodeInterface)object)) {
+						permissionPropagationChanged = true;
+					}
+
+					// custom permission queries of a group are evaluated for all its members
+					if (object instanceof Group && modifiesCustomPermissionQuery(state)) {
+						addMembers(ids, (Principal)object);
+					}
+
+				} else if (object instanceof Relation) {
+
+					if (object instanceof Security && !state.isDeleted()) {
+
+						final NodeInterface targetNode = ((RelationshipInterface)object).getTargetNode();
+
+						// creation and deletion mark the end nodes, modified permissions don't
+						ids.add(PermissionResolutionCache.getId(targetNode));
+
+						if (targetNode != null && PermissionResolutionCache.hasPropagatingRelationships(targetNode)) {
+							permissionPropagationChanged = true;
+						}
+					}
+
+					if (object instanceof PermissionPropagation) {
+						permissionPropagationChanged = true;
+					}
+				}
+
+			} catch (Throwable t) {
+
+				logger.warn("Unable to determine permission changes for {}, clearing permission cache: {}", state, t.getMessage());
+
+				PermissionResolutionCache.clear();
+			}
+		}
+
+		// a membership change affects the member and all principals that are members of it
+		for (final MembershipChange change : membershipChanges) {
+
+			try {
+
+				addMembers(ids, StructrApp.getInstance().get(Principal.class, change.memberId));
+
+			} catch (Throwable t) {
+
+				logger.warn("Unable to determine members of {}, clearing permission cache: {}", change.memberId, t.getMessage());
+
+				PermissionResolutionCache.clear();
+			}
+		}
+
+		ids.remove(null);
+
+		permissionChanges = ids;
+	}
+
+	/**
+	 * Invalidates the cached permission resolution results affected by the
+	 * changes collected in {@link #collectPermissionChanges()}. This method
+	 * is called after the transaction is finished, so that no other thread
+	 * can cache a result computed from the state before the commit.
+	 */
+	public void invalidatePermissionResolutionCache() {
+
+		if (permissionChanges != null && (!permissionChanges.isEmpty() || permissionPropagationChanged)) {
+
+			PermissionResolutionCache.invalidateIds(permissionChanges, permissionPropagationChanged);
+		}
+	}
+
+	/**
+	 * Indicates whether group memberships were created or removed in
+	 * this queue.
+	 *
+	 * @return whether memberships were changed
+	 */
+	public boolean hasMembershipChanges() {
+		return !membershipChanges.isEmpty();
+	}
+
+	/**
+	 * Returns the groups that were already loaded for the group closure
+	 * cache in this transaction, indexed by UUID.
+	 *
+	 * @return the resolved groups
+	 */
+	public Map<String, Principal> getResolvedGroups() {
+		return resolvedGroups;
+	}
+
+	/**
+	 * Applies the membership changes in this queue to the group closure
+	 * cache. This method is called after the transaction is finished.
+	 *
+	 * @param committed whether the transaction was committed
+	 */
+	public void updateGroupClosures(final boolean committed) {
+
+		for (final MembershipChange change : membershipChanges) {
+
+			if (committed && change.created) {
+
+				GroupClosureCache.membershipCreated(change.groupId, change.memberId);
+
+			} else {
+
+				// removed memberships and rolled back transactions
+				GroupClosureCache.invalidate(change.memberId);
+			}
+		}
+
+		if (committed) {
+
+			for (final String principalId : deletedPrincipals) {
+
+				GroupClosureCache.remove(principalId);
+			}
+		}
+	}
+
 	public void clear() {
 
 		// clear collections afterwards
@@ -274,6 +433,11 @@ public class ModificationQueue {
 
 			modifyEndNodes(user, sourceNode, targetNode, relationship, false);
 
+			if (isMembership(relationship)) {
+				membershipChanges.add(new MembershipChange(sourceNode.getUuid(), targetNode.getUuid(), true));
+				resolvedGroups.clear();
+			}
+
 			if (Settings.ChangelogEnabled.getValue() || Settings.UserChangelogEnabled.getValue()) {
 
 				getState(relationship).updateChangeLog(user, GraphObjectModificationState.Verb.create, relationship.getType(), relationship.getUuid(), sourceNode.getUuid(), targetNode.getUuid());
@@ -301,18 +465,14 @@ public class ModificationQueue {
 
 		getState(node).modify(user, key, previousValue, newValue);
 
-		if (key != null&& key.requiresSynchronization()) {
-			synchronizationKeys.add(key.getSynchronizationKey());
-		}
+		addSynchronizationKeys(key, previousValue, newValue);
 	}
 
 	public void modify(final Principal user, RelationshipInterface relationship, PropertyKey key, Object previousValue, Object newValue) {
 
 		getState(relationship).modify(user, key, previousValue, newValue);
 
-		if (key != null && key.requiresSynchronization()) {
-			synchronizationKeys.add(key.getSynchronizationKey());
-		}
+		addSynchronizationKeys(key, previousValue, newValue);
 	}
 
 	public void propagatedModification(NodeInterface node) {
@@ -334,6 +494,12 @@ public class ModificationQueue {
 
 		getState(node).delete(false);
 
+		if (node instanceof Principal) {
+
+			deletedPrincipals.add(node.getUuid());
+			resolvedGroups.clear();
+		}
+
 		if (Settings.ChangelogEnabled.getValue() || Settings.UserChangelogEnabled.getValue()) {
 
 			getState(node).updateChangeLog(user, GraphObjectModificationState.Verb.delete, node.getUuid());
@@ -349,6 +515,11 @@ public class ModificationQueue {
 
 		modifyEndNodes(user, sourceNode, targetNode, relationship, true);
 
+		if (sourceNode != null && targetNode != null && isMembership(relationship)) {
+			membershipChanges.add(new MembershipChange(sourceNode.getUuid(), targetNode.getUuid(), false));
+			resolvedGroups.clear();
+		}
+
 		if (Settings.ChangelogEnabled.getValue() || Settings.UserChangelogEnabled.getValue()) {
 
 			getState(relationship).updateChangeLog(user, GraphObjectModificationState.Verb.delete, relationship.getType(), relationship.getUuid(), sourceNode.getUuid(), targetNode.getUuid());
@@ -521,6 +692,113 @@ public class ModificationQueue {
 	}
 
 	// ----- private methods -----
+	private boolean isMembership(final Object rel) {
+
+		if (rel instanceof Relation) {
+
+			final Relation relation = (Relation)rel;
+
+			return Group.class.isAssignableFrom(relation.getSourceType()) && Principal.class.isAssignableFrom(relation.getTargetType());
+		}
+
+		return false;
+	}
+
+	private boolean modifiesCustomPermissionQuery(final GraphObjectModificationState state) {
+
+		for (final PropertyKey key : state.getRemovedProperties().keySet()) {
+
+			if (key.jsonName().startsWith("customPermissionQuery")) {
+				return true;
+			}
+		}
+
+		return false;
+	}
+
+	/**
+	 * Adds the ids of the given principal and of all its direct and
+	 * indirect members to the given set.
+	 */
+	private void addMembers(final Set<Object> ids, final Principal principal) {
+
+		final Set<String> visited    = new HashSet<>();
+		final Queue<Principal> queue = new ArrayDeque<>();
+
+		if (principal != null) {
+
+			visited.add(principal.getUuid());
+			queue.add(principal);
+		}
+
+		while (!queue.isEmpty()) {
+
+			final Principal current = queue.poll();
+
+			ids.add(PermissionResolutionCache.getId(current));
+
+			if (current instanceof Group) {
+
+				for (final Principal member : ((Group)current).getMembers()) {
+
+					if (visited.add(member.getUuid())) {
+						queue.add(member);
+					}
+				}
+			}
+		}
+	}
+
+	private boolean affectsOtherNodes(final GraphObjectModificationState state) {
+
+		final int securityStates = GraphObjectModificationState.STATE_DELETED | GraphObjectModificationState.STATE_DELETED_PASSIVELY | GraphObjectModificationState.STATE_OWNER_MODIFIED | GraphObjectModificationState.STATE_SECURITY_MODIFIED;
+
+		if ((state.getStatus() & securityStates) != 0) {
+			return true;
+		}
+
+		// visibility is evaluated for nodes reached via permission propagation
+		final PropertyMap changed = state.getRemovedProperties();
+
+		return changed.containsKey(GraphObject.visibleToPublicUsers) || changed.containsKey(GraphObject.visibleToAuthenticatedUsers);
+	}
+
+	private void addSynchronizationKeys(final PropertyKey key, final Object previousValue, final Object newValue) {
+
+		if (key != null && key.requiresSynchronization()) {
+
+			final String synchronizationKey = key.getSynchronizationKey();
+
+			if (key.isCompound()) {
+
+				// compound uniqueness depends on other properties, lock the whole key
+				synchronizationKeys.add(synchronizationKey);
+
+			} else {
+
+				// lock the old and the new value only, so that transactions writing
+				// different values of the same unique property do not block each other
+				addSynchronizationKey(synchronizationKey, previousValue);
+				addSynchronizationKey(synchronizationKey, newValue);
+			}
+		}
+	}
+
+	private void addSynchronizationKey(final String synchronizationKey, final Object value) {
+
+		if (value != null) {
+
+			if (value.getClass().isArray()) {
+
+				synchronizationKeys.add(synchronizationKey + "=" + Arrays.deepToString(new Object[] { value }));
+
+			} else {
+
+				synchronizationKeys.add(synchronizationKey + "=" + value.toString());
+			}
+		}
+	}
+
 	private void modifyEndNodes(final Principal user, final NodeInterface startNode, final NodeInterface endNode, final RelationshipInterface rel, final boolean isDeletion) {
 
 		// only modify if nodes are accessible
@@ -643,4 +921,19 @@ public class ModificationQueue {
 
 		return state;
 	}
+
+	// ----- nested classes -----
+	private static class MembershipChange {
+
+		private String groupId  = null;
+		private String memberId = null;
+		private boolean created = false;
+
+		public MembershipChange(final String groupId, final String memberId, final boolean created) {
+
+			this.groupId  = groupId;
+			this.memberId = memberId;
+			this.created  = created;
+		}
+	}
 }
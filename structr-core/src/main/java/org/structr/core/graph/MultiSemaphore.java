@@ -18,65 +18,121 @@
  */
 package org.structr.core.graph;
 
-import java.util.LinkedHashSet;
-import java.util.Map;
+import java.util.Arrays;
 import java.util.Set;
-import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.Semaphore;
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
+import java.util.concurrent.TimeUnit;
+import org.structr.api.RetryException;
 
 /**
+ * Striped commit lock. Each synchronization key is mapped to one of a fixed
+ * number of fair semaphores, so transactions that touch unrelated keys can
+ * validate concurrently while transactions on the same key are serialized.
  *
+ * Stripes are always acquired in ascending order, which rules out deadlocks
+ * between transactions that share more than one stripe. A transaction that
+ * cannot acquire its stripes in time fails with a {@link RetryException}.
  */
 public class MultiSemaphore {
 
-	private static final Logger logger = LoggerFactory.getLogger(MultiSemaphore.class.getName());
+	private static final int DEFAULT_STRIPES          = 4096;
+	private static final long DEFAULT_TIMEOUT_MILLIS = 30000L;
 
-	private final Map<String, Semaphore> semaphoreMap = new ConcurrentHashMap<>();
+	private final Semaphore[] stripes;
+	private final long timeoutMillis;
 
-	public synchronized void acquire(final Set<String> types) throws InterruptedException {
+	public MultiSemaphore() {
+		this(DEFAULT_STRIPES);
+	}
 
-		if (types != null && !types.isEmpty()) {
+	public MultiSemaphore(final int count) {
+		this(count, DEFAULT_TIMEOUT_MILLIS);
+	}
 
-			for (Semaphore semaphore : getSemaphores(types)) {
-				semaphore.acquire();
-			}
+	public MultiSemaphore(final int count, final long timeoutMillis) {
+
+		this.stripes       = new Semaphore[Math.max(1, count)];
+		this.timeoutMillis = timeoutMillis;
+
+		for (int i=0; i<stripes.length; i++) {
+			stripes[i] = new Semaphore(1, true);
 		}
 	}
 
-	public void release(final Set<String> types) {
+	/**
+	 * Acquires the stripes for the given keys and returns their indexes,
+	 * which must be passed to {@link #release(int[])} afterwards. Returns
+	 * null if there is nothing to lock.
+	 *
+	 * @param keys the synchronization keys
+	 * @return the acquired stripes or null
+	 *
+	 * @throws InterruptedException
+	 * @throws RetryException if the stripes could not be acquired in time
+	 */
+	public int[] acquire(final Set<String> keys) throws InterruptedException {
+
+		if (keys == null || keys.isEmpty()) {
+			return null;
+		}
+
+		final int[] indexes = getStripes(keys);
+		final long deadline = System.currentTimeMillis() + timeoutMillis;
+		int acquired        = 0;
+
+		try {
+
+			for (final int index : indexes) {
+
+				final long remaining = Math.max(0L, deadline - System.currentTimeMillis());
+
+				if (!stripes[index].tryAcquire(remaining, TimeUnit.MILLISECONDS)) {
 
-		if (types != null && !types.isEmpty()) {
+					// release what we already hold, the transaction can be retried
+					release(Arrays.copyOf(indexes, acquired));
 
-			for (Semaphore semaphore : getSemaphores(types)) {
-				semaphore.release();
+					throw new RetryException("Timeout waiting for concurrent transactions that modify the same unique values");
+				}
+
+				acquired++;
 			}
+
+		} catch (InterruptedException iex) {
+
+			// release what we already hold before giving up
+			release(Arrays.copyOf(indexes, acquired));
+
+			throw iex;
 		}
+
+		return indexes;
 	}
 
-	private Set<Semaphore> getSemaphores(final Set<String> types) {
+	public void release(final int[] indexes) {
 
-		Set<Semaphore> semaphores = new LinkedHashSet<>();
+		if (indexes != null) {
 
-		if (types != null) {
+			for (final int index : indexes) {
+				stripes[index].release();
+			}
+		}
+	}
 
-			for (String type : types) {
+	// ----- private methods -----
+	private int[] getStripes(final Set<String> keys) {
 
-				if (type != null) {
+		final int[] indexes = new int[keys.size()];
+		int count           = 0;
 
-					Semaphore semaphore = semaphoreMap.get(type);
-					if (semaphore == null) {
+		for (final String key : keys) {
 
-						semaphore = new Semaphore(1, true);
-						semaphoreMap.put(type, semaphore);
-					}
+			if (key != null) {
 
-					semaphores.add(semaphore);
-				}
+				indexes[count++] = Math.floorMod(key.hashCode() * 0x9E3779B9, stripes.length);
 			}
 		}
 
-		return semaphores;
+		// sort and remove duplicates to get a deterministic locking order
+		return Arrays.stream(indexes, 0, count).sorted().distinct().toArray();
 	}
 }
@@ -0,0 +1,92 @@
+/*
+ * Copyright (C) 2010-2020 Structr GmbH
+ *
+ * This file is part of Structr <http://structr.org>.
+ *
+ * Structr is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * Structr is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Structr.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.structr.core.graph;
+
+import java.util.Map;
+import org.structr.api.DatabaseService;
+import org.structr.api.util.QueryStatistics;
+import org.structr.common.error.FrameworkException;
+
+/**
+ * Returns the execution statistics of the database statements, grouped
+ * by statement shape, or resets them.
+ */
+public class QueryStatisticsCommand extends NodeServiceCommand implements MaintenanceCommand {
+
+	private static final int DEFAULT_MAX_RESULTS = 50;
+
+	@Override
+	public void execute(final Map<String, Object> attributes) throws FrameworkException {
+
+		final DatabaseService graphDb = (DatabaseService)arguments.get("graphDb");
+		final Object commandSource    = attributes.get("command");
+		final String command          = commandSource != null ? commandSource.toString() : "list";
+
+		if (graphDb != null) {
+
+			final QueryStatistics statistics = graphDb.getQueryStatistics();
+
+			switch (command) {
+
+				case "list":
+					getPayload().addAll(statistics.getStatistics((String)attributes.get("sort"), getMaxResults(attributes)));
+					break;
+
+				case "reset":
+					statistics.clear();
+					break;
+
+				default:
+					throw new FrameworkException(422, "QueryStatisticsCommand: unknown command " + command + ", valid options are [list, reset].");
+			}
+		}
+	}
+
+	@Override
+	public boolean requiresEnclosingTransaction() {
+		return false;
+	}
+
+	@Override
+	public boolean requiresFlushingOfCaches() {
+		return false;
+	}
+
+	// ----- private methods -----
+	private int getMaxResults(final Map<String, Object> attributes) throws FrameworkException {
+
+		final Object value = attributes.get("max");
+		if (value instanceof Number) {
+
+			return ((Number)value).intValue();
+		}
+
+		if (value != null) {
+
+			try {
+				return Integer.parseInt(value.toString());
+
+			} catch (NumberFormatException nfex) {
+				throw new FrameworkException(422, "QueryStatisticsCommand: invalid value for max: " + value);
+			}
+		}
+
+		return DEFAULT_MAX_RESULTS;
+	}
+}
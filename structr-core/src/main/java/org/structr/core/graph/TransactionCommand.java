@@ -59,6 +59,7 @@ public class TransactionCommand {
 	private ModificationQueue queue                      = null;
 	private ErrorBuffer errorBuffer                      = null;
 	private TransactionPostProcessQueue postProcessQueue = null;
+	private int[] acquiredLocks                          = null;
 
 
 	private static TransactionCommand getInstance() {
@@ -135,15 +136,31 @@ public class TransactionCommand {
 				}
 			}
 
-			// 2. fetch all types of entities modified in this tx
+			// 2. fetch all unique values (or compound keys) modified in this tx
 			Set<String> synchronizationKeys = modificationQueue.getSynchronizationKeys();
 
 			// we need to protect the validation and indexing part of every transaction
 			// from being entered multiple times in the presence of validators
-			// 3. acquire semaphores for each modified type
-			try { semaphore.acquire(synchronizationKeys); } catch (InterruptedException iex) { return; }
+			// 3. acquire the lock stripes for each modified key
+			if (cmd.acquiredLocks == null) {
 
-			// do validation under the protection of the semaphores for each type
+				try {
+
+					cmd.acquiredLocks = semaphore.acquire(synchronizationKeys);
+
+				} catch (InterruptedException iex) {
+
+					return;
+
+				} catch (RetryException rex) {
+
+					// concurrent transactions hold the same unique values for too long, the caller can retry
+					cmd.transaction.failure();
+					throw rex;
+				}
+			}
+
+			// do validation under the protection of the lock stripes
 			if (!modificationQueue.doValidation(securityContext, errorBuffer, doValidation)) {
 
 				cmd.transaction.failure();
@@ -192,18 +209,32 @@ public class TransactionCommand {
 
 				modificationQueue = cmd.queue;
 
-				final Set<String> synchronizationKeys = modificationQueue.getSynchronizationKeys();
+				final int[] acquiredLocks = cmd.acquiredLocks;
+				boolean committed         = false;
 
-				// cleanup
-				commands.remove();
+				cmd.acquiredLocks = null;
 
 				try {
+
+					// determine which cached permissions are affected while the transaction is still open
+					modificationQueue.collectPermissionChanges();
+
+					// cleanup
+					commands.remove();
+
 					cmd.transaction.close();
+					committed = cmd.transaction.isSuccessful();
 
 				} finally {
 
-					// release semaphores as the transaction is now finished
-					semaphore.release(synchronizationKeys);	// careful: this can be null
+					// update group closures before permissions are resolved again
+					modificationQueue.updateGroupClosures(committed);
+
+					// results cached by other threads during the transaction are stale now
+					modificationQueue.invalidatePermissionResolutionCache();
+
+					// release lock stripes as the transaction is now finished (only those acquired in commitTx)
+					semaphore.release(acquiredLocks);
 					cmd.postProcessQueue.applyProcessQueue();
 				}
 
@@ -471,6 +502,28 @@ public class TransactionCommand {
 		return commands.get() != null;
 	}
 
+	public static boolean hasMembershipChanges() {
+
+		final TransactionCommand cmd = commands.get();
+		if (cmd != null && cmd.queue != null) {
+
+			return cmd.queue.hasMembershipChanges();
+		}
+
+		return false;
+	}
+
+	public static Map<String, Principal> getResolvedGroups() {
+
+		final TransactionCommand cmd = commands.get();
+		if (cmd != null && cmd.queue != null) {
+
+			return cmd.queue.getResolvedGroups();
+		}
+
+		return null;
+	}
+
 	public static long getCurrentTransactionId() {
 
 		final TransactionCommand cmd = commands.get();
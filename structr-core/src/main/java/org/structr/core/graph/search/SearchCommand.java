@@ -29,8 +29,10 @@ import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import org.apache.commons.lang3.StringUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.structr.api.DatabaseFeature;
 import org.structr.api.Predicate;
 import org.structr.api.graph.PropertyContainer;
 import org.structr.api.index.Index;
@@ -40,17 +42,22 @@ import org.structr.api.search.SortOrder;
 import org.structr.api.util.Iterables;
 import org.structr.api.util.PagingIterable;
 import org.structr.api.util.ResultStream;
+import org.structr.common.GroupClosureCache;
 import org.structr.common.SecurityContext;
 import org.structr.common.error.FrameworkException;
 import org.structr.common.geo.GeoCodingResult;
 import org.structr.common.geo.GeoHelper;
 import org.structr.core.GraphObject;
+import org.structr.core.Services;
 import org.structr.core.app.StructrApp;
 import org.structr.core.entity.AbstractNode;
 import org.structr.core.entity.AbstractRelationship;
 import org.structr.core.entity.Principal;
+import org.structr.core.entity.Relation;
 import org.structr.core.entity.SchemaMethod;
+import org.structr.core.entity.SchemaNode;
 import org.structr.core.entity.SchemaProperty;
+import org.structr.core.entity.SchemaRelationshipNode;
 import org.structr.core.graph.Factory;
 import org.structr.core.graph.NodeInterface;
 import org.structr.core.graph.NodeServiceCommand;
@@ -147,6 +154,29 @@ public abstract class SearchCommand<S extends PropertyContainer, T extends Graph
 			rootGroup.add(new PropertySearchAttribute(NodeInterface.hidden,  true, Occurrence.FORBIDDEN, true));
 		}
 
+		// let the database skip nodes that are not visible for non-admin users
+		if (!queryContext.isSuperuser() && !isRelationshipSearch()) {
+
+			final VisibilitySearchAttribute visibility = getVisibilitySearchAttribute(user);
+			if (visibility != null) {
+
+				rootGroup.add(visibility);
+
+				// nodes connected via permission-propagating relationships need
+				// to be checked in memory, otherwise the filter is exact
+				if (visibility.getPropagatingRelationshipTypes().isEmpty()) {
+
+					queryContext.setIsVisibilityFiltered(true);
+
+					if (queryContext.isSliced()) {
+
+						page     = queryContext.getPage();
+						pageSize = queryContext.getPageSize();
+					}
+				}
+			}
+		}
+
 		// At this point, all search attributes are ready
 		final List<SourceSearchAttribute> sources    = new ArrayList<>();
 		Iterable indexHits                           = null;
@@ -343,6 +373,63 @@ public abstract class SearchCommand<S extends PropertyContainer, T extends Graph
 		return mergedResult;
 	}
 
+	/**
+	 * Creates a search attribute that restricts the query to the nodes that
+	 * are potentially visible for the given user, or returns null if the
+	 * visibility of the nodes cannot be determined by the database.
+	 */
+	private VisibilitySearchAttribute getVisibilitySearchAttribute(final Principal user) {
+
+		if (!Services.getInstance().getDatabaseService().supportsFeature(DatabaseFeature.VisibilityQueries)) {
+			return null;
+		}
+
+		// default visibility flags and schema grants are not stored in the database
+		if (SchemaNode.hasCustomVisibility(type)) {
+			return null;
+		}
+
+		// the filter is appended to the root group, which must not contain optional attributes
+		for (final SearchAttribute attr : rootGroup.getSearchAttributes()) {
+
+			if (Occurrence.OPTIONAL.equals(attr.getOccurrence())) {
+				return null;
+			}
+		}
+
+		if (user == null || publicOnly) {
+
+			return new VisibilitySearchAttribute(false, Collections.emptySet(), Collections.emptySet());
+		}
+
+		final PropertyKey<String> customPermissionQueryKey = StructrApp.key(Principal.class, "customPermissionQueryRead");
+		final Set<String> principalIds                     = new LinkedHashSet<>();
+		final Set<String> propagatingTypes                 = new LinkedHashSet<>();
+
+		// custom permission queries can grant access to any node
+		if (StringUtils.isNotEmpty(user.getProperty(customPermissionQueryKey))) {
+			return null;
+		}
+
+		principalIds.add(user.getUuid());
+
+		for (final Principal group : GroupClosureCache.getGroups(user)) {
+
+			if (StringUtils.isNotEmpty(group.getProperty(customPermissionQueryKey))) {
+				return null;
+			}
+
+			principalIds.add(group.getUuid());
+		}
+
+		for (final Class<Relation> propagatingType : SchemaRelationshipNode.getPropagatingRelationshipTypes()) {
+
+			propagatingTypes.add(Relation.getInstance(propagatingType).name());
+		}
+
+		return new VisibilitySearchAttribute(true, principalIds, propagatingTypes);
+	}
+
 	@Override
 	public ResultStream<T> getResultStream() throws FrameworkException {
 		return doSearch();
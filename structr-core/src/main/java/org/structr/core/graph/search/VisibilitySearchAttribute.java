@@ -0,0 +1,88 @@
+/*
+ * Copyright (C) 2010-2020 Structr GmbH
+ *
+ * This file is part of Structr <http://structr.org>.
+ *
+ * Structr is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * Structr is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Structr.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.structr.core.graph.search;
+
+import java.util.Set;
+import org.structr.api.search.Occurrence;
+import org.structr.api.search.VisibilityQuery;
+import org.structr.core.GraphObject;
+
+/**
+ * Restricts a node search to the nodes that are potentially visible for a
+ * given principal, so that the database does not return nodes that would
+ * be discarded by the security check of the node factory anyway.
+ */
+public class VisibilitySearchAttribute<T> extends SearchAttribute<T> implements VisibilityQuery {
+
+	private Set<String> propagatingRelationshipTypes = null;
+	private Set<String> principalIds                 = null;
+	private boolean includeVisibleToAuthenticated    = false;
+
+	public VisibilitySearchAttribute(final boolean includeVisibleToAuthenticated, final Set<String> principalIds, final Set<String> propagatingRelationshipTypes) {
+
+		super(Occurrence.REQUIRED);
+
+		this.propagatingRelationshipTypes  = propagatingRelationshipTypes;
+		this.includeVisibleToAuthenticated = includeVisibleToAuthenticated;
+		this.principalIds                  = principalIds;
+	}
+
+	@Override
+	public String toString() {
+		return "VisibilitySearchAttribute(" + principalIds + ")";
+	}
+
+	@Override
+	public Class getQueryType() {
+		return VisibilityQuery.class;
+	}
+
+	@Override
+	public boolean isExactMatch() {
+		return true;
+	}
+
+	@Override
+	public String getName() {
+		return null;
+	}
+
+	@Override
+	public boolean includeInResult(final GraphObject entity) {
+
+		// the actual security check is done when the node is instantiated
+		return true;
+	}
+
+	// ----- interface VisibilityQuery -----
+	@Override
+	public boolean includeVisibleToAuthenticatedUsers() {
+		return includeVisibleToAuthenticated;
+	}
+
+	@Override
+	public Set<String> getPrincipalIds() {
+		return principalIds;
+	}
+
+	@Override
+	public Set<String> getPropagatingRelationshipTypes() {
+		return propagatingRelationshipTypes;
+	}
+}
@@ -18,10 +18,17 @@
  */
 package org.structr.core.property;
 
+import java.util.LinkedList;
+import java.util.List;
+import org.structr.api.graph.Direction;
+import org.structr.api.graph.Identity;
+import org.structr.api.graph.Node;
 import org.structr.common.SecurityContext;
 import org.structr.common.error.FrameworkException;
 import org.structr.core.GraphObject;
+import org.structr.core.Services;
 import org.structr.core.entity.Relation;
+import org.structr.core.graph.NodeInterface;
 import org.structr.core.notion.Notion;
 
 /**
@@ -41,4 +48,36 @@ public interface RelationProperty<T> {
 	public void addSingleElement(final SecurityContext securityContext, final GraphObject obj, final T t) throws FrameworkException;
 
 	public String getDirectionKey();
+
+	/**
+	 * Loads the relationships of this property for all of the given
+	 * objects, together with the nodes on their other end, in as few
+	 * database queries as possible, so that reading this property of
+	 * the objects afterwards is answered from the driver's caches.
+	 *
+	 * @param objects the objects
+	 */
+	public default void prefetch(final Iterable<? extends GraphObject> objects) {
+
+		final List<Identity> ids = new LinkedList<>();
+
+		for (final GraphObject obj : objects) {
+
+			if (obj instanceof NodeInterface) {
+
+				final Node node = ((NodeInterface)obj).getNode();
+				if (node != null) {
+
+					ids.add(node.getId());
+				}
+			}
+		}
+
+		if (!ids.isEmpty()) {
+
+			final Direction direction = "out".equals(getDirectionKey()) ? Direction.OUTGOING : Direction.INCOMING;
+
+			Services.getInstance().getDatabaseService().prefetchRelationships(ids, direction, getRelation());
+		}
+	}
 }
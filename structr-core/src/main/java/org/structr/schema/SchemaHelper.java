@@ -811,6 +811,7 @@ public class SchemaHelper {
 		SchemaHelper.formatMethods(sourceFile, schemaNode, methods, implementedInterfaces);
 		SchemaHelper.formatSchemaGrants(sourceFile, schemaNode);
 		SchemaHelper.formatDefaultVisibilityFlags(sourceFile, schemaNode);
+		SchemaHelper.formatCustomVisibility(sourceFile, schemaNode);
 
 		// insert source code from module
 		for (final StructrModule module : modules) {
@@ -1605,6 +1606,28 @@ public class SchemaHelper {
 		}
 	}
 
+	private static void formatCustomVisibility(final SourceFile src, final AbstractSchemaNode schemaNode) {
+
+		boolean hasReadGrants = false;
+
+		final Iterable<SchemaGrant> schemaGrants = schemaNode.getSchemaGrants();
+		if (schemaGrants != null) {
+
+			for (final SchemaGrant grant : schemaGrants) {
+
+				hasReadGrants |= grant.getProperty(SchemaGrant.allowRead);
+			}
+		}
+
+		// visibility of these types cannot be determined by database queries alone
+		if (hasReadGrants || schemaNode.getProperty(SchemaNode.defaultVisibleToPublic) || schemaNode.getProperty(SchemaNode.defaultVisibleToAuth)) {
+
+			src.begin(schemaNode, "static {");
+			src.line(schemaNode, "org.structr.core.entity.SchemaNode.registerCustomVisibilityType(").append(schemaNode.getClassName()).append(".class);");
+			src.end();
+		}
+	}
+
 	private static String formatJoined(Set<String> set) {
 
 		if (set.isEmpty()) {
@@ -226,6 +226,7 @@ public class SchemaService implements Service {
 
 							// clear propagating relationship cache
 							SchemaRelationshipNode.clearPropagatingRelationshipTypes();
+							SchemaNode.clearCustomVisibilityTypes();
 
 							// compile all classes at once and register
 							final Map<String, Class> newTypes = nodeExtender.compile(errorBuffer);
@@ -49,7 +49,9 @@ import org.structr.core.entity.SchemaNode;
 import org.structr.core.entity.SchemaProperty;
 import org.structr.core.entity.SchemaRelationshipNode;
 import org.structr.core.entity.Security;
+import org.structr.core.entity.SuperUser;
 import org.structr.core.entity.relationship.PrincipalOwnsNode;
+import org.structr.core.graph.CreateNodeCommand;
 import org.structr.core.graph.NodeAttribute;
 import org.structr.core.graph.NodeInterface;
 import org.structr.core.graph.NodeServiceCommand;
@@ -63,6 +65,7 @@ import org.structr.test.core.entity.OneTwoOneToOne;
 import org.structr.test.core.entity.SixOneManyToMany;
 import org.structr.test.core.entity.SixOneOneToOne;
 import org.structr.test.core.entity.SixThreeOneToMany;
+import org.structr.test.core.entity.TestFive;
 import org.structr.test.core.entity.TestOne;
 import org.structr.test.core.entity.TestSix;
 import org.structr.test.core.entity.TestTen;
@@ -70,6 +73,7 @@ import org.structr.test.core.entity.TestThirteen;
 import org.structr.test.core.entity.TestThree;
 import org.structr.test.core.entity.TestTwo;
 import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.assertFalse;
 import static org.testng.AssertJUnit.assertNotNull;
 import static org.testng.AssertJUnit.assertNull;
 import static org.testng.AssertJUnit.assertTrue;
@@ -2156,6 +2160,121 @@ public class BasicTest extends StructrTest {
 		}
 	}
 
+	@Test
+	public void testBulkNodeCreation() {
+
+		final List<String> uuids = new LinkedList<>();
+
+		try (final Tx tx = app.tx()) {
+
+			final List<PropertyMap> attributes = new LinkedList<>();
+
+			for (int i=0; i<10; i++) {
+
+				final PropertyMap properties = new PropertyMap();
+
+				properties.put(AbstractNode.type, TestOne.class.getSimpleName());
+				properties.put(AbstractNode.name, "node" + i);
+				properties.put(TestOne.anInt, i);
+
+				attributes.add(properties);
+			}
+
+			final List<NodeInterface> nodes = app.command(CreateNodeCommand.class).execute(attributes);
+
+			assertEquals("Invalid bulk creation result", 10, nodes.size());
+
+			for (int i=0; i<10; i++) {
+
+				assertEquals("Bulk creation must return the nodes in input order", "node" + i, nodes.get(i).getName());
+				uuids.add(nodes.get(i).getUuid());
+			}
+
+			tx.success();
+
+		} catch (FrameworkException fex) {
+			logger.warn("", fex);
+			fail("Unexpected exception.");
+		}
+
+		try (final Tx tx = app.tx()) {
+
+			assertEquals("Invalid bulk creation result", 10, app.nodeQuery(TestOne.class).getAsList().size());
+
+			for (int i=0; i<10; i++) {
+
+				final TestOne node = app.get(TestOne.class, uuids.get(i));
+
+				assertNotNull("Bulk created node not found", node);
+				assertEquals("Invalid bulk creation result", "node" + i, node.getName());
+				assertEquals("Invalid bulk creation result", (Integer)i, node.getProperty(TestOne.anInt));
+			}
+
+			tx.success();
+
+		} catch (FrameworkException fex) {
+			logger.warn("", fex);
+			fail("Unexpected exception.");
+		}
+	}
+
+	@Test
+	public void testBulkNodeCreationCallbacks() {
+
+		final List<String> uuids = new LinkedList<>();
+
+		try (final Tx tx = app.tx()) {
+
+			final List<PropertyMap> attributes = new LinkedList<>();
+
+			for (int i=0; i<3; i++) {
+
+				final PropertyMap properties = new PropertyMap();
+
+				properties.put(AbstractNode.type, TestFive.class.getSimpleName());
+
+				attributes.add(properties);
+			}
+
+			final List<NodeInterface> nodes = app.command(CreateNodeCommand.class).execute(attributes);
+
+			for (final NodeInterface node : nodes) {
+				uuids.add(node.getUuid());
+			}
+
+			tx.success();
+
+		} catch (FrameworkException fex) {
+			logger.warn("", fex);
+			fail("Unexpected exception.");
+		}
+
+		try (final Tx tx = app.tx()) {
+
+			for (final String uuid : uuids) {
+
+				final TestFive node = app.get(TestFive.class, uuid);
+
+				assertEquals("modifiedInBeforeCreation should have a value of 1: ", (Integer)1, node.getProperty(TestFive.modifiedInBeforeCreation));
+				assertEquals("modifiedInAfterCreation should have a value of 1:  ", (Integer)1, node.getProperty(TestFive.modifiedInAfterCreation));
+			}
+
+			tx.success();
+
+		} catch (FrameworkException fex) {
+			logger.warn("", fex);
+			fail("Unexpected exception.");
+		}
+	}
+
+	@Test
+	public void testSupportsBulkCreation() {
+
+		assertTrue("Bulk creation should be supported for simple node types", CreateNodeCommand.supportsBulkCreation(TestOne.class));
+		assertFalse("Bulk creation should not be supported for types with a custom creation callback", CreateNodeCommand.supportsBulkCreation(SuperUser.class));
+		assertFalse("Bulk creation should not be supported for relationship types", CreateNodeCommand.supportsBulkCreation(GenericRelationship.class));
+	}
+
 	// ----- private methods -----
 	private void setPropertyTx(final GraphObject obj, final PropertyKey key, final Object value) {
 
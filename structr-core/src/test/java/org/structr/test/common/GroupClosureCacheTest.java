@@ -0,0 +1,420 @@
+/*
+ * Copyright (C) 2010-2020 Structr GmbH
+ *
+ * This file is part of Structr <http://structr.org>.
+ *
+ * Structr is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * Structr is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Structr.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.structr.test.common;
+
+import java.lang.reflect.Field;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.structr.common.GroupClosureCache;
+import org.structr.common.error.FrameworkException;
+import org.structr.core.entity.Group;
+import org.structr.core.entity.Principal;
+import org.structr.core.graph.Tx;
+import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.assertFalse;
+import static org.testng.AssertJUnit.assertSame;
+import static org.testng.AssertJUnit.assertTrue;
+import static org.testng.AssertJUnit.fail;
+import org.testng.annotations.Test;
+
+/**
+ * Tests the maintenance of cached group closures.
+ */
+public class GroupClosureCacheTest extends StructrTest {
+
+	private static final Logger logger = LoggerFactory.getLogger(GroupClosureCacheTest.class.getName());
+
+	@Test
+	public void testMembershipCreation() {
+
+		Principal user = null;
+		Group group1   = null;
+		Group group2   = null;
+
+		try (final Tx tx = app.tx()) {
+
+			user   = app.create(Principal.class, "user");
+			group1 = app.create(Group.class, "group1");
+			group2 = app.create(Group.class, "group2");
+
+			group2.addMember(securityContext, user);
+
+			tx.success();
+
+		} catch (FrameworkException fex) {
+			logger.warn("", fex);
+			fail("Unexpected exception");
+		}
+
+		// populate the cache
+		assertGroups(user, group2);
+		assertGroups(group2);
+
+		try (final Tx tx = app.tx()) {
+
+			group1.addMember(securityContext, group2);
+			tx.success();
+
+		} catch (FrameworkException fex) {
+			logger.warn("", fex);
+			fail("Unexpected exception");
+		}
+
+		// the cached closures must be extended with the new group
+		assertGroups(user, group1, group2);
+		assertGroups(group2, group1);
+		assertGroups(group1);
+
+		try (final Tx tx = app.tx()) {
+
+			assertTrue(GroupClosureCache.isMemberOf(user, group1.getUuid()));
+			assertTrue(GroupClosureCache.isMemberOf(user, group2.getUuid()));
+			assertFalse(GroupClosureCache.isMemberOf(group1, group2.getUuid()));
+
+			tx.success();
+
+		} catch (FrameworkException fex) {
+			logger.warn("", fex);
+			fail("Unexpected exception");
+		}
+	}
+
+	@Test
+	public void testMembershipRemoval() {
+
+		Principal user = null;
+		Group group1   = null;
+		Group group2   = null;
+
+		try (final Tx tx = app.tx()) {
+
+			user   = app.create(Principal.class, "user");
+			group1 = app.create(Group.class, "group1");
+			group2 = app.create(Group.class, "group2");
+
+			group1.addMember(securityContext, group2);
+			group2.addMember(securityContext, user);
+
+			tx.success();
+
+		} catch (FrameworkException fex) {
+			logger.warn("", fex);
+			fail("Unexpected exception");
+		}
+
+		// populate the cache
+		assertGroups(user, group1, group2);
+
+		try (final Tx tx = app.tx()) {
+
+			group1.removeMember(securityContext, group2);
+			tx.success();
+
+		} catch (FrameworkException fex) {
+			logger.warn("", fex);
+			fail("Unexpected exception");
+		}
+
+		// the closures that contained the removed membership must be dropped
+		assertGroups(user, group2);
+		assertGroups(group2);
+
+		try (final Tx tx = app.tx()) {
+
+			assertFalse(GroupClosureCache.isMemberOf(user, group1.getUuid()));
+			tx.success();
+
+		} catch (FrameworkException fex) {
+			logger.warn("", fex);
+			fail("Unexpected exception");
+		}
+	}
+
+	@Test
+	public void testRollbackOfMembershipCreation() {
+
+		Principal user = null;
+		Group group    = null;
+
+		try (final Tx tx = app.tx()) {
+
+			user  = app.create(Principal.class, "user");
+			group = app.create(Group.class, "group");
+
+			tx.success();
+
+		} catch (FrameworkException fex) {
+			logger.warn("", fex);
+			fail("Unexpected exception");
+		}
+
+		assertGroups(user);
+
+		try (final Tx tx = app.tx()) {
+
+			group.addMember(securityContext, user);
+
+			// no tx.success(), the membership is rolled back
+
+		} catch (FrameworkException fex) {
+			logger.warn("", fex);
+			fail("Unexpected exception");
+		}
+
+		assertGroups(user);
+	}
+
+	@Test
+	public void testInvalidationBetweenComputeAndStore() {
+
+		Principal user = null;
+		Group group    = null;
+
+		try (final Tx tx = app.tx()) {
+
+			user  = app.create(Principal.class, "user");
+			group = app.create(Group.class, "group");
+
+			group.addMember(securityContext, user);
+
+			tx.success();
+
+		} catch (FrameworkException fex) {
+			logger.warn("", fex);
+			fail("Unexpected exception");
+		}
+
+		final Principal member      = user;
+		final Group parent          = group;
+		final AtomicBoolean started = new AtomicBoolean(false);
+		final Thread remover        = new Thread(() -> {
+
+			try (final Tx tx = app.tx()) {
+
+				parent.removeMember(securityContext, member);
+				tx.success();
+
+			} catch (FrameworkException fex) {
+				logger.warn("", fex);
+			}
+		});
+
+		GroupClosureCache.clear();
+
+		Field beforeStore = null;
+
+		try {
+
+			beforeStore = GroupClosureCache.class.getDeclaredField("beforeStore");
+			beforeStore.setAccessible(true);
+
+			// remove the membership after the closure of the user was computed, but before it is stored
+			beforeStore.set(null, (Runnable)() -> {
+
+				if (started.compareAndSet(false, true)) {
+
+					remover.start();
+
+					try { remover.join(1000); } catch (InterruptedException iex) {}
+				}
+			});
+
+			try (final Tx tx = app.tx()) {
+
+				// the closure was computed before the removal
+				assertEquals(Arrays.asList(group.getUuid()), GroupClosureCache.getGroupIds(user));
+				tx.success();
+			}
+
+			remover.join();
+
+		} catch (Exception ex) {
+			logger.warn("", ex);
+			fail("Unexpected exception");
+
+		} finally {
+
+			try { beforeStore.set(null, null); } catch (Throwable t) {}
+		}
+
+		assertTrue(started.get());
+
+		// the outdated closure must not be cached
+		assertGroups(user);
+	}
+
+	@Test
+	public void testCycles() {
+
+		Principal user = null;
+		Group group1   = null;
+		Group group2   = null;
+		Group group3   = null;
+
+		try (final Tx tx = app.tx()) {
+
+			user   = app.create(Principal.class, "user");
+			group1 = app.create(Group.class, "group1");
+			group2 = app.create(Group.class, "group2");
+			group3 = app.create(Group.class, "group3");
+
+			group1.addMember(securityContext, group2);
+			group2.addMember(securityContext, group3);
+			group3.addMember(securityContext, group1);
+			group3.addMember(securityContext, user);
+
+			tx.success();
+
+		} catch (FrameworkException fex) {
+			logger.warn("", fex);
+			fail("Unexpected exception");
+		}
+
+		// a group is never part of its own closure
+		assertGroups(user, group1, group2, group3);
+		assertGroups(group1, group2, group3);
+		assertGroups(group2, group1, group3);
+		assertGroups(group3, group1, group2);
+
+		try (final Tx tx = app.tx()) {
+
+			group3.removeMember(securityContext, group1);
+			tx.success();
+
+		} catch (FrameworkException fex) {
+			logger.warn("", fex);
+			fail("Unexpected exception");
+		}
+
+		assertGroups(user, group1, group2, group3);
+		assertGroups(group1);
+		assertGroups(group2, group1);
+		assertGroups(group3, group1, group2);
+	}
+
+	@Test
+	public void testPrincipalDeletion() {
+
+		Principal user = null;
+		Group group1   = null;
+		Group group2   = null;
+
+		try (final Tx tx = app.tx()) {
+
+			user   = app.create(Principal.class, "user");
+			group1 = app.create(Group.class, "group1");
+			group2 = app.create(Group.class, "group2");
+
+			group1.addMember(securityContext, group2);
+			group2.addMember(securityContext, user);
+
+			tx.success();
+
+		} catch (FrameworkException fex) {
+			logger.warn("", fex);
+			fail("Unexpected exception");
+		}
+
+		assertGroups(user, group1, group2);
+
+		try (final Tx tx = app.tx()) {
+
+			app.delete(group1);
+			tx.success();
+
+		} catch (FrameworkException fex) {
+			logger.warn("", fex);
+			fail("Unexpected exception");
+		}
+
+		assertGroups(user, group2);
+		assertGroups(group2);
+	}
+
+	@Test
+	public void testGroupsAreResolvedOncePerTransaction() {
+
+		Principal user = null;
+
+		try (final Tx tx = app.tx()) {
+
+			final Group group1 = app.create(Group.class, "group1");
+			final Group group2 = app.create(Group.class, "group2");
+
+			user = app.create(Principal.class, "user");
+
+			group1.addMember(securityContext, group2);
+			group2.addMember(securityContext, user);
+
+			tx.success();
+
+		} catch (FrameworkException fex) {
+			logger.warn("", fex);
+			fail("Unexpected exception");
+		}
+
+		try (final Tx tx = app.tx()) {
+
+			final List<Principal> first  = GroupClosureCache.getGroups(user);
+			final List<Principal> second = GroupClosureCache.getGroups(user);
+
+			assertEquals(2, first.size());
+			assertEquals(2, second.size());
+
+			for (int i=0; i<first.size(); i++) {
+				assertSame(first.get(i), second.get(i));
+			}
+
+			tx.success();
+
+		} catch (FrameworkException fex) {
+			logger.warn("", fex);
+			fail("Unexpected exception");
+		}
+	}
+
+	// ----- private methods -----
+	private void assertGroups(final Principal principal, final Principal... expected) {
+
+		try (final Tx tx = app.tx()) {
+
+			final Set<String> expectedIds = new HashSet<>();
+
+			for (final Principal group : expected) {
+				expectedIds.add(group.getUuid());
+			}
+
+			final List<String> groupIds = GroupClosureCache.getGroupIds(principal);
+
+			assertEquals(expected.length, groupIds.size());
+			assertEquals(expectedIds, new HashSet<>(groupIds));
+
+			tx.success();
+
+		} catch (FrameworkException fex) {
+			logger.warn("", fex);
+			fail("Unexpected exception");
+		}
+	}
+}
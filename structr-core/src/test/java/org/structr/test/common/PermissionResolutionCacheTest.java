@@ -0,0 +1,472 @@
+/*
+ * Copyright (C) 2010-2020 Structr GmbH
+ *
+ * This file is part of Structr <http://structr.org>.
+ *
+ * Structr is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * Structr is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Structr.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.structr.test.common;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.structr.api.graph.PropagationDirection;
+import org.structr.api.graph.PropagationMode;
+import org.structr.common.AccessMode;
+import org.structr.common.Permission;
+import org.structr.common.PermissionResolutionCache;
+import org.structr.common.SecurityContext;
+import org.structr.common.error.FrameworkException;
+import org.structr.core.app.StructrApp;
+import org.structr.core.entity.Group;
+import org.structr.core.entity.Principal;
+import org.structr.core.entity.SchemaNode;
+import org.structr.core.entity.SchemaRelationshipNode;
+import org.structr.core.graph.NodeAttribute;
+import org.structr.core.graph.NodeInterface;
+import org.structr.core.graph.Tx;
+import org.structr.core.property.PropertyKey;
+import org.structr.test.core.entity.TestOne;
+import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.assertFalse;
+import static org.testng.AssertJUnit.assertNull;
+import static org.testng.AssertJUnit.assertTrue;
+import static org.testng.AssertJUnit.fail;
+import org.testng.annotations.Test;
+
+/**
+ * Tests the invalidation of cached permission resolution results.
+ */
+public class PermissionResolutionCacheTest extends StructrTest {
+
+	private static final Logger logger = LoggerFactory.getLogger(PermissionResolutionCacheTest.class.getName());
+
+	@Test
+	public void testInvalidationAfterGrant() {
+
+		Principal user = null;
+		TestOne node   = null;
+
+		try (final Tx tx = app.tx()) {
+
+			user = app.create(Principal.class, "user");
+			node = app.create(TestOne.class, "node");
+
+			tx.success();
+
+		} catch (FrameworkException fex) {
+			logger.warn("", fex);
+			fail("Unexpected exception");
+		}
+
+		assertCachedResult(node, user, false);
+
+		try (final Tx tx = app.tx()) {
+
+			node.grant(Permission.read, user);
+			tx.success();
+
+		} catch (FrameworkException fex) {
+			logger.warn("", fex);
+			fail("Unexpected exception");
+		}
+
+		assertTrue("Cached result must be invalidated by a grant", isGranted(node, user));
+		assertCachedResult(node, user, true);
+
+		try (final Tx tx = app.tx()) {
+
+			node.revoke(Permission.read, user);
+			tx.success();
+
+		} catch (FrameworkException fex) {
+			logger.warn("", fex);
+			fail("Unexpected exception");
+		}
+
+		assertFalse("Cached result must be invalidated by a revoke", isGranted(node, user));
+	}
+
+	@Test
+	public void testInvalidationAfterMembershipChange() {
+
+		Principal user = null;
+		Group group    = null;
+		TestOne node   = null;
+
+		try (final Tx tx = app.tx()) {
+
+			user  = app.create(Principal.class, "user");
+			group = app.create(Group.class, "group");
+			node  = app.create(TestOne.class, "node");
+
+			node.grant(Permission.read, group);
+
+			tx.success();
+
+		} catch (FrameworkException fex) {
+			logger.warn("", fex);
+			fail("Unexpected exception");
+		}
+
+		assertCachedResult(node, user, false);
+
+		try (final Tx tx = app.tx()) {
+
+			group.addMember(securityContext, user);
+			tx.success();
+
+		} catch (FrameworkException fex) {
+			logger.warn("", fex);
+			fail("Unexpected exception");
+		}
+
+		assertTrue("Cached result must be invalidated when a membership is created", isGranted(node, user));
+		assertCachedResult(node, user, true);
+
+		try (final Tx tx = app.tx()) {
+
+			group.removeMember(securityContext, user);
+			tx.success();
+
+		} catch (FrameworkException fex) {
+			logger.warn("", fex);
+			fail("Unexpected exception");
+		}
+
+		assertFalse("Cached result must be invalidated when a membership is removed", isGranted(node, user));
+	}
+
+	@Test
+	public void testInvalidationAfterNestedMembershipChange() {
+
+		Principal user = null;
+		Group group1   = null;
+		Group group2   = null;
+		TestOne node   = null;
+
+		try (final Tx tx = app.tx()) {
+
+			user   = app.create(Principal.class, "user");
+			group1 = app.create(Group.class, "group1");
+			group2 = app.create(Group.class, "group2");
+			node   = app.create(TestOne.class, "node");
+
+			group2.addMember(securityContext, user);
+			node.grant(Permission.read, group1);
+
+			tx.success();
+
+		} catch (FrameworkException fex) {
+			logger.warn("", fex);
+			fail("Unexpected exception");
+		}
+
+		assertCachedResult(node, user, false);
+
+		try (final Tx tx = app.tx()) {
+
+			group1.addMember(securityContext, group2);
+			tx.success();
+
+		} catch (FrameworkException fex) {
+			logger.warn("", fex);
+			fail("Unexpected exception");
+		}
+
+		assertTrue("Cached results of indirect members must be invalidated", isGranted(node, user));
+	}
+
+	@Test
+	public void testGroupModificationKeepsMemberResults() {
+
+		Principal user = null;
+		Group group    = null;
+		TestOne node   = null;
+
+		try (final Tx tx = app.tx()) {
+
+			user  = app.create(Principal.class, "user");
+			group = app.create(Group.class, "group");
+			node  = app.create(TestOne.class, "node");
+
+			group.addMember(securityContext, user);
+			node.grant(Permission.read, group);
+
+			tx.success();
+
+		} catch (FrameworkException fex) {
+			logger.warn("", fex);
+			fail("Unexpected exception");
+		}
+
+		assertCachedResult(node, user, true);
+
+		try (final Tx tx = app.tx()) {
+
+			group.setProperty(StructrApp.key(Group.class, "name"), "renamed");
+			tx.success();
+
+		} catch (FrameworkException fex) {
+			logger.warn("", fex);
+			fail("Unexpected exception");
+		}
+
+		assertEquals("Properties of a group unrelated to permissions must not invalidate its members", Boolean.TRUE, PermissionResolutionCache.get(node, user, Permission.read));
+	}
+
+	@Test
+	public void testUnrelatedSecurityChangesKeepPropagatedResults() {
+
+		NodeInterface instance1 = null;
+		NodeInterface instance2 = null;
+		Principal user          = null;
+		Principal other         = null;
+
+		try (final Tx tx = app.tx()) {
+
+			user  = app.create(Principal.class, "user");
+			other = app.create(Principal.class, "other");
+
+			final SchemaNode t1 = app.create(SchemaNode.class, "Type1");
+			final SchemaNode t2 = app.create(SchemaNode.class, "Type2");
+
+			app.create(SchemaRelationshipNode.class,
+				new NodeAttribute<>(SchemaRelationshipNode.sourceNode, t1),
+				new NodeAttribute<>(SchemaRelationshipNode.targetNode, t2),
+				new NodeAttribute<>(SchemaRelationshipNode.relationshipType, "RELATED"),
+				new NodeAttribute<>(SchemaRelationshipNode.sourceMultiplicity, "1"),
+				new NodeAttribute<>(SchemaRelationshipNode.targetMultiplicity, "1"),
+				new NodeAttribute<>(SchemaRelationshipNode.sourceJsonName, "source"),
+				new NodeAttribute<>(SchemaRelationshipNode.targetJsonName, "target"),
+				new NodeAttribute<>(SchemaRelationshipNode.permissionPropagation, PropagationDirection.Out),
+				new NodeAttribute<>(SchemaRelationshipNode.readPropagation, PropagationMode.Add)
+			);
+
+			tx.success();
+
+		} catch (FrameworkException fex) {
+			logger.warn("", fex);
+			fail("Unexpected exception");
+		}
+
+		try (final Tx tx = app.tx()) {
+
+			final Class type1 = StructrApp.getConfiguration().getNodeEntityClass("Type1");
+			final Class type2 = StructrApp.getConfiguration().getNodeEntityClass("Type2");
+
+			instance1 = app.create(type1, "instance1");
+			instance2 = app.create(type2, "instance2");
+
+			instance1.setProperty(StructrApp.key(type1, "target"), instance2);
+			instance1.grant(Permission.read, user);
+
+			tx.success();
+
+		} catch (FrameworkException fex) {
+			logger.warn("", fex);
+			fail("Unexpected exception");
+		}
+
+		assertCachedResult(instance2, user, true);
+
+		// another user creates a node and grants permissions on it, the node has no propagating relationships
+		try (final Tx tx = app.tx()) {
+
+			final TestOne owned = StructrApp.getInstance(SecurityContext.getInstance(other, AccessMode.Backend)).create(TestOne.class, "owned");
+
+			owned.grant(Permission.write, other);
+
+			tx.success();
+
+		} catch (FrameworkException fex) {
+			logger.warn("", fex);
+			fail("Unexpected exception");
+		}
+
+		assertEquals("Security changes of unrelated nodes must not invalidate propagated results", Boolean.TRUE, PermissionResolutionCache.get(instance2, user, Permission.read));
+
+		// security changes of a node with propagating relationships do
+		try (final Tx tx = app.tx()) {
+
+			instance1.revoke(Permission.read, user);
+			tx.success();
+
+		} catch (FrameworkException fex) {
+			logger.warn("", fex);
+			fail("Unexpected exception");
+		}
+
+		assertFalse("Cached result must be invalidated when a propagated permission is revoked", isGranted(instance2, user));
+	}
+
+	@Test
+	public void testInvalidationAfterPropagationChange() {
+
+		SchemaRelationshipNode rel = null;
+		NodeInterface instance1    = null;
+		NodeInterface instance2    = null;
+		PropertyKey key            = null;
+		Principal user             = null;
+
+		try (final Tx tx = app.tx()) {
+
+			user = app.create(Principal.class, "user");
+
+			final SchemaNode t1 = app.create(SchemaNode.class, "Type1");
+			final SchemaNode t2 = app.create(SchemaNode.class, "Type2");
+
+			rel = app.create(SchemaRelationshipNode.class,
+				new NodeAttribute<>(SchemaRelationshipNode.sourceNode, t1),
+				new NodeAttribute<>(SchemaRelationshipNode.targetNode, t2),
+				new NodeAttribute<>(SchemaRelationshipNode.relationshipType, "RELATED"),
+				new NodeAttribute<>(SchemaRelationshipNode.sourceMultiplicity, "1"),
+				new NodeAttribute<>(SchemaRelationshipNode.targetMultiplicity, "1"),
+				new NodeAttribute<>(SchemaRelationshipNode.sourceJsonName, "source"),
+				new NodeAttribute<>(SchemaRelationshipNode.targetJsonName, "target")
+			);
+
+			tx.success();
+
+		} catch (FrameworkException fex) {
+			logger.warn("", fex);
+			fail("Unexpected exception");
+		}
+
+		try (final Tx tx = app.tx()) {
+
+			final Class type1 = StructrApp.getConfiguration().getNodeEntityClass("Type1");
+			final Class type2 = StructrApp.getConfiguration().getNodeEntityClass("Type2");
+
+			key       = StructrApp.key(type1, "target");
+			instance1 = app.create(type1, "instance1");
+			instance2 = app.create(type2, "instance2");
+
+			instance1.setProperty(key, instance2);
+			instance1.grant(Permission.read, user);
+
+			tx.success();
+
+		} catch (FrameworkException fex) {
+			logger.warn("", fex);
+			fail("Unexpected exception");
+		}
+
+		assertCachedResult(instance2, user, false);
+
+		// enable propagation of read permissions from Type1 to Type2
+		try (final Tx tx = app.tx()) {
+
+			rel.setProperty(SchemaRelationshipNode.permissionPropagation, PropagationDirection.Out);
+			rel.setProperty(SchemaRelationshipNode.readPropagation, PropagationMode.Add);
+
+			tx.success();
+
+		} catch (FrameworkException fex) {
+			logger.warn("", fex);
+			fail("Unexpected exception");
+		}
+
+		assertTrue("Cached result must be invalidated when the propagation is enabled", isGranted(instance2, user));
+		assertCachedResult(instance2, user, true);
+
+		// remove the relationship the permission is propagated along
+		try (final Tx tx = app.tx()) {
+
+			instance1.setProperty(key, null);
+			tx.success();
+
+		} catch (FrameworkException fex) {
+			logger.warn("", fex);
+			fail("Unexpected exception");
+		}
+
+		assertFalse("Cached result must be invalidated when the propagating relationship is removed", isGranted(instance2, user));
+	}
+
+	@Test
+	public void testStampEviction() {
+
+		Principal user = null;
+		TestOne node   = null;
+
+		try (final Tx tx = app.tx()) {
+
+			user = app.create(Principal.class, "user");
+			node = app.create(TestOne.class, "node");
+
+			tx.success();
+
+		} catch (FrameworkException fex) {
+			logger.warn("", fex);
+			fail("Unexpected exception");
+		}
+
+		PermissionResolutionCache.put(node, user, Permission.read, true, PermissionResolutionCache.begin(), false);
+
+		// stamps of unrelated nodes must not affect the result
+		PermissionResolutionCache.invalidateIds(Collections.singleton("unrelated"), false);
+
+		assertEquals(Boolean.TRUE, PermissionResolutionCache.get(node, user, Permission.read));
+
+		// more stamps than the cache can hold, so the oldest ones are evicted
+		final List<Object> ids = new ArrayList<>();
+
+		for (int i=0; i<100001; i++) {
+			ids.add("unrelated" + i);
+		}
+
+		PermissionResolutionCache.invalidateIds(ids, false);
+
+		assertNull("Results older than an evicted stamp must be invalid", PermissionResolutionCache.get(node, user, Permission.read));
+
+		// newer results are valid again
+		PermissionResolutionCache.put(node, user, Permission.read, true, PermissionResolutionCache.begin(), false);
+
+		assertEquals(Boolean.TRUE, PermissionResolutionCache.get(node, user, Permission.read));
+	}
+
+	// ----- private methods -----
+	private void assertCachedResult(final NodeInterface node, final Principal user, final boolean expected) {
+
+		assertEquals(expected, isGranted(node, user));
+
+		final int hits = PermissionResolutionCache.getCacheInfo().get("hits");
+
+		assertEquals(expected, isGranted(node, user));
+		assertTrue("Permission resolution result should be cached", PermissionResolutionCache.getCacheInfo().get("hits") > hits);
+	}
+
+	private boolean isGranted(final NodeInterface node, final Principal user) {
+
+		final SecurityContext userContext = SecurityContext.getInstance(user, AccessMode.Backend);
+
+		try (final Tx tx = app.tx()) {
+
+			final boolean result = node.isGranted(Permission.read, userContext);
+
+			tx.success();
+
+			return result;
+
+		} catch (FrameworkException fex) {
+			logger.warn("", fex);
+			fail("Unexpected exception");
+		}
+
+		return false;
+	}
+}
@@ -0,0 +1,205 @@
+/*
+ * Copyright (C) 2010-2020 Structr GmbH
+ *
+ * This file is part of Structr <http://structr.org>.
+ *
+ * Structr is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * Structr is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Structr.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.structr.test.core.graph;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.structr.api.RetryException;
+import org.structr.core.graph.MultiSemaphore;
+import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.assertNull;
+import static org.testng.AssertJUnit.assertTrue;
+import static org.testng.AssertJUnit.fail;
+import org.testng.annotations.Test;
+
+/**
+ * Tests the stripe handling of {@link MultiSemaphore}.
+ */
+public class MultiSemaphoreTest {
+
+	@Test
+	public void testStripeOrdering() throws InterruptedException {
+
+		final MultiSemaphore semaphore = new MultiSemaphore(64);
+		final Set<String> keys         = new LinkedHashSet<>();
+
+		for (int i=0; i<20; i++) {
+			keys.add("TestOne.name=value" + i);
+		}
+
+		final int[] stripes = semaphore.acquire(keys);
+
+		try {
+
+			for (int i=1; i<stripes.length; i++) {
+
+				assertTrue("Stripes must be acquired in strictly ascending order", stripes[i - 1] < stripes[i]);
+			}
+
+		} finally {
+
+			semaphore.release(stripes);
+		}
+	}
+
+	@Test
+	public void testStripeDeduplication() throws Exception {
+
+		// all keys share a single stripe, acquiring it twice would block forever
+		final MultiSemaphore semaphore = new MultiSemaphore(1);
+		final int[] stripes            = semaphore.acquire(new HashSet<>(Arrays.asList("TestOne.name=a", "TestOne.name=b", "TestTwo.name=a")));
+
+		assertEquals("Keys on the same stripe must be acquired once", 1, stripes.length);
+
+		final ExecutorService executor = Executors.newSingleThreadExecutor();
+
+		try {
+
+			final Future<int[]> other = executor.submit(() -> semaphore.acquire(new HashSet<>(Arrays.asList("TestThree.name=c"))));
+
+			try {
+
+				other.get(200, TimeUnit.MILLISECONDS);
+				fail("Stripe must be held until it is released");
+
+			} catch (TimeoutException expected) {}
+
+			semaphore.release(stripes);
+
+			// the stripe must have exactly one permit after the release
+			semaphore.release(other.get(5, TimeUnit.SECONDS));
+
+		} finally {
+
+			executor.shutdownNow();
+		}
+	}
+
+	@Test
+	public void testTimeoutIsRetryable() throws Exception {
+
+		final MultiSemaphore semaphore = new MultiSemaphore(16, 100L);
+		final int[] stripes            = semaphore.acquire(new HashSet<>(Arrays.asList("TestOne.name=a")));
+		final ExecutorService executor = Executors.newSingleThreadExecutor();
+
+		try {
+
+			final Future<int[]> other = executor.submit(() -> semaphore.acquire(new HashSet<>(Arrays.asList("TestOne.name=a", "TestOne.name=b", "TestOne.name=c"))));
+
+			try {
+
+				other.get(5, TimeUnit.SECONDS);
+				fail("Acquiring a held stripe must time out");
+
+			} catch (ExecutionException eex) {
+
+				assertTrue("Timeout must be reported as a retryable error", eex.getCause() instanceof RetryException);
+			}
+
+			semaphore.release(stripes);
+
+			// stripes acquired before the timeout must have been released again
+			semaphore.release(executor.submit(() -> semaphore.acquire(new HashSet<>(Arrays.asList("TestOne.name=a", "TestOne.name=b", "TestOne.name=c")))).get(5, TimeUnit.SECONDS));
+
+		} finally {
+
+			executor.shutdownNow();
+		}
+	}
+
+	@Test
+	public void testEmptyKeys() throws InterruptedException {
+
+		final MultiSemaphore semaphore = new MultiSemaphore(1);
+
+		assertNull(semaphore.acquire(null));
+		assertNull(semaphore.acquire(new HashSet<>()));
+
+		// releasing nothing must be a no-op
+		semaphore.release(null);
+	}
+
+	@Test
+	public void testOverlappingKeysDoNotDeadlock() throws Exception {
+
+		final MultiSemaphore semaphore = new MultiSemaphore(16);
+		final ExecutorService executor = Executors.newFixedThreadPool(8);
+		final List<Future<?>> futures  = new ArrayList<>();
+		final AtomicInteger holders    = new AtomicInteger();
+		final AtomicInteger violations = new AtomicInteger();
+
+		try {
+
+			for (int t=0; t<8; t++) {
+
+				final int offset = t;
+
+				futures.add(executor.submit(() -> {
+
+					for (int i=0; i<1000; i++) {
+
+						final Set<String> keys = new LinkedHashSet<>();
+
+						// keys in a different order for each thread, plus one key shared by all
+						keys.add("shared");
+
+						for (int k=0; k<4; k++) {
+							keys.add("key" + ((offset + i + k * 7) % 32));
+						}
+
+						final int[] stripes = semaphore.acquire(keys);
+
+						if (holders.incrementAndGet() != 1) {
+							violations.incrementAndGet();
+						}
+
+						holders.decrementAndGet();
+
+						semaphore.release(stripes);
+					}
+
+					return null;
+				}));
+			}
+
+			for (final Future<?> future : futures) {
+
+				// a deadlock would exceed the timeout
+				future.get(30, TimeUnit.SECONDS);
+			}
+
+		} finally {
+
+			executor.shutdownNow();
+		}
+
+		assertEquals("Transactions sharing a key must be serialized", 0, violations.get());
+	}
+}
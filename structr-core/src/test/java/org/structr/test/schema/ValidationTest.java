@@ -20,11 +20,15 @@ package org.structr.test.schema;
 
 import java.util.Arrays;
 import java.util.Date;
+import java.util.HashSet;
+import java.util.LinkedList;
 import java.util.List;
 import java.util.Random;
+import java.util.Set;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 import org.testng.annotations.Test;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -482,6 +486,99 @@ public class ValidationTest extends StructrTest {
 		executor.shutdownNow();
 	}
 
+	@Test
+	public void testConcurrentValidationOfMultipleValues() {
+
+		this.cleanDatabaseAndSchema();
+
+		final int count = 50;
+
+		try (final Tx tx = app.tx()) {
+
+			app.create(SchemaNode.class,
+				new NodeAttribute(SchemaNode.name, "Item"),
+				new NodeAttribute(new StringProperty("_name"), "+String!")
+			);
+
+			tx.success();
+
+		} catch (FrameworkException fex) {
+
+			logger.warn("", fex);
+			fail("Unexpected exception.");
+		}
+
+		final Class type = StructrApp.getConfiguration().getNodeEntityClass("Item");
+		assertNotNull(type);
+
+		final List<Future> futures     = new LinkedList<>();
+		final ExecutorService executor = Executors.newCachedThreadPool();
+
+		// each transaction writes two unique values, half of the testers in reverse order
+		for (int t=0; t<4; t++) {
+
+			final boolean reverse = (t % 2) == 1;
+
+			futures.add(executor.submit(() -> {
+
+				for (int i=0; i<count; i++) {
+
+					final String first  = "Item" + (reverse ? count - 1 - i : i);
+					final String second = "Item" + (reverse ? i : count - 1 - i);
+
+					// testing must be done in an isolated transaction
+					try (final Tx tx = app.tx()) {
+
+						app.create(type, first);
+						app.create(type, second);
+
+						tx.success();
+
+					} catch (FrameworkException ignore) {}
+				}
+			}));
+		}
+
+		try {
+
+			for (final Future future : futures) {
+
+				// a deadlock between the testers would exceed the timeout
+				future.get(120, TimeUnit.SECONDS);
+			}
+
+		} catch (Throwable t) {
+
+			logger.warn("", t);
+			fail("Concurrent validation did not finish.");
+
+		} finally {
+
+			executor.shutdownNow();
+		}
+
+		try (final Tx tx = app.tx()) {
+
+			final List<GraphObject> result = app.nodeQuery(type).getAsList();
+			final Set<String> names        = new HashSet<>();
+
+			for (final GraphObject obj : result) {
+				names.add(obj.getProperty(AbstractNode.name));
+			}
+
+			// verify that each value has been created exactly once
+			assertEquals("Invalid concurrent validation result", count, result.size());
+			assertEquals("Invalid concurrent validation result", count, names.size());
+
+			tx.success();
+
+		} catch (FrameworkException fex) {
+
+			logger.warn("", fex);
+			fail("Unexpected exception.");
+		}
+	}
+
 	@Test
 	public void testConcurrentValidationWithInheritance() {
 
@@ -18,11 +18,18 @@
  */
 package org.structr.api;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 import org.apache.commons.lang.StringUtils;
 import org.structr.api.config.Settings;
+import org.structr.api.graph.Direction;
+import org.structr.api.graph.Identity;
 import org.structr.api.graph.RelationshipType;
+import org.structr.api.util.NodeSpec;
+import org.structr.api.util.NodeWithOwnerResult;
+import org.structr.api.util.QueryStatistics;
 
 /**
  *
@@ -32,6 +39,8 @@ public abstract class AbstractDatabaseService implements DatabaseService {
 	private static final Map<String, RelationshipType> relTypeCache   = new ConcurrentHashMap<>();
 	private static final long nanoEpoch                               = System.nanoTime();
 
+	private final QueryStatistics queryStatistics                     = new QueryStatistics();
+
 	@Override
 	public <T> T forName(final Class<T> type, final String name) {
 
@@ -65,6 +74,36 @@ public abstract class AbstractDatabaseService implements DatabaseService {
 		return millis + "." + nanos;
 	}
 
+	@Override
+	public QueryStatistics getQueryStatistics() {
+		return queryStatistics;
+	}
+
+	@Override
+	public List<NodeWithOwnerResult> createNodes(final List<NodeSpec> specs) {
+
+		final List<NodeWithOwnerResult> results = new ArrayList<>(specs.size());
+
+		for (final NodeSpec spec : specs) {
+
+			if (spec.hasOwner()) {
+
+				results.add(createNodeWithOwner(spec.getOwnerId(), spec.getType(), spec.getLabels(), spec.getProperties(), spec.getOwnsProperties(), spec.getSecurityProperties()));
+
+			} else {
+
+				results.add(new NodeWithOwnerResult(createNode(spec.getType(), spec.getLabels(), spec.getProperties()), null, null));
+			}
+		}
+
+		return results;
+	}
+
+	@Override
+	public void prefetchRelationships(final Iterable<Identity> nodeIds, final Direction direction, final RelationshipType relationshipType) {
+		// nothing to prefetch by default
+	}
+
 	// ----- private methods -----
 	private RelationshipType getOrCreateRelationshipType(final String name) {
 
@@ -18,15 +18,20 @@
  */
 package org.structr.api;
 
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import org.structr.api.graph.Direction;
 import org.structr.api.graph.GraphProperties;
 import org.structr.api.graph.Identity;
 import org.structr.api.graph.Node;
 import org.structr.api.graph.Relationship;
+import org.structr.api.graph.RelationshipType;
 import org.structr.api.index.Index;
 import org.structr.api.util.CountResult;
+import org.structr.api.util.NodeSpec;
 import org.structr.api.util.NodeWithOwnerResult;
+import org.structr.api.util.QueryStatistics;
 
 /**
  *
@@ -56,9 +61,32 @@ public interface DatabaseService {
 	Node createNode(final String type, final Set<String> labels, final Map<String, Object> properties);
 	NodeWithOwnerResult createNodeWithOwner(final Identity ownerId, final String type, final Set<String> labels, final Map<String, Object> nodeProperties, final Map<String, Object> ownsProperties, final Map<String, Object> securityProperties);
 
+	/**
+	 * Creates the nodes described by the given specs (and the OWNS and
+	 * SECURITY relationships of specs with an owner) in as few database
+	 * round trips as possible.
+	 *
+	 * @param specs the node specs
+	 *
+	 * @return the creation results, in the order of the specs
+	 */
+	List<NodeWithOwnerResult> createNodes(final List<NodeSpec> specs);
+
 	Node getNodeById(final Identity id);
 	Relationship getRelationshipById(final Identity id);
 
+	/**
+	 * Loads the relationships of the given nodes, together with the nodes
+	 * on their other end, in as few database round trips as possible, so
+	 * that subsequent calls to Node.getRelationships(direction, type) and
+	 * Relationship.getOtherNode() can be answered from the cache.
+	 *
+	 * @param nodeIds the IDs of the nodes
+	 * @param direction the direction of the relationships
+	 * @param relationshipType the relationship type or null
+	 */
+	void prefetchRelationships(final Iterable<Identity> nodeIds, final Direction direction, final RelationshipType relationshipType);
+
 	Iterable<Node> getAllNodes();
 
 	/**
@@ -83,6 +111,14 @@ public interface DatabaseService {
 
 	public Map<String, Map<String, Integer>> getCachesInfo();
 
+	/**
+	 * Returns the execution statistics of the statements that were
+	 * sent to the database.
+	 *
+	 * @return the query statistics
+	 */
+	QueryStatistics getQueryStatistics();
+
 	// ----- index -----
 	Index<Node> nodeIndex();
 	Index<Relationship> relationshipIndex();
@@ -123,6 +123,8 @@ public class Settings {
 	public static final Setting<Integer> MaxSessionsPerUser      = new IntegerSetting(serverGroup, "HTTP Settings", "application.session.max.number",       -1,    "The maximum number of active sessions per user. Default is -1 (unlimited).");
 	public static final Setting<Boolean> ClearSessionsOnStartup  = new BooleanSetting(serverGroup, "HTTP Settings", "application.session.clear.onstartup",  false, "Clear all sessions on startup if set to true.");
 	public static final Setting<Boolean> ClearSessionsOnShutdown = new BooleanSetting(serverGroup, "HTTP Settings", "application.session.clear.onshutdown", false, "Clear all sessions on shutdown if set to true.");
+	public static final Setting<String> SessionPersistenceMode   = new ChoiceSetting(serverGroup,  "HTTP Settings", "application.session.persistence.mode", "immediate", Settings.getStringsAsSet("immediate", "writebehind"), "Controls how session metadata is persisted.<dl><dt>immediate</dt><dd>updates the session node in a separate transaction on every session save (default)</dd><dt>writebehind</dt><dd>keeps session metadata in memory and writes changed sessions in one batched transaction per flush interval. Changes made since the last flush are lost if the server stops unexpectedly.</dd></dl>");
+	public static final Setting<Integer> SessionFlushInterval    = new IntegerSetting(serverGroup, "HTTP Settings", "application.session.flush.interval",   30,    "The interval in which modified session metadata is written to the database in write-behind mode. Unit is seconds. Default is 30.");
 
 	public static final Setting<Boolean> ForceHttps             = new BooleanSetting(serverGroup, "HTTPS Settings", "httpservice.force.https",         		false, "Allows forcing HTTPS. (only works if HTTPS is active!)");
 	public static final Setting<Boolean> HttpOnly               = new BooleanSetting(serverGroup, "HTTPS Settings", "httpservice.cookies.httponly",         	false, "Set HttpOnly to true for cookies. Please note that this will disable backend access!");
@@ -158,11 +160,19 @@ public class Settings {
 	public static final Setting<Integer> NodeCacheSize               = new IntegerSetting(databaseGroup, "Caching",                 "database.cache.node.size",         100000, "Size of the database driver node cache");
 	public static final Setting<Integer> UuidCacheSize               = new IntegerSetting(databaseGroup, "hidden",                  "database.cache.uuid.size",         1000000, "Size of the database driver relationship cache");
 	public static final Setting<Boolean> ForceResultStreaming        = new BooleanSetting(databaseGroup, "Result Streaming",        "database.result.lazy",             false, "Forces Structr to use lazy evaluation for relationship queries");
+	public static final Setting<Boolean> QueryStatisticsEnabled      = new BooleanSetting(databaseGroup, "Query Statistics",        "database.statistics.enabled",      true, "Collects execution statistics for database statements, grouped by statement shape");
+	public static final Setting<Integer> QueryStatisticsSize         = new IntegerSetting(databaseGroup, "Query Statistics",        "database.statistics.size",         500, "Maximum number of statement shapes kept in the query statistics");
+	public static final Setting<Integer> SlowQueryThreshold          = new IntegerSetting(databaseGroup, "Query Statistics",        "database.statistics.slowquery",    1000, "Statements that take longer than this number of milliseconds are logged with their parameters, 0 disables the slow query log");
+	public static final Setting<String> SlowQuerySensitiveKeys       = new StringSetting(databaseGroup,  "Query Statistics",        "database.statistics.sensitivekeys", "password passwordHash salt sessionIds twoFactorSecret extractedContent", "Parameter and property names whose values are masked in the slow query log, separated by spaces or commas");
 	public static final Setting<Boolean> CypherDebugLogging          = new BooleanSetting(databaseGroup, "Debugging",               "log.cypher.debug",                 false, "Turns on debug logging for the generated Cypher queries");
 	public static final Setting<Boolean> CypherDebugLoggingPing      = new BooleanSetting(databaseGroup, "Debugging",               "log.cypher.debug.ping",            false, "Turns on debug logging for the generated Cypher queries of the websocket PING command. Can only be used in conjunction with log.cypher.debug");
 	public static final Setting<Boolean> SyncDebugging               = new BooleanSetting(databaseGroup, "Sync debugging",          "sync.debug",                       false);
 	public static final Setting<Integer> ResultCountSoftLimit        = new IntegerSetting(databaseGroup, "Soft result count limit", "database.result.softlimit",        10_000, "Soft result count limit for a single query (can be overridden by pageSize)");
 	public static final Setting<Integer> FetchSize                   = new IntegerSetting(databaseGroup, "Result fetch size",       "database.result.fetchsize",        100_000, "Number of database records to fetch per batch when fetching large results");
+	public static final Setting<Boolean> WriteBatching               = new BooleanSetting(databaseGroup, "Write Batching",          "database.write.batching",          true, "Collects property and label updates in a transaction and sends them to the database in batches before the next read and at commit");
+	public static final Setting<Boolean> MemoryPersistence           = new BooleanSetting(databaseGroup, "Memory Database",         "database.memory.persistence",      false, "Enables durable storage in database.path for the in-memory database driver");
+	public static final Setting<Integer> MemoryLogSyncDelay          = new IntegerSetting(databaseGroup, "Memory Database",         "database.memory.wal.syncdelay",    2, "Time in milliseconds to wait for concurrent commits before the write-ahead log of the in-memory database is synced to disk");
+	public static final Setting<Integer> MemoryCheckpointInterval    = new IntegerSetting(databaseGroup, "Memory Database",         "database.memory.checkpoint.interval", 60, "Interval in seconds between checkpoints of the modified data of the in-memory database");
 
 	// application settings
 	public static final Setting<Boolean> ChangelogEnabled            = new BooleanSetting(applicationGroup, "Changelog",    "application.changelog.enabled",                   false, "Turns on logging of changes to nodes and relationships");
@@ -23,15 +23,16 @@ package org.structr.api.search;
  */
 public class QueryContext {
 
-	private boolean overridesFetchSize = false;
-	private boolean deferred           = false;
-	private boolean isSuperuser        = false;
-	private boolean sliced             = false;
-	private int overriddenFetchSize    = -1;
-	private int skip                   = -1;
-	private int limit                  = -1;
-	private int skipped                = 0;
-	private boolean isPing             = false;
+	private boolean overridesFetchSize   = false;
+	private boolean deferred             = false;
+	private boolean isSuperuser          = false;
+	private boolean isVisibilityFiltered = false;
+	private boolean sliced               = false;
+	private int overriddenFetchSize      = -1;
+	private int skip                     = -1;
+	private int limit                    = -1;
+	private int skipped                  = 0;
+	private boolean isPing               = false;
 
 	public QueryContext() {
 	}
@@ -111,6 +112,21 @@ public class QueryContext {
 		return isSuperuser;
 	}
 
+	/**
+	 * Indicates that the query contains an exact visibility filter for the
+	 * accessing user, so the result can be paged in the database like the
+	 * result of a superuser query.
+	 *
+	 * @param isVisibilityFiltered
+	 */
+	public void setIsVisibilityFiltered(final boolean isVisibilityFiltered) {
+		this.isVisibilityFiltered = isVisibilityFiltered;
+	}
+
+	public boolean isVisibilityFiltered() {
+		return isVisibilityFiltered;
+	}
+
 	public boolean isDeferred() {
 		return deferred;
 	}
@@ -0,0 +1,46 @@
+/*
+ * Copyright (C) 2010-2020 Structr GmbH
+ *
+ * This file is part of Structr <http://structr.org>.
+ *
+ * Structr is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * Structr is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Structr.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.structr.api.search;
+
+import java.util.Set;
+
+/**
+ * Restricts the result of a node query to the nodes that the accessing
+ * principal can read, based on the visibility flags, ownership and the
+ * direct security relationships of the given principals. Nodes that are
+ * connected via one of the given permission-propagating relationship types
+ * are included as well, so they can be checked by the caller.
+ */
+public interface VisibilityQuery extends QueryPredicate {
+
+	/**
+	 * @return whether nodes that are visible to authenticated users are included
+	 */
+	boolean includeVisibleToAuthenticatedUsers();
+
+	/**
+	 * @return the UUIDs of the accessing principal and all of its groups
+	 */
+	Set<String> getPrincipalIds();
+
+	/**
+	 * @return the names of the relationship types that propagate permissions
+	 */
+	Set<String> getPropagatingRelationshipTypes();
+}
@@ -22,70 +22,159 @@ import java.lang.management.ManagementFactory;
 import java.lang.management.MemoryPoolMXBean;
 import java.lang.management.MemoryUsage;
 import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
-import org.apache.commons.collections4.map.LRUMap;
+import java.util.concurrent.atomic.LongAdder;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 /**
- * A map-like storage structure with a fixed maximum size that
- * removes the least recently used entry when the insertion of
- * a new entry causes the map to exceed the specified maximum
- * size.
+ * A map-like storage structure with a fixed maximum size. The cache is
+ * split into independently locked segments, each of which uses a small
+ * LRU admission window in front of a segmented LRU main area. Entries
+ * leaving the window only replace an entry of the main area if they
+ * were accessed at least as often (W-TinyLFU), so that a single scan
+ * over many entries does not evict the frequently used ones.
  *
  * @param <K>
  * @param <V>
  */
 public class FixedSizeCache<K, V> {
 
-	private static final Logger logger  = LoggerFactory.getLogger(FixedSizeCache.class);
-	private long lastUpdate             = System.currentTimeMillis();
-	private MemoryPoolMXBean bean       = null;
-	private LRUMap<K, V> cache          = null;
-	private String name                 = null;
+	private static final Logger logger         = LoggerFactory.getLogger(FixedSizeCache.class);
+	private static final int MIN_SEGMENT_SIZE  = 1024;
+	private static final int MAX_SEGMENTS      = 32;
+
+	private final LongAdder hits               = new LongAdder();
+	private final LongAdder misses             = new LongAdder();
+	private final LongAdder evictions          = new LongAdder();
+	private volatile long lastUpdate           = System.currentTimeMillis();
+	private volatile int maxSize               = 0;
+	private MemoryPoolMXBean bean              = null;
+	private Segment[] segments                 = null;
+	private String name                        = null;
 
 	public FixedSizeCache(final String name, final int maxSize) {
 
-		this.cache       = new InvalidatingLRUMap<>(maxSize);
+		final int segmentCount = Math.max(1, Math.min(MAX_SEGMENTS, Integer.highestOneBit(maxSize / MIN_SEGMENT_SIZE)));
+
+		this.segments    = new FixedSizeCache.Segment[segmentCount];
 		this.bean        = getOldGenerationMXBean();
+		this.maxSize     = maxSize;
 		this.name        = name;
+
+		for (int i=0; i<segmentCount; i++) {
+			segments[i] = new Segment(getSegmentSize(maxSize, i));
+		}
 	}
 
-	public synchronized void put(final K key, final V value) {
-		cache.put(key, value);
+	public void put(final K key, final V value) {
+
+		if (value == null) {
+
+			remove(key);
+
+		} else {
+
+			getSegment(key).put(key, value, false);
+		}
+
 		checkAvailableMemory();
 	}
 
-	public synchronized V get(final K key) {
-		return cache.get(key);
+	/**
+	 * Stores the given value if there is no value for the given key yet,
+	 * and returns the value that is in the cache afterwards. This allows
+	 * callers to create values outside of any lock and still share a
+	 * single instance per key.
+	 */
+	public V putIfAbsent(final K key, final V value) {
+
+		if (value == null) {
+			return get(key);
+		}
+
+		final V result = getSegment(key).put(key, value, true);
+
+		checkAvailableMemory();
+
+		return result;
 	}
 
-	public synchronized void removeAll(final Collection<K> keys) {
-		cache.keySet().removeAll(keys);
+	public V get(final K key) {
+
+		final V value = getSegment(key).get(key);
+		if (value != null) {
+
+			hits.increment();
+
+		} else {
+
+			misses.increment();
+		}
+
+		return value;
+	}
+
+	public void removeAll(final Collection<K> keys) {
+
+		for (final K key : keys) {
+			remove(key);
+		}
 	}
 
-	public synchronized V remove(final K key) {
-		return cache.remove(key);
+	public V remove(final K key) {
+		return getSegment(key).remove(key);
 	}
 
-	public synchronized void clear() {
-		cache.clear();
+	public void clear() {
+
+		for (final Segment segment : segments) {
+			segment.clear();
+		}
 	}
 
-	public synchronized int size() {
-		return cache.size();
+	public int size() {
+
+		int size = 0;
+
+		for (final Segment segment : segments) {
+			size += segment.size();
+		}
+
+		return size;
 	}
 
-	public synchronized Map<String, Integer> getCacheInfo() {
-		return Map.of("max", cache.maxSize(), "size", size());
+	public Map<String, Integer> getCacheInfo() {
+
+		return Map.of(
+			"max",       maxSize,
+			"size",      size(),
+			"hits",      (int)Math.min(Integer.MAX_VALUE, hits.sum()),
+			"misses",    (int)Math.min(Integer.MAX_VALUE, misses.sum()),
+			"evictions", (int)Math.min(Integer.MAX_VALUE, evictions.sum())
+		);
 	}
 
-	public synchronized boolean isEmpty() {
-		return cache.isEmpty();
+	public boolean isEmpty() {
+		return size() == 0;
 	}
 
 	// ----- private methods -----
+	private Segment getSegment(final Object key) {
+		return segments[spread(key.hashCode()) & (segments.length - 1)];
+	}
+
+	private int getSegmentSize(final int size, final int index) {
+
+		final int count = segments.length;
+
+		// distribute the remainder over the first segments
+		return Math.max(1, size / count + (index < size % count ? 1 : 0));
+	}
+
 	private MemoryPoolMXBean getOldGenerationMXBean() {
 
 		final List<MemoryPoolMXBean> beans = ManagementFactory.getMemoryPoolMXBeans();
@@ -107,59 +196,328 @@ public class FixedSizeCache<K, V> {
 
 		if (bean != null && now > lastUpdate + 1000) {
 
-			final MemoryUsage usage = bean.getCollectionUsage();
-			final double maxMemory  = Math.max(1, usage.getMax());
-			final double usedMemory = Math.max(1, usage.getUsed());
-			final double percentage = (usedMemory / maxMemory) * 100.0;
+			synchronized (this) {
 
-			lastUpdate = now;
+				// another thread might have checked in the meantime
+				if (now <= lastUpdate + 1000) {
+					return;
+				}
 
-			if (percentage > 98.00) {
+				final MemoryUsage usage = bean.getCollectionUsage();
+				final double maxMemory  = Math.max(1, usage.getMax());
+				final double usedMemory = Math.max(1, usage.getUsed());
+				final double percentage = (usedMemory / maxMemory) * 100.0;
 
-				int size = cache.maxSize();
+				lastUpdate = now;
 
-				size *= 0.5;
-				size /= 10000;
-				size *= 10000;
+				if (percentage > 98.00) {
 
-				// enforce lower bound for cache size
-				size = Math.max(1000, size);
+					int size = maxSize;
 
-				if (size == 1000) {
+					size *= 0.5;
+					size /= 10000;
+					size *= 10000;
 
-					logger.warn("JVM is running low on memory and {} size is at its minimum of {}. Please increase JVM heap size.", name, size);
+					// enforce lower bound for cache size
+					size = Math.max(1000, size);
 
-				} else {
+					if (size == 1000) {
 
-					logger.warn("JVM is running low on memory, limiting {} size to {}", name, size);
-					logger.warn("If this happens more than once, please increase JVM heap size or reduce cache sizes.");
-				}
+						logger.warn("JVM is running low on memory and {} size is at its minimum of {}. Please increase JVM heap size.", name, size);
+
+					} else {
+
+						logger.warn("JVM is running low on memory, limiting {} size to {}", name, size);
+						logger.warn("If this happens more than once, please increase JVM heap size or reduce cache sizes.");
+					}
 
-				cache.clear();
+					maxSize = size;
 
-				// replace current cache instance with limited one (should be ok to do since all methods are synchronized)
-				cache = new InvalidatingLRUMap<>(size);
+					for (int i=0; i<segments.length; i++) {
+						segments[i].setCapacity(getSegmentSize(size, i));
+					}
+				}
 			}
 		}
 	}
 
+	private void onEvict(final V value) {
+
+		evictions.increment();
+
+		if (value instanceof Cachable) {
+
+			((Cachable)value).onRemoveFromCache();
+		}
+	}
+
+	private static int spread(final int hashCode) {
+
+		int h = hashCode;
+
+		h ^= h >>> 16;
+		h *= 0x45d9f3b;
+		h ^= h >>> 16;
+
+		return h;
+	}
+
 	// ----- nested classes -----
-	private static class InvalidatingLRUMap<K, V> extends LRUMap<K, V> {
+	/**
+	 * A single lock stripe of the cache. New entries go to the window,
+	 * entries that are accessed again while in probation are promoted to
+	 * the protected area, and entries that leave the protected area are
+	 * demoted back to probation. All maps are in access order, so the
+	 * first entry is always the least recently used one.
+	 */
+	private class Segment {
+
+		private final LinkedHashMap<K, V> window    = new LinkedHashMap<>(16, 0.75f, true);
+		private final LinkedHashMap<K, V> probation = new LinkedHashMap<>(16, 0.75f, true);
+		private final LinkedHashMap<K, V> protect   = new LinkedHashMap<>(16, 0.75f, true);
+		private final FrequencySketch sketch;
+		private int windowMax                       = 0;
+		private int mainMax                         = 0;
+		private int protectedMax                    = 0;
+
+		public Segment(final int capacity) {
+
+			this.sketch = new FrequencySketch(capacity);
+
+			setCapacity(capacity);
+		}
+
+		public synchronized void setCapacity(final int capacity) {
+
+			windowMax    = Math.max(1, capacity / 100);
+			mainMax      = capacity - windowMax;
+			protectedMax = (int)(mainMax * 0.8);
+
+			clear();
+		}
+
+		public synchronized V get(final K key) {
+
+			sketch.increment(key);
+
+			V value = window.get(key);
+			if (value != null) {
+
+				return value;
+			}
+
+			value = probation.remove(key);
+			if (value != null) {
+
+				protect.put(key, value);
+
+				if (protect.size() > protectedMax) {
+
+					final Map.Entry<K, V> demoted = removeEldest(protect);
+					probation.put(demoted.getKey(), demoted.getValue());
+				}
+
+				return value;
+			}
+
+			return protect.get(key);
+		}
+
+		public synchronized V put(final K key, final V value, final boolean onlyIfAbsent) {
+
+			sketch.increment(key);
+
+			final LinkedHashMap<K, V> map = getMap(key);
+			if (map != null) {
+
+				if (onlyIfAbsent) {
+
+					return map.get(key);
+				}
+
+				map.put(key, value);
 
-		public InvalidatingLRUMap(final int maxSize) {
-			super(maxSize, true);
+				return value;
+			}
+
+			window.put(key, value);
+
+			evict();
+
+			return value;
+		}
+
+		public synchronized V remove(final K key) {
+
+			final V value = window.remove(key);
+			if (value != null) {
+
+				return value;
+			}
+
+			final V probationValue = probation.remove(key);
+			if (probationValue != null) {
+
+				return probationValue;
+			}
+
+			return protect.remove(key);
+		}
+
+		public synchronized void clear() {
+
+			window.clear();
+			probation.clear();
+			protect.clear();
+		}
+
+		public synchronized int size() {
+			return window.size() + probation.size() + protect.size();
+		}
+
+		// ----- private methods -----
+		private LinkedHashMap<K, V> getMap(final K key) {
+
+			if (window.containsKey(key)) {
+				return window;
+			}
+
+			if (probation.containsKey(key)) {
+				return probation;
+			}
+
+			if (protect.containsKey(key)) {
+				return protect;
+			}
+
+			return null;
+		}
+
+		private void evict() {
+
+			while (window.size() > windowMax) {
+
+				final Map.Entry<K, V> candidate = removeEldest(window);
+
+				if (probation.size() + protect.size() < mainMax) {
+
+					probation.put(candidate.getKey(), candidate.getValue());
+					continue;
+				}
+
+				if (mainMax == 0) {
+
+					onEvict(candidate.getValue());
+					continue;
+				}
+
+				final LinkedHashMap<K, V> victims = probation.isEmpty() ? protect : probation;
+				final Map.Entry<K, V> victim      = victims.entrySet().iterator().next();
+
+				// admit the candidate only if it is used at least as often as the victim
+				if (sketch.frequency(candidate.getKey()) >= sketch.frequency(victim.getKey())) {
+
+					victims.remove(victim.getKey());
+					probation.put(candidate.getKey(), candidate.getValue());
+
+					onEvict(victim.getValue());
+
+				} else {
+
+					onEvict(candidate.getValue());
+				}
+			}
 		}
 
-		@Override
-		protected boolean removeLRU(final LinkEntry<K, V> entry) {
+		private Map.Entry<K, V> removeEldest(final LinkedHashMap<K, V> map) {
+
+			final Iterator<Map.Entry<K, V>> iterator = map.entrySet().iterator();
+			final Map.Entry<K, V> eldest             = iterator.next();
+			final Map.Entry<K, V> result             = Map.entry(eldest.getKey(), eldest.getValue());
+
+			iterator.remove();
+
+			return result;
+		}
+	}
+
+	/**
+	 * Approximate access counts in a count-min sketch with four rows of
+	 * saturating counters. All counters are halved periodically so that
+	 * entries which were popular a long time ago can be replaced.
+	 */
+	private static class FrequencySketch {
 
-			final V value = entry.getValue();
-			if (value != null && value instanceof Cachable) {
+		private static final long[] SEEDS = { 0xc3a5c85c97cb3127L, 0xb492b66fbe98f273L, 0x9ae16a3b2f90404fL, 0xcbf29ce484222325L };
+		private static final int MAX_COUNT = 15;
 
-				((Cachable)value).onRemoveFromCache();
+		private final byte[][] table;
+		private final int sampleSize;
+		private final int mask;
+		private int additions = 0;
+
+		public FrequencySketch(final int capacity) {
+
+			final int width = Integer.highestOneBit(Math.max(16, capacity - 1) << 1);
+
+			this.table      = new byte[SEEDS.length][width];
+			this.sampleSize = 10 * Math.max(16, capacity);
+			this.mask       = width - 1;
+		}
+
+		public int frequency(final Object key) {
+
+			final int hash = spread(key.hashCode());
+			int frequency  = MAX_COUNT;
+
+			for (int i=0; i<SEEDS.length; i++) {
+				frequency = Math.min(frequency, table[i][index(hash, i)]);
+			}
+
+			return frequency;
+		}
+
+		public void increment(final Object key) {
+
+			final int hash    = spread(key.hashCode());
+			boolean increased = false;
+
+			for (int i=0; i<SEEDS.length; i++) {
+
+				final int index = index(hash, i);
+
+				if (table[i][index] < MAX_COUNT) {
+
+					table[i][index]++;
+					increased = true;
+				}
+			}
+
+			if (increased && ++additions >= sampleSize) {
+				reset();
+			}
+		}
+
+		// ----- private methods -----
+		private int index(final int hash, final int row) {
+
+			long h = (hash + SEEDS[row]) * SEEDS[row];
+
+			h += h >>> 32;
+
+			return (int)h & mask;
+		}
+
+		private void reset() {
+
+			for (final byte[] row : table) {
+
+				for (int i=0; i<row.length; i++) {
+					row[i] >>= 1;
+				}
 			}
 
-			return true;
+			additions /= 2;
 		}
 	}
 }
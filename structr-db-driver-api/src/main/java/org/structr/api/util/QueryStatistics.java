@@ -0,0 +1,470 @@
+/*
+ * Copyright (C) 2010-2020 Structr GmbH
+ *
+ * This file is part of Structr <http://structr.org>.
+ *
+ * Structr is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * Structr is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Structr.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.structr.api.util;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.regex.Pattern;
+import org.apache.commons.lang.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.structr.api.config.Settings;
+
+/**
+ * Execution statistics for database statements, grouped by statement
+ * shape. Statements are normalized by replacing literals and parameter
+ * names with placeholders, so that all executions of the same query
+ * share a single entry. The number of entries is bounded, the entries
+ * with the lowest total execution time are evicted first.
+ *
+ * Statements that take longer than the configured threshold are logged
+ * together with their parameters and the request that caused them.
+ */
+public class QueryStatistics {
+
+	private static final Logger logger                       = LoggerFactory.getLogger(QueryStatistics.class);
+	private static final ThreadLocal<String> requestInfo     = new ThreadLocal<>();
+	private static final Pattern STRING_LITERAL              = Pattern.compile("'(?:[^'\\\\]|\\\\.)*'|\"(?:[^\"\\\\]|\\\\.)*\"");
+	private static final Pattern NUMBER_LITERAL              = Pattern.compile("(?<![\\w$.])-?\\d+(?:\\.\\d+)?(?![\\w])");
+	private static final Pattern PARAMETER                   = Pattern.compile("\\$\\w+");
+	private static final Pattern LIST_LITERAL                = Pattern.compile("\\[\\s*\\?(?:\\s*,\\s*\\?)*\\s*\\]");
+	private static final Pattern WHITESPACE                  = Pattern.compile("\\s+");
+	private static final int MAX_PARAMETER_LENGTH            = 1000;
+	private static final int BUCKETS                         = 40;
+	private static final int MAX_FINGERPRINTS                = 10000;
+
+	private static final FixedSizeCache<String, String> fingerprints = new FixedSizeCache<>("Query fingerprint cache", MAX_FINGERPRINTS);
+
+	private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+
+	/**
+	 * Sets a description of the request that is processed by the current
+	 * thread, which is included in the slow query log.
+	 */
+	public static void setRequestInfo(final String info) {
+
+		if (info != null) {
+
+			requestInfo.set(info);
+
+		} else {
+
+			requestInfo.remove();
+		}
+	}
+
+	public static String getRequestInfo() {
+		return requestInfo.get();
+	}
+
+	/**
+	 * Returns the normalized form of the given statement: labels,
+	 * relationship types and property names are kept, literals and
+	 * parameters are replaced by placeholders. Results are cached per
+	 * statement, since most statements are executed over and over again.
+	 */
+	public static String fingerprint(final String statement) {
+
+		if (statement == null) {
+			return "";
+		}
+
+		String result = fingerprints.get(statement);
+		if (result == null) {
+
+			result = normalize(statement);
+
+			fingerprints.put(statement, result);
+		}
+
+		return result;
+	}
+
+	/**
+	 * Records an execution of the given statement.
+	 *
+	 * @param statement the statement
+	 * @param parameters the parameters (only used for the slow query log)
+	 * @param startNanos the start time as returned by System.nanoTime()
+	 * @param rows the number of rows returned
+	 */
+	public void record(final String statement, final Map<String, Object> parameters, final long startNanos, final long rows) {
+		record(statement, parameters, startNanos, rows, getRequestInfo());
+	}
+
+	/**
+	 * Records an execution of the given statement that was started by
+	 * the given request, for statements that finish on a different thread.
+	 *
+	 * @param statement the statement
+	 * @param parameters the parameters (only used for the slow query log)
+	 * @param startNanos the start time as returned by System.nanoTime()
+	 * @param rows the number of rows returned
+	 * @param request the request info of the thread that ran the statement
+	 */
+	public void record(final String statement, final Map<String, Object> parameters, final long startNanos, final long rows, final String request) {
+
+		if (!Settings.QueryStatisticsEnabled.getValue()) {
+			return;
+		}
+
+		final long nanos       = System.nanoTime() - startNanos;
+		final String shape     = fingerprint(statement);
+		Entry entry            = entries.get(shape);
+
+		if (entry == null) {
+
+			// make room before inserting, the new entry would otherwise be the first victim
+			while (entries.size() >= Settings.QueryStatisticsSize.getValue() && !entries.isEmpty()) {
+				evict();
+			}
+
+			entry = entries.computeIfAbsent(shape, Entry::new);
+		}
+
+		entry.record(nanos, rows);
+
+		final long millis    = TimeUnit.NANOSECONDS.toMillis(nanos);
+		final int threshold = Settings.SlowQueryThreshold.getValue();
+
+		if (threshold > 0 && millis >= threshold) {
+
+			logger.warn("Slow query ({} ms, {} rows): {}\t\t Parameters: {}\t\t Request: {}", millis, rows, statement, formatParameters(statement, parameters), request);
+		}
+	}
+
+	/**
+	 * Returns an iterator that records the execution of the given
+	 * statement when the given iterator is exhausted, with the number
+	 * of elements it returned.
+	 */
+	public <T> Iterator<T> track(final String statement, final Map<String, Object> parameters, final long startNanos, final Iterator<T> iterator) {
+		return new TrackingIterator<>(statement, parameters, startNanos, iterator);
+	}
+
+	/**
+	 * Returns the statistics of the top entries, sorted by the given key
+	 * (one of count, total, mean, max, rows) in descending order.
+	 */
+	public List<Map<String, Object>> getStatistics(final String sortKey, final int maxResults) {
+
+		final List<Map<String, Object>> result = new ArrayList<>();
+		final List<Entry> sorted               = new ArrayList<>(entries.values());
+
+		sorted.sort(getComparator(sortKey).reversed());
+
+		for (final Entry entry : sorted) {
+
+			if (result.size() >= maxResults) {
+				break;
+			}
+
+			result.add(entry.toMap());
+		}
+
+		return result;
+	}
+
+	public void clear() {
+		entries.clear();
+	}
+
+	// ----- private methods -----
+	private void evict() {
+
+		Entry victim = null;
+
+		for (final Entry entry : entries.values()) {
+
+			if (victim == null || entry.total.sum() < victim.total.sum()) {
+				victim = entry;
+			}
+		}
+
+		if (victim != null) {
+			entries.remove(victim.shape);
+		}
+	}
+
+	private Comparator<Entry> getComparator(final String sortKey) {
+
+		switch (StringUtils.defaultString(sortKey)) {
+
+			case "count":
+				return Comparator.comparingLong(e -> e.count.sum());
+
+			case "mean":
+				return Comparator.comparingLong(Entry::getMeanNanos);
+
+			case "max":
+				return Comparator.comparingLong(e -> e.max.get());
+
+			case "rows":
+				return Comparator.comparingLong(e -> e.rows.sum());
+
+			default:
+				return Comparator.comparingLong(e -> e.total.sum());
+		}
+	}
+
+	// ----- package-private static methods -----
+	/**
+	 * Returns the parameters for the slow query log. Values of sensitive
+	 * keys are masked, and all parameters are suppressed if the statement
+	 * itself sets a sensitive property.
+	 */
+	static String formatParameters(final String statement, final Map<String, Object> parameters) {
+
+		if (parameters == null || parameters.isEmpty()) {
+			return "none";
+		}
+
+		final Set<String> sensitiveKeys = getSensitiveKeys();
+
+		for (final String key : sensitiveKeys) {
+
+			if (statement.contains(key)) {
+				return "suppressed";
+			}
+		}
+
+		return StringUtils.abbreviate(mask(parameters, sensitiveKeys).toString(), MAX_PARAMETER_LENGTH);
+	}
+
+	// ----- private static methods -----
+	private static String normalize(final String statement) {
+
+		String result = statement;
+
+		result = STRING_LITERAL.matcher(result).replaceAll("?");
+		result = PARAMETER.matcher(result).replaceAll("\\$?");
+		result = NUMBER_LITERAL.matcher(result).replaceAll("?");
+		result = LIST_LITERAL.matcher(result).replaceAll("[?]");
+		result = WHITESPACE.matcher(result).replaceAll(" ");
+
+		return result.trim();
+	}
+
+	private static Set<String> getSensitiveKeys() {
+
+		final Set<String> keys = new LinkedHashSet<>();
+		final String value     = Settings.SlowQuerySensitiveKeys.getValue();
+
+		if (StringUtils.isNotBlank(value)) {
+
+			for (final String key : value.split("[ ,]+")) {
+
+				if (StringUtils.isNotBlank(key)) {
+					keys.add(key);
+				}
+			}
+		}
+
+		return keys;
+	}
+
+	/**
+	 * Returns a copy of the given value with the values of sensitive keys
+	 * replaced, descending into nested maps and collections.
+	 */
+	private static Object mask(final Object value, final Set<String> sensitiveKeys) {
+
+		if (value instanceof Map) {
+
+			final Map<Object, Object> result = new LinkedHashMap<>();
+
+			for (final Map.Entry<?, ?> entry : ((Map<?, ?>)value).entrySet()) {
+
+				if (sensitiveKeys.contains(String.valueOf(entry.getKey()))) {
+
+					result.put(entry.getKey(), "***");
+
+				} else {
+
+					result.put(entry.getKey(), mask(entry.getValue(), sensitiveKeys));
+				}
+			}
+
+			return result;
+		}
+
+		if (value instanceof Collection) {
+
+			final List<Object> result = new ArrayList<>();
+
+			for (final Object element : (Collection<?>)value) {
+				result.add(mask(element, sensitiveKeys));
+			}
+
+			return result;
+		}
+
+		return value;
+	}
+
+	// ----- nested classes -----
+	private static class Entry {
+
+		private final AtomicLongArray histogram = new AtomicLongArray(BUCKETS);
+		private final LongAccumulator max       = new LongAccumulator(Math::max, 0L);
+		private final LongAdder count           = new LongAdder();
+		private final LongAdder total           = new LongAdder();
+		private final LongAdder rows            = new LongAdder();
+		private String shape                    = null;
+
+		public Entry(final String shape) {
+			this.shape = shape;
+		}
+
+		public void record(final long nanos, final long resultRows) {
+
+			count.increment();
+			total.add(nanos);
+			rows.add(Math.max(0L, resultRows));
+			max.accumulate(nanos);
+
+			histogram.incrementAndGet(bucket(nanos));
+		}
+
+		public long getMeanNanos() {
+
+			final long c = count.sum();
+			if (c > 0) {
+
+				return total.sum() / c;
+			}
+
+			return 0L;
+		}
+
+		public Map<String, Object> toMap() {
+
+			final Map<String, Object> map = new LinkedHashMap<>();
+
+			map.put("statement",   shape);
+			map.put("count",       count.sum());
+			map.put("rows",        rows.sum());
+			map.put("totalMillis", toMillis(total.sum()));
+			map.put("meanMillis",  toMillis(getMeanNanos()));
+			map.put("maxMillis",   toMillis(max.get()));
+			map.put("p50Millis",   toMillis(percentile(0.5)));
+			map.put("p95Millis",   toMillis(percentile(0.95)));
+			map.put("p99Millis",   toMillis(percentile(0.99)));
+
+			return map;
+		}
+
+		/**
+		 * Returns the upper bound of the histogram bucket that contains
+		 * the given percentile, capped at the maximum value.
+		 */
+		private long percentile(final double percentile) {
+
+			final long[] counts = new long[BUCKETS];
+			long sum            = 0L;
+
+			for (int i=0; i<BUCKETS; i++) {
+
+				counts[i] = histogram.get(i);
+				sum      += counts[i];
+			}
+
+			final long rank = (long)Math.ceil(sum * percentile);
+			long current    = 0L;
+
+			for (int i=0; i<BUCKETS; i++) {
+
+				current += counts[i];
+
+				if (current >= rank && current > 0) {
+
+					return Math.min(max.get(), TimeUnit.MICROSECONDS.toNanos(1L << i));
+				}
+			}
+
+			return max.get();
+		}
+
+		private int bucket(final long nanos) {
+
+			final long micros = Math.max(1L, TimeUnit.NANOSECONDS.toMicros(nanos));
+
+			// bucket i contains values up to 2^i microseconds
+			return Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(micros - 1));
+		}
+
+		private double toMillis(final long nanos) {
+			return nanos / 1000000.0;
+		}
+	}
+
+	private class TrackingIterator<T> implements Iterator<T> {
+
+		private Map<String, Object> parameters = null;
+		private Iterator<T> iterator           = null;
+		private String statement               = null;
+		private boolean recorded               = false;
+		private long startNanos                = 0L;
+		private long rows                      = 0L;
+
+		public TrackingIterator(final String statement, final Map<String, Object> parameters, final long startNanos, final Iterator<T> iterator) {
+
+			this.parameters = parameters;
+			this.statement  = statement;
+			this.startNanos = startNanos;
+			this.iterator   = iterator;
+		}
+
+		@Override
+		public boolean hasNext() {
+
+			final boolean hasNext = iterator.hasNext();
+			if (!hasNext && !recorded) {
+
+				recorded = true;
+
+				record(statement, parameters, startNanos, rows);
+			}
+
+			return hasNext;
+		}
+
+		@Override
+		public T next() {
+
+			final T next = iterator.next();
+
+			rows++;
+
+			return next;
+		}
+	}
+}
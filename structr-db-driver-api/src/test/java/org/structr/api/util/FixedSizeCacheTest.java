@@ -18,8 +18,18 @@
  */
 package org.structr.api.util;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 import static org.testng.AssertJUnit.assertEquals;
 import static org.testng.AssertJUnit.assertNull;
+import static org.testng.AssertJUnit.assertSame;
+import static org.testng.AssertJUnit.assertTrue;
 import org.testng.annotations.Test;
 
 /**
@@ -43,19 +53,242 @@ public class FixedSizeCacheTest {
 
 		assertEquals("Invalid FixedSizeCache size", 10, test.size());
 
-		// check that only the eldest entries are kept
-		for (int i=0; i<90; i++) {
+		// the most recently inserted entry is always in the admission window
+		assertEquals("Invalid FixedSizeCache contents", Long.valueOf(99), test.get(99L));
+
+		int count = 0;
+
+		for (int i=0; i<100; i++) {
+
+			final Long value = Long.valueOf(i);
+			if (value.equals(test.get(value))) {
+				count++;
+			}
+		}
+
+		assertEquals("Invalid FixedSizeCache contents", 10, count);
+	}
+
+	@Test
+	public void testScanResistance() {
+
+		final FixedSizeCache<Long, Long> test = new FixedSizeCache<>("Test cache", 100);
+
+		// frequently used entries
+		for (int i=0; i<50; i++) {
+
+			final Long value = Long.valueOf(i);
+			test.put(value, value);
+		}
+
+		// move the last frequently used entry out of the admission window
+		test.put(999L, 999L);
+
+		for (int j=0; j<10; j++) {
+
+			for (int i=0; i<50; i++) {
+				test.get(Long.valueOf(i));
+			}
+		}
+
+		// a single scan over many entries
+		for (int i=1000; i<11000; i++) {
+
+			final Long value = Long.valueOf(i);
+			test.put(value, value);
+		}
+
+		assertEquals("Invalid FixedSizeCache size", 100, test.size());
+
+		for (int i=0; i<50; i++) {
 
 			final Long value = Long.valueOf(i);
-			assertNull("Invalid FixedSizeCache contents", test.get(value));
+			assertEquals("Frequently used entry was evicted by a scan", value, test.get(value));
 		}
+	}
+
+	@Test
+	public void testCacheInfo() {
 
-		// check that only the eldest entries are kept
-		for (int i=90; i<100; i++) {
+		final FixedSizeCache<Long, Long> test = new FixedSizeCache<>("Test cache", 10);
+
+		for (int i=0; i<20; i++) {
 
 			final Long value = Long.valueOf(i);
-			assertEquals("Invalid FixedSizeCache contents", test.get(value), value);
+			test.put(value, value);
 		}
 
+		test.get(19L);
+		test.get(1000L);
+
+		assertEquals("Invalid putIfAbsent result", Long.valueOf(19), test.putIfAbsent(19L, 20L));
+
+		final Map<String, Integer> info = test.getCacheInfo();
+
+		assertEquals("Invalid cache info", 10, (int)info.get("max"));
+		assertEquals("Invalid cache info", 10, (int)info.get("size"));
+		assertEquals("Invalid cache info", 1,  (int)info.get("hits"));
+		assertEquals("Invalid cache info", 1,  (int)info.get("misses"));
+		assertEquals("Invalid cache info", 10, (int)info.get("evictions"));
+	}
+
+	@Test
+	public void testConcurrentAccess() throws Exception {
+
+		final FixedSizeCache<Long, Long> test = new FixedSizeCache<>("Test cache", 50000);
+		final ExecutorService executor        = Executors.newFixedThreadPool(8);
+		final List<Future> futures            = new ArrayList<>();
+
+		for (int t=0; t<8; t++) {
+
+			final int offset = t;
+
+			futures.add(executor.submit(() -> {
+
+				for (int i=0; i<100000; i++) {
+
+					final Long key = Long.valueOf((i * 8 + offset) % 80000);
+
+					assertEquals("Invalid FixedSizeCache contents", key, test.putIfAbsent(key, key));
+					test.get(key);
+				}
+			}));
+		}
+
+		// propagate assertion errors of the worker threads
+		for (final Future future : futures) {
+			future.get();
+		}
+
+		executor.shutdown();
+
+		assertTrue("Invalid FixedSizeCache size", test.size() <= 50000);
+	}
+
+	@Test
+	public void testConcurrentPutIfAbsent() throws Exception {
+
+		final FixedSizeCache<Long, Object> test = new FixedSizeCache<>("Test cache", 10000);
+		final ExecutorService executor          = Executors.newFixedThreadPool(8);
+		final CountDownLatch latch              = new CountDownLatch(1);
+		final Object[][] results                = new Object[8][1000];
+		final List<Future> futures              = new ArrayList<>();
+
+		for (int t=0; t<8; t++) {
+
+			final Object[] result = results[t];
+
+			futures.add(executor.submit(() -> {
+
+				latch.await();
+
+				for (int i=0; i<1000; i++) {
+
+					// each thread offers its own instance
+					result[i] = test.putIfAbsent(Long.valueOf(i), new Object());
+				}
+
+				return null;
+			}));
+		}
+
+		latch.countDown();
+
+		for (final Future future : futures) {
+			future.get();
+		}
+
+		executor.shutdown();
+
+		for (int i=0; i<1000; i++) {
+
+			final Object cached = test.get(Long.valueOf(i));
+
+			for (int t=0; t<8; t++) {
+				assertSame("Concurrent callers of putIfAbsent must share a single instance", cached, results[t][i]);
+			}
+		}
+	}
+
+	@Test
+	public void testConcurrentEviction() throws Exception {
+
+		final FixedSizeCache<Long, TestValue> test = new FixedSizeCache<>("Test cache", 4096);
+		final ExecutorService executor             = Executors.newFixedThreadPool(8);
+		final CountDownLatch latch                 = new CountDownLatch(1);
+		final TestValue[] values                   = new TestValue[80000];
+		final List<Future> futures                 = new ArrayList<>();
+
+		for (int i=0; i<values.length; i++) {
+			values[i] = new TestValue();
+		}
+
+		for (int t=0; t<8; t++) {
+
+			final int offset = t;
+
+			futures.add(executor.submit(() -> {
+
+				latch.await();
+
+				for (int i=offset; i<values.length; i+=8) {
+
+					final Long key = Long.valueOf(i);
+
+					test.putIfAbsent(key, values[i]);
+
+					// access some entries more often so that they are admitted to the main area
+					if (i % 10 == 0) {
+						test.get(key);
+					}
+				}
+
+				return null;
+			}));
+		}
+
+		latch.countDown();
+
+		for (final Future future : futures) {
+			future.get();
+		}
+
+		executor.shutdown();
+
+		final int size = test.size();
+		int evicted    = 0;
+
+		assertEquals("Invalid FixedSizeCache size", 4096, size);
+
+		for (int i=0; i<values.length; i++) {
+
+			final int removals = values[i].removals.get();
+
+			assertTrue("Evicted entry must be notified exactly once", removals <= 1);
+
+			if (removals == 1) {
+
+				assertNull("Evicted entry must not be in the cache", test.get(Long.valueOf(i)));
+				evicted++;
+
+			} else {
+
+				assertSame("Entry that was not evicted must be in the cache", values[i], test.get(Long.valueOf(i)));
+			}
+		}
+
+		assertEquals("Every entry that left the cache must be notified", values.length - size, evicted);
+		assertEquals("Invalid cache info", evicted, (int)test.getCacheInfo().get("evictions"));
+	}
+
+	// ----- nested classes -----
+	private static class TestValue implements Cachable {
+
+		private final AtomicInteger removals = new AtomicInteger(0);
+
+		@Override
+		public void onRemoveFromCache() {
+			removals.incrementAndGet();
+		}
 	}
 }
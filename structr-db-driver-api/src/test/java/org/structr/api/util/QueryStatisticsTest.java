@@ -0,0 +1,154 @@
+/*
+ * Copyright (C) 2010-2020 Structr GmbH
+ *
+ * This file is part of Structr <http://structr.org>.
+ *
+ * Structr is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * Structr is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Structr.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.structr.api.util;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import org.structr.api.config.Settings;
+import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.assertFalse;
+import static org.testng.AssertJUnit.assertSame;
+import static org.testng.AssertJUnit.assertTrue;
+import org.testng.annotations.Test;
+
+/**
+ *
+ */
+public class QueryStatisticsTest {
+
+	@Test
+	public void testFingerprint() {
+
+		assertEquals("Invalid fingerprint", "MATCH (n:NodeInterface:User) WHERE n.name = ? AND ID(n) IN $? RETURN n LIMIT ?", QueryStatistics.fingerprint("MATCH (n:NodeInterface:User)  WHERE n.name = 'test' AND ID(n) IN $ids\nRETURN n LIMIT 10"));
+		assertEquals("Invalid fingerprint", "MATCH (n:Tenant1) WHERE ID(n) IN [?] RETURN n", QueryStatistics.fingerprint("MATCH (n:Tenant1) WHERE ID(n) IN [1, 2, 3] RETURN n"));
+
+		// statements that only differ in their literals must share a fingerprint
+		assertEquals("Invalid fingerprint", QueryStatistics.fingerprint("MATCH (n) WHERE n.age > 18 RETURN n"), QueryStatistics.fingerprint("MATCH (n) WHERE n.age > 21 RETURN n"));
+
+		// repeated statements must be served from the fingerprint cache
+		final String statement = "MATCH (n:Group) WHERE n.name = 'admins' RETURN n";
+
+		assertSame("Fingerprint was not cached", QueryStatistics.fingerprint(statement), QueryStatistics.fingerprint(statement));
+	}
+
+	@Test
+	public void testStatistics() {
+
+		final QueryStatistics statistics = new QueryStatistics();
+		final long now                   = System.nanoTime();
+
+		statistics.record("MATCH (n) WHERE ID(n) = $id RETURN n", Collections.emptyMap(), now, 1);
+		statistics.record("MATCH (n) WHERE ID(n) = $id2 RETURN n", Collections.emptyMap(), now, 1);
+		statistics.record("MATCH (n:Group) RETURN n", Collections.emptyMap(), now, 5);
+
+		final List<Map<String, Object>> result = statistics.getStatistics("count", 10);
+
+		assertEquals("Invalid number of statement shapes", 2, result.size());
+		assertEquals("Invalid statement shape", "MATCH (n) WHERE ID(n) = $? RETURN n", result.get(0).get("statement"));
+		assertEquals("Invalid execution count", 2L, result.get(0).get("count"));
+		assertEquals("Invalid row count", 5L, result.get(1).get("rows"));
+
+		final double p50 = (Double)result.get(0).get("p50Millis");
+		final double max = (Double)result.get(0).get("maxMillis");
+
+		assertTrue("Percentile must not exceed maximum", p50 <= max);
+	}
+
+	@Test
+	public void testEvictionAtCapacity() {
+
+		final QueryStatistics statistics = new QueryStatistics();
+		final int size                   = Settings.QueryStatisticsSize.getValue();
+
+		Settings.QueryStatisticsSize.setValue(2);
+
+		try {
+
+			statistics.record("MATCH (n:A) RETURN n", Collections.emptyMap(), System.nanoTime() - 300_000_000L, 1);
+			statistics.record("MATCH (n:B) RETURN n", Collections.emptyMap(), System.nanoTime() - 200_000_000L, 1);
+
+			// a new statement shape must be admitted at capacity, replacing the entry with the lowest total
+			statistics.record("MATCH (n:C) RETURN n", Collections.emptyMap(), System.nanoTime(), 1);
+			statistics.record("MATCH (n:C) RETURN n", Collections.emptyMap(), System.nanoTime(), 1);
+
+			final List<Map<String, Object>> result = statistics.getStatistics("count", 10);
+
+			assertEquals("Invalid number of statement shapes", 2, result.size());
+			assertEquals("New statement shape was not admitted", "MATCH (n:C) RETURN n", result.get(0).get("statement"));
+			assertEquals("Invalid execution count", 2L, result.get(0).get("count"));
+			assertEquals("Entry with the lowest total must be evicted", "MATCH (n:A) RETURN n", result.get(1).get("statement"));
+
+		} finally {
+
+			Settings.QueryStatisticsSize.setValue(size);
+		}
+	}
+
+	@Test
+	public void testSensitiveParameters() {
+
+		final Map<String, Object> row        = new LinkedHashMap<>();
+		final Map<String, Object> props      = new LinkedHashMap<>();
+		final Map<String, Object> parameters = new LinkedHashMap<>();
+
+		props.put("name",         "admin");
+		props.put("passwordHash", "secret");
+		props.put("salt",         "pepper");
+
+		row.put("id",    1L);
+		row.put("props", props);
+
+		parameters.put("batch",      Arrays.asList(row));
+		parameters.put("sessionIds", new String[] { "abc" });
+
+		final String formatted = QueryStatistics.formatParameters("UNWIND $batch AS row MATCH (n) WHERE ID(n) = row.id SET n += row.props", parameters);
+
+		assertTrue("Non-sensitive value must be logged", formatted.contains("admin"));
+		assertFalse("Password hash must be masked", formatted.contains("secret"));
+		assertFalse("Salt must be masked", formatted.contains("pepper"));
+		assertFalse("Session IDs must be masked", formatted.contains("abc"));
+
+		// sensitive keys in the statement itself suppress all parameters
+		assertEquals("Parameters must be suppressed", "suppressed", QueryStatistics.formatParameters("MATCH (n) WHERE ID(n) = $id SET n.`twoFactorSecret` = $value", Map.of("id", 1L, "value", "secret")));
+	}
+
+	@Test
+	public void testTrackingIterator() {
+
+		final QueryStatistics statistics = new QueryStatistics();
+		final Iterator<Integer> iterator = statistics.track("MATCH (n) RETURN n", null, System.nanoTime(), Arrays.asList(1, 2, 3).iterator());
+
+		while (iterator.hasNext()) {
+			iterator.next();
+		}
+
+		// exhausting the iterator a second time must not record again
+		iterator.hasNext();
+
+		final List<Map<String, Object>> result = statistics.getStatistics(null, 10);
+
+		assertEquals("Invalid number of statement shapes", 1, result.size());
+		assertEquals("Invalid execution count", 1L, result.get(0).get("count"));
+		assertEquals("Invalid row count", 3L, result.get(0).get("rows"));
+	}
+}
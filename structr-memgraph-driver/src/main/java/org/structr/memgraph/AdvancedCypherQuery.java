@@ -52,7 +52,7 @@ public class AdvancedCypherQuery implements CypherQuery {
 		this.queryContext      = queryContext;
 		this.index             = index;
 
-		if (queryContext.isSuperuser() && requestedPageSize < Integer.MAX_VALUE) {
+		if ((queryContext.isSuperuser() || queryContext.isVisibilityFiltered()) && requestedPageSize < Integer.MAX_VALUE) {
 
 			final int firstRequestedIndex = (requestedPage - 1) * requestedPageSize;
 			final int firstFetchIndex     = (firstRequestedIndex / fetchSize);
@@ -62,10 +62,12 @@ import org.structr.api.NotInTransactionException;
 import org.structr.api.RetryException;
 import org.structr.api.Transaction;
 import org.structr.api.config.Settings;
+import org.structr.api.graph.Direction;
 import org.structr.api.graph.GraphProperties;
 import org.structr.api.graph.Identity;
 import org.structr.api.graph.Node;
 import org.structr.api.graph.Relationship;
+import org.structr.api.graph.RelationshipType;
 import org.structr.api.index.Index;
 import org.structr.api.search.ExactQuery;
 import org.structr.api.search.Occurrence;
@@ -74,6 +76,7 @@ import org.structr.api.search.QueryPredicate;
 import org.structr.api.search.SortOrder;
 import org.structr.api.search.TypeQuery;
 import org.structr.api.util.CountResult;
+import org.structr.api.util.Iterables;
 import org.structr.api.util.NodeWithOwnerResult;
 
 /**
@@ -338,6 +341,11 @@ public class MemgraphDatabaseService extends AbstractDatabaseService implements
 		return buf.toString();
 	}
 
+	@Override
+	public void prefetchRelationships(final Iterable<Identity> nodeIds, final Direction direction, final RelationshipType relationshipType) {
+		NodeWrapper.prefetchRelationships(this, Iterables.map(id -> unwrap(id), nodeIds), direction, relationshipType);
+	}
+
 	@Override
 	public Node getNodeById(final Identity id) {
 		return getNodeById(unwrap(id));
@@ -863,6 +871,9 @@ public class MemgraphDatabaseService extends AbstractDatabaseService implements
 
 			case AuthenticationRequired:
 				return false;
+
+			case VisibilityQueries:
+				return false;
 		}
 
 		return false;
@@ -18,8 +18,11 @@
  */
 package org.structr.memgraph;
 
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.TreeSet;
@@ -42,6 +45,7 @@ import org.structr.api.util.Iterables;
 class NodeWrapper extends EntityWrapper<org.neo4j.driver.v1.types.Node> implements Node {
 
 	private static final Logger logger                                           = LoggerFactory.getLogger(NodeWrapper.class);
+	private static final int PREFETCH_CHUNK_SIZE                                 = 1000;
 	protected static FixedSizeCache<Long, NodeWrapper> nodeCache                 = null;
 
 	private final Map<String, Map<String, RelationshipResult>> relationshipCache = new HashMap<>();
@@ -243,7 +247,7 @@ class NodeWrapper extends EntityWrapper<org.neo4j.driver.v1.types.Node> implemen
 		final RelationshipResult cache = getRelationshipCache(null, null);
 		final String tenantIdentifier  = getTenantIdentifer(db);
 
-		return cache.getResult(db, id, concat("(n", tenantIdentifier, ")-[r]-()"), "(n)-[]-()", "RETURN r ORDER BY r.internalTimestamp");
+		return cache.getResult(db, id, concat("(n", tenantIdentifier, ")-[r]-(o)"), "(n)-[]-()", "RETURN r, o ORDER BY r.internalTimestamp");
 	}
 
 	@Override
@@ -260,10 +264,10 @@ class NodeWrapper extends EntityWrapper<org.neo4j.driver.v1.types.Node> implemen
 				return getRelationships();
 
 			case OUTGOING:
-				return cache.getResult(db, id, concat("(n", tenantIdentifier, ")-[r]->()"), "(n)-[]->()", "RETURN r ORDER BY r.internalTimestamp");
+				return cache.getResult(db, id, concat("(n", tenantIdentifier, ")-[r]->(o)"), "(n)-[]->()", "RETURN r, o ORDER BY r.internalTimestamp");
 
 			case INCOMING:
-				return cache.getResult(db, id, concat("(n", tenantIdentifier , ")<-[r]-()"), "(n)<-[]-()", "RETURN r ORDER BY r.internalTimestamp");
+				return cache.getResult(db, id, concat("(n", tenantIdentifier , ")<-[r]-(o)"), "(n)<-[]-()", "RETURN r, o ORDER BY r.internalTimestamp");
 		}
 
 		return null;
@@ -281,13 +285,13 @@ class NodeWrapper extends EntityWrapper<org.neo4j.driver.v1.types.Node> implemen
 		switch (direction) {
 
 			case BOTH:
-				return cache.getResult(db, id, concat("(n", tenantIdentifier, ")-[r:", rel, "]-()"), concat("(n)-[:", rel, "]-()"), "RETURN r ORDER BY r.internalTimestamp");
+				return cache.getResult(db, id, concat("(n", tenantIdentifier, ")-[r:", rel, "]-(o)"), concat("(n)-[:", rel, "]-()"), "RETURN r, o ORDER BY r.internalTimestamp");
 
 			case OUTGOING:
-				return cache.getResult(db, id, concat("(n", tenantIdentifier, ")-[r:", rel, "]->()"), concat("(n)-[:", rel, "]->()"), "RETURN r ORDER BY r.internalTimestamp");
+				return cache.getResult(db, id, concat("(n", tenantIdentifier, ")-[r:", rel, "]->(o)"), concat("(n)-[:", rel, "]->()"), "RETURN r, o ORDER BY r.internalTimestamp");
 
 			case INCOMING:
-				return cache.getResult(db, id, concat("(n", tenantIdentifier, ")<-[r:", rel, "]-()"), concat("(n)<-[:", rel, "]-()"), "RETURN r ORDER BY r.internalTimestamp");
+				return cache.getResult(db, id, concat("(n", tenantIdentifier, ")<-[r:", rel, "]-(o)"), concat("(n)<-[:", rel, "]-()"), "RETURN r, o ORDER BY r.internalTimestamp");
 		}
 
 		return null;
@@ -380,46 +384,114 @@ class NodeWrapper extends EntityWrapper<org.neo4j.driver.v1.types.Node> implemen
 	// ----- public static methods -----
 	public static NodeWrapper newInstance(final MemgraphDatabaseService db, final org.neo4j.driver.v1.types.Node node) {
 
-		synchronized (nodeCache) {
+		final NodeWrapper wrapper = nodeCache.get(node.id());
+		if (wrapper == null) { // || wrapper.stale) {
 
-			NodeWrapper wrapper = nodeCache.get(node.id());
-			if (wrapper == null) { // || wrapper.stale) {
+			// the cache is thread-safe, concurrent callers share the first instance
+			return nodeCache.putIfAbsent(node.id(), new NodeWrapper(db, node));
+		}
 
-				wrapper = new NodeWrapper(db, node);
-				nodeCache.put(node.id(), wrapper);
-			}
+		return wrapper;
+	}
+
+	public static NodeWrapper newInstance(final MemgraphDatabaseService db, final long id) {
+
+		NodeWrapper wrapper = nodeCache.get(id);
+		if (wrapper == null) { // || wrapper.stale) {
+
+			final SessionTransaction tx   = db.getCurrentTransaction();
+			final String tenantIdentifier = getTenantIdentifer(db);
+			final Map<String, Object> map = new HashMap<>();
 
-			return wrapper;
+			map.put("id", id);
+
+			final org.neo4j.driver.v1.types.Node node = tx.getNode(concat("MATCH (n", tenantIdentifier, ") WHERE ID(n) = $id RETURN DISTINCT n"), map);
+			if (node != null) {
+
+				wrapper = NodeWrapper.newInstance(db, node);
+
+			} else {
+
+				throw new NotFoundException("Node with ID " + id + " not found.");
+			}
 		}
+
+		return wrapper;
 	}
 
-	public static NodeWrapper newInstance(final MemgraphDatabaseService db, final long id) {
+	/**
+	 * Loads the relationships of the given nodes in a single query per
+	 * chunk of nodes, together with the nodes on their other end, and
+	 * stores them in the relationship caches of the nodes. Only nodes
+	 * that are already in the node cache and have not loaded the given
+	 * relationships yet are considered.
+	 */
+	public static void prefetchRelationships(final MemgraphDatabaseService db, final Iterable<Long> ids, final Direction direction, final RelationshipType relationshipType) {
 
-		synchronized (nodeCache) {
+		if (Settings.ForceResultStreaming.getValue()) {
+			return;
+		}
 
-			NodeWrapper wrapper = nodeCache.get(id);
-			if (wrapper == null) { // || wrapper.stale) {
+		final Direction actualDirection    = direction != null ? direction : Direction.BOTH;
+		final Direction cacheDirection     = relationshipType == null && Direction.BOTH.equals(actualDirection) ? null : actualDirection;
+		final Map<Long, NodeWrapper> nodes = new LinkedHashMap<>();
 
-				final SessionTransaction tx   = db.getCurrentTransaction();
-				final String tenantIdentifier = getTenantIdentifer(db);
-				final Map<String, Object> map = new HashMap<>();
+		for (final Long id : ids) {
 
-				map.put("id", id);
+			final NodeWrapper node = nodeCache.get(id);
+			if (node != null && !node.stale && !node.dontUseCache && !node.getRelationshipCache(cacheDirection, relationshipType).isLoaded()) {
 
-				final org.neo4j.driver.v1.types.Node node = tx.getNode(concat("MATCH (n", tenantIdentifier, ") WHERE ID(n) = $id RETURN DISTINCT n"), map);
-				if (node != null) {
+				nodes.put(id, node);
+			}
+		}
 
-					wrapper = NodeWrapper.newInstance(db, node);
+		if (nodes.isEmpty()) {
+			return;
+		}
+
+		final SessionTransaction tx   = db.getCurrentTransaction();
+		final String tenantIdentifier = getTenantIdentifer(db);
+		final String rel              = relationshipType != null ? concat("r:", relationshipType.name()) : "r";
+		final List<Long> allIds       = new ArrayList<>(nodes.keySet());
+		String pattern                = null;
 
-					nodeCache.put(id, wrapper);
+		switch (actualDirection) {
 
-				} else {
+			case OUTGOING:
+				pattern = concat("-[", rel, "]->");
+				break;
 
-					throw new NotFoundException("Node with ID " + id + " not found.");
-				}
+			case INCOMING:
+				pattern = concat("<-[", rel, "]-");
+				break;
+
+			default:
+				pattern = concat("-[", rel, "]-");
+				break;
+		}
+
+		final String statement = concat("MATCH (n", tenantIdentifier, ")", pattern, "(o) WHERE ID(n) IN $ids RETURN ID(n) AS id, r, o ORDER BY r.internalTimestamp");
+
+		for (int i=0; i<allIds.size(); i+=PREFETCH_CHUNK_SIZE) {
+
+			final List<Long> chunk                      = allIds.subList(i, Math.min(allIds.size(), i + PREFETCH_CHUNK_SIZE));
+			final Map<Long, List<Relationship>> grouped = new HashMap<>();
+			final Map<String, Object> params            = new HashMap<>();
+
+			params.put("ids", chunk);
+
+			// the other nodes are put into the node cache by the result wrapper
+			for (final Map<String, Object> row : tx.run(statement, params)) {
+
+				final Long id = ((Number)row.get("id")).longValue();
+
+				grouped.computeIfAbsent(id, k -> new ArrayList<>()).add((Relationship)row.get("r"));
 			}
 
-			return wrapper;
+			for (final Long id : chunk) {
+
+				nodes.get(id).getRelationshipCache(cacheDirection, relationshipType).prefetched(grouped.getOrDefault(id, Collections.emptyList()));
+			}
 		}
 	}
 
@@ -430,34 +502,25 @@ class NodeWrapper extends EntityWrapper<org.neo4j.driver.v1.types.Node> implemen
 
 	public static void expunge(final Set<Long> toRemove) {
 
-		synchronized (nodeCache) {
-
-			for (final Long id : toRemove) {
+		for (final Long id : toRemove) {
 
-				expunge(id);
-			}
+			expunge(id);
 		}
 	}
 
 	public static void expunge(final Long toRemove) {
 
-		synchronized (nodeCache) {
+		final NodeWrapper node = nodeCache.remove(toRemove);
+		if (node != null) {
 
-			final NodeWrapper node = nodeCache.remove(toRemove);
-			if (node != null) {
-
-				node.clearCaches();
-			}
+			node.clearCaches();
 		}
 	}
 
 	// ----- protected static methods -----
 	protected static void clearCache() {
 
-		synchronized (nodeCache) {
-
-			nodeCache.clear();
-		}
+		nodeCache.clear();
 	}
 
 	// ----- private static methods -----
@@ -508,6 +571,21 @@ class NodeWrapper extends EntityWrapper<org.neo4j.driver.v1.types.Node> implemen
 			}
 		}
 
+		public synchronized boolean isLoaded() {
+			return set != null;
+		}
+
+		public synchronized void prefetched(final List<Relationship> rels) {
+
+			if (set == null) {
+
+				// create sorted set (important if nodes are added later on)
+				set = new TreeSet<>((o1, o2) -> { return compare("internalTimestamp", o1, o2); });
+
+				set.addAll(rels);
+			}
+		}
+
 		public synchronized Iterable<Relationship> getResult(final MemgraphDatabaseService db, final long id, final String match, final String pattern, final String returnStatement) {
 
 			final String whereStatement         = " WHERE ID(n) = $id ";
@@ -194,7 +194,13 @@ class SessionTransaction implements org.structr.api.Transaction {
 		try {
 
 			logQuery(statement, map);
-			return tx.run(statement, map).next().get(0).asBoolean();
+
+			final long startNanos = System.nanoTime();
+			final boolean result  = tx.run(statement, map).next().get(0).asBoolean();
+
+			record(statement, map, startNanos, 1);
+
+			return result;
 
 		} catch (TransientException tex) {
 			closed = true;
@@ -236,7 +242,13 @@ class SessionTransaction implements org.structr.api.Transaction {
 		try {
 
 			logQuery(statement, map);
-			return tx.run(statement, map).next().get(0).asLong();
+
+			final long startNanos = System.nanoTime();
+			final long result     = tx.run(statement, map).next().get(0).asLong();
+
+			record(statement, map, startNanos, 1);
+
+			return result;
 
 		} catch (TransientException tex) {
 			closed = true;
@@ -257,12 +269,21 @@ class SessionTransaction implements org.structr.api.Transaction {
 		try {
 
 			logQuery(statement, map);
+
+			final long startNanos        = System.nanoTime();
 			final StatementResult result = tx.run(statement, map);
+
 			if (result.hasNext()) {
 
-				return result.next().get(0).asObject();
+				final Object value = result.next().get(0).asObject();
+
+				record(statement, map, startNanos, 1);
+
+				return value;
 			}
 
+			record(statement, map, startNanos, 0);
+
 		} catch (TransientException tex) {
 			closed = true;
 			throw new RetryException(tex);
@@ -284,7 +305,13 @@ class SessionTransaction implements org.structr.api.Transaction {
 		try {
 
 			logQuery(statement, map);
-			return tx.run(statement, map).next().get(0).asEntity();
+
+			final long startNanos = System.nanoTime();
+			final Entity result   = tx.run(statement, map).next().get(0).asEntity();
+
+			record(statement, map, startNanos, 1);
+
+			return result;
 
 		} catch (TransientException tex) {
 			closed = true;
@@ -306,9 +333,12 @@ class SessionTransaction implements org.structr.api.Transaction {
 
 			logQuery(statement, map);
 
+			final long startNanos        = System.nanoTime();
 			final StatementResult result = tx.run(statement, map);
 			final Record single          = result.single();
 
+			record(statement, map, startNanos, 1);
+
 			return single.get(0).asNode();
 
 		} catch (TransientException tex) {
@@ -331,9 +361,12 @@ class SessionTransaction implements org.structr.api.Transaction {
 
 			logQuery(statement, map);
 
+			final long startNanos        = System.nanoTime();
 			final StatementResult result = tx.run(statement, map);
 			final Record single          = result.single();
 
+			record(statement, map, startNanos, 1);
+
 			return single.get(0).asRelationship();
 
 		} catch (TransientException tex) {
@@ -354,10 +387,21 @@ class SessionTransaction implements org.structr.api.Transaction {
 
 		logQuery(statement, map);
 
+		final long startNanos = System.nanoTime();
+		final AtomicLong rows = new AtomicLong();
+
 		tx.runAsync(statement, map)
 			.thenCompose(cursor -> consumer.start(cursor))
-			.thenCompose(cursor -> cursor.forEachAsync(consumer::accept))
-			.thenAccept(summary -> consumer.finish())
+			.thenCompose(cursor -> cursor.forEachAsync(record -> {
+
+				rows.incrementAndGet();
+				consumer.accept(record);
+			}))
+			.thenAccept(summary -> {
+
+				record(statement, map, startNanos, rows.get());
+				consumer.finish();
+			})
 			.exceptionally(t -> consumer.exception(t));
 	}
 
@@ -366,10 +410,14 @@ class SessionTransaction implements org.structr.api.Transaction {
 		try {
 
 			logQuery(statement, map);
+
+			final long startNanos        = System.nanoTime();
 			final StatementResult result = tx.run(statement, map);
 			final Record record          = result.next();
 			final Value value            = record.get(0);
 
+			record(statement, map, startNanos, 1);
+
 			return new IteratorWrapper<>(value.asList(Values.ofString()).iterator());
 
 		} catch (TransientException tex) {
@@ -391,7 +439,10 @@ class SessionTransaction implements org.structr.api.Transaction {
 		try {
 
 			logQuery(statement, map);
-			return Iterables.map(new RecordMapMapper(db), new IteratorWrapper<>(tx.run(statement, map)));
+
+			final long startNanos = System.nanoTime();
+
+			return Iterables.map(new RecordMapMapper(db), new IteratorWrapper<>(db.getQueryStatistics().track(statement, map, startNanos, tx.run(statement, map))));
 
 		} catch (TransientException tex) {
 			closed = true;
@@ -412,8 +463,13 @@ class SessionTransaction implements org.structr.api.Transaction {
 		try {
 
 			logQuery(statement, map);
+
+			final long startNanos = System.nanoTime();
+
 			tx.run(statement, map).consume();
 
+			record(statement, map, startNanos, 0);
+
 		} catch (TransientException tex) {
 			closed = true;
 			throw new RetryException(tex);
@@ -497,6 +553,11 @@ class SessionTransaction implements org.structr.api.Transaction {
 		return transactionKey;
 	}
 
+	// ----- private methods -----
+	private void record(final String statement, final Map<String, Object> map, final long startNanos, final long rows) {
+		db.getQueryStatistics().record(statement, map, startNanos, rows);
+	}
+
 	// ----- public static methods -----
 	public static RuntimeException translateClientException(final ClientException cex) {
 
@@ -0,0 +1,504 @@
+/*
+ * Copyright (C) 2010-2020 Structr GmbH
+ *
+ * This file is part of Structr <http://structr.org>.
+ *
+ * Structr is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * Structr is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Structr.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.structr.memory;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.lang.reflect.Array;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+
+/**
+ * Binary encoding of log records and checkpoint segments.
+ *
+ * A segment starts with a format version and the commit timestamp,
+ * followed by a dictionary of all property keys, labels and type names
+ * used in the segment, so that these strings are stored and decoded once
+ * per segment instead of once per entity. Entities reference dictionary
+ * entries by index, and property values are written with a type tag and
+ * a length prefix where needed. Values of types without a dedicated tag
+ * fall back to Java serialization.
+ *
+ * Each segment is self-contained, so segments of a file can be decoded
+ * independently and in parallel.
+ */
+class BinaryRecordFormat {
+
+	static final byte FORMAT_VERSION = 2;
+
+	private static final byte TYPE_NULL       = 0;
+	private static final byte TYPE_STRING     = 1;
+	private static final byte TYPE_BOOLEAN    = 2;
+	private static final byte TYPE_INTEGER    = 3;
+	private static final byte TYPE_LONG       = 4;
+	private static final byte TYPE_DOUBLE     = 5;
+	private static final byte TYPE_FLOAT      = 6;
+	private static final byte TYPE_DATE       = 7;
+	private static final byte TYPE_ARRAY      = 8;
+	private static final byte TYPE_LIST       = 9;
+	private static final byte TYPE_SERIALIZED = 10;
+
+	static byte[] write(final LogRecord record) throws IOException {
+
+		final Map<String, Integer> dictionary = new LinkedHashMap<>();
+		final ByteArrayOutputStream body      = new ByteArrayOutputStream();
+		final DataOutputStream out            = new DataOutputStream(body);
+
+		out.writeInt(record.getDeletedNodes().size());
+		for (final MemoryIdentity id : record.getDeletedNodes()) {
+			writeIdentity(out, dictionary, id);
+		}
+
+		out.writeInt(record.getDeletedRelationships().size());
+		for (final MemoryIdentity id : record.getDeletedRelationships()) {
+			writeIdentity(out, dictionary, id);
+		}
+
+		out.writeInt(record.getNodes().size());
+		for (final MemoryNode node : record.getNodes()) {
+
+			writeIdentity(out, dictionary, node.getIdentity());
+			writeEntity(out, dictionary, node);
+		}
+
+		out.writeInt(record.getRelationships().size());
+		for (final MemoryRelationship relationship : record.getRelationships()) {
+
+			writeIdentity(out, dictionary, relationship.getIdentity());
+			writeIdentity(out, dictionary, relationship.getSourceNodeIdentity());
+			writeIdentity(out, dictionary, relationship.getTargetNodeIdentity());
+			out.writeInt(index(dictionary, relationship.getType().name()));
+			writeEntity(out, dictionary, relationship);
+		}
+
+		out.flush();
+
+		// header and dictionary must precede the body
+		final ByteArrayOutputStream result = new ByteArrayOutputStream(body.size() + dictionary.size() * 16 + 16);
+		final DataOutputStream header      = new DataOutputStream(result);
+
+		header.writeByte(FORMAT_VERSION);
+		header.writeLong(record.getTimestamp());
+		header.writeInt(dictionary.size());
+
+		for (final String value : dictionary.keySet()) {
+			writeString(header, value);
+		}
+
+		header.flush();
+		body.writeTo(result);
+
+		return result.toByteArray();
+	}
+
+	static LogRecord read(final MemoryDatabaseService db, final ByteBuffer in) throws IOException, ClassNotFoundException {
+
+		final byte version = in.get();
+		if (version != FORMAT_VERSION) {
+
+			throw new IllegalStateException("Storage format " + version + " does not match current format " + FORMAT_VERSION);
+		}
+
+		final long timestamp        = in.getLong();
+		final int dictionarySize    = in.getInt();
+		final String[] dictionary   = new String[dictionarySize];
+
+		for (int i=0; i<dictionarySize; i++) {
+			dictionary[i] = readString(in);
+		}
+
+		final int deletedNodeCount              = in.getInt();
+		final List<MemoryIdentity> deletedNodes = new ArrayList<>(deletedNodeCount);
+
+		for (int i=0; i<deletedNodeCount; i++) {
+			deletedNodes.add(readIdentity(in, dictionary));
+		}
+
+		final int deletedRelationshipCount              = in.getInt();
+		final List<MemoryIdentity> deletedRelationships = new ArrayList<>(deletedRelationshipCount);
+
+		for (int i=0; i<deletedRelationshipCount; i++) {
+			deletedRelationships.add(readIdentity(in, dictionary));
+		}
+
+		final int nodeCount          = in.getInt();
+		final List<MemoryNode> nodes = new ArrayList<>(nodeCount);
+
+		for (int i=0; i<nodeCount; i++) {
+
+			final MemoryIdentity id        = readIdentity(in, dictionary);
+			final Set<String> labels       = readLabels(in, dictionary);
+			final Map<String, Object> data = readProperties(in, dictionary);
+
+			nodes.add(MemoryNode.createFromStorage(db, id, labels, data));
+		}
+
+		final int relationshipCount                  = in.getInt();
+		final List<MemoryRelationship> relationships = new ArrayList<>(relationshipCount);
+
+		for (int i=0; i<relationshipCount; i++) {
+
+			final MemoryIdentity id        = readIdentity(in, dictionary);
+			final MemoryIdentity source    = readIdentity(in, dictionary);
+			final MemoryIdentity target    = readIdentity(in, dictionary);
+			final String relType           = dictionary[in.getInt()];
+			final Set<String> labels       = readLabels(in, dictionary);
+			final Map<String, Object> data = readProperties(in, dictionary);
+
+			relationships.add(MemoryRelationship.createFromStorage(db, id, relType, source, target, labels, data));
+		}
+
+		return new LogRecord(timestamp, nodes, relationships, deletedNodes, deletedRelationships);
+	}
+
+	// ----- private methods -----
+	private static int index(final Map<String, Integer> dictionary, final String value) {
+		return dictionary.computeIfAbsent(value, k -> dictionary.size());
+	}
+
+	private static void writeIdentity(final DataOutputStream out, final Map<String, Integer> dictionary, final MemoryIdentity id) throws IOException {
+
+		out.writeBoolean(id.isNode());
+		out.writeInt(index(dictionary, id.getType()));
+		out.writeLong(id.getId());
+	}
+
+	private static MemoryIdentity readIdentity(final ByteBuffer in, final String[] dictionary) throws IOException {
+
+		final boolean isNode = in.get() != 0;
+		final String type    = dictionary[in.getInt()];
+		final long id        = in.getLong();
+
+		return MemoryIdentity.createFromStorage(isNode, type, id);
+	}
+
+	private static void writeEntity(final DataOutputStream out, final Map<String, Integer> dictionary, final MemoryEntity entity) throws IOException {
+
+		final Set<String> labels       = entity.getCommittedLabels();
+		final Map<String, Object> data = entity.getCommittedProperties();
+
+		out.writeInt(labels.size());
+		for (final String label : labels) {
+			out.writeInt(index(dictionary, label));
+		}
+
+		out.writeInt(data.size());
+		for (final Entry<String, Object> entry : data.entrySet()) {
+
+			out.writeInt(index(dictionary, entry.getKey()));
+			writeValue(out, entry.getValue());
+		}
+	}
+
+	private static Set<String> readLabels(final ByteBuffer in, final String[] dictionary) {
+
+		final int count          = in.getInt();
+		final Set<String> labels = new LinkedHashSet<>(count * 2);
+
+		for (int i=0; i<count; i++) {
+			labels.add(dictionary[in.getInt()]);
+		}
+
+		return labels;
+	}
+
+	private static Map<String, Object> readProperties(final ByteBuffer in, final String[] dictionary) throws IOException, ClassNotFoundException {
+
+		final int count                = in.getInt();
+		final Map<String, Object> data = new HashMap<>(count * 2);
+
+		for (int i=0; i<count; i++) {
+
+			final String key   = dictionary[in.getInt()];
+			final Object value = readValue(in);
+
+			if (value != null) {
+				data.put(key, value);
+			}
+		}
+
+		return data;
+	}
+
+	private static void writeValue(final DataOutputStream out, final Object value) throws IOException {
+
+		final byte type = getType(value);
+
+		out.writeByte(type);
+
+		switch (type) {
+
+			case TYPE_NULL:
+				break;
+
+			case TYPE_STRING:
+				writeString(out, (String)value);
+				break;
+
+			case TYPE_BOOLEAN:
+				out.writeBoolean((Boolean)value);
+				break;
+
+			case TYPE_INTEGER:
+				out.writeInt((Integer)value);
+				break;
+
+			case TYPE_LONG:
+				out.writeLong((Long)value);
+				break;
+
+			case TYPE_DOUBLE:
+				out.writeDouble((Double)value);
+				break;
+
+			case TYPE_FLOAT:
+				out.writeFloat((Float)value);
+				break;
+
+			case TYPE_DATE:
+				out.writeLong(((Date)value).getTime());
+				break;
+
+			case TYPE_ARRAY:
+
+				final int length = Array.getLength(value);
+
+				out.writeByte(getType(value.getClass().getComponentType()));
+				out.writeInt(length);
+
+				for (int i=0; i<length; i++) {
+					writeValue(out, Array.get(value, i));
+				}
+				break;
+
+			case TYPE_LIST:
+
+				final Collection<?> list = (Collection<?>)value;
+
+				out.writeInt(list.size());
+
+				for (final Object element : list) {
+					writeValue(out, element);
+				}
+				break;
+
+			default:
+
+				final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+
+				try (final ObjectOutputStream oos = new ObjectOutputStream(bytes)) {
+					oos.writeObject(value);
+				}
+
+				out.writeInt(bytes.size());
+				bytes.writeTo(out);
+				break;
+		}
+	}
+
+	private static Object readValue(final ByteBuffer in) throws IOException, ClassNotFoundException {
+
+		final byte type = in.get();
+
+		switch (type) {
+
+			case TYPE_NULL:
+				return null;
+
+			case TYPE_STRING:
+				return readString(in);
+
+			case TYPE_BOOLEAN:
+				return in.get() != 0;
+
+			case TYPE_INTEGER:
+				return in.getInt();
+
+			case TYPE_LONG:
+				return in.getLong();
+
+			case TYPE_DOUBLE:
+				return in.getDouble();
+
+			case TYPE_FLOAT:
+				return in.getFloat();
+
+			case TYPE_DATE:
+				return new Date(in.getLong());
+
+			case TYPE_ARRAY:
+
+				final Class componentType = getComponentType(in.get());
+				final int length          = in.getInt();
+				final Object array        = Array.newInstance(componentType, length);
+
+				for (int i=0; i<length; i++) {
+					Array.set(array, i, readValue(in));
+				}
+
+				return array;
+
+			case TYPE_LIST:
+
+				final int size          = in.getInt();
+				final List<Object> list = new ArrayList<>(size);
+
+				for (int i=0; i<size; i++) {
+					list.add(readValue(in));
+				}
+
+				return list;
+
+			case TYPE_SERIALIZED:
+
+				final byte[] bytes = new byte[in.getInt()];
+
+				in.get(bytes);
+
+				try (final ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(bytes))) {
+					return ois.readObject();
+				}
+		}
+
+		throw new IllegalStateException("Unknown value type " + type);
+	}
+
+	private static byte getType(final Object value) {
+
+		if (value == null) {
+			return TYPE_NULL;
+		}
+
+		final Class type = value.getClass();
+
+		if (type.isArray() && !type.getComponentType().isPrimitive() && getType(type.getComponentType()) != TYPE_SERIALIZED) {
+			return TYPE_ARRAY;
+		}
+
+		if (value instanceof List) {
+			return TYPE_LIST;
+		}
+
+		return getType(type);
+	}
+
+	private static byte getType(final Class type) {
+
+		if (String.class.equals(type)) {
+			return TYPE_STRING;
+		}
+
+		if (Boolean.class.equals(type)) {
+			return TYPE_BOOLEAN;
+		}
+
+		if (Integer.class.equals(type)) {
+			return TYPE_INTEGER;
+		}
+
+		if (Long.class.equals(type)) {
+			return TYPE_LONG;
+		}
+
+		if (Double.class.equals(type)) {
+			return TYPE_DOUBLE;
+		}
+
+		if (Float.class.equals(type)) {
+			return TYPE_FLOAT;
+		}
+
+		if (Date.class.equals(type)) {
+			return TYPE_DATE;
+		}
+
+		return TYPE_SERIALIZED;
+	}
+
+	private static Class getComponentType(final byte type) {
+
+		switch (type) {
+
+			case TYPE_STRING:
+				return String.class;
+
+			case TYPE_BOOLEAN:
+				return Boolean.class;
+
+			case TYPE_INTEGER:
+				return Integer.class;
+
+			case TYPE_LONG:
+				return Long.class;
+
+			case TYPE_DOUBLE:
+				return Double.class;
+
+			case TYPE_FLOAT:
+				return Float.class;
+
+			case TYPE_DATE:
+				return Date.class;
+		}
+
+		throw new IllegalStateException("Unknown array component type " + type);
+	}
+
+	private static void writeString(final DataOutputStream out, final String value) throws IOException {
+
+		final byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+
+		out.writeInt(bytes.length);
+		out.write(bytes);
+	}
+
+	private static String readString(final ByteBuffer in) {
+
+		final int length = in.getInt();
+
+		if (in.hasArray()) {
+
+			final String value = new String(in.array(), in.arrayOffset() + in.position(), length, StandardCharsets.UTF_8);
+
+			in.position(in.position() + length);
+
+			return value;
+		}
+
+		final byte[] bytes = new byte[length];
+
+		in.get(bytes);
+
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+}
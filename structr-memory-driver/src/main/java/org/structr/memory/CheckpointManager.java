@@ -0,0 +1,564 @@
+/*
+ * Copyright (C) 2010-2020 Structr GmbH
+ *
+ * This file is part of Structr <http://structr.org>.
+ *
+ * Structr is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * Structr is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Structr.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.structr.memory;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+import org.apache.commons.lang3.exception.ExceptionUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Durable storage for the in-memory database. Commits are appended to a
+ * write-ahead log, and a background thread periodically writes the
+ * entities that were modified since the last checkpoint into a new
+ * checkpoint file, after which the log files can be deleted.
+ *
+ * When the number of incremental checkpoints exceeds a threshold, a full
+ * checkpoint with all entities is written and replaces the older files.
+ * Recovery loads the latest full checkpoint, the incremental checkpoints
+ * written after it and the remaining log files, in that order.
+ */
+class CheckpointManager extends Thread {
+
+	private static final Logger logger                       = LoggerFactory.getLogger(CheckpointManager.class);
+	private static final String CHECKPOINT_PREFIX            = "checkpoint-";
+	private static final String FULL_SUFFIX                  = ".full.bin";
+	private static final String INCREMENTAL_SUFFIX           = ".bin";
+	private static final int MAX_INCREMENTAL_CHECKPOINTS     = 10;
+	private static final int ENTITIES_PER_RECORD             = 10_000;
+
+	private Map<MemoryIdentity, MemoryRelationship> dirtyRelationships = new LinkedHashMap<>();
+	private Map<MemoryIdentity, MemoryNode> dirtyNodes                 = new LinkedHashMap<>();
+	private Set<MemoryIdentity> deletedRelationships                   = new LinkedHashSet<>();
+	private Set<MemoryIdentity> deletedNodes                           = new LinkedHashSet<>();
+	private MemoryRelationshipRepository relationships                 = null;
+	private MemoryNodeRepository nodes                                 = null;
+	private MemoryDatabaseService db                                   = null;
+	private WriteAheadLog log                                          = null;
+	private File directory                                             = null;
+	private int incrementalCheckpoints                                 = 0;
+	private long interval                                              = 0L;
+	private volatile boolean doRun                                     = true;
+
+	CheckpointManager(final MemoryDatabaseService db, final MemoryNodeRepository nodes, final MemoryRelationshipRepository relationships, final File directory, final long syncDelay, final long interval) {
+
+		super("MemoryCheckpointManager");
+
+		this.setDaemon(true);
+
+		this.log           = new WriteAheadLog(directory, syncDelay);
+		this.relationships = relationships;
+		this.directory     = directory;
+		this.interval      = interval;
+		this.nodes         = nodes;
+		this.db            = db;
+	}
+
+	@Override
+	public void run() {
+
+		while (doRun) {
+
+			try { Thread.sleep(interval); } catch (InterruptedException iex) {}
+
+			if (doRun) {
+
+				checkpoint(false);
+			}
+		}
+	}
+
+	/**
+	 * Loads the stored data into the repositories and returns the commit
+	 * timestamp of the last recovered transaction.
+	 */
+	long recover() throws IOException {
+
+		final File legacyNodesFile         = nodes.getNodeStorageFile(directory);
+		final File legacyRelationshipsFile = relationships.getRelationshipStorageFile(directory);
+		final boolean migrate              = legacyNodesFile.exists() || legacyRelationshipsFile.exists();
+		long lastTimestamp                 = 0L;
+
+		if (migrate) {
+
+			// data of the previous storage format is the base for all checkpoints
+			nodes.loadFromStorage(db, directory);
+			relationships.loadFromStorage(db, directory);
+		}
+
+		for (final File file : getCheckpointFiles()) {
+
+			for (final LogRecord record : readRecords(file)) {
+
+				apply(record, false);
+			}
+
+			lastTimestamp = Math.max(lastTimestamp, getTimestamp(file));
+		}
+
+		final long checkpointTimestamp = lastTimestamp;
+		final List<File> logFiles      = WriteAheadLog.getLogFiles(directory);
+		int replayed                   = 0;
+
+		for (final File file : logFiles) {
+
+			for (final LogRecord record : readRecords(file)) {
+
+				if (record.getTimestamp() > checkpointTimestamp) {
+
+					apply(record, true);
+
+					lastTimestamp = Math.max(lastTimestamp, record.getTimestamp());
+					replayed++;
+				}
+			}
+		}
+
+		log.open(lastTimestamp + 1);
+
+		if (replayed > 0) {
+
+			logger.info("Replayed {} transactions from write-ahead log", replayed);
+		}
+
+		if (migrate) {
+
+			logger.info("Migrating in-memory database in {} to storage format {}", directory.getAbsolutePath(), BinaryRecordFormat.FORMAT_VERSION);
+
+			checkpoint(true, lastTimestamp);
+
+		} else if (!logFiles.isEmpty()) {
+
+			// replayed records are marked as dirty, so the old log files can be removed
+			checkpoint(false, lastTimestamp);
+		}
+
+		return lastTimestamp;
+	}
+
+	/**
+	 * Appends a commit to the write-ahead log, must be called while holding
+	 * the commit lock. Returns the log position to sync.
+	 */
+	long log(final LogRecord record) throws IOException {
+
+		for (final MemoryIdentity id : record.getDeletedNodes()) {
+
+			dirtyNodes.remove(id);
+			deletedNodes.add(id);
+		}
+
+		for (final MemoryIdentity id : record.getDeletedRelationships()) {
+
+			dirtyRelationships.remove(id);
+			deletedRelationships.add(id);
+		}
+
+		for (final MemoryNode node : record.getNodes()) {
+			dirtyNodes.put(node.getIdentity(), node);
+		}
+
+		for (final MemoryRelationship relationship : record.getRelationships()) {
+			dirtyRelationships.put(relationship.getIdentity(), relationship);
+		}
+
+		return log.append(record.toByteArray());
+	}
+
+	void sync(final long position) throws IOException {
+
+		if (position >= 0) {
+
+			log.sync(position);
+		}
+	}
+
+	void shutdown() {
+
+		doRun = false;
+
+		this.interrupt();
+
+		try { this.join(); } catch (InterruptedException iex) {}
+
+		checkpoint(false);
+
+		try {
+
+			log.close();
+
+		} catch (IOException ex) {
+			logger.error("Unable to close write-ahead log: {}", ExceptionUtils.getStackTrace(ex));
+		}
+	}
+
+	void checkpoint(final boolean full) {
+		checkpoint(full, -1L);
+	}
+
+	// ----- private methods -----
+	/**
+	 * Writes the entities that were modified since the last checkpoint, or
+	 * all entities, into a new checkpoint file.
+	 */
+	private synchronized void checkpoint(final boolean full, final long recoveredTimestamp) {
+
+		final Map<MemoryIdentity, MemoryRelationship> relationshipsToWrite;
+		final Map<MemoryIdentity, MemoryRelationship> pendingRelationships;
+		final Map<MemoryIdentity, MemoryNode> nodesToWrite;
+		final Map<MemoryIdentity, MemoryNode> pendingNodes;
+		final Set<MemoryIdentity> relationshipsToDelete;
+		final Set<MemoryIdentity> pendingRelationshipDeletions;
+		final Set<MemoryIdentity> nodesToDelete;
+		final Set<MemoryIdentity> pendingNodeDeletions;
+		final long timestamp;
+
+		synchronized (db.getCommitLock()) {
+
+			timestamp = recoveredTimestamp >= 0 ? recoveredTimestamp : db.getLastCommitTimestamp();
+
+			if (!full && dirtyNodes.isEmpty() && dirtyRelationships.isEmpty() && deletedNodes.isEmpty() && deletedRelationships.isEmpty()) {
+				return;
+			}
+
+			pendingNodes                 = dirtyNodes;
+			pendingRelationships         = dirtyRelationships;
+			pendingNodeDeletions         = deletedNodes;
+			pendingRelationshipDeletions = deletedRelationships;
+
+			if (full) {
+
+				nodesToWrite          = new LinkedHashMap<>(nodes.getMasterData());
+				relationshipsToWrite  = new LinkedHashMap<>(relationships.getMasterData());
+				nodesToDelete         = new LinkedHashSet<>();
+				relationshipsToDelete = new LinkedHashSet<>();
+
+			} else {
+
+				nodesToWrite          = dirtyNodes;
+				relationshipsToWrite  = dirtyRelationships;
+				nodesToDelete         = deletedNodes;
+				relationshipsToDelete = deletedRelationships;
+			}
+
+			dirtyNodes           = new LinkedHashMap<>();
+			dirtyRelationships   = new LinkedHashMap<>();
+			deletedNodes         = new LinkedHashSet<>();
+			deletedRelationships = new LinkedHashSet<>();
+
+			try {
+
+				// all records up to the timestamp are covered by this checkpoint
+				log.rotate(timestamp + 1);
+
+			} catch (IOException ex) {
+
+				logger.error("Unable to rotate write-ahead log: {}", ExceptionUtils.getStackTrace(ex));
+				restore(pendingNodes, pendingRelationships, pendingNodeDeletions, pendingRelationshipDeletions);
+				return;
+			}
+		}
+
+		final File file = new File(directory, String.format("%s%020d%s", CHECKPOINT_PREFIX, timestamp, full ? FULL_SUFFIX : INCREMENTAL_SUFFIX));
+		final File temp = new File(directory, file.getName() + ".tmp");
+
+		try (final FileOutputStream fos = new FileOutputStream(temp)) {
+
+			final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fos));
+
+			// entities written concurrently may already contain newer state, which is
+			// harmless because the log records after the timestamp are replayed anyway
+			writeRecord(out, new LogRecord(timestamp, List.of(), List.of(), nodesToDelete, relationshipsToDelete));
+
+			for (final List<MemoryNode> chunk : chunks(nodesToWrite.values(), full, timestamp)) {
+				writeRecord(out, new LogRecord(timestamp, chunk, List.of(), List.of(), List.of()));
+			}
+
+			for (final List<MemoryRelationship> chunk : chunks(relationshipsToWrite.values(), full, timestamp)) {
+				writeRecord(out, new LogRecord(timestamp, List.of(), chunk, List.of(), List.of()));
+			}
+
+			out.flush();
+			fos.getFD().sync();
+
+		} catch (IOException ex) {
+
+			logger.error("Unable to write checkpoint {}: {}", file.getAbsolutePath(), ExceptionUtils.getStackTrace(ex));
+			restore(pendingNodes, pendingRelationships, pendingNodeDeletions, pendingRelationshipDeletions);
+			return;
+		}
+
+		try {
+
+			Files.move(temp.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE);
+
+		} catch (IOException ex) {
+
+			logger.error("Unable to write checkpoint {}: {}", file.getAbsolutePath(), ExceptionUtils.getStackTrace(ex));
+			restore(pendingNodes, pendingRelationships, pendingNodeDeletions, pendingRelationshipDeletions);
+			return;
+		}
+
+		log.deleteOldLogFiles();
+
+		if (full) {
+
+			// older checkpoints and data in the previous format are superseded
+			for (final File existing : getCheckpointFiles()) {
+
+				if (!existing.equals(file)) {
+					existing.delete();
+				}
+			}
+
+			nodes.getNodeStorageFile(directory).delete();
+			relationships.getRelationshipStorageFile(directory).delete();
+
+			incrementalCheckpoints = 0;
+
+			logger.info("Wrote full checkpoint {} with {} nodes and {} relationships", file.getName(), nodesToWrite.size(), relationshipsToWrite.size());
+
+		} else if (++incrementalCheckpoints >= MAX_INCREMENTAL_CHECKPOINTS) {
+
+			checkpoint(true, -1L);
+		}
+	}
+
+	/**
+	 * Merges the changes of a failed checkpoint back into the changes that
+	 * were tracked since, so that the log files which still contain them
+	 * are not deleted before a later checkpoint covers them.
+	 */
+	private void restore(final Map<MemoryIdentity, MemoryNode> pendingNodes, final Map<MemoryIdentity, MemoryRelationship> pendingRelationships, final Set<MemoryIdentity> pendingNodeDeletions, final Set<MemoryIdentity> pendingRelationshipDeletions) {
+
+		synchronized (db.getCommitLock()) {
+
+			for (final Map.Entry<MemoryIdentity, MemoryNode> entry : pendingNodes.entrySet()) {
+
+				if (!deletedNodes.contains(entry.getKey())) {
+					dirtyNodes.putIfAbsent(entry.getKey(), entry.getValue());
+				}
+			}
+
+			for (final Map.Entry<MemoryIdentity, MemoryRelationship> entry : pendingRelationships.entrySet()) {
+
+				if (!deletedRelationships.contains(entry.getKey())) {
+					dirtyRelationships.putIfAbsent(entry.getKey(), entry.getValue());
+				}
+			}
+
+			deletedNodes.addAll(pendingNodeDeletions);
+			deletedRelationships.addAll(pendingRelationshipDeletions);
+		}
+	}
+
+	private void writeRecord(final DataOutputStream out, final LogRecord record) throws IOException {
+
+		if (!record.isEmpty()) {
+
+			WriteAheadLog.writeFrame(out, record.toByteArray());
+		}
+	}
+
+	/**
+	 * Splits the given entities into chunks, skipping entities that are not
+	 * visible at the checkpoint timestamp when writing a full checkpoint.
+	 */
+	private <T extends MemoryEntity> List<List<T>> chunks(final Collection<T> entities, final boolean full, final long timestamp) {
+
+		final List<List<T>> chunks = new ArrayList<>();
+		List<T> chunk              = new ArrayList<>();
+
+		for (final T entity : entities) {
+
+			if (!full || entity.isVisible(timestamp)) {
+
+				chunk.add(entity);
+
+				if (chunk.size() >= ENTITIES_PER_RECORD) {
+
+					chunks.add(chunk);
+					chunk = new ArrayList<>();
+				}
+			}
+		}
+
+		if (!chunk.isEmpty()) {
+			chunks.add(chunk);
+		}
+
+		return chunks;
+	}
+
+	/**
+	 * Reads all records of the given file. The records are self-contained,
+	 * so they are decoded in parallel and returned in file order.
+	 */
+	private List<LogRecord> readRecords(final File file) throws IOException {
+
+		try {
+
+			return WriteAheadLog.readFrames(file).parallelStream().map(frame -> {
+
+				try {
+
+					return LogRecord.fromByteBuffer(db, frame);
+
+				} catch (IOException | ClassNotFoundException ex) {
+					throw new IllegalStateException("Unable to read " + file.getAbsolutePath(), ex);
+				}
+
+			}).collect(Collectors.toList());
+
+		} catch (IllegalStateException ex) {
+
+			if (ex.getCause() instanceof IOException) {
+				throw (IOException)ex.getCause();
+			}
+
+			throw ex;
+		}
+	}
+
+	private void apply(final LogRecord record, final boolean markDirty) {
+
+		for (final MemoryIdentity id : record.getDeletedRelationships()) {
+
+			final MemoryRelationship existing = relationships.get(id);
+			if (existing != null) {
+
+				relationships.releaseUniquenessKeys(List.of(existing));
+				relationships.remove(Map.of(id, existing));
+			}
+
+			if (markDirty) {
+
+				dirtyRelationships.remove(id);
+				deletedRelationships.add(id);
+			}
+		}
+
+		if (!record.getDeletedNodes().isEmpty()) {
+
+			nodes.remove(new LinkedHashSet<>(record.getDeletedNodes()));
+
+			if (markDirty) {
+
+				for (final MemoryIdentity id : record.getDeletedNodes()) {
+
+					dirtyNodes.remove(id);
+					deletedNodes.add(id);
+				}
+			}
+		}
+
+		for (final MemoryNode node : record.getNodes()) {
+
+			final MemoryIdentity id = node.getIdentity();
+
+			if (nodes.contains(id)) {
+				nodes.remove(Set.of(id));
+			}
+
+			nodes.add(node);
+
+			if (markDirty) {
+				dirtyNodes.put(id, node);
+			}
+		}
+
+		for (final MemoryRelationship relationship : record.getRelationships()) {
+
+			final MemoryIdentity id           = relationship.getIdentity();
+			final MemoryRelationship existing = relationships.get(id);
+
+			if (existing != null) {
+
+				relationships.releaseUniquenessKeys(List.of(existing));
+				relationships.remove(Map.of(id, existing));
+			}
+
+			relationships.add(relationship);
+
+			if (markDirty) {
+				dirtyRelationships.put(id, relationship);
+			}
+		}
+	}
+
+	/**
+	 * Returns the latest full checkpoint and the incremental checkpoints
+	 * written after it, in the order they were written.
+	 */
+	private List<File> getCheckpointFiles() {
+
+		final List<File> result = new ArrayList<>();
+		final File[] files      = directory.listFiles((dir, name) -> name.startsWith(CHECKPOINT_PREFIX) && name.endsWith(INCREMENTAL_SUFFIX));
+
+		if (files != null) {
+
+			Arrays.sort(files);
+
+			long fullTimestamp = -1L;
+
+			for (final File file : files) {
+
+				if (file.getName().endsWith(FULL_SUFFIX)) {
+
+					fullTimestamp = getTimestamp(file);
+				}
+			}
+
+			for (final File file : files) {
+
+				final long timestamp = getTimestamp(file);
+				final boolean isFull = file.getName().endsWith(FULL_SUFFIX);
+
+				if ((isFull && timestamp == fullTimestamp) || (!isFull && timestamp > fullTimestamp)) {
+
+					result.add(file);
+				}
+			}
+		}
+
+		return result;
+	}
+
+	private long getTimestamp(final File file) {
+
+		final String name = file.getName();
+
+		return Long.parseLong(name.substring(CHECKPOINT_PREFIX.length(), name.indexOf('.')));
+	}
+}
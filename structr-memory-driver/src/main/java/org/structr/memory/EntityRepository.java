@@ -32,6 +32,7 @@ import java.util.zip.ZipOutputStream;
  */
 public abstract class EntityRepository {
 
+	// format of the zip storage files, which are only read to migrate them to the binary format
 	protected static final int STORAGE_FORMAT_VERSION = 1;
 
 	protected ZipOutputStream getZipOutputStream(final File dbFile) throws IOException {
@@ -0,0 +1,79 @@
+/*
+ * Copyright (C) 2010-2020 Structr GmbH
+ *
+ * This file is part of Structr <http://structr.org>.
+ *
+ * Structr is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * Structr is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Structr.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.structr.memory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Collection;
+
+/**
+ * The full state of the entities written by a single commit, or by a
+ * chunk of a checkpoint. Records are applied in order on recovery, so
+ * they only contain complete entity states and identities of deleted
+ * entities, which makes replaying a record more than once harmless.
+ */
+class LogRecord {
+
+	private final Collection<MemoryIdentity> deletedRelationships;
+	private final Collection<MemoryIdentity> deletedNodes;
+	private final Collection<MemoryRelationship> relationships;
+	private final Collection<MemoryNode> nodes;
+	private final long timestamp;
+
+	LogRecord(final long timestamp, final Collection<MemoryNode> nodes, final Collection<MemoryRelationship> relationships, final Collection<MemoryIdentity> deletedNodes, final Collection<MemoryIdentity> deletedRelationships) {
+
+		this.deletedRelationships = deletedRelationships;
+		this.deletedNodes         = deletedNodes;
+		this.relationships        = relationships;
+		this.nodes                = nodes;
+		this.timestamp            = timestamp;
+	}
+
+	long getTimestamp() {
+		return timestamp;
+	}
+
+	Collection<MemoryNode> getNodes() {
+		return nodes;
+	}
+
+	Collection<MemoryRelationship> getRelationships() {
+		return relationships;
+	}
+
+	Collection<MemoryIdentity> getDeletedNodes() {
+		return deletedNodes;
+	}
+
+	Collection<MemoryIdentity> getDeletedRelationships() {
+		return deletedRelationships;
+	}
+
+	boolean isEmpty() {
+		return nodes.isEmpty() && relationships.isEmpty() && deletedNodes.isEmpty() && deletedRelationships.isEmpty();
+	}
+
+	byte[] toByteArray() throws IOException {
+		return BinaryRecordFormat.write(this);
+	}
+
+	static LogRecord fromByteBuffer(final MemoryDatabaseService db, final ByteBuffer data) throws IOException, ClassNotFoundException {
+		return BinaryRecordFormat.read(db, data);
+	}
+}
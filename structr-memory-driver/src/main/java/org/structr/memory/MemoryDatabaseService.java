@@ -18,15 +18,31 @@
  */
 package org.structr.memory;
 
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Deque;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.atomic.AtomicLong;
+import org.apache.commons.lang3.exception.ExceptionUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.structr.api.AbstractDatabaseService;
 import org.structr.api.DatabaseFeature;
 import org.structr.api.NativeQuery;
 import org.structr.api.NotInTransactionException;
+import org.structr.api.RetryException;
 import org.structr.api.Transaction;
+import org.structr.api.UnknownDatabaseException;
+import org.structr.api.config.Settings;
 import org.structr.api.graph.Direction;
 import org.structr.api.graph.GraphProperties;
 import org.structr.api.graph.Identity;
@@ -49,20 +65,58 @@ import org.structr.memory.index.filter.TargetNodeFilter;
  */
 public class MemoryDatabaseService extends AbstractDatabaseService implements GraphProperties {
 
+	private static final Logger logger                                  = LoggerFactory.getLogger(MemoryDatabaseService.class);
 	private static final ThreadLocal<MemoryTransaction> transactions    = new ThreadLocal<>();
 	private static final Map<String, Object> graphProperties            = new HashMap<>();
+	private final Map<Long, MemoryTransaction> activeTransactions       = new ConcurrentHashMap<>();
+	private final Deque<CommitRecord> commitLog                         = new ConcurrentLinkedDeque<>();
 	private final MemoryRelationshipRepository relationships            = new MemoryRelationshipRepository();
 	private final MemoryNodeRepository nodes                            = new MemoryNodeRepository();
+	private final AtomicLong lastCommitTimestamp                        = new AtomicLong();
+	private final Object commitLock                                     = new Object();
+	private CheckpointManager checkpointManager                         = null;
 	private MemoryRelationshipIndex relIndex                            = null;
 	private MemoryNodeIndex nodeIndex                                   = null;
+	private volatile boolean indexUpdateFinished                        = true;
+	private volatile IOException logFailure                             = null;
 
 	@Override
 	public boolean initialize(final String serviceName) {
+
+		if (Settings.MemoryPersistence.getPrefixedValue(serviceName)) {
+
+			final File directory = new File(Settings.DatabasePath.getPrefixedValue(serviceName));
+			final long syncDelay = Settings.MemoryLogSyncDelay.getPrefixedValue(serviceName);
+			final long interval  = Settings.MemoryCheckpointInterval.getPrefixedValue(serviceName) * 1000L;
+
+			directory.mkdirs();
+
+			try {
+
+				checkpointManager = new CheckpointManager(this, nodes, relationships, directory, syncDelay, interval);
+
+				lastCommitTimestamp.set(checkpointManager.recover());
+
+				checkpointManager.start();
+
+			} catch (Throwable t) {
+
+				logger.error("Unable to load in-memory database from {}: {}", directory.getAbsolutePath(), ExceptionUtils.getStackTrace(t));
+				return false;
+			}
+		}
+
 		return true;
 	}
 
 	@Override
 	public void shutdown() {
+
+		if (checkpointManager != null) {
+
+			checkpointManager.shutdown();
+			checkpointManager = null;
+		}
 	}
 
 	@Override
@@ -74,6 +128,7 @@ public class MemoryDatabaseService extends AbstractDatabaseService implements Gr
 
 		nodes.clear();
 		relationships.clear();
+		commitLog.clear();
 	}
 
 	@Override
@@ -88,6 +143,19 @@ public class MemoryDatabaseService extends AbstractDatabaseService implements Gr
 		if (tx == null) {
 
 			tx = new MemoryTransaction(this);
+
+			activeTransactions.put(tx.getTransactionId(), tx);
+
+			// make sure the snapshot is registered before garbage collection
+			// can remove the versions it needs
+			long snapshot = lastCommitTimestamp.get();
+			do {
+
+				snapshot = lastCommitTimestamp.get();
+				tx.setSnapshot(snapshot);
+
+			} while (snapshot != lastCommitTimestamp.get());
+
 			transactions.set(tx);
 		}
 
@@ -236,11 +304,54 @@ public class MemoryDatabaseService extends AbstractDatabaseService implements Gr
 
 	@Override
 	public void updateIndexConfiguration(final Map<String, Map<String, Boolean>> schemaIndexConfig, final Map<String, Map<String, Boolean>> removedClasses, final boolean createOnly) {
+
+		indexUpdateFinished = false;
+
+		try {
+
+			// create or drop secondary indexes for properties of existing classes
+			for (final Map.Entry<String, Map<String, Boolean>> entry : schemaIndexConfig.entrySet()) {
+
+				final String typeName = entry.getKey();
+
+				for (final Map.Entry<String, Boolean> propertyIndexConfig : entry.getValue().entrySet()) {
+
+					final String key = propertyIndexConfig.getKey();
+
+					if (Boolean.TRUE.equals(propertyIndexConfig.getValue())) {
+
+						nodes.createPropertyIndex(typeName, key);
+
+					} else if (!createOnly) {
+
+						nodes.dropPropertyIndex(typeName, key);
+					}
+				}
+			}
+
+			// drop indexes of removed classes
+			for (final Map.Entry<String, Map<String, Boolean>> entry : removedClasses.entrySet()) {
+
+				final String typeName = entry.getKey();
+
+				for (final Map.Entry<String, Boolean> propertyIndexConfig : entry.getValue().entrySet()) {
+
+					if (Boolean.TRUE.equals(propertyIndexConfig.getValue())) {
+
+						nodes.dropPropertyIndex(typeName, propertyIndexConfig.getKey());
+					}
+				}
+			}
+
+		} finally {
+
+			indexUpdateFinished = true;
+		}
 	}
 
 	@Override
 	public boolean isIndexUpdateFinished() {
-		return true;
+		return indexUpdateFinished;
 	}
 
 	@Override
@@ -284,6 +395,15 @@ public class MemoryDatabaseService extends AbstractDatabaseService implements Gr
 		});
 	}
 
+	/**
+	 * Returns the n-th committed value of the given sort key among the
+	 * given nodes from the property index of the given label, which can
+	 * be used as a threshold when sorting the first n nodes.
+	 */
+	public Object getSortThreshold(final String label, final String key, final Set<MemoryIdentity> ids, final int n, final boolean descending) {
+		return nodes.getSortThreshold(label, key, ids, n, descending);
+	}
+
 	public Iterable<MemoryRelationship> getFilteredRelationships(final Filter<MemoryRelationship> filter) {
 
 		return new LazyAccessor<>(() -> {
@@ -306,10 +426,13 @@ public class MemoryDatabaseService extends AbstractDatabaseService implements Gr
 				return false;
 
 			case SpatialQueries:
-				return false;
+				return true;
 
 			case AuthenticationRequired:
 				return false;
+
+			case VisibilityQueries:
+				return true;
 		}
 
 		return false;
@@ -328,9 +451,6 @@ public class MemoryDatabaseService extends AbstractDatabaseService implements Gr
 	// ----- graph repository methods -----
 	public Relationship createRelationship(final MemoryNode sourceNode, final MemoryNode targetNode, final RelationshipType relType) {
 
-		sourceNode.lock();
-		targetNode.lock();
-
 		final MemoryTransaction tx               = getCurrentTransaction();
 		final MemoryIdentity id                  = new MemoryIdentity(false, relType.name());
 		final MemoryRelationship newRelationship = new MemoryRelationship(this, id, relType, (MemoryIdentity)sourceNode.getId(), (MemoryIdentity)targetNode.getId());
@@ -344,52 +464,18 @@ public class MemoryDatabaseService extends AbstractDatabaseService implements Gr
 	}
 
 	public Iterable<Relationship> getRelationships(final MemoryNode node) {
-
-		final MemoryTransaction tx = getCurrentTransaction();
-		final MemoryIdentity id = node.getIdentity();
-
-		return Iterables.map(n -> n, Iterables.filter(r -> (id.equals(r.getSourceNodeIdentity()) || id.equals(r.getTargetNodeIdentity())), tx.getRelationships(null)));
+		return getRelationships(node, Direction.BOTH, null);
 	}
 
 	public Iterable<Relationship> getRelationships(final MemoryNode node, final Direction direction) {
-
-		final MemoryTransaction tx = getCurrentTransaction();
-		final MemoryIdentity id = node.getIdentity();
-
-		switch (direction) {
-
-			case BOTH:
-				return getRelationships(node);
-
-			case INCOMING:
-				return Iterables.map(n -> n, Iterables.filter(r -> (id.equals(r.getTargetNodeIdentity())), tx.getRelationships(null)));
-
-			case OUTGOING:
-				return Iterables.map(n -> n, Iterables.filter(r -> (id.equals(r.getSourceNodeIdentity())), tx.getRelationships(null)));
-		}
-
-		return null;
+		return getRelationships(node, direction, null);
 	}
 
 	public Iterable<Relationship> getRelationships(final MemoryNode node, final Direction direction, final RelationshipType relationshipType) {
 
-		final MemoryTransaction tx              = getCurrentTransaction();
-		final MemoryIdentity id                 = node.getIdentity();
-		final String relType                    = relationshipType.name();
-
-		switch (direction) {
-
-			case BOTH:
-				return getRelationships(node);
-
-			case INCOMING:
-				return Iterables.map(n -> n, Iterables.filter(r -> (r.getType().name().equals(relType) && id.equals(r.getTargetNodeIdentity())), tx.getRelationships(new TargetNodeFilter<>(id))));
-
-			case OUTGOING:
-				return Iterables.map(n -> n, Iterables.filter(r -> (r.getType().name().equals(relType) && id.equals(r.getSourceNodeIdentity())), tx.getRelationships(new SourceNodeFilter<>(id))));
-		}
+		final String relType = relationshipType != null ? relationshipType.name() : null;
 
-		return null;
+		return Iterables.map(r -> r, getAdjacentRelationships(getCurrentTransaction(), node.getIdentity(), direction, relType));
 	}
 
 	public void delete(final MemoryNode node) {
@@ -400,14 +486,9 @@ public class MemoryDatabaseService extends AbstractDatabaseService implements Gr
 		tx.delete(node);
 
 		// remove relationships as well
-		for (final Iterator<MemoryRelationship> it = tx.getRelationships(null).iterator(); it.hasNext();) {
-
-			final MemoryRelationship rel = it.next();
-
-			if (id.equals(rel.getSourceNodeIdentity()) || id.equals(rel.getTargetNodeIdentity())) {
+		for (final MemoryRelationship rel : Iterables.toList(getAdjacentRelationships(tx, id, Direction.BOTH, null))) {
 
-				tx.delete(rel);
-			}
+			tx.delete(rel);
 		}
 	}
 
@@ -432,21 +513,197 @@ public class MemoryDatabaseService extends AbstractDatabaseService implements Gr
 		return tx;
 	}
 
-	void commitTransaction(final Map<MemoryIdentity, MemoryNode> newNodes, final Map<MemoryIdentity, MemoryRelationship> newRelationships, Set<MemoryIdentity> deletedNodes, Map<MemoryIdentity, MemoryRelationship> deletedRelationships) {
+	/**
+	 * Installs the changes of the given transaction as new versions with
+	 * the next commit timestamp. Fails with a RetryException if one of
+	 * the entities written by the transaction was committed by another
+	 * transaction after the snapshot was taken.
+	 */
+	void commitTransaction(final MemoryTransaction tx, final Map<MemoryIdentity, MemoryNode> newNodes, final Map<MemoryIdentity, MemoryRelationship> newRelationships, final Set<MemoryIdentity> deletedNodes, final Map<MemoryIdentity, MemoryRelationship> deletedRelationships, final Set<MemoryEntity> modifiedEntities) {
+
+		// read-only transactions don't need a commit timestamp
+		if (modifiedEntities.isEmpty() && deletedNodes.isEmpty() && deletedRelationships.isEmpty() && newNodes.isEmpty() && newRelationships.isEmpty()) {
+			return;
+		}
+
+		if (logFailure != null) {
+			throw new UnknownDatabaseException(logFailure, null, "In-memory database is read-only because the write-ahead log could not be written.");
+		}
+
+		long logPosition = -1L;
 
-		newNodes.keySet().removeAll(deletedNodes);
-		nodes.remove(deletedNodes);
-		nodes.add(newNodes.values());
+		synchronized (commitLock) {
 
-		newRelationships.keySet().removeAll(deletedRelationships.keySet());
-		relationships.remove(deletedRelationships);
-		relationships.add(newRelationships.values());
+			final List<MemoryRelationship> modifiedRelationships          = new ArrayList<>();
+			final long transactionId                                      = tx.getTransactionId();
+			final long snapshot                                           = tx.getSnapshot();
+			final long timestamp                                          = lastCommitTimestamp.get() + 1;
+			final Map<MemoryIdentity, MemoryRelationship> deletedExisting = new LinkedHashMap<>();
+			final Map<MemoryIdentity, MemoryNode> deleted                 = new LinkedHashMap<>();
 
-		transactions.remove();
+			// detect write-write conflicts with transactions that committed after our snapshot
+			for (final MemoryEntity entity : modifiedEntities) {
+
+				if (entity.hasConflict(transactionId, snapshot)) {
+					throw new RetryException("Entity with ID " + entity.getIdentity() + " was modified by a concurrent transaction.");
+				}
+			}
+
+			for (final MemoryIdentity id : deletedNodes) {
+
+				final MemoryNode node = nodes.get(id);
+				if (node != null) {
+
+					if (node.isModifiedAfter(snapshot)) {
+						throw new RetryException("Node with ID " + id + " was modified by a concurrent transaction.");
+					}
+
+					deleted.put(id, node);
+				}
+			}
+
+			for (final MemoryNode node : deleted.values()) {
+
+				// relationships created concurrently would be left without a node
+				for (final MemoryRelationship relationship : getAdjacentRelationships(node.getIdentity())) {
+
+					if (relationship.isVisible(timestamp) && !relationship.isVisible(snapshot)) {
+						throw new RetryException("Node with ID " + node.getIdentity() + " was connected by a concurrent transaction.");
+					}
+				}
+			}
+
+			for (final MemoryRelationship relationship : deletedRelationships.values()) {
+
+				if (relationship.isModifiedAfter(snapshot)) {
+					throw new RetryException("Relationship with ID " + relationship.getIdentity() + " was modified by a concurrent transaction.");
+				}
+
+				if (relationships.contains(relationship.getIdentity())) {
+
+					deletedExisting.put(relationship.getIdentity(), relationship);
+				}
+			}
+
+			for (final MemoryRelationship relationship : newRelationships.values()) {
+
+				if (isDeletedAfter(relationship.getSourceNodeIdentity(), snapshot) || isDeletedAfter(relationship.getTargetNodeIdentity(), snapshot)) {
+					throw new RetryException("Node of relationship " + relationship.getIdentity() + " was deleted by a concurrent transaction.");
+				}
+			}
+
+			newNodes.keySet().removeAll(deletedNodes);
+			newRelationships.keySet().removeAll(deletedRelationships.keySet());
+
+			final CommitRecord record = new CommitRecord(timestamp, deleted, deletedExisting);
+
+			// register commit before the new versions are installed so that
+			// concurrent readers can find the nodes whose cache entries change
+			commitLog.add(record);
+
+			for (final MemoryEntity entity : modifiedEntities) {
+
+				final MemoryIdentity id = entity.getIdentity();
+
+				if (entity.commit(transactionId, timestamp) && !newNodes.containsKey(id) && !newRelationships.containsKey(id)) {
+
+					record.versioned.add(entity);
+
+					if (entity instanceof MemoryNode && !deletedNodes.contains(id)) {
+
+						record.modifiedNodes.add((MemoryNode)entity);
+					}
+
+					if (entity instanceof MemoryRelationship && !deletedRelationships.containsKey(id)) {
+
+						modifiedRelationships.add((MemoryRelationship)entity);
+					}
+				}
+			}
+
+			// deleted entities stay in the repositories until no snapshot can see them
+			for (final MemoryNode node : deleted.values()) {
+
+				node.delete(timestamp);
+				record.versioned.add(node);
+			}
+
+			for (final MemoryRelationship relationship : deletedRelationships.values()) {
+
+				relationship.delete(timestamp);
+				record.versioned.add(relationship);
+			}
+
+			relationships.releaseUniquenessKeys(deletedExisting.values());
+
+			// caches are updated with the state of this transaction
+			tx.setSnapshot(timestamp);
+
+			for (final MemoryNode node : newNodes.values()) {
+
+				nodes.add(node);
+				nodes.updatePropertyIndexes(node);
+			}
+
+			for (final MemoryNode node : record.modifiedNodes) {
+
+				nodes.updateCache(node);
+			}
+
+			relationships.add(newRelationships.values());
+
+			if (checkpointManager != null) {
+
+				final List<MemoryNode> changedNodes                 = new ArrayList<>(newNodes.values());
+				final List<MemoryRelationship> changedRelationships = new ArrayList<>(newRelationships.values());
+
+				changedNodes.addAll(record.modifiedNodes);
+				changedRelationships.addAll(modifiedRelationships);
+
+				try {
+
+					logPosition = checkpointManager.log(new LogRecord(timestamp, changedNodes, changedRelationships, deleted.keySet(), deletedExisting.keySet()));
+
+				} catch (IOException ex) {
+
+					// the new versions are not made visible to new transactions
+					throw handleLogFailure(timestamp, ex);
+				}
+			}
+
+			// make the new versions visible to new transactions
+			lastCommitTimestamp.set(timestamp);
+		}
+
+		// wait for the log to be synced outside of the commit lock so that
+		// concurrent commits can share a single fsync
+		if (checkpointManager != null) {
+
+			try {
+
+				checkpointManager.sync(logPosition);
+
+			} catch (IOException ex) {
+
+				throw handleLogFailure(lastCommitTimestamp.get(), ex);
+			}
+		}
+	}
+
+	Object getCommitLock() {
+		return commitLock;
 	}
 
-	void rollbackTransaction() {
+	long getLastCommitTimestamp() {
+		return lastCommitTimestamp.get();
+	}
+
+	void closeTransaction(final MemoryTransaction tx) {
+
+		activeTransactions.remove(tx.getTransactionId());
 		transactions.remove();
+
+		collectGarbage();
 	}
 
 	Iterable<MemoryNode> getNodes(final Filter<MemoryNode> filter) {
@@ -465,24 +722,132 @@ public class MemoryDatabaseService extends AbstractDatabaseService implements Gr
 		return relationships.get(id);
 	}
 
-	boolean exists(final MemoryIdentity id) {
+	/**
+	 * Returns the nodes whose committed state was changed after the given
+	 * snapshot was taken.
+	 */
+	Iterable<MemoryNode> getNodesModifiedAfter(final long snapshot) {
+
+		final List<MemoryNode> result = new LinkedList<>();
+
+		for (final Iterator<CommitRecord> it = commitLog.descendingIterator(); it.hasNext();) {
 
-		if (id.isNode()) {
+			final CommitRecord record = it.next();
+			if (record.timestamp <= snapshot) {
+				break;
+			}
 
-			return nodes.contains(id);
+			result.addAll(record.modifiedNodes);
+			result.addAll(record.deletedNodes.values());
 		}
 
-		return relationships.contains(id);
+		return result;
 	}
 
 	void updateCache(final MemoryNode node) {
-		nodes.updateCache(node);
+
+		final MemoryTransaction tx = getCurrentTransaction(false);
+		if (tx != null) {
+
+			// label changes of committed nodes are applied to the caches on commit
+			tx.updateCache(node);
+		}
 	}
 
 	void updateCache(final MemoryRelationship relationship) {
 		relationships.updateCache(relationship);
 	}
 
+	// ----- private methods -----
+	/**
+	 * Switches the database to read-only mode, a commit that could not be
+	 * made durable must not be acknowledged.
+	 */
+	private UnknownDatabaseException handleLogFailure(final long timestamp, final IOException ex) {
+
+		logFailure = ex;
+
+		logger.error("Unable to write transaction {} to write-ahead log, database is now read-only: {}", timestamp, ExceptionUtils.getStackTrace(ex));
+
+		return new UnknownDatabaseException(ex, null, "Unable to write transaction to write-ahead log.");
+	}
+
+	/**
+	 * Removes versions and deleted entities that are not visible to any
+	 * active transaction anymore.
+	 */
+	private void collectGarbage() {
+
+		if (commitLog.isEmpty()) {
+			return;
+		}
+
+		synchronized (commitLock) {
+
+			long oldestSnapshot = lastCommitTimestamp.get();
+
+			for (final MemoryTransaction tx : activeTransactions.values()) {
+
+				oldestSnapshot = Math.min(oldestSnapshot, tx.getSnapshot());
+			}
+
+			CommitRecord record = commitLog.peekFirst();
+
+			while (record != null && record.timestamp <= oldestSnapshot) {
+
+				for (final MemoryEntity entity : record.versioned) {
+
+					entity.pruneVersions(oldestSnapshot);
+				}
+
+				nodes.remove(record.deletedNodes.keySet());
+				relationships.remove(record.deletedRelationships);
+
+				commitLog.pollFirst();
+
+				record = commitLog.peekFirst();
+			}
+		}
+	}
+
+	private Iterable<MemoryRelationship> getAdjacentRelationships(final MemoryIdentity id) {
+
+		final List<Iterable<MemoryRelationship>> sources = new ArrayList<>(2);
+
+		sources.add(relationships.values(new SourceNodeFilter<>(id, null)));
+		sources.add(relationships.values(new TargetNodeFilter<>(id, null)));
+
+		return Iterables.flatten(sources);
+	}
+
+	private boolean isDeletedAfter(final MemoryIdentity id, final long snapshot) {
+
+		final MemoryNode node = nodes.get(id);
+
+		return node != null && node.isDeletedAfter(snapshot);
+	}
+
+	private Iterable<MemoryRelationship> getAdjacentRelationships(final MemoryTransaction tx, final MemoryIdentity id, final Direction direction, final String relType) {
+
+		switch (direction) {
+
+			case INCOMING:
+				return tx.getRelationships(new TargetNodeFilter<>(id, relType));
+
+			case OUTGOING:
+				return tx.getRelationships(new SourceNodeFilter<>(id, relType));
+		}
+
+		final List<Iterable<MemoryRelationship>> sources = new ArrayList<>(2);
+
+		sources.add(tx.getRelationships(new SourceNodeFilter<>(id, relType)));
+
+		// skip self-referencing relationships, they are already contained in the outgoing set
+		sources.add(Iterables.filter(r -> !id.equals(r.getSourceNodeIdentity()), tx.getRelationships(new TargetNodeFilter<>(id, relType))));
+
+		return Iterables.flatten(sources);
+	}
+
 	// ----- nested classes -----
 	private class LazyAccessor<T> implements Iterable<T> {
 
@@ -502,4 +867,24 @@ public class MemoryDatabaseService extends AbstractDatabaseService implements Gr
 	private interface Accessor<T> {
 		T get();
 	}
+
+	/**
+	 * The entities that were changed by a single commit, kept until no
+	 * active transaction has a snapshot older than the commit.
+	 */
+	private static class CommitRecord {
+
+		private final List<MemoryEntity> versioned                         = new ArrayList<>();
+		private final List<MemoryNode> modifiedNodes                       = new ArrayList<>();
+		private Map<MemoryIdentity, MemoryRelationship> deletedRelationships = null;
+		private Map<MemoryIdentity, MemoryNode> deletedNodes               = null;
+		private long timestamp                                             = 0L;
+
+		CommitRecord(final long timestamp, final Map<MemoryIdentity, MemoryNode> deletedNodes, final Map<MemoryIdentity, MemoryRelationship> deletedRelationships) {
+
+			this.deletedRelationships = deletedRelationships;
+			this.deletedNodes         = deletedNodes;
+			this.timestamp            = timestamp;
+		}
+	}
 }
@@ -21,27 +21,32 @@ package org.structr.memory;
 import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
-import java.util.LinkedHashMap;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
-import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.ConcurrentHashMap;
 import org.structr.api.NotFoundException;
 import org.structr.api.graph.Identity;
 import org.structr.api.graph.PropertyContainer;
-import org.structr.api.util.ChangeAwareMap;
 
 /**
+ * Base class for nodes and relationships. The committed state of an entity
+ * is stored as a chain of immutable versions, each tagged with the commit
+ * timestamp of the transaction that created it. Transactions read the
+ * newest version that is visible in their snapshot and keep their own
+ * changes in a private copy until commit.
  */
 public abstract class MemoryEntity implements PropertyContainer {
 
-	private final Map<Long, ChangeAwareMap> txData = new LinkedHashMap<>();
-	private final ChangeAwareMap data              = new ChangeAwareMap();
-	private final Set<String> labels               = new LinkedHashSet<>();
-	private ReentrantLock lock                     = new ReentrantLock();
-	protected MemoryDatabaseService db             = null;
-	private MemoryIdentity id                      = null;
+	private final Map<Long, TransactionState> txData = new ConcurrentHashMap<>();
+	private volatile Version head                    = null;
+	protected MemoryDatabaseService db               = null;
+	private MemoryIdentity id                        = null;
 
 	protected MemoryEntity(final MemoryDatabaseService db) {
 		this.db = db;
@@ -51,8 +56,6 @@ public abstract class MemoryEntity implements PropertyContainer {
 
 		this.id = identity;
 		this.db = db;
-
-		lock();
 	}
 
 	protected abstract void updateCache();
@@ -68,12 +71,14 @@ public abstract class MemoryEntity implements PropertyContainer {
 
 	@Override
 	public boolean hasProperty(final String name) {
-		return getData(true).containsKey(name);
+
+		// properties removed in the current transaction are stored as null
+		return getData().get(name) != null;
 	}
 
 	@Override
 	public Object getProperty(String name) {
-		return getData(true).get(name);
+		return getData().get(name);
 	}
 
 	@Override
@@ -90,25 +95,36 @@ public abstract class MemoryEntity implements PropertyContainer {
 
 	@Override
 	public void setProperty(final String name, final Object value) {
-		lock();
-		getData(false).put(name, value);
+		getTransactionState().put(name, value);
 	}
 
 	@Override
 	public void setProperties(final Map<String, Object> values) {
-		lock();
-		getData(false).putAll(values);
+		final TransactionState state = getTransactionState();
+
+		for (final Entry<String, Object> entry : values.entrySet()) {
+			state.put(entry.getKey(), entry.getValue());
+		}
 	}
 
 	@Override
 	public void removeProperty(final String name) {
-		lock();
-		getData(false).put(name, null);
+		getTransactionState().put(name, null);
 	}
 
 	@Override
 	public Iterable<String> getPropertyKeys() {
-		return getData(true).keySet();
+
+		final List<String> keys = new ArrayList<>();
+
+		for (final Entry<String, Object> entry : getData().entrySet()) {
+
+			if (entry.getValue() != null) {
+				keys.add(entry.getKey());
+			}
+		}
+
+		return keys;
 	}
 
 	@Override
@@ -127,8 +143,7 @@ public abstract class MemoryEntity implements PropertyContainer {
 
 	void addLabel(final String label, final boolean updateCache) {
 
-		lock();
-		labels.add(label);
+		getTransactionState().getLabels().add(label);
 
 		if (updateCache) {
 			updateCache();
@@ -141,8 +156,7 @@ public abstract class MemoryEntity implements PropertyContainer {
 
 	public void removeLabel(final String label, final boolean updateCache) {
 
-		lock();
-		labels.remove(label);
+		getTransactionState().getLabels().remove(label);
 
 		if (updateCache) {
 			updateCache();
@@ -150,60 +164,170 @@ public abstract class MemoryEntity implements PropertyContainer {
 	}
 
 	public boolean hasLabel(final String label) {
-		return labels.contains(label);
+		return getLabelSet().contains(label);
 	}
 
 	public Iterable<String> getLabels() {
-		return labels;
+		return getLabelSet();
 	}
 
 	// ----- package-private methods -----
-	void commit(final long transactionId) {
+	/**
+	 * Installs the changes of the given transaction as a new version with
+	 * the given commit timestamp. Returns true if the committed state of
+	 * this entity was changed.
+	 */
+	boolean commit(final long transactionId, final long timestamp) {
+
+		final TransactionState state = txData.remove(transactionId);
+		if (state != null) {
+
+			final Version base             = head;
+			final Map<String, Object> data = base != null ? new HashMap<>(base.data) : new HashMap<>();
+			final Set<String> labels       = state.labels != null ? state.labels : (base != null ? base.labels : Collections.emptySet());
+			boolean modified               = base == null || !labels.equals(base.labels);
 
-		final ChangeAwareMap changes = txData.get(transactionId);
-		if (changes != null) {
+			if (state.data != null) {
 
-			for (final String key : changes.getModifiedKeys()) {
+				for (final String key : state.modifiedKeys) {
 
-				final Object value = changes.get(key);
-				if (value != null) {
+					final Object value = state.data.get(key);
+					if (value != null) {
 
-					data.put(key, value);
+						data.put(key, value);
 
-				} else {
+					} else {
 
-					data.remove(key);
+						data.remove(key);
+					}
+
+					modified = true;
 				}
 			}
 
-			txData.remove(transactionId);
+			if (modified) {
+
+				head = new Version(timestamp, data, labels, false, base);
+			}
+
+			return modified;
 		}
 
-		unlock();
+		return false;
 	}
 
 	void rollback(final long transactionId) {
 		txData.remove(transactionId);
-		unlock();
 	}
 
-	void lock() {
+	/**
+	 * Marks this entity as deleted as of the given commit timestamp,
+	 * transactions with an older snapshot can still read it.
+	 */
+	void delete(final long timestamp) {
+
+		final Version base = head;
+		if (base != null) {
 
-		if (!lock.isHeldByCurrentThread()) {
-			lock.lock();
+			head = new Version(timestamp, base.data, base.labels, true, base);
 		}
 	}
 
-	void unlock() {
+	/**
+	 * Removes all versions that can no longer be seen by any transaction,
+	 * i.e. all versions that are older than the newest version visible at
+	 * the given timestamp.
+	 */
+	void pruneVersions(final long oldestSnapshot) {
 
-		if (lock.isHeldByCurrentThread()) {
-			lock.unlock();
+		final Version version = getVersion(oldestSnapshot);
+		if (version != null) {
+
+			version.previous = null;
 		}
 	}
 
+	boolean isVisible(final long snapshot) {
+
+		final Version version = getVersion(snapshot);
+
+		return version != null && !version.deleted;
+	}
+
+	boolean isDeletedAfter(final long snapshot) {
+
+		final Version version = head;
+
+		return version != null && version.deleted && version.timestamp > snapshot;
+	}
+
+	/**
+	 * Returns true if this entity was written in the given transaction and
+	 * a concurrent transaction committed a newer version after the given
+	 * snapshot was taken.
+	 */
+	boolean hasConflict(final long transactionId, final long snapshot) {
+		return txData.containsKey(transactionId) && isModifiedAfter(snapshot);
+	}
+
+	boolean isModifiedAfter(final long snapshot) {
+
+		final Version version = head;
+
+		return version != null && version.timestamp > snapshot;
+	}
+
+	boolean hasTransactionState(final long transactionId) {
+		return txData.containsKey(transactionId);
+	}
+
+	Object getCommittedProperty(final String key) {
+
+		final Version version = head;
+		if (version != null) {
+
+			return version.data.get(key);
+		}
+
+		return null;
+	}
+
+	Map<String, Object> getCommittedProperties() {
+
+		final Version version = head;
+		if (version != null) {
+
+			return version.data;
+		}
+
+		return Collections.emptyMap();
+	}
+
+	Set<String> getCommittedLabels() {
+
+		final Version version = head;
+		if (version != null) {
+
+			return version.labels;
+		}
+
+		return Collections.emptySet();
+	}
+
+	void initializeFromStorage(final MemoryIdentity id, final Set<String> labels, final Map<String, Object> data) {
+
+		this.id = id;
+
+		// loaded data is visible to all transactions
+		this.head = new Version(0L, data, labels, false, null);
+	}
+
 	// ----- package-private methods -----
 	void loadFromStorage(final ObjectInputStream in) throws IOException, ClassNotFoundException {
 
+		final Map<String, Object> data = new HashMap<>();
+		final Set<String> labels       = new LinkedHashSet<>();
+
 		// read identity first
 		id = MemoryIdentity.loadFromStorage(in);
 
@@ -229,10 +353,17 @@ public abstract class MemoryEntity implements PropertyContainer {
 				data.put(key, value);
 			}
 		}
+
+		// loaded data is visible to all transactions
+		head = new Version(0L, data, labels, false, null);
 	}
 
 	void writeToStorage(final ObjectOutputStream out) throws IOException {
 
+		final Version version          = head;
+		final Map<String, Object> data = version != null ? version.data : Collections.emptyMap();
+		final Set<String> labels       = version != null ? version.labels : Collections.emptySet();
+
 		// write identity first
 		id.writeToStorage(out);
 
@@ -257,38 +388,169 @@ public abstract class MemoryEntity implements PropertyContainer {
 
 
 	// ----- private methods -----
-	private ChangeAwareMap getData(final boolean read) {
+	private Version getVersion(final long snapshot) {
+
+		Version version = head;
+
+		while (version != null && version.timestamp > snapshot) {
+			version = version.previous;
+		}
+
+		return version;
+	}
+
+	private Map<String, Object> getData() {
 
 		// read-only access does not need a transaction
-		final MemoryTransaction tx = db.getCurrentTransaction(!read);
+		final MemoryTransaction tx = db.getCurrentTransaction(false);
 		if (tx != null) {
 
+			final TransactionState state = txData.get(tx.getTransactionId());
+			if (state != null && state.data != null) {
+
+				return state.data;
+			}
+
 			if (tx.isDeleted(id)) {
-				tx.isDeleted(id);
 				throw new NotFoundException("Entity with ID " + id + " not found.");
 			}
 
-			if (!tx.exists(id)) {
-				tx.exists(id);
+			final Version version = getVersion(tx.getSnapshot());
+			if (version == null || version.deleted) {
+
+				// entities created in this transaction have no committed version yet
+				if (state != null) {
+					return Collections.emptyMap();
+				}
+
 				throw new NotFoundException("Entity with ID " + id + " not found.");
 			}
 
-			final long transactionId = tx.getTransactionId();
-			ChangeAwareMap copy      = txData.get(transactionId);
-			if (copy == null) {
+			return version.data;
+
+		} else {
+
+			final Version version = head;
+			if (version != null) {
+
+				return version.data;
+			}
+
+			return Collections.emptyMap();
+		}
+	}
+
+	private Set<String> getLabelSet() {
+
+		final MemoryTransaction tx = db.getCurrentTransaction(false);
+		if (tx != null) {
 
-				copy = new ChangeAwareMap(data);
-				txData.put(transactionId, copy);
+			final TransactionState state = txData.get(tx.getTransactionId());
+			if (state != null && state.labels != null) {
 
-				tx.modify(this);
+				return state.labels;
 			}
 
-			return copy;
+			final Version version = getVersion(tx.getSnapshot());
+			if (version != null) {
+
+				return version.labels;
+			}
 
 		} else {
 
-			return data;
+			final Version version = head;
+			if (version != null) {
+
+				return version.labels;
+			}
+		}
+
+		return Collections.emptySet();
+	}
+
+	private TransactionState getTransactionState() {
+
+		final MemoryTransaction tx = db.getCurrentTransaction(true);
+		final long transactionId   = tx.getTransactionId();
+		TransactionState state     = txData.get(transactionId);
+
+		if (state == null) {
+
+			if (tx.isDeleted(id)) {
+				throw new NotFoundException("Entity with ID " + id + " not found.");
+			}
+
+			final Version version = getVersion(tx.getSnapshot());
+
+			// entities created in this transaction have no committed version yet
+			if (head != null && (version == null || version.deleted)) {
+				throw new NotFoundException("Entity with ID " + id + " not found.");
+			}
+
+			state = new TransactionState(version);
+			txData.put(transactionId, state);
+
+			tx.modify(this);
+		}
+
+		return state;
+	}
+
+	// ----- nested classes -----
+	/**
+	 * An immutable committed state of an entity.
+	 */
+	private static class Version {
+
+		private final Map<String, Object> data;
+		private final Set<String> labels;
+		private final boolean deleted;
+		private final long timestamp;
+		private volatile Version previous;
+
+		Version(final long timestamp, final Map<String, Object> data, final Set<String> labels, final boolean deleted, final Version previous) {
+
+			this.data      = Collections.unmodifiableMap(data);
+			this.labels    = Collections.unmodifiableSet(labels);
+			this.timestamp = timestamp;
+			this.deleted   = deleted;
+			this.previous  = previous;
 		}
 	}
 
+	/**
+	 * The uncommitted changes of a single transaction, copied lazily from
+	 * the version the transaction started from.
+	 */
+	private static class TransactionState {
+
+		private final Set<String> modifiedKeys = new LinkedHashSet<>();
+		private final Version base;
+		private Map<String, Object> data       = null;
+		private Set<String> labels             = null;
+
+		TransactionState(final Version base) {
+			this.base = base;
+		}
+
+		void put(final String key, final Object value) {
+
+			if (data == null) {
+				data = base != null ? new HashMap<>(base.data) : new HashMap<>();
+			}
+
+			data.put(key, value);
+			modifiedKeys.add(key);
+		}
+
+		Set<String> getLabels() {
+
+			if (labels == null) {
+				labels = base != null ? new LinkedHashSet<>(base.labels) : new LinkedHashSet<>();
+			}
+
+			return labels;
+		}
+	}
 }
@@ -90,11 +90,23 @@ public class MemoryIdentity implements Identity {
 	// ----- package-private methods -----
 	static MemoryIdentity loadFromStorage(final ObjectInputStream in) throws IOException {
 
+		final boolean isNode = in.readBoolean();
+		final String type    = in.readUTF();
+		final long id        = in.readLong();
+
+		return createFromStorage(isNode, type, id);
+	}
+
+	static MemoryIdentity createFromStorage(final boolean isNode, final String type, final long id) throws IOException {
+
 		final MemoryIdentity identity = new MemoryIdentity();
 
-		identity.isNode = in.readBoolean();
-		identity.type   = in.readUTF();
-		identity.id     = in.readLong();
+		identity.isNode = isNode;
+		identity.type   = type;
+		identity.id     = id;
+
+		// make sure that new identities don't collide with loaded ones
+		idCounter.accumulateAndGet(id + 1, Math::max);
 
 		return identity;
 	}
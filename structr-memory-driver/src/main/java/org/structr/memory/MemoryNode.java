@@ -21,13 +21,14 @@ package org.structr.memory;
 import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.util.Map;
+import java.util.Set;
 import org.structr.api.NotInTransactionException;
 import org.structr.api.graph.Direction;
 import org.structr.api.graph.Node;
 import org.structr.api.graph.Relationship;
 import org.structr.api.graph.RelationshipType;
 import org.structr.api.util.Iterables;
-import org.structr.memory.index.filter.MemoryLabelFilter;
+import org.structr.memory.index.filter.SourceNodeFilter;
 
 /**
  */
@@ -43,18 +44,6 @@ public class MemoryNode extends MemoryEntity implements Node {
 
 	@Override
 	public Relationship createRelationshipTo(final Node endNode, final RelationshipType relationshipType) {
-
-		if (getId().compareTo(endNode.getId()) == -1) {
-
-			((MemoryNode)endNode).lock();
-			lock();
-
-		} else {
-
-			lock();
-			((MemoryNode)endNode).lock();
-		}
-
 		return db.createRelationship(this, (MemoryNode)endNode, relationshipType);
 	}
 
@@ -81,16 +70,14 @@ public class MemoryNode extends MemoryEntity implements Node {
 		final MemoryIdentity targetId = (MemoryIdentity)targetNode.getId();
 		final String name             = relationshipType.name();
 
-		return Iterables.first(Iterables.filter(r -> {
-
-			return
-				   sourceId.equals(r.getSourceNodeIdentity())
-				&& targetId.equals(r.getTargetNodeIdentity())
-				&& name.equals(r.getType().name());
-
-		}, tx.getRelationships(new MemoryLabelFilter<>(name))));
+		return Iterables.first(Iterables.filter(r -> targetId.equals(r.getTargetNodeIdentity()), tx.getRelationships(new SourceNodeFilter<>(sourceId, name))));
 	}
 
+	/**
+	 * Returns all relationships of this node, grouped by relationship type
+	 * and in creation order within each type. The order across types is
+	 * not defined.
+	 */
 	@Override
 	public Iterable<Relationship> getRelationships() {
 		return db.getRelationships(this);
@@ -108,7 +95,6 @@ public class MemoryNode extends MemoryEntity implements Node {
 
 	@Override
 	public void delete(boolean deleteRelationships) throws NotInTransactionException {
-		lock();
 		db.delete(this);
 	}
 
@@ -118,6 +104,15 @@ public class MemoryNode extends MemoryEntity implements Node {
 	}
 
 	// ----- package-private methods -----
+	static MemoryNode createFromStorage(final MemoryDatabaseService db, final MemoryIdentity id, final Set<String> labels, final Map<String, Object> data) {
+
+		final MemoryNode node = new MemoryNode(db);
+
+		node.initializeFromStorage(id, labels, data);
+
+		return node;
+	}
+
 	static MemoryNode createFromStorage(final MemoryDatabaseService db, final ObjectInputStream is) throws IOException, ClassNotFoundException {
 
 		// use empty constructor
@@ -22,19 +22,41 @@ import java.io.File;
 import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.PrimitiveIterator;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.CopyOnWriteArraySet;
 import org.apache.commons.lang3.exception.ExceptionUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.structr.api.Predicate;
+import org.structr.api.config.Settings;
 import org.structr.api.util.Iterables;
 import static org.structr.memory.EntityRepository.STORAGE_FORMAT_VERSION;
+import org.structr.memory.index.CompactBitmap;
+import org.structr.memory.index.FulltextIndex;
+import org.structr.memory.index.PropertyIndex;
+import org.structr.memory.index.SpatialIndex;
+import org.structr.memory.index.TextAnalyzer;
 import org.structr.memory.index.filter.Filter;
 import org.structr.memory.index.filter.MemoryLabelFilter;
+import org.structr.memory.index.filter.MemoryPropertyFilter;
 import org.structr.memory.index.filter.MemoryTypeFilter;
+import org.structr.memory.index.predicate.BoundingBoxPredicate;
+import org.structr.memory.index.predicate.DistancePredicate;
+import org.structr.memory.index.predicate.RangePredicate;
+import org.structr.memory.index.predicate.StringContainsPredicate;
+import org.structr.memory.index.predicate.ValuePredicate;
 
 /**
  */
@@ -42,44 +64,112 @@ public class MemoryNodeRepository extends EntityRepository {
 
 	private static final Logger logger = LoggerFactory.getLogger(MemoryNodeRepository.class);
 
-	final Map<MemoryIdentity, MemoryNode> masterData  = new ConcurrentHashMap<>();
-	final Map<String, Set<MemoryIdentity>> labelCache = new ConcurrentHashMap<>();
-	final Map<String, Set<MemoryIdentity>> typeCache  = new ConcurrentHashMap<>();
+	final Map<MemoryIdentity, MemoryNode> masterData              = new ConcurrentHashMap<>();
+	final Map<String, Map<String, PropertyIndex>> propertyIndexes = new ConcurrentHashMap<>();
+	final Map<String, Map<String, FulltextIndex>> fulltextIndexes = new ConcurrentHashMap<>();
+	final SpatialIndex spatialIndex                               = new SpatialIndex();
+
+	// label and type membership, guarded by this
+	private final Map<MemoryIdentity, CacheEntry> cacheEntries = new HashMap<>();
+	private final Map<String, CompactBitmap> labelCache        = new HashMap<>();
+	private final Map<String, CompactBitmap> typeCache         = new HashMap<>();
+	private MemoryNode[] nodesByOrdinal                        = new MemoryNode[1024];
+	private int nextOrdinal                                    = 0;
 
 	MemoryNode get(final MemoryIdentity id) {
 		return masterData.get(id);
 	}
 
 	public void clear() {
-		masterData.clear();
-		labelCache.clear();
-		typeCache.clear();
+
+		synchronized (this) {
+
+			masterData.clear();
+			cacheEntries.clear();
+			labelCache.clear();
+			typeCache.clear();
+
+			nodesByOrdinal = new MemoryNode[1024];
+			nextOrdinal    = 0;
+		}
+
+		spatialIndex.clear();
+
+		for (final Map<String, PropertyIndex> indexes : propertyIndexes.values()) {
+
+			for (final PropertyIndex index : indexes.values()) {
+				index.clear();
+			}
+		}
+
+		for (final Map<String, FulltextIndex> indexes : fulltextIndexes.values()) {
+
+			for (final FulltextIndex index : indexes.values()) {
+				index.clear();
+			}
+		}
 	}
 
 	Iterable<MemoryNode> values(final Filter<MemoryNode> filter) {
 
 		if (filter != null) {
 
+			if (filter instanceof MemoryPropertyFilter) {
+
+				final Set<MemoryIdentity> ids = getCandidatesFromPropertyIndex((MemoryPropertyFilter<MemoryNode>)filter);
+				if (ids != null) {
+
+					return Iterables.filter(n -> n != null, Iterables.map(i -> masterData.get(i), ids));
+				}
+
+				// no index available, use label cache below
+			}
+
 			if (filter instanceof MemoryLabelFilter) {
 
 				final MemoryLabelFilter<MemoryNode> mt = (MemoryLabelFilter<MemoryNode>)filter;
-				final Set<MemoryIdentity> cache        = new LinkedHashSet<>();
 
-				// multiple labels result in OR not AND query
-				for (final String label : mt.getLabels()) {
+				synchronized (this) {
 
-					cache.addAll(getCacheForLabel(label));
-				}
+					CompactBitmap result = null;
+
+					for (final String label : mt.getLabels()) {
+
+						final CompactBitmap bitmap = labelCache.get(label);
+						if (bitmap == null) {
+
+							if (mt.matchAll()) {
+								return Collections.emptyList();
+							}
+
+						} else if (result == null) {
+
+							result = bitmap.copy();
+
+						} else {
+
+							result = mt.matchAll() ? result.and(bitmap) : result.or(bitmap);
+						}
+					}
 
-				return Iterables.map(i -> masterData.get(i), cache);
+					return getNodes(result);
+				}
 			}
 
 			if (filter instanceof MemoryTypeFilter) {
 
 				final MemoryTypeFilter<MemoryNode> mt = (MemoryTypeFilter<MemoryNode>)filter;
-				final String type                     = mt.getType();
 
-				return Iterables.map(i -> masterData.get(i), new LinkedHashSet<>(getCacheForType(type)));
+				synchronized (this) {
+
+					final CompactBitmap bitmap = typeCache.get(mt.getType());
+					if (bitmap != null) {
+
+						return getNodes(bitmap.copy());
+					}
+
+					return Collections.emptyList();
+				}
 			}
 		}
 
@@ -100,16 +190,28 @@ public class MemoryNodeRepository extends EntityRepository {
 	void add(final MemoryNode node) {
 
 		final MemoryIdentity id = node.getIdentity();
-		final String type       = id.getType();
 
-		for (final String label : node.getLabels()) {
+		synchronized (this) {
 
-			getCacheForLabel(label).add(id);
-		}
+			if (!cacheEntries.containsKey(id)) {
+
+				final int ordinal = nextOrdinal++;
+
+				if (ordinal >= nodesByOrdinal.length) {
+					nodesByOrdinal = Arrays.copyOf(nodesByOrdinal, nodesByOrdinal.length * 2);
+				}
+
+				nodesByOrdinal[ordinal] = node;
 
-		getCacheForType(type).add(id);
+				cacheEntries.put(id, new CacheEntry(ordinal));
+			}
+
+			updateCacheEntry(node, id.getType());
+		}
 
 		masterData.put(id, node);
+
+		updateSpatialIndex(node);
 	}
 
 	void remove(final Set<MemoryIdentity> ids) {
@@ -117,14 +219,38 @@ public class MemoryNodeRepository extends EntityRepository {
 		// avoid iteration of caches when there are no IDs to remove..
 		if (!ids.isEmpty()) {
 
-			masterData.keySet().removeAll(ids);
+			for (final MemoryIdentity id : ids) {
+
+				final MemoryNode node = masterData.get(id);
+				if (node != null) {
+
+					removeFromPropertyIndexes(node);
+				}
 
-			for (final Set<MemoryIdentity> cache : labelCache.values()) {
-				cache.removeAll(ids);
+				spatialIndex.remove(id);
 			}
 
-			for (final Set<MemoryIdentity> cache : typeCache.values()) {
-				cache.removeAll(ids);
+			masterData.keySet().removeAll(ids);
+
+			synchronized (this) {
+
+				for (final MemoryIdentity id : ids) {
+
+					final CacheEntry entry = cacheEntries.remove(id);
+					if (entry != null) {
+
+						// only touch the sets the node is contained in
+						for (final String label : entry.labels) {
+							labelCache.get(label).remove(entry.ordinal);
+						}
+
+						if (entry.type != null) {
+							typeCache.get(entry.type).remove(entry.ordinal);
+						}
+
+						nodesByOrdinal[entry.ordinal] = null;
+					}
+				}
 			}
 		}
 	}
@@ -132,21 +258,127 @@ public class MemoryNodeRepository extends EntityRepository {
 	void updateCache(final MemoryNode node) {
 
 		final MemoryIdentity id = node.getIdentity();
-		final String type       = (String)node.getProperty("type");
+		final Object type       = node.getProperty("type");
+		boolean labelsChanged   = false;
+
+		synchronized (this) {
+
+			// nodes are added to the caches on commit
+			if (!cacheEntries.containsKey(id)) {
+				return;
+			}
+
+			labelsChanged = updateCacheEntry(node, type != null ? type.toString() : id.getType());
+		}
+
+		updateSpatialIndex(node);
 
+		if (!labelsChanged) {
 
-		// remove identity from all caches
-		for (final Set<MemoryIdentity> cache : labelCache.values()) {
-			cache.remove(id);
+			updatePropertyIndexes(node);
+			return;
 		}
 
-		for (final Set<MemoryIdentity> cache : typeCache.values()) {
-			cache.remove(id);
+		// labels have changed, so all indexes need to be checked
+		for (final Map<String, PropertyIndex> indexes : propertyIndexes.values()) {
+
+			for (final PropertyIndex index : indexes.values()) {
+
+				if (node.hasLabel(index.getLabel())) {
+
+					updatePropertyIndex(index, node);
+
+				} else {
+
+					index.remove(id);
+				}
+			}
 		}
 
-		// add identity to type cache again
-		getCacheForLabel(type).add(id);
-		getCacheForType(type).add(id);
+		final int ordinal = getOrdinal(id);
+
+		for (final Map<String, FulltextIndex> indexes : fulltextIndexes.values()) {
+
+			for (final FulltextIndex index : indexes.values()) {
+
+				if (node.hasLabel(index.getLabel())) {
+
+					updateFulltextIndex(index, node, ordinal);
+
+				} else {
+
+					index.remove(ordinal);
+				}
+			}
+		}
+	}
+
+	void createPropertyIndex(final String label, final String key) {
+
+		final Map<String, PropertyIndex> indexes = getPropertyIndexesForLabel(label);
+		final PropertyIndex newIndex             = new PropertyIndex(label, key);
+
+		// only one thread can create the index, commits start updating it immediately
+		if (indexes.putIfAbsent(key, newIndex) == null) {
+
+			// the fulltext index shares the online state of the property index
+			final FulltextIndex fulltextIndex = new FulltextIndex(label, key, new TextAnalyzer(Settings.IndexingMaxLength.getValue()));
+
+			fulltextIndexes.computeIfAbsent(label, k -> new ConcurrentHashMap<>()).put(key, fulltextIndex);
+
+			for (final MemoryNode node : values(new MemoryLabelFilter<>(label))) {
+
+				updatePropertyIndex(newIndex, node);
+				updateFulltextIndex(fulltextIndex, node, getOrdinal(node.getIdentity()));
+			}
+
+			newIndex.setOnline(true);
+
+			logger.debug("Created {} with {} entries", newIndex, newIndex.size());
+		}
+	}
+
+	void dropPropertyIndex(final String label, final String key) {
+
+		final Map<String, PropertyIndex> indexes = propertyIndexes.get(label);
+		if (indexes != null) {
+
+			final PropertyIndex index = indexes.remove(key);
+			if (index != null) {
+
+				index.setOnline(false);
+				index.clear();
+
+				logger.debug("Dropped {}", index);
+			}
+		}
+
+		final Map<String, FulltextIndex> fulltext = fulltextIndexes.get(label);
+		if (fulltext != null) {
+
+			final FulltextIndex index = fulltext.remove(key);
+			if (index != null) {
+
+				index.clear();
+			}
+		}
+	}
+
+	void updatePropertyIndexes(final MemoryNode node) {
+
+		for (final String label : node.getLabels()) {
+
+			final Map<String, PropertyIndex> indexes = propertyIndexes.get(label);
+			if (indexes != null) {
+
+				for (final PropertyIndex index : indexes.values()) {
+
+					updatePropertyIndex(index, node);
+				}
+			}
+		}
+
+		updateFulltextIndexes(node);
 	}
 
 	void loadFromStorage(final MemoryDatabaseService db, final File storageDirectory) {
@@ -214,32 +446,425 @@ public class MemoryNodeRepository extends EntityRepository {
 		return masterData;
 	}
 
+	/**
+	 * Returns the n-th committed value of the given key among the given
+	 * nodes from an online property index, or null if there is none.
+	 */
+	Object getSortThreshold(final String label, final String key, final Set<MemoryIdentity> ids, final int n, final boolean descending) {
+
+		final Map<String, PropertyIndex> indexes = propertyIndexes.get(label);
+		if (indexes != null) {
+
+			final PropertyIndex index = indexes.get(key);
+			if (index != null && index.isOnline()) {
+
+				return index.getNthValue(ids, n, descending);
+			}
+		}
+
+		return null;
+	}
+
 	// ----- private methods -----
-	private synchronized Set<MemoryIdentity> getCacheForLabel(final String type) {
+	private void updatePropertyIndex(final PropertyIndex index, final MemoryNode node) {
 
-		Set<MemoryIdentity> cache = labelCache.get(type);
-		if (cache == null) {
+		// read the committed value while holding the index lock so that
+		// concurrent updates of the same node cannot overtake each other
+		synchronized (index) {
 
-			cache = new CopyOnWriteArraySet<>();
-			labelCache.put(type, cache);
+			index.update(node.getIdentity(), node.getCommittedProperty(index.getKey()));
 		}
+	}
 
-		return cache;
+	private void updateSpatialIndex(final MemoryNode node) {
+
+		synchronized (spatialIndex) {
+
+			spatialIndex.update(node.getIdentity(), node.getCommittedProperty(SpatialIndex.LATITUDE_KEY), node.getCommittedProperty(SpatialIndex.LONGITUDE_KEY));
+		}
 	}
 
-	private synchronized Set<MemoryIdentity> getCacheForType(final String type) {
+	private void updateFulltextIndexes(final MemoryNode node) {
+
+		if (!fulltextIndexes.isEmpty()) {
+
+			final int ordinal = getOrdinal(node.getIdentity());
 
-		Set<MemoryIdentity> cache = typeCache.get(type);
-		if (cache == null) {
+			for (final String label : node.getLabels()) {
 
-			cache = new CopyOnWriteArraySet<>();
-			typeCache.put(type, cache);
+				final Map<String, FulltextIndex> indexes = fulltextIndexes.get(label);
+				if (indexes != null) {
+
+					for (final FulltextIndex index : indexes.values()) {
+
+						updateFulltextIndex(index, node, ordinal);
+					}
+				}
+			}
 		}
+	}
+
+	private void updateFulltextIndex(final FulltextIndex index, final MemoryNode node, final int ordinal) {
+
+		// nodes are added to the fulltext indexes after they got their ordinal
+		if (ordinal >= 0) {
 
-		return cache;
+			synchronized (index) {
+
+				index.update(ordinal, node.getCommittedProperty(index.getKey()));
+			}
+		}
 	}
 
-	private File getNodeStorageFile(final File storageDirectory) {
+	private void removeFromPropertyIndexes(final MemoryNode node) {
+
+		final MemoryIdentity id = node.getIdentity();
+		final int ordinal       = getOrdinal(id);
+
+		for (final String label : node.getLabels()) {
+
+			final Map<String, PropertyIndex> indexes = propertyIndexes.get(label);
+			if (indexes != null) {
+
+				for (final PropertyIndex index : indexes.values()) {
+
+					index.remove(id);
+				}
+			}
+
+			final Map<String, FulltextIndex> fulltext = fulltextIndexes.get(label);
+			if (fulltext != null && ordinal >= 0) {
+
+				for (final FulltextIndex index : fulltext.values()) {
+
+					index.remove(ordinal);
+				}
+			}
+		}
+	}
+
+	private synchronized int getOrdinal(final MemoryIdentity id) {
+
+		final CacheEntry entry = cacheEntries.get(id);
+		if (entry != null) {
+
+			return entry.ordinal;
+		}
+
+		return -1;
+	}
+
+	/**
+	 * Returns the candidate set for the given filter from the secondary
+	 * indexes, or null if no index exists for one of the predicates on
+	 * all of the labels of the filter.
+	 */
+	private Set<MemoryIdentity> getCandidatesFromPropertyIndex(final MemoryPropertyFilter<MemoryNode> filter) {
+
+		final Set<String> labels = filter.getLabels();
+		if (labels.isEmpty()) {
+			return null;
+		}
+
+		// exact matches are more selective, try them first
+		for (final Predicate<MemoryNode> predicate : filter.getPredicates()) {
+
+			if (predicate instanceof ValuePredicate && !propertyIndexes.isEmpty()) {
+
+				final ValuePredicate<MemoryNode, ?> value = (ValuePredicate)predicate;
+				final List<PropertyIndex> indexes         = getPropertyIndexes(labels, value.getKey());
+
+				if (indexes != null) {
+
+					if (indexes.size() == 1) {
+
+						return indexes.get(0).get(value.getDesiredValue());
+					}
+
+					final Set<MemoryIdentity> result = new LinkedHashSet<>();
+
+					for (final PropertyIndex index : indexes) {
+
+						result.addAll(index.get(value.getDesiredValue()));
+					}
+
+					return result;
+				}
+			}
+		}
+
+		// the spatial index contains all nodes with a position
+		for (final Predicate<MemoryNode> predicate : filter.getPredicates()) {
+
+			if (predicate instanceof DistancePredicate) {
+
+				final DistancePredicate<MemoryNode> distance = (DistancePredicate)predicate;
+
+				return filterByLabels(spatialIndex.getWithinDistance(distance.getLatitude(), distance.getLongitude(), distance.getDistance()), labels);
+			}
+
+			if (predicate instanceof BoundingBoxPredicate) {
+
+				final BoundingBoxPredicate<MemoryNode> box = (BoundingBoxPredicate)predicate;
+
+				return filterByLabels(spatialIndex.getWithinBoundingBox(box.getMinLatitude(), box.getMinLongitude(), box.getMaxLatitude(), box.getMaxLongitude()), labels);
+			}
+		}
+
+		for (final Predicate<MemoryNode> predicate : filter.getPredicates()) {
+
+			if (predicate instanceof StringContainsPredicate && !propertyIndexes.isEmpty()) {
+
+				final StringContainsPredicate<MemoryNode> contains = (StringContainsPredicate)predicate;
+				final Set<MemoryIdentity> result                   = getCandidatesFromFulltextIndex(labels, contains.getKey(), contains.getDesiredValue());
+
+				if (result != null) {
+
+					return result;
+				}
+			}
+		}
+
+		for (final Predicate<MemoryNode> predicate : filter.getPredicates()) {
+
+			if (predicate instanceof RangePredicate) {
+
+				final RangePredicate<MemoryNode, ?> range = (RangePredicate)predicate;
+				final List<PropertyIndex> indexes         = getPropertyIndexes(labels, range.getKey());
+
+				if (indexes != null) {
+
+					final Object start               = widen(range.getRangeStart(), -1);
+					final Object end                 = widen(range.getRangeEnd(), 1);
+					final Set<MemoryIdentity> result = new LinkedHashSet<>();
+
+					for (final PropertyIndex index : indexes) {
+
+						result.addAll(index.getRange(start, end));
+					}
+
+					return result;
+				}
+			}
+		}
+
+		return null;
+	}
+
+	/**
+	 * Returns the candidates for a substring query from the fulltext
+	 * indexes, or null if the query cannot be answered by them.
+	 */
+	private Set<MemoryIdentity> getCandidatesFromFulltextIndex(final Set<String> labels, final String key, final String value) {
+
+		if (getPropertyIndexes(labels, key) == null) {
+			return null;
+		}
+
+		CompactBitmap ordinals = null;
+
+		for (final String label : labels) {
+
+			final Map<String, FulltextIndex> indexes = fulltextIndexes.get(label);
+			final FulltextIndex index                = indexes != null ? indexes.get(key) : null;
+
+			if (index == null) {
+				return null;
+			}
+
+			final CompactBitmap bitmap = index.get(value);
+			if (bitmap == null) {
+				return null;
+			}
+
+			ordinals = ordinals == null ? bitmap : ordinals.or(bitmap);
+		}
+
+		final Set<MemoryIdentity> result = new LinkedHashSet<>();
+
+		synchronized (this) {
+
+			for (final PrimitiveIterator.OfInt it = ordinals.iterator(); it.hasNext();) {
+
+				final MemoryNode node = nodesByOrdinal[it.nextInt()];
+				if (node != null) {
+
+					result.add(node.getIdentity());
+				}
+			}
+		}
+
+		return result;
+	}
+
+	/**
+	 * Removes the nodes that have none of the given labels from the given
+	 * set of candidates.
+	 */
+	private Set<MemoryIdentity> filterByLabels(final Set<MemoryIdentity> ids, final Set<String> labels) {
+
+		synchronized (this) {
+
+			for (final Iterator<MemoryIdentity> it = ids.iterator(); it.hasNext();) {
+
+				final CacheEntry entry = cacheEntries.get(it.next());
+				if (entry == null || Collections.disjoint(entry.labels, labels)) {
+
+					it.remove();
+				}
+			}
+		}
+
+		return ids;
+	}
+
+	private List<PropertyIndex> getPropertyIndexes(final Set<String> labels, final String key) {
+
+		final List<PropertyIndex> result = new ArrayList<>(labels.size());
+
+		for (final String label : labels) {
+
+			final Map<String, PropertyIndex> indexes = propertyIndexes.get(label);
+			if (indexes == null) {
+				return null;
+			}
+
+			final PropertyIndex index = indexes.get(key);
+			if (index == null || !index.isOnline()) {
+				return null;
+			}
+
+			result.add(index);
+		}
+
+		return result;
+	}
+
+	/**
+	 * RangePredicate converts numeric values to the type hint of the query
+	 * (which may truncate them), so numeric bounds are widened to make sure
+	 * the index returns a superset of the actual result.
+	 */
+	private Object widen(final Comparable bound, final int direction) {
+
+		if (bound instanceof Number) {
+
+			final double value = ((Number)bound).doubleValue();
+
+			return direction < 0 ? Math.floor(value) - 1.0 : Math.ceil(value) + 1.0;
+		}
+
+		return bound;
+	}
+
+	private Map<String, PropertyIndex> getPropertyIndexesForLabel(final String label) {
+		return propertyIndexes.computeIfAbsent(label, k -> new ConcurrentHashMap<>());
+	}
+
+	/**
+	 * Updates the label and type sets of the given node, must be called
+	 * while holding the lock on this repository. Returns true if the labels
+	 * of the node have changed.
+	 */
+	private boolean updateCacheEntry(final MemoryNode node, final String type) {
+
+		final CacheEntry entry   = cacheEntries.get(node.getIdentity());
+		final Set<String> labels = new HashSet<>();
+		final int ordinal        = entry.ordinal;
+
+		for (final String label : node.getLabels()) {
+			labels.add(label);
+		}
+
+		for (final String label : entry.labels) {
+
+			if (!labels.contains(label)) {
+				labelCache.get(label).remove(ordinal);
+			}
+		}
+
+		for (final String label : labels) {
+
+			if (!entry.labels.contains(label)) {
+				labelCache.computeIfAbsent(label, k -> new CompactBitmap()).add(ordinal);
+			}
+		}
+
+		if (!Objects.equals(type, entry.type)) {
+
+			if (entry.type != null) {
+				typeCache.get(entry.type).remove(ordinal);
+			}
+
+			if (type != null) {
+				typeCache.computeIfAbsent(type, k -> new CompactBitmap()).add(ordinal);
+			}
+		}
+
+		final boolean labelsChanged = !labels.equals(entry.labels);
+
+		entry.labels = labels;
+		entry.type   = type;
+
+		return labelsChanged;
+	}
+
+	/**
+	 * Maps a snapshot of node ordinals to the nodes, must be called while
+	 * holding the lock on this repository.
+	 */
+	private Iterable<MemoryNode> getNodes(final CompactBitmap ordinals) {
+
+		if (ordinals == null) {
+			return Collections.emptyList();
+		}
+
+		final MemoryNode[] nodes = nodesByOrdinal;
+
+		return () -> new Iterator<MemoryNode>() {
+
+			private final PrimitiveIterator.OfInt it = ordinals.iterator();
+			private MemoryNode next                  = null;
+
+			@Override
+			public boolean hasNext() {
+
+				// nodes can be removed after the snapshot was taken
+				while (next == null && it.hasNext()) {
+					next = nodes[it.nextInt()];
+				}
+
+				return next != null;
+			}
+
+			@Override
+			public MemoryNode next() {
+
+				if (!hasNext()) {
+					throw new NoSuchElementException();
+				}
+
+				final MemoryNode result = next;
+				next = null;
+
+				return result;
+			}
+		};
+	}
+
+	File getNodeStorageFile(final File storageDirectory) {
 		return storageDirectory.toPath().resolve("nodes.bin.zip").toFile();
 	}
+
+	// ----- nested classes -----
+	private static class CacheEntry {
+
+		private Set<String> labels = Collections.emptySet();
+		private String type        = null;
+		private int ordinal        = -1;
+
+		CacheEntry(final int ordinal) {
+			this.ordinal = ordinal;
+		}
+	}
 }
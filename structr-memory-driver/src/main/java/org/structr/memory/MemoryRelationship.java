@@ -22,6 +22,8 @@ import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 import java.util.Arrays;
+import java.util.Map;
+import java.util.Set;
 import org.structr.api.NotInTransactionException;
 import org.structr.api.graph.Node;
 import org.structr.api.graph.Relationship;
@@ -106,6 +108,19 @@ public class MemoryRelationship extends MemoryEntity implements Relationship {
 	}
 
 	// ----- package-private methods -----
+	static MemoryRelationship createFromStorage(final MemoryDatabaseService db, final MemoryIdentity id, final String relType, final MemoryIdentity sourceNode, final MemoryIdentity targetNode, final Set<String> labels, final Map<String, Object> data) {
+
+		final MemoryRelationship relationship = new MemoryRelationship(db);
+
+		relationship.initializeFromStorage(id, labels, data);
+
+		relationship.sourceNode = sourceNode;
+		relationship.targetNode = targetNode;
+		relationship.relType    = db.forName(RelationshipType.class, relType);
+
+		return relationship;
+	}
+
 	static MemoryRelationship createFromStorage(final MemoryDatabaseService db, final ObjectInputStream is) throws IOException, ClassNotFoundException {
 
 		// use empty constructor
@@ -22,12 +22,15 @@ import java.io.File;
 import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentSkipListMap;
-import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.ConcurrentSkipListSet;
 import org.apache.commons.lang3.exception.ExceptionUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -45,8 +48,8 @@ public class MemoryRelationshipRepository extends EntityRepository {
 
 	final Map<MemoryIdentity, MemoryRelationship> masterData   = new ConcurrentSkipListMap<>();
 	final Map<String, Set<MemoryIdentity>> typeCache           = new ConcurrentSkipListMap<>();
-	final Map<MemoryIdentity, Set<MemoryIdentity>> sourceCache = new ConcurrentSkipListMap<>();
-	final Map<MemoryIdentity, Set<MemoryIdentity>> targetCache = new ConcurrentSkipListMap<>();
+	final Map<MemoryIdentity, Map<String, Set<MemoryIdentity>>> sourceCache = new ConcurrentHashMap<>();
+	final Map<MemoryIdentity, Map<String, Set<MemoryIdentity>>> targetCache = new ConcurrentHashMap<>();
 	final Set<String> duplicatesCheckCache                     = new LinkedHashSet<>();
 	boolean disableDuplicatesCheck                             = false;
 
@@ -78,6 +81,11 @@ public class MemoryRelationshipRepository extends EntityRepository {
 				final MemoryLabelFilter<MemoryRelationship> mt = (MemoryLabelFilter<MemoryRelationship>)filter;
 				final Set<MemoryIdentity> cache                = new LinkedHashSet<>();
 
+				// relationships have exactly one label
+				if (mt.matchAll() && mt.getLabels().size() > 1) {
+					return Collections.EMPTY_LIST;
+				}
+
 				for (final String label : mt.getLabels()) {
 
 					final Set<MemoryIdentity> set = getCacheForType(label, false);
@@ -93,29 +101,15 @@ public class MemoryRelationshipRepository extends EntityRepository {
 			if (filter instanceof SourceNodeFilter) {
 
 				final SourceNodeFilter<MemoryRelationship> s = (SourceNodeFilter<MemoryRelationship>)filter;
-				final MemoryIdentity id                      = s.getIdentity();
-
-				final Set<MemoryIdentity> set = getCacheForSource(id, false);
-				if (set != null) {
-
-					return Iterables.map(i -> masterData.get(i), new LinkedHashSet<>(set));
-				}
 
-				return Collections.EMPTY_LIST;
+				return getAdjacentRelationships(sourceCache.get(s.getIdentity()), s.getRelationshipType());
 			}
 
 			if (filter instanceof TargetNodeFilter) {
 
 				final TargetNodeFilter<MemoryRelationship> s = (TargetNodeFilter<MemoryRelationship>)filter;
-				final MemoryIdentity id                      = s.getIdentity();
-
-				final Set<MemoryIdentity> set = getCacheForTarget(id, false);
-				if (set != null) {
-
-					return Iterables.map(i -> masterData.get(i), new LinkedHashSet<>(set));
-				}
 
-				return Collections.EMPTY_LIST;
+				return getAdjacentRelationships(targetCache.get(s.getIdentity()), s.getRelationshipType());
 			}
 		}
 
@@ -152,8 +146,10 @@ public class MemoryRelationshipRepository extends EntityRepository {
 			getCacheForType(label).add(id);
 		}
 
-		getCacheForSource(relationship.getSourceNodeIdentity()).add(id);
-		getCacheForTarget(relationship.getTargetNodeIdentity()).add(id);
+		final String relType = relationship.getType().name();
+
+		getAdjacencyCache(sourceCache, relationship.getSourceNodeIdentity(), relType).add(id);
+		getAdjacencyCache(targetCache, relationship.getTargetNodeIdentity(), relType).add(id);
 
 		masterData.put(id, relationship);
 	}
@@ -167,25 +163,38 @@ public class MemoryRelationshipRepository extends EntityRepository {
 
 			masterData.keySet().removeAll(ids);
 
-			if (!disableDuplicatesCheck) {
+			// only touch the caches the relationships are contained in
+			for (final MemoryRelationship rel : relationships.values()) {
+
+				final MemoryIdentity id = rel.getIdentity();
+				final String relType    = rel.getType().name();
 
-				// clear uniqueness check cache as well
-				for (final MemoryRelationship rel : relationships.values()) {
+				for (final String label : rel.getLabels()) {
 
-					duplicatesCheckCache.remove(rel.getUniquenessKey());
+					final Set<MemoryIdentity> cache = getCacheForType(label, false);
+					if (cache != null) {
+
+						cache.remove(id);
+					}
 				}
-			}
 
-			for (final Set<MemoryIdentity> cache : typeCache.values()) {
-				cache.removeAll(ids);
+				removeFromAdjacencyCache(sourceCache, rel.getSourceNodeIdentity(), relType, id);
+				removeFromAdjacencyCache(targetCache, rel.getTargetNodeIdentity(), relType, id);
 			}
+		}
+	}
 
-			for (final Set<MemoryIdentity> cache : sourceCache.values()) {
-				cache.removeAll(ids);
-			}
+	/**
+	 * Removes the uniqueness keys of deleted relationships, which is done
+	 * on commit while the relationships themselves are removed later.
+	 */
+	void releaseUniquenessKeys(final Iterable<MemoryRelationship> relationships) {
 
-			for (final Set<MemoryIdentity> cache : targetCache.values()) {
-				cache.removeAll(ids);
+		if (!disableDuplicatesCheck) {
+
+			for (final MemoryRelationship rel : relationships) {
+
+				duplicatesCheckCache.remove(rel.getUniquenessKey());
 			}
 		}
 	}
@@ -268,46 +277,55 @@ public class MemoryRelationshipRepository extends EntityRepository {
 		Set<MemoryIdentity> cache = typeCache.get(type);
 		if (cache == null && create) {
 
-			cache = new CopyOnWriteArraySet<>();
+			cache = new ConcurrentSkipListSet<>();
 			typeCache.put(type, cache);
 		}
 
 		return cache;
 	}
 
-	private Set<MemoryIdentity> getCacheForSource(final MemoryIdentity source) {
-		return getCacheForSource(source, true);
+	private Set<MemoryIdentity> getAdjacencyCache(final Map<MemoryIdentity, Map<String, Set<MemoryIdentity>>> cache, final MemoryIdentity nodeId, final String relType) {
+
+		// sets are sorted by identity, i.e. in creation order
+		return cache.computeIfAbsent(nodeId, k -> new ConcurrentHashMap<>()).computeIfAbsent(relType, k -> new ConcurrentSkipListSet<>());
 	}
 
-	private synchronized Set<MemoryIdentity> getCacheForSource(final MemoryIdentity source, final boolean create) {
+	private void removeFromAdjacencyCache(final Map<MemoryIdentity, Map<String, Set<MemoryIdentity>>> cache, final MemoryIdentity nodeId, final String relType, final MemoryIdentity id) {
 
-		Set<MemoryIdentity> cache = sourceCache.get(source);
-		if (cache == null && create) {
+		final Map<String, Set<MemoryIdentity>> adjacency = cache.get(nodeId);
+		if (adjacency != null) {
 
-			cache = new CopyOnWriteArraySet<>();
-			sourceCache.put(source, cache);
-		}
+			final Set<MemoryIdentity> set = adjacency.get(relType);
+			if (set != null) {
 
-		return cache;
+				set.remove(id);
+			}
+		}
 	}
 
-	private Set<MemoryIdentity> getCacheForTarget(final MemoryIdentity target) {
-		return getCacheForTarget(target, true);
-	}
+	private Iterable<MemoryRelationship> getAdjacentRelationships(final Map<String, Set<MemoryIdentity>> adjacency, final String relType) {
 
-	private synchronized Set<MemoryIdentity> getCacheForTarget(final MemoryIdentity target, final boolean create) {
+		if (adjacency == null) {
+			return Collections.EMPTY_LIST;
+		}
 
-		Set<MemoryIdentity> cache = targetCache.get(target);
-		if (cache == null && create) {
+		if (relType != null) {
 
-			cache = new CopyOnWriteArraySet<>();
-			targetCache.put(target, cache);
+			final Set<MemoryIdentity> set = adjacency.get(relType);
+			if (set == null) {
+
+				return Collections.EMPTY_LIST;
+			}
+
+			return Iterables.filter(r -> r != null, Iterables.map(i -> masterData.get(i), set));
 		}
 
-		return cache;
+		final List<Iterable<MemoryIdentity>> sets = new ArrayList<>(adjacency.values());
+
+		return Iterables.filter(r -> r != null, Iterables.map(i -> masterData.get(i), Iterables.flatten(sets)));
 	}
 
-	private File getRelationshipStorageFile(final File storageDirectory) {
+	File getRelationshipStorageFile(final File storageDirectory) {
 		return storageDirectory.toPath().resolve("relationships.bin.zip").toFile();
 	}
 }
@@ -18,18 +18,26 @@
  */
 package org.structr.memory;
 
+import java.util.HashSet;
 import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 import java.util.Set;
 import java.util.concurrent.atomic.AtomicLong;
+import org.structr.api.RetryException;
 import org.structr.api.Transaction;
+import org.structr.api.UnknownDatabaseException;
 import org.structr.api.util.Iterables;
 import org.structr.memory.index.filter.Filter;
+import org.structr.memory.index.filter.MemoryLabelFilter;
+import org.structr.memory.index.filter.MemoryTypeFilter;
 
 /**
+ * A transaction that reads a consistent snapshot of the database, i.e. the
+ * state of all transactions that were committed before it was started.
  */
 public class MemoryTransaction implements Transaction {
 
@@ -37,15 +45,13 @@ public class MemoryTransaction implements Transaction {
 
 	private final MemoryRelationshipRepository createdRelationships            = new MemoryRelationshipRepository(true);
 	private final MemoryNodeRepository createdNodes                            = new MemoryNodeRepository();
-
-	//private final Map<MemoryIdentity, MemoryRelationship> createdRelationships = new LinkedHashMap<>();
 	private final Map<MemoryIdentity, MemoryRelationship> deletedRelationships = new LinkedHashMap<>();
-	//private final Map<MemoryIdentity, MemoryNode> createdNodes                 = new LinkedHashMap<>();
 	private final Set<MemoryEntity> modifiedEntities                           = new LinkedHashSet<>();
 	private final Set<MemoryIdentity> deletedNodes                             = new LinkedHashSet<>();
 	private final long transactionId                                           = idCounter.incrementAndGet();
 	private MemoryDatabaseService db                                           = null;
 	private boolean success                                                    = false;
+	private volatile long snapshot                                             = 0L;
 
 	public MemoryTransaction(final MemoryDatabaseService db) {
 		this.db = db;
@@ -68,27 +74,29 @@ public class MemoryTransaction implements Transaction {
 	@Override
 	public void close() {
 
-		if (success) {
+		try {
 
-			for (final MemoryEntity entity : modifiedEntities) {
+			if (success) {
 
-				entity.commit(transactionId);
-			}
+				try {
 
-			db.commitTransaction(createdNodes.getMasterData(), createdRelationships.getMasterData(), deletedNodes, deletedRelationships);
+					db.commitTransaction(this, createdNodes.getMasterData(), createdRelationships.getMasterData(), deletedNodes, deletedRelationships, modifiedEntities);
 
-		} else {
+				} catch (RetryException | UnknownDatabaseException ex) {
 
-			for (final MemoryEntity entity : modifiedEntities) {
+					rollback();
+					throw ex;
+				}
 
-				entity.rollback(transactionId);
+			} else {
+
+				rollback();
 			}
 
-			db.rollbackTransaction();
-		}
+		} finally {
 
-		createdNodes.getMasterData().values().stream().forEach(n -> n.unlock());
-		createdRelationships.getMasterData().values().stream().forEach(r -> r.unlock());
+			db.closeTransaction(this);
+		}
 	}
 
 	public void create(final MemoryNode newNode) {
@@ -118,16 +126,69 @@ public class MemoryTransaction implements Transaction {
 	}
 
 	// ----- package-private methods -----
+	long getSnapshot() {
+		return snapshot;
+	}
+
+	void setSnapshot(final long snapshot) {
+		this.snapshot = snapshot;
+	}
+
 	Iterable<MemoryNode> getNodes(final Filter<MemoryNode> filter) {
 
 		final List<Iterable<MemoryNode>> sources = new LinkedList<>();
 
-		// FIXME: this might return wrong data when newly created nodes match the filter but are not filtered
 		sources.add(createdNodes.values(filter));
 		sources.add(db.getNodes(filter));
 
-		// return union of new and existing nodes, filtered for deleted nodes
-		return Iterables.filter(n -> !deletedNodes.contains(n.getIdentity()), Iterables.flatten(sources));
+		if (filter == null) {
+
+			// return union of new and existing nodes, filtered for deleted and invisible nodes
+			return Iterables.filter(n -> !deletedNodes.contains(n.getIdentity()) && isVisible(n), Iterables.flatten(sources));
+		}
+
+		// label and type caches and secondary indexes contain the latest committed
+		// state, so nodes that were modified in this transaction or committed after
+		// the snapshot was taken must be included as candidates and checked below
+		final List<MemoryNode> changed = new LinkedList<>();
+
+		// copy, modifiedEntities grows when the result is evaluated
+		for (final MemoryEntity entity : modifiedEntities) {
+
+			if (entity instanceof MemoryNode) {
+
+				changed.add((MemoryNode)entity);
+			}
+		}
+
+		for (final MemoryNode node : db.getNodesModifiedAfter(snapshot)) {
+
+			changed.add(node);
+		}
+
+		sources.add(changed);
+
+		// return distinct union of new, modified and existing nodes, filtered for deleted and invisible nodes
+		return () -> {
+
+			final Set<MemoryIdentity> seen = new HashSet<>();
+
+			return Iterables.filter(n -> {
+
+				final MemoryIdentity id = n.getIdentity();
+
+				if (deletedNodes.contains(id) || !isVisible(n)) {
+					return false;
+				}
+
+				if (isChanged(n) && !matches(filter, n)) {
+					return false;
+				}
+
+				return changed.isEmpty() || seen.add(id);
+
+			}, Iterables.flatten(sources).iterator());
+		};
 	}
 
 	Iterable<MemoryRelationship> getRelationships(final Filter<MemoryRelationship> filter) {
@@ -137,8 +198,8 @@ public class MemoryTransaction implements Transaction {
 		sources.add(createdRelationships.values(filter));
 		sources.add(db.getRelationships(filter));
 
-		// return union of new and existing nodes
-		return Iterables.filter(r -> !deletedRelationships.containsKey(r.getIdentity()), Iterables.flatten(sources));
+		// return union of new and existing relationships, filtered for deleted and invisible relationships
+		return Iterables.filter(r -> !deletedRelationships.containsKey(r.getIdentity()) && isVisible(r), Iterables.flatten(sources));
 	}
 
 	MemoryNode getNodeById(final MemoryIdentity id) {
@@ -155,7 +216,7 @@ public class MemoryTransaction implements Transaction {
 		}
 
 		candidate = db.getNodeFromRepository(id);
-		if (candidate != null) {
+		if (candidate != null && candidate.isVisible(snapshot)) {
 
 			return candidate;
 		}
@@ -177,7 +238,7 @@ public class MemoryTransaction implements Transaction {
 		}
 
 		candidate = db.getRelationshipFromRepository(id);
-		if (candidate != null) {
+		if (candidate != null && candidate.isVisible(snapshot)) {
 
 			return candidate;
 		}
@@ -185,6 +246,14 @@ public class MemoryTransaction implements Transaction {
 		return null;
 	}
 
+	void updateCache(final MemoryNode node) {
+
+		if (createdNodes.contains(node.getIdentity())) {
+
+			createdNodes.updateCache(node);
+		}
+	}
+
 	boolean isDeleted(final MemoryIdentity id) {
 
 		if (id.isNode()) {
@@ -195,13 +264,70 @@ public class MemoryTransaction implements Transaction {
 		return deletedRelationships.containsKey(id);
 	}
 
-	boolean exists(final MemoryIdentity id) {
+	// ----- private methods -----
+	private void rollback() {
+
+		for (final MemoryEntity entity : modifiedEntities) {
+
+			entity.rollback(transactionId);
+		}
+	}
+
+	private boolean isVisible(final MemoryEntity entity) {
+
+		final MemoryIdentity id = entity.getIdentity();
 
 		if (id.isNode()) {
 
-			return createdNodes.contains(id) || db.exists(id);
+			return entity.isVisible(snapshot) || createdNodes.contains(id);
+		}
+
+		return entity.isVisible(snapshot) || createdRelationships.contains(id);
+	}
+
+	/**
+	 * Indicates whether the state of the given node in this transaction can
+	 * differ from the state in the label and type caches of the database.
+	 */
+	private boolean isChanged(final MemoryNode node) {
+		return node.hasTransactionState(transactionId) || node.isModifiedAfter(snapshot);
+	}
+
+	/**
+	 * Checks the given node against the label or type constraint of the
+	 * given filter, using the state that is visible in this transaction.
+	 */
+	private boolean matches(final Filter<MemoryNode> filter, final MemoryNode node) {
+
+		if (filter instanceof MemoryLabelFilter) {
+
+			final MemoryLabelFilter<MemoryNode> labelFilter = (MemoryLabelFilter<MemoryNode>)filter;
+			final boolean matchAll                          = labelFilter.matchAll();
+
+			for (final String label : labelFilter.getLabels()) {
+
+				final boolean hasLabel = node.hasLabel(label);
+
+				if (hasLabel && !matchAll) {
+					return true;
+				}
+
+				if (!hasLabel && matchAll) {
+					return false;
+				}
+			}
+
+			return matchAll;
+		}
+
+		if (filter instanceof MemoryTypeFilter) {
+
+			final Object type = node.getProperty("type");
+
+			return Objects.equals(((MemoryTypeFilter<MemoryNode>)filter).getType(), type != null ? type.toString() : node.getIdentity().getType());
 		}
 
-		return createdRelationships.contains(id) || db.exists(id);
+		// other filters are evaluated by the repositories
+		return true;
 	}
 }
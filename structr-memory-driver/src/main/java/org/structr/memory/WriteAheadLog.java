@@ -0,0 +1,283 @@
+/*
+ * Copyright (C) 2010-2020 Structr GmbH
+ *
+ * This file is part of Structr <http://structr.org>.
+ *
+ * Structr is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * Structr is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Structr.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.structr.memory;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.CRC32;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Append-only log of committed transactions. Every record is framed by its
+ * length and a CRC32 checksum, so that a torn write at the end of a log
+ * file can be detected on replay. Checkpoint files use the same framing.
+ *
+ * Commits are made durable in groups: the first committer that needs to
+ * sync the log waits for the configured delay and then forces all records
+ * that were appended in the meantime to disk with a single fsync, while
+ * the other committers wait for the result.
+ */
+class WriteAheadLog {
+
+	private static final Logger logger        = LoggerFactory.getLogger(WriteAheadLog.class);
+	private static final String LOG_PREFIX    = "wal-";
+	private static final String LOG_SUFFIX    = ".log";
+	private static final int FRAME_HEADER     = Integer.BYTES + Long.BYTES;
+
+	private final Object syncLock             = new Object();
+	private File directory                    = null;
+	private volatile FileChannel channel      = null;
+	private long firstTimestamp               = -1L;
+	private long syncDelay                    = 0L;
+	private volatile long writtenPosition     = 0L;
+	private long syncedPosition               = 0L;
+	private boolean syncing                   = false;
+
+	WriteAheadLog(final File directory, final long syncDelay) {
+
+		this.directory = directory;
+		this.syncDelay = syncDelay;
+	}
+
+	/**
+	 * Opens a new log file for the records starting with the given commit
+	 * timestamp. An existing file of the same name can only contain an
+	 * incomplete record, because all complete records have been replayed.
+	 */
+	synchronized void open(final long firstTimestamp) throws IOException {
+
+		this.channel        = FileChannel.open(getLogFile(firstTimestamp).toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+		this.firstTimestamp = firstTimestamp;
+	}
+
+	/**
+	 * Appends the given record and returns the log position that must be
+	 * synced to make it durable.
+	 */
+	synchronized long append(final byte[] record) throws IOException {
+
+		final ByteBuffer buffer = ByteBuffer.allocate(FRAME_HEADER + record.length);
+
+		buffer.putInt(record.length);
+		buffer.putLong(checksum(record));
+		buffer.put(record);
+		buffer.flip();
+
+		while (buffer.hasRemaining()) {
+			channel.write(buffer);
+		}
+
+		writtenPosition += FRAME_HEADER + record.length;
+
+		return writtenPosition;
+	}
+
+	/**
+	 * Blocks until the given log position is durable.
+	 */
+	void sync(final long position) throws IOException {
+
+		synchronized (syncLock) {
+
+			while (syncedPosition < position && syncing) {
+
+				try { syncLock.wait(); } catch (InterruptedException iex) {}
+			}
+
+			if (syncedPosition >= position) {
+				return;
+			}
+
+			// become the leader of the next group
+			syncing = true;
+		}
+
+		long target = syncedPosition;
+
+		try {
+
+			if (syncDelay > 0) {
+
+				// wait for concurrent commits to join this group
+				try { Thread.sleep(syncDelay); } catch (InterruptedException iex) {}
+			}
+
+			final long written = writtenPosition;
+
+			channel.force(false);
+
+			// only advance the synced position if the data is on disk
+			target = written;
+
+		} finally {
+
+			synchronized (syncLock) {
+
+				syncedPosition = Math.max(syncedPosition, target);
+				syncing        = false;
+
+				syncLock.notifyAll();
+			}
+		}
+	}
+
+	/**
+	 * Closes the current log file and starts a new one for the records that
+	 * follow the given commit timestamp.
+	 */
+	synchronized void rotate(final long nextTimestamp) throws IOException {
+
+		if (nextTimestamp == firstTimestamp) {
+			return;
+		}
+
+		close();
+		open(nextTimestamp);
+	}
+
+	synchronized void close() throws IOException {
+
+		synchronized (syncLock) {
+
+			while (syncing) {
+
+				try { syncLock.wait(); } catch (InterruptedException iex) {}
+			}
+
+			if (channel != null) {
+
+				channel.force(false);
+				channel.close();
+			}
+
+			syncedPosition = writtenPosition;
+		}
+	}
+
+	/**
+	 * Deletes all log files except the current one, must only be called
+	 * after the records they contain are covered by a checkpoint.
+	 */
+	synchronized void deleteOldLogFiles() {
+
+		for (final File file : getLogFiles(directory)) {
+
+			if (getTimestamp(file) != firstTimestamp && !file.delete()) {
+
+				logger.warn("Unable to delete write-ahead log file {}", file.getAbsolutePath());
+			}
+		}
+	}
+
+	// ----- package-private static methods -----
+	static List<File> getLogFiles(final File directory) {
+
+		final File[] files = directory.listFiles((dir, name) -> name.startsWith(LOG_PREFIX) && name.endsWith(LOG_SUFFIX));
+		if (files != null) {
+
+			Arrays.sort(files);
+
+			return Arrays.asList(files);
+		}
+
+		return new ArrayList<>();
+	}
+
+	static void writeFrame(final DataOutputStream out, final byte[] record) throws IOException {
+
+		out.writeInt(record.length);
+		out.writeLong(checksum(record));
+		out.write(record);
+	}
+
+	/**
+	 * Maps the given file into memory and returns all complete records,
+	 * stops at the first incomplete or corrupted record.
+	 */
+	static List<ByteBuffer> readFrames(final File file) throws IOException {
+
+		final List<ByteBuffer> frames = new ArrayList<>();
+
+		try (final FileChannel fileChannel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+
+			final ByteBuffer buffer = fileChannel.map(FileChannel.MapMode.READ_ONLY, 0, fileChannel.size());
+
+			while (buffer.remaining() >= FRAME_HEADER) {
+
+				final int length   = buffer.getInt();
+				final long crc     = buffer.getLong();
+
+				if (length < 0 || length > buffer.remaining()) {
+
+					logger.warn("Incomplete record in {}, ignoring rest of file.", file.getAbsolutePath());
+					break;
+				}
+
+				final ByteBuffer frame = buffer.slice();
+
+				frame.limit(length);
+
+				if (crc != checksum(frame.duplicate())) {
+
+					logger.warn("Checksum mismatch in {}, ignoring rest of file.", file.getAbsolutePath());
+					break;
+				}
+
+				frames.add(frame);
+
+				buffer.position(buffer.position() + length);
+			}
+		}
+
+		return frames;
+	}
+
+	// ----- private methods -----
+	private File getLogFile(final long timestamp) {
+		return new File(directory, String.format("%s%020d%s", LOG_PREFIX, timestamp, LOG_SUFFIX));
+	}
+
+	private static long getTimestamp(final File file) {
+
+		final String name = file.getName();
+
+		return Long.parseLong(name.substring(LOG_PREFIX.length(), name.length() - LOG_SUFFIX.length()));
+	}
+
+	private static long checksum(final byte[] data) {
+		return checksum(ByteBuffer.wrap(data));
+	}
+
+	private static long checksum(final ByteBuffer data) {
+
+		final CRC32 crc = new CRC32();
+
+		crc.update(data);
+
+		return crc.getValue();
+	}
+}
@@ -40,6 +40,7 @@ import org.structr.api.search.SpatialQuery;
 import org.structr.api.search.TypeConverter;
 import org.structr.api.search.TypeQuery;
 import org.structr.api.search.UuidQuery;
+import org.structr.api.search.VisibilityQuery;
 import org.structr.memory.MemoryDatabaseService;
 import org.structr.memory.index.converter.BooleanTypeConverter;
 import org.structr.memory.index.converter.ByteTypeConverter;
@@ -62,6 +63,7 @@ import org.structr.memory.index.factory.RelationshipQueryFactory;
 import org.structr.memory.index.factory.SpatialQueryFactory;
 import org.structr.memory.index.factory.TypeQueryFactory;
 import org.structr.memory.index.factory.UuidQueryFactory;
+import org.structr.memory.index.factory.VisibilityQueryFactory;
 
 /**
  *
@@ -122,6 +124,7 @@ public abstract class AbstractMemoryIndex<T extends PropertyContainer> extends A
 		factories.put(UuidQuery.class,         new UuidQueryFactory(this));
 		factories.put(RelationshipQuery.class, new RelationshipQueryFactory(this));
 		factories.put(ComparisonQuery.class,   new ComparisonQueryFactory(this));
+		factories.put(VisibilityQuery.class,   new VisibilityQueryFactory(this));
 
 		converters.put(Boolean.class, new BooleanTypeConverter());
 		converters.put(String.class,  new StringTypeConverter());
@@ -0,0 +1,635 @@
+/*
+ * Copyright (C) 2010-2020 Structr GmbH
+ *
+ * This file is part of Structr <http://structr.org>.
+ *
+ * Structr is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * Structr is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Structr.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.structr.memory.index;
+
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+import java.util.PrimitiveIterator;
+
+/**
+ * Compressed bitmap of non-negative int values, organized like a roaring
+ * bitmap: values are partitioned into chunks of 65536 by their high 16
+ * bits, each chunk is stored either as a sorted array of its low 16 bits
+ * (sparse chunks) or as a 65536-bit bitset (dense chunks).
+ *
+ * This class is not thread-safe, callers must synchronize access.
+ */
+public class CompactBitmap {
+
+	private static final int ARRAY_CONTAINER_MAX_SIZE = 4096;
+
+	private char[] keys             = new char[4];
+	private Container[] containers  = new Container[4];
+	private int size                = 0;
+
+	public CompactBitmap() {
+	}
+
+	private CompactBitmap(final int capacity) {
+
+		keys       = new char[Math.max(4, capacity)];
+		containers = new Container[Math.max(4, capacity)];
+	}
+
+	public boolean add(final int value) {
+
+		final char high = highBits(value);
+		int index       = indexOf(high);
+
+		if (index < 0) {
+
+			index = -index - 1;
+			insertContainer(index, high, new ArrayContainer());
+		}
+
+		final Container container = containers[index];
+		final boolean added       = container.add(lowBits(value));
+
+		if (added && container instanceof ArrayContainer && container.cardinality() > ARRAY_CONTAINER_MAX_SIZE) {
+			containers[index] = ((ArrayContainer)container).toBitsetContainer();
+		}
+
+		return added;
+	}
+
+	public boolean remove(final int value) {
+
+		final int index = indexOf(highBits(value));
+		if (index < 0) {
+			return false;
+		}
+
+		final Container container = containers[index];
+		final boolean removed     = container.remove(lowBits(value));
+
+		if (removed) {
+
+			if (container.cardinality() == 0) {
+
+				removeContainer(index);
+
+			} else if (container instanceof BitsetContainer && container.cardinality() <= ARRAY_CONTAINER_MAX_SIZE) {
+
+				containers[index] = ((BitsetContainer)container).toArrayContainer();
+			}
+		}
+
+		return removed;
+	}
+
+	public boolean contains(final int value) {
+
+		final int index = indexOf(highBits(value));
+
+		return index >= 0 && containers[index].contains(lowBits(value));
+	}
+
+	public int cardinality() {
+
+		int result = 0;
+
+		for (int i=0; i<size; i++) {
+			result += containers[i].cardinality();
+		}
+
+		return result;
+	}
+
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	public void clear() {
+
+		Arrays.fill(containers, 0, size, null);
+		size = 0;
+	}
+
+	public CompactBitmap copy() {
+
+		final CompactBitmap copy = new CompactBitmap(size);
+
+		for (int i=0; i<size; i++) {
+
+			copy.keys[i]       = keys[i];
+			copy.containers[i] = containers[i].copy();
+		}
+
+		copy.size = size;
+
+		return copy;
+	}
+
+	/**
+	 * Returns a new bitmap containing all values of this and the other bitmap.
+	 */
+	public CompactBitmap or(final CompactBitmap other) {
+
+		final CompactBitmap result = new CompactBitmap(size + other.size);
+		int i = 0;
+		int j = 0;
+
+		while (i < size && j < other.size) {
+
+			final char k1 = keys[i];
+			final char k2 = other.keys[j];
+
+			if (k1 < k2) {
+
+				result.appendContainer(k1, containers[i++].copy());
+
+			} else if (k1 > k2) {
+
+				result.appendContainer(k2, other.containers[j++].copy());
+
+			} else {
+
+				result.appendContainer(k1, containers[i++].or(other.containers[j++]));
+			}
+		}
+
+		while (i < size) {
+			result.appendContainer(keys[i], containers[i++].copy());
+		}
+
+		while (j < other.size) {
+			result.appendContainer(other.keys[j], other.containers[j++].copy());
+		}
+
+		return result;
+	}
+
+	/**
+	 * Returns a new bitmap containing the values that are contained in both
+	 * this and the other bitmap.
+	 */
+	public CompactBitmap and(final CompactBitmap other) {
+
+		final CompactBitmap result = new CompactBitmap(Math.min(size, other.size));
+		int i = 0;
+		int j = 0;
+
+		while (i < size && j < other.size) {
+
+			final char k1 = keys[i];
+			final char k2 = other.keys[j];
+
+			if (k1 < k2) {
+
+				i++;
+
+			} else if (k1 > k2) {
+
+				j++;
+
+			} else {
+
+				final Container container = containers[i++].and(other.containers[j++]);
+				if (container.cardinality() > 0) {
+
+					result.appendContainer(k1, container);
+				}
+			}
+		}
+
+		return result;
+	}
+
+	/**
+	 * Returns an iterator over the values of this bitmap in ascending order.
+	 * The bitmap must not be modified while the iterator is in use.
+	 */
+	public PrimitiveIterator.OfInt iterator() {
+
+		return new PrimitiveIterator.OfInt() {
+
+			private PrimitiveIterator.OfInt current = null;
+			private int index                       = 0;
+			private int high                        = 0;
+
+			@Override
+			public boolean hasNext() {
+
+				while (current == null || !current.hasNext()) {
+
+					if (index >= size) {
+						return false;
+					}
+
+					high    = ((int)keys[index]) << 16;
+					current = containers[index++].iterator();
+				}
+
+				return true;
+			}
+
+			@Override
+			public int nextInt() {
+
+				if (!hasNext()) {
+					throw new NoSuchElementException();
+				}
+
+				return high | current.nextInt();
+			}
+		};
+	}
+
+	// ----- private methods -----
+	private static char highBits(final int value) {
+		return (char)(value >>> 16);
+	}
+
+	private static char lowBits(final int value) {
+		return (char)(value & 0xFFFF);
+	}
+
+	private int indexOf(final char key) {
+
+		// fast path for appending ordinals in ascending order
+		if (size > 0 && keys[size - 1] == key) {
+			return size - 1;
+		}
+
+		return Arrays.binarySearch(keys, 0, size, key);
+	}
+
+	private void ensureCapacity(final int capacity) {
+
+		if (capacity > keys.length) {
+
+			final int newCapacity = Math.max(capacity, keys.length * 2);
+
+			keys       = Arrays.copyOf(keys, newCapacity);
+			containers = Arrays.copyOf(containers, newCapacity);
+		}
+	}
+
+	private void insertContainer(final int index, final char key, final Container container) {
+
+		ensureCapacity(size + 1);
+
+		System.arraycopy(keys, index, keys, index + 1, size - index);
+		System.arraycopy(containers, index, containers, index + 1, size - index);
+
+		keys[index]       = key;
+		containers[index] = container;
+
+		size++;
+	}
+
+	private void appendContainer(final char key, final Container container) {
+		insertContainer(size, key, container);
+	}
+
+	private void removeContainer(final int index) {
+
+		System.arraycopy(keys, index + 1, keys, index, size - index - 1);
+		System.arraycopy(containers, index + 1, containers, index, size - index - 1);
+
+		containers[--size] = null;
+	}
+
+	// ----- nested classes -----
+	private static abstract class Container {
+
+		abstract boolean add(final char value);
+		abstract boolean remove(final char value);
+		abstract boolean contains(final char value);
+		abstract int cardinality();
+		abstract Container copy();
+		abstract PrimitiveIterator.OfInt iterator();
+
+		Container or(final Container other) {
+
+			final BitsetContainer result = toBitset(this);
+
+			for (final PrimitiveIterator.OfInt it = other.iterator(); it.hasNext();) {
+				result.add((char)it.nextInt());
+			}
+
+			return result.cardinality() <= ARRAY_CONTAINER_MAX_SIZE ? result.toArrayContainer() : result;
+		}
+
+		Container and(final Container other) {
+
+			// iterate the smaller container, probe the larger one
+			final Container small  = cardinality() <= other.cardinality() ? this : other;
+			final Container large  = small == this ? other : this;
+			final ArrayContainer a = new ArrayContainer();
+
+			for (final PrimitiveIterator.OfInt it = small.iterator(); it.hasNext();) {
+
+				final char value = (char)it.nextInt();
+
+				if (large.contains(value)) {
+					a.append(value);
+				}
+			}
+
+			return a.cardinality() > ARRAY_CONTAINER_MAX_SIZE ? a.toBitsetContainer() : a;
+		}
+
+		private static BitsetContainer toBitset(final Container container) {
+
+			if (container instanceof BitsetContainer) {
+				return (BitsetContainer)container.copy();
+			}
+
+			return ((ArrayContainer)container).toBitsetContainer();
+		}
+	}
+
+	private static class ArrayContainer extends Container {
+
+		private char[] values   = new char[4];
+		private int cardinality = 0;
+
+		@Override
+		boolean add(final char value) {
+
+			// fast path for appending values in ascending order
+			if (cardinality == 0 || values[cardinality - 1] < value) {
+
+				append(value);
+				return true;
+			}
+
+			final int index = Arrays.binarySearch(values, 0, cardinality, value);
+			if (index >= 0) {
+				return false;
+			}
+
+			final int insert = -index - 1;
+
+			ensureCapacity(cardinality + 1);
+			System.arraycopy(values, insert, values, insert + 1, cardinality - insert);
+
+			values[insert] = value;
+			cardinality++;
+
+			return true;
+		}
+
+		@Override
+		boolean remove(final char value) {
+
+			final int index = Arrays.binarySearch(values, 0, cardinality, value);
+			if (index < 0) {
+				return false;
+			}
+
+			System.arraycopy(values, index + 1, values, index, cardinality - index - 1);
+			cardinality--;
+
+			return true;
+		}
+
+		@Override
+		boolean contains(final char value) {
+			return Arrays.binarySearch(values, 0, cardinality, value) >= 0;
+		}
+
+		@Override
+		int cardinality() {
+			return cardinality;
+		}
+
+		@Override
+		Container copy() {
+
+			final ArrayContainer copy = new ArrayContainer();
+
+			copy.values      = Arrays.copyOf(values, Math.max(4, cardinality));
+			copy.cardinality = cardinality;
+
+			return copy;
+		}
+
+		@Override
+		PrimitiveIterator.OfInt iterator() {
+
+			return new PrimitiveIterator.OfInt() {
+
+				private int index = 0;
+
+				@Override
+				public boolean hasNext() {
+					return index < cardinality;
+				}
+
+				@Override
+				public int nextInt() {
+
+					if (index >= cardinality) {
+						throw new NoSuchElementException();
+					}
+
+					return values[index++];
+				}
+			};
+		}
+
+		void append(final char value) {
+
+			ensureCapacity(cardinality + 1);
+			values[cardinality++] = value;
+		}
+
+		BitsetContainer toBitsetContainer() {
+
+			final BitsetContainer bitset = new BitsetContainer();
+
+			for (int i=0; i<cardinality; i++) {
+				bitset.add(values[i]);
+			}
+
+			return bitset;
+		}
+
+		private void ensureCapacity(final int capacity) {
+
+			if (capacity > values.length) {
+				values = Arrays.copyOf(values, Math.min(65536, Math.max(capacity, values.length * 2)));
+			}
+		}
+	}
+
+	private static class BitsetContainer extends Container {
+
+		private final long[] words = new long[1024];
+		private int cardinality    = 0;
+
+		@Override
+		boolean add(final char value) {
+
+			final int index  = value >>> 6;
+			final long mask  = 1L << value;
+			final long word  = words[index];
+
+			if ((word & mask) != 0) {
+				return false;
+			}
+
+			words[index] = word | mask;
+			cardinality++;
+
+			return true;
+		}
+
+		@Override
+		boolean remove(final char value) {
+
+			final int index  = value >>> 6;
+			final long mask  = 1L << value;
+			final long word  = words[index];
+
+			if ((word & mask) == 0) {
+				return false;
+			}
+
+			words[index] = word & ~mask;
+			cardinality--;
+
+			return true;
+		}
+
+		@Override
+		boolean contains(final char value) {
+			return (words[value >>> 6] & (1L << value)) != 0;
+		}
+
+		@Override
+		int cardinality() {
+			return cardinality;
+		}
+
+		@Override
+		Container copy() {
+
+			final BitsetContainer copy = new BitsetContainer();
+
+			System.arraycopy(words, 0, copy.words, 0, words.length);
+			copy.cardinality = cardinality;
+
+			return copy;
+		}
+
+		@Override
+		Container or(final Container other) {
+
+			if (other instanceof BitsetContainer) {
+
+				final BitsetContainer result = new BitsetContainer();
+				final long[] otherWords      = ((BitsetContainer)other).words;
+				int count                    = 0;
+
+				for (int i=0; i<words.length; i++) {
+
+					final long word = words[i] | otherWords[i];
+
+					result.words[i] = word;
+					count += Long.bitCount(word);
+				}
+
+				result.cardinality = count;
+
+				return result;
+			}
+
+			return super.or(other);
+		}
+
+		@Override
+		Container and(final Container other) {
+
+			if (other instanceof BitsetContainer) {
+
+				final BitsetContainer result = new BitsetContainer();
+				final long[] otherWords      = ((BitsetContainer)other).words;
+				int count                    = 0;
+
+				for (int i=0; i<words.length; i++) {
+
+					final long word = words[i] & otherWords[i];
+
+					result.words[i] = word;
+					count += Long.bitCount(word);
+				}
+
+				result.cardinality = count;
+
+				return count <= ARRAY_CONTAINER_MAX_SIZE ? result.toArrayContainer() : result;
+			}
+
+			return super.and(other);
+		}
+
+		@Override
+		PrimitiveIterator.OfInt iterator() {
+
+			return new PrimitiveIterator.OfInt() {
+
+				private int index = 0;
+				private long word = words[0];
+
+				@Override
+				public boolean hasNext() {
+
+					while (word == 0) {
+
+						if (++index >= words.length) {
+							return false;
+						}
+
+						word = words[index];
+					}
+
+					return true;
+				}
+
+				@Override
+				public int nextInt() {
+
+					if (!hasNext()) {
+						throw new NoSuchElementException();
+					}
+
+					final int value = (index << 6) + Long.numberOfTrailingZeros(word);
+
+					// clear lowest bit
+					word &= word - 1;
+
+					return value;
+				}
+			};
+		}
+
+		ArrayContainer toArrayContainer() {
+
+			final ArrayContainer array = new ArrayContainer();
+
+			for (final PrimitiveIterator.OfInt it = iterator(); it.hasNext();) {
+				array.append((char)it.nextInt());
+			}
+
+			return array;
+		}
+	}
+}
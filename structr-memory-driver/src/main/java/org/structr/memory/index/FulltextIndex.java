@@ -0,0 +1,156 @@
+/*
+ * Copyright (C) 2010-2020 Structr GmbH
+ *
+ * This file is part of Structr <http://structr.org>.
+ *
+ * Structr is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * Structr is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Structr.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.structr.memory.index;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Inverted index for substring queries on a single (label, property key)
+ * combination. Each term of the analyzer maps to a posting list of node
+ * ordinals, values that cannot be analyzed are kept in a separate list
+ * and are always returned as candidates.
+ *
+ * The index contains committed values only, so results must always be
+ * treated as candidates and filtered with the original predicate.
+ */
+public class FulltextIndex {
+
+	private final Map<String, CompactBitmap> postings = new HashMap<>();
+	private final Map<Integer, String[]> terms        = new HashMap<>();
+	private final CompactBitmap unanalyzed            = new CompactBitmap();
+	private TextAnalyzer analyzer                     = null;
+	private String label                              = null;
+	private String key                                = null;
+
+	public FulltextIndex(final String label, final String key, final TextAnalyzer analyzer) {
+
+		this.label    = label;
+		this.key      = key;
+		this.analyzer = analyzer;
+	}
+
+	@Override
+	public String toString() {
+		return "FULLTEXT(" + label + "." + key + ")";
+	}
+
+	public String getLabel() {
+		return label;
+	}
+
+	public String getKey() {
+		return key;
+	}
+
+	public synchronized int size() {
+		return terms.size() + unanalyzed.cardinality();
+	}
+
+	public synchronized void update(final int ordinal, final Object value) {
+
+		remove(ordinal);
+
+		if (value != null) {
+
+			final Set<String> newTerms = analyzer.analyze(value);
+			if (newTerms != null) {
+
+				for (final String term : newTerms) {
+					postings.computeIfAbsent(term, k -> new CompactBitmap()).add(ordinal);
+				}
+
+				terms.put(ordinal, newTerms.toArray(new String[0]));
+
+			} else {
+
+				unanalyzed.add(ordinal);
+			}
+		}
+	}
+
+	public synchronized void remove(final int ordinal) {
+
+		final String[] previous = terms.remove(ordinal);
+		if (previous != null) {
+
+			for (final String term : previous) {
+
+				final CompactBitmap bitmap = postings.get(term);
+				if (bitmap != null) {
+
+					bitmap.remove(ordinal);
+
+					if (bitmap.isEmpty()) {
+						postings.remove(term);
+					}
+				}
+			}
+		}
+
+		unanalyzed.remove(ordinal);
+	}
+
+	public synchronized void clear() {
+
+		postings.clear();
+		terms.clear();
+		unanalyzed.clear();
+	}
+
+	/**
+	 * Returns the ordinals of the nodes whose value may contain the given
+	 * string, or null if the query cannot be answered by this index.
+	 */
+	public synchronized CompactBitmap get(final String query) {
+
+		final Set<String> queryTerms = analyzer.analyzeQuery(query);
+		if (queryTerms == null) {
+			return null;
+		}
+
+		final List<CompactBitmap> bitmaps = new ArrayList<>(queryTerms.size());
+
+		for (final String term : queryTerms) {
+
+			final CompactBitmap bitmap = postings.get(term);
+			if (bitmap == null) {
+
+				// no indexed value contains this term
+				return unanalyzed.copy();
+			}
+
+			bitmaps.add(bitmap);
+		}
+
+		// intersect the shortest posting lists first
+		bitmaps.sort((b1, b2) -> Integer.compare(b1.cardinality(), b2.cardinality()));
+
+		CompactBitmap result = bitmaps.get(0).copy();
+
+		for (int i=1; i<bitmaps.size() && !result.isEmpty(); i++) {
+			result = result.and(bitmaps.get(i));
+		}
+
+		return result.or(unanalyzed);
+	}
+}
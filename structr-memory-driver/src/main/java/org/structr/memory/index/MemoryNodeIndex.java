@@ -18,13 +18,21 @@
  */
 package org.structr.memory.index;
 
+import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
+import org.structr.api.Predicate;
 import org.structr.api.graph.Node;
 import org.structr.api.search.QueryContext;
+import org.structr.api.search.SortOrder;
+import org.structr.api.search.SortSpec;
 import org.structr.api.util.Iterables;
 import org.structr.api.util.PagingIterable;
 import org.structr.memory.MemoryDatabaseService;
+import org.structr.memory.MemoryIdentity;
+import org.structr.memory.MemoryNode;
 import org.structr.memory.index.filter.MemoryLabelFilter;
+import org.structr.memory.index.filter.MemoryPropertyFilter;
 
 /**
  *
@@ -45,11 +53,26 @@ public class MemoryNodeIndex extends AbstractMemoryIndex<Node> {
 
 		if (labels.isEmpty()) {
 
-			result = Iterables.filter(query, query.sort(db.getAllNodes()));
+			result = Iterables.filter(query, db.getAllNodes());
 
 		} else {
 
-			result = Iterables.filter(query, query.sort(db.getFilteredNodes(new MemoryLabelFilter<>(labels))));
+			final List<Predicate<MemoryNode>> predicates = query.getIndexablePredicates();
+			if (predicates.isEmpty()) {
+
+				result = Iterables.filter(query, db.getFilteredNodes(new MemoryLabelFilter<>(labels)));
+
+			} else {
+
+				// let the repository use a secondary index if possible
+				result = Iterables.filter(query, db.getFilteredNodes(new MemoryPropertyFilter<>(labels, predicates)));
+			}
+		}
+
+		final SortOrder sortOrder = query.getSortOrder();
+		if (sortOrder != null) {
+
+			result = sort(query, result, sortOrder);
 		}
 
 		if (queryContext.isSliced()) {
@@ -62,4 +85,42 @@ public class MemoryNodeIndex extends AbstractMemoryIndex<Node> {
 
 		return result;
 	}
+
+	// ----- private methods -----
+	/**
+	 * Sorts the filtered result. If the query is paged, only the elements
+	 * up to the end of the requested page need to be in sort order, which
+	 * allows the use of a top-K heap or a threshold from a sorted index.
+	 */
+	private Iterable<Node> sort(final MemoryQuery query, final Iterable<Node> source, final SortOrder sortOrder) {
+
+		final QueryContext queryContext = query.getQueryContext();
+		final List<SortSpec> specs      = sortOrder.getSortElements();
+		final Set<String> labels        = query.getTypeLabels();
+		final int pageSize              = queryContext.getPageSize();
+		final int skip                  = queryContext.getSkip();
+
+		if (!queryContext.isSliced() || pageSize <= 0 || skip < 0 || specs.isEmpty()) {
+
+			return query.sort(source);
+		}
+
+		final List<Node> list = Iterables.toList(source);
+		final int limit       = skip + pageSize;
+		Object threshold      = null;
+
+		if (labels.size() == 1 && limit < list.size()) {
+
+			final Set<MemoryIdentity> ids = new HashSet<>();
+			final SortSpec primary        = specs.get(0);
+
+			for (final Node node : list) {
+				ids.add(((MemoryNode)node).getIdentity());
+			}
+
+			threshold = db.getSortThreshold(labels.iterator().next(), primary.getSortKey(), ids, limit, primary.sortDescending());
+		}
+
+		return query.sort(list, limit, threshold);
+	}
 }
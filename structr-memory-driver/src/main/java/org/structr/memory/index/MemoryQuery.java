@@ -18,10 +18,12 @@
  */
 package org.structr.memory.index;
 
-import java.util.Collections;
+import java.util.ArrayList;
 import java.util.Comparator;
 import java.util.LinkedHashSet;
+import java.util.LinkedList;
 import java.util.List;
+import java.util.PriorityQueue;
 import java.util.Set;
 import org.apache.commons.lang3.exception.ExceptionUtils;
 import org.slf4j.Logger;
@@ -32,10 +34,14 @@ import org.structr.api.search.QueryContext;
 import org.structr.api.index.DatabaseQuery;
 import org.structr.api.search.SortOrder;
 import org.structr.api.search.SortSpec;
-import org.structr.api.util.Iterables;
+import org.structr.memory.index.predicate.BoundingBoxPredicate;
 import org.structr.memory.index.predicate.Conjunction;
+import org.structr.memory.index.predicate.DistancePredicate;
 import org.structr.memory.index.predicate.GroupPredicate;
 import org.structr.memory.index.predicate.NotPredicate;
+import org.structr.memory.index.predicate.RangePredicate;
+import org.structr.memory.index.predicate.StringContainsPredicate;
+import org.structr.memory.index.predicate.ValuePredicate;
 
 /**
  */
@@ -117,17 +123,58 @@ public class MemoryQuery<T extends PropertyContainer> implements DatabaseQuery,
 		currentPredicate = currentPredicate.getParent();
 	}
 
+	public SortOrder getSortOrder() {
+		return sortOrder;
+	}
+
 	public Iterable<T> sort(final Iterable<T> source) {
+		return sort(source, -1, null);
+	}
+
+	/**
+	 * Sorts the given source. If a limit is given, only the first elements
+	 * up to the limit are guaranteed to be sorted, the remaining elements
+	 * follow in undefined order so the total count is still available
+	 * for paging.
+	 *
+	 * The optional threshold is an upper bound for the primary sort key of
+	 * the first elements (e.g. from a sorted secondary index). It is used
+	 * to sort only the elements below the threshold and ignored if that
+	 * set turns out to be too small.
+	 */
+	public Iterable<T> sort(final Iterable<T> source, final int limit, final Object threshold) {
 
 		if (sortOrder != null) {
 
 			try {
 
-				final List<T> list = Iterables.toList(source);
+				final List<SortSpec> specs       = sortOrder.getSortElements();
+				final KeyComparator comparator   = new KeyComparator(specs);
+				final List<SortEntry<T>> entries = new ArrayList<>();
+				int ordinal                      = 0;
+
+				// extract sort keys only once per element
+				for (final T value : source) {
+					entries.add(new SortEntry<>(value, extractKeys(value, specs), ordinal++));
+				}
+
+				if (limit > 0 && limit < entries.size()) {
 
-				Collections.sort(list, new Sorter(sortOrder));
+					if (threshold != null && !specs.isEmpty()) {
+
+						final List<T> result = sortBelowThreshold(entries, limit, threshold, specs.get(0).sortDescending(), comparator);
+						if (result != null) {
+
+							return result;
+						}
+					}
+
+					return sortTopK(entries, limit, comparator);
+				}
 
-				return list;
+				entries.sort(comparator);
+
+				return unwrap(entries, new ArrayList<>(entries.size()));
 
 			} catch (Throwable t) {
 				logger.error(ExceptionUtils.getStackTrace(t));
@@ -146,75 +193,258 @@ public class MemoryQuery<T extends PropertyContainer> implements DatabaseQuery,
 		return queryContext;
 	}
 
-	// ----- nested classes -----
-	private class Sorter implements Comparator<T> {
+	/**
+	 * Returns the value and range predicates that every result of this
+	 * query must satisfy, i.e. the ones that are reachable from the root
+	 * predicate through AND groups only. These can be answered by a
+	 * secondary, spatial or fulltext index.
+	 */
+	public List<Predicate<T>> getIndexablePredicates() {
+
+		final List<Predicate<T>> result = new LinkedList<>();
+
+		collectIndexablePredicates(rootPredicate, result);
+
+		return result;
+	}
+
+	// ----- private methods -----
+	private void collectIndexablePredicates(final GroupPredicate<T> group, final List<Predicate<T>> result) {
+
+		if (Conjunction.And.equals(group.getConjunction())) {
+
+			for (final Predicate<T> predicate : group.getPredicates()) {
+
+				if (predicate instanceof GroupPredicate) {
+
+					collectIndexablePredicates((GroupPredicate<T>)predicate, result);
+
+				} else if (predicate instanceof ValuePredicate) {
+
+					// null values are not indexed
+					if (((ValuePredicate)predicate).getDesiredValue() != null) {
+						result.add(predicate);
+					}
+
+				} else if (predicate instanceof StringContainsPredicate) {
+
+					// empty strings match everything
+					if (!((StringContainsPredicate)predicate).getDesiredValue().isEmpty()) {
+						result.add(predicate);
+					}
+
+				} else if (predicate instanceof RangePredicate || predicate instanceof DistancePredicate || predicate instanceof BoundingBoxPredicate) {
+
+					result.add(predicate);
+				}
+			}
+		}
+	}
+
+	private Object[] extractKeys(final T value, final List<SortSpec> specs) {
 
-		private SortOrder sortOrder = null;
+		final Object[] keys = new Object[specs.size()];
+		int i               = 0;
 
-		public Sorter(final SortOrder order) {
-			this.sortOrder = order;
+		for (final SortSpec spec : specs) {
+			keys[i++] = value.getProperty(spec.getSortKey());
 		}
 
-		@Override
-		public int compare(final T o1, final T o2) {
+		return keys;
+	}
+
+	/**
+	 * Keeps the first elements in a bounded max-heap, so that each element
+	 * is compared against the current worst of the first elements only.
+	 */
+	private List<T> sortTopK(final List<SortEntry<T>> entries, final int limit, final KeyComparator comparator) {
 
-			if (o1 == null || o2 == null) {
-				throw new NullPointerException("Cannot compare null objects.");
+		final PriorityQueue<SortEntry<T>> heap = new PriorityQueue<>(limit + 1, comparator.reversed());
+		final List<T> result                   = new ArrayList<>(entries.size());
+		final List<T> remaining                = new ArrayList<>(entries.size() - limit);
+
+		for (final SortEntry<T> entry : entries) {
+
+			if (heap.size() < limit) {
+
+				heap.add(entry);
+
+			} else if (comparator.compare(entry, heap.peek()) < 0) {
+
+				remaining.add(heap.poll().value);
+				heap.add(entry);
+
+			} else {
+
+				remaining.add(entry.value);
 			}
+		}
 
-			if (o1 instanceof PropertyContainer && o2 instanceof PropertyContainer) {
+		final List<SortEntry<T>> top = new ArrayList<>(heap);
 
-				final PropertyContainer g1 = (PropertyContainer)o1;
-				final PropertyContainer g2 = (PropertyContainer)o2;
+		top.sort(comparator);
 
-				for (final SortSpec spec : sortOrder.getSortElements()) {
+		unwrap(top, result);
+		result.addAll(remaining);
 
-					final String key   = spec.getSortKey();
-					final boolean desc = spec.sortDescending();
-					Object v1          = g1.getProperty(key);
-					Object v2          = g2.getProperty(key);
+		return result;
+	}
 
-					if (v1 == null || v2 == null) {
+	/**
+	 * Sorts only the elements whose primary sort key does not come after
+	 * the given threshold. This is correct as long as at least limit
+	 * elements are known to be below the threshold, otherwise null is
+	 * returned and the caller falls back to the heap.
+	 */
+	private List<T> sortBelowThreshold(final List<SortEntry<T>> entries, final int limit, final Object threshold, final boolean descending, final KeyComparator comparator) {
 
-						if (v1 == null && v2 == null) {
+		final List<SortEntry<T>> below = new ArrayList<>();
+		final List<T> remaining        = new ArrayList<>();
+		int count                      = 0;
 
-							return 0;
+		for (final SortEntry<T> entry : entries) {
 
-						} else if (v1 == null) {
+			final Integer result = compareToThreshold(entry.keys[0], threshold, descending);
+			if (result == null) {
 
-							// sort order is "nulls last"
-							return desc ? -1 : 1;
+				// not comparable with the threshold, sort it but don't count it
+				below.add(entry);
 
-						} else {
+			} else if (result <= 0) {
 
-							return desc ? 1 : -1;
+				below.add(entry);
+				count++;
 
-						}
-					}
+			} else {
 
-					if (v1 instanceof Comparable && v2 instanceof Comparable) {
+				remaining.add(entry.value);
+			}
+		}
 
-						Comparable c1 = (Comparable)v1;
-						Comparable c2 = (Comparable)v2;
+		if (count < limit) {
+			return null;
+		}
 
-						final int result = desc ? c2.compareTo(c1) : c1.compareTo(c2);
-						if (result != 0) {
+		final List<T> result = new ArrayList<>(entries.size());
 
-							// return result if values are different, stay in loop if values are equal
-							return result;
-						}
+		below.sort(comparator);
+
+		unwrap(below, result);
+		result.addAll(remaining);
+
+		return result;
+	}
+
+	private Integer compareToThreshold(final Object key, final Object threshold, final boolean descending) {
+
+		if (key == null) {
+
+			// nulls last (ascending) or first (descending)
+			return descending ? -1 : 1;
+		}
+
+		// index values are normalized to double
+		final Object value = key instanceof Number ? ((Number)key).doubleValue() : key;
+
+		if (value instanceof Comparable && value.getClass().equals(threshold.getClass())) {
+
+			final int result = ((Comparable)value).compareTo(threshold);
+
+			return descending ? -result : result;
+		}
+
+		return null;
+	}
+
+	private List<T> unwrap(final List<SortEntry<T>> entries, final List<T> result) {
+
+		for (final SortEntry<T> entry : entries) {
+			result.add(entry.value);
+		}
+
+		return result;
+	}
+
+	// ----- nested classes -----
+	private static class SortEntry<T> {
+
+		private final Object[] keys;
+		private final T value;
+		private final int ordinal;
+
+		public SortEntry(final T value, final Object[] keys, final int ordinal) {
+
+			this.value   = value;
+			this.keys    = keys;
+			this.ordinal = ordinal;
+		}
+	}
+
+	/**
+	 * Compares pre-extracted sort keys, using the original position as
+	 * the last criterion so that sorting is stable in all code paths.
+	 */
+	private class KeyComparator implements Comparator<SortEntry<T>> {
+
+		private final boolean[] descending;
+
+		public KeyComparator(final List<SortSpec> specs) {
+
+			this.descending = new boolean[specs.size()];
+
+			int i = 0;
+
+			for (final SortSpec spec : specs) {
+				descending[i++] = spec.sortDescending();
+			}
+		}
+
+		@Override
+		public int compare(final SortEntry<T> o1, final SortEntry<T> o2) {
+
+			for (int i=0; i<descending.length; i++) {
+
+				final boolean desc = descending[i];
+				final Object v1    = o1.keys[i];
+				final Object v2    = o2.keys[i];
+
+				if (v1 == null || v2 == null) {
+
+					if (v1 == null && v2 == null) {
+
+						continue;
+
+					} else if (v1 == null) {
+
+						// sort order is "nulls last"
+						return desc ? -1 : 1;
 
 					} else {
 
-						throw new ClassCastException("Cannot sort values of types " + v1.getClass().getName() + ", " + v2.getClass().getName());
+						return desc ? 1 : -1;
 					}
 				}
 
-				// if we arrive here, the values for all the keys are equal
-				return 0;
+				if (v1 instanceof Comparable && v2 instanceof Comparable) {
+
+					Comparable c1 = (Comparable)v1;
+					Comparable c2 = (Comparable)v2;
+
+					final int result = desc ? c2.compareTo(c1) : c1.compareTo(c2);
+					if (result != 0) {
+
+						// return result if values are different, stay in loop if values are equal
+						return result;
+					}
+
+				} else {
+
+					throw new ClassCastException("Cannot sort values of types " + v1.getClass().getName() + ", " + v2.getClass().getName());
+				}
 			}
 
-			throw new ClassCastException("Cannot sort values of types " + o1.getClass().getName() + ", " + o2.getClass().getName());
+			// if we arrive here, the values for all the keys are equal
+			return Integer.compare(o1.ordinal, o2.ordinal);
 		}
 	}
 }
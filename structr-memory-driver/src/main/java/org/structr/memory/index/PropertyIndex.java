@@ -0,0 +1,249 @@
+/*
+ * Copyright (C) 2010-2020 Structr GmbH
+ *
+ * This file is part of Structr <http://structr.org>.
+ *
+ * Structr is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * Structr is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Structr.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.structr.memory.index;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import org.structr.memory.MemoryIdentity;
+
+/**
+ * Secondary index for a single (label, property key) combination. Exact
+ * lookups are answered by a hash index, range lookups by a sorted
+ * skip-list index over the same values.
+ *
+ * The index contains committed values only, so results must always be
+ * treated as candidates and filtered with the original predicate.
+ */
+public class PropertyIndex {
+
+	private final ConcurrentSkipListMap<Object, Set<MemoryIdentity>> sorted = new ConcurrentSkipListMap<>(new ValueComparator());
+	private final Map<Object, Set<MemoryIdentity>> exact                    = new ConcurrentHashMap<>();
+	private final Map<MemoryIdentity, Object> values                        = new ConcurrentHashMap<>();
+	private volatile boolean online                                         = false;
+	private String label                                                    = null;
+	private String key                                                      = null;
+
+	public PropertyIndex(final String label, final String key) {
+
+		this.label = label;
+		this.key   = key;
+	}
+
+	@Override
+	public String toString() {
+		return "INDEX(" + label + "." + key + ")";
+	}
+
+	public String getLabel() {
+		return label;
+	}
+
+	public String getKey() {
+		return key;
+	}
+
+	public boolean isOnline() {
+		return online;
+	}
+
+	public void setOnline(final boolean online) {
+		this.online = online;
+	}
+
+	public int size() {
+		return values.size();
+	}
+
+	public synchronized void update(final MemoryIdentity id, final Object rawValue) {
+
+		final Object value    = normalize(rawValue);
+		final Object previous = values.get(id);
+
+		if (previous != null) {
+
+			if (previous.equals(value)) {
+				return;
+			}
+
+			remove(exact, previous, id);
+			remove(sorted, previous, id);
+			values.remove(id);
+		}
+
+		if (value != null) {
+
+			exact.computeIfAbsent(value, k -> ConcurrentHashMap.newKeySet()).add(id);
+			values.put(id, value);
+
+			// only comparable values can be used in range queries
+			if (value instanceof Comparable) {
+				sorted.computeIfAbsent(value, k -> ConcurrentHashMap.newKeySet()).add(id);
+			}
+		}
+	}
+
+	public void remove(final MemoryIdentity id) {
+
+		if (values.containsKey(id)) {
+			update(id, null);
+		}
+	}
+
+	public synchronized void clear() {
+
+		exact.clear();
+		sorted.clear();
+		values.clear();
+	}
+
+	public Set<MemoryIdentity> get(final Object value) {
+
+		final Set<MemoryIdentity> result = exact.get(normalize(value));
+		if (result != null) {
+
+			return result;
+		}
+
+		return Collections.emptySet();
+	}
+
+	public Set<MemoryIdentity> getRange(final Object rangeStart, final Object rangeEnd) {
+
+		final Set<MemoryIdentity> result = new LinkedHashSet<>();
+		final Object start               = normalize(rangeStart);
+		final Object end                 = normalize(rangeEnd);
+		NavigableMap<Object, Set<MemoryIdentity>> range = sorted;
+
+		// bounds are always inclusive, the caller filters the candidates
+		if (start != null && end != null) {
+
+			if (sorted.comparator().compare(start, end) > 0) {
+				return result;
+			}
+
+			range = sorted.subMap(start, true, end, true);
+
+		} else if (start != null) {
+
+			range = sorted.tailMap(start, true);
+
+		} else if (end != null) {
+
+			range = sorted.headMap(end, true);
+		}
+
+		for (final Set<MemoryIdentity> ids : range.values()) {
+			result.addAll(ids);
+		}
+
+		return result;
+	}
+
+	/**
+	 * Returns the n-th value in sort order among the given identities, or
+	 * null if the index contains fewer values for them or if the values
+	 * up to that point are not of a single type.
+	 */
+	public Object getNthValue(final Set<MemoryIdentity> ids, final int n, final boolean descending) {
+
+		final NavigableMap<Object, Set<MemoryIdentity>> map = descending ? sorted.descendingMap() : sorted;
+		Class type                                          = null;
+		int count                                           = 0;
+
+		for (final Map.Entry<Object, Set<MemoryIdentity>> entry : map.entrySet()) {
+
+			final Object value = entry.getKey();
+
+			if (type == null) {
+
+				type = value.getClass();
+
+			} else if (!type.equals(value.getClass())) {
+
+				return null;
+			}
+
+			for (final MemoryIdentity id : entry.getValue()) {
+
+				if (ids.contains(id) && ++count >= n) {
+					return value;
+				}
+			}
+		}
+
+		return null;
+	}
+
+	// ----- private methods -----
+	private void remove(final Map<Object, Set<MemoryIdentity>> map, final Object value, final MemoryIdentity id) {
+
+		final Set<MemoryIdentity> ids = map.get(value);
+		if (ids != null) {
+
+			ids.remove(id);
+
+			if (ids.isEmpty()) {
+				map.remove(value);
+			}
+		}
+	}
+
+	/**
+	 * Maps values to index keys, using the same notion of equality as
+	 * ValuePredicate (numbers are compared by their double value, arrays
+	 * by their contents).
+	 */
+	private Object normalize(final Object value) {
+
+		if (value instanceof Number) {
+			return ((Number)value).doubleValue();
+		}
+
+		if (value instanceof Object[]) {
+			return Arrays.asList((Object[])value);
+		}
+
+		return value;
+	}
+
+	// ----- nested classes -----
+	private static class ValueComparator implements Comparator<Object> {
+
+		@Override
+		public int compare(final Object o1, final Object o2) {
+
+			final Class c1 = o1.getClass();
+			final Class c2 = o2.getClass();
+
+			if (c1.equals(c2)) {
+				return ((Comparable)o1).compareTo(o2);
+			}
+
+			// values of different types are grouped by type
+			return c1.getName().compareTo(c2.getName());
+		}
+	}
+}
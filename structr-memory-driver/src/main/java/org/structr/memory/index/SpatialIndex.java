@@ -0,0 +1,239 @@
+/*
+ * Copyright (C) 2010-2020 Structr GmbH
+ *
+ * This file is part of Structr <http://structr.org>.
+ *
+ * Structr is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * Structr is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Structr.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.structr.memory.index;
+
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import org.structr.memory.MemoryIdentity;
+
+/**
+ * Spatial index over the latitude and longitude properties of nodes. The
+ * index is a uniform grid of cells (in degrees), every indexed node is
+ * stored in the cell that contains its position.
+ *
+ * The index contains committed values only, so results must always be
+ * treated as candidates and filtered with the original predicate.
+ */
+public class SpatialIndex {
+
+	public static final String LATITUDE_KEY   = "latitude";
+	public static final String LONGITUDE_KEY  = "longitude";
+	public static final double EARTH_RADIUS   = 6378140.0;
+
+	private final Map<Long, Set<MemoryIdentity>> cells = new ConcurrentHashMap<>();
+	private final Map<MemoryIdentity, Long> positions  = new ConcurrentHashMap<>();
+	private double cellSize                            = 0.1;
+
+	public SpatialIndex() {
+	}
+
+	public SpatialIndex(final double cellSize) {
+		this.cellSize = cellSize;
+	}
+
+	public int size() {
+		return positions.size();
+	}
+
+	public synchronized void update(final MemoryIdentity id, final Object latitude, final Object longitude) {
+
+		final Long cell     = getCell(latitude, longitude);
+		final Long previous = positions.get(id);
+
+		if (previous != null) {
+
+			if (previous.equals(cell)) {
+				return;
+			}
+
+			final Set<MemoryIdentity> ids = cells.get(previous);
+			if (ids != null) {
+
+				ids.remove(id);
+
+				if (ids.isEmpty()) {
+					cells.remove(previous);
+				}
+			}
+
+			positions.remove(id);
+		}
+
+		if (cell != null) {
+
+			cells.computeIfAbsent(cell, k -> ConcurrentHashMap.newKeySet()).add(id);
+			positions.put(id, cell);
+		}
+	}
+
+	public void remove(final MemoryIdentity id) {
+
+		if (positions.containsKey(id)) {
+			update(id, null, null);
+		}
+	}
+
+	public synchronized void clear() {
+
+		cells.clear();
+		positions.clear();
+	}
+
+	/**
+	 * Returns the candidates in the given bounding box. Longitude ranges
+	 * that cross the antimeridian are given with minLongitude > maxLongitude.
+	 */
+	public Set<MemoryIdentity> getWithinBoundingBox(final double minLatitude, final double minLongitude, final double maxLatitude, final double maxLongitude) {
+
+		final Set<MemoryIdentity> result = new LinkedHashSet<>();
+
+		if (minLongitude > maxLongitude) {
+
+			collect(minLatitude, minLongitude, maxLatitude, 180.0, result);
+			collect(minLatitude, -180.0, maxLatitude, maxLongitude, result);
+
+		} else {
+
+			collect(minLatitude, minLongitude, maxLatitude, maxLongitude, result);
+		}
+
+		return result;
+	}
+
+	/**
+	 * Returns the candidates within the given distance (in kilometers)
+	 * of the given position.
+	 */
+	public Set<MemoryIdentity> getWithinDistance(final double latitude, final double longitude, final double distance) {
+
+		final double angle        = Math.toDegrees(distance * 1000.0 / EARTH_RADIUS);
+		final double minLatitude  = latitude - angle;
+		final double maxLatitude  = latitude + angle;
+
+		// the circle contains a pole, so all longitudes are included
+		if (minLatitude <= -90.0 || maxLatitude >= 90.0) {
+			return getWithinBoundingBox(Math.max(-90.0, minLatitude), -180.0, Math.min(90.0, maxLatitude), 180.0);
+		}
+
+		// widest longitude range of the circle (at its tangent points)
+		final double sin = Math.sin(Math.toRadians(angle)) / Math.cos(Math.toRadians(latitude));
+		if (sin >= 1.0) {
+			return getWithinBoundingBox(minLatitude, -180.0, maxLatitude, 180.0);
+		}
+
+		final double delta = Math.toDegrees(Math.asin(sin));
+
+		return getWithinBoundingBox(minLatitude, wrap(longitude - delta), maxLatitude, wrap(longitude + delta));
+	}
+
+	/**
+	 * Returns the great-circle distance between two positions in meters,
+	 * using the haversine formula.
+	 */
+	public static double distance(final double latitude1, final double longitude1, final double latitude2, final double longitude2) {
+
+		final double dLat = Math.toRadians(latitude2 - latitude1);
+		final double dLon = Math.toRadians(longitude2 - longitude1);
+		final double a    = Math.pow(Math.sin(dLat / 2.0), 2) + Math.cos(Math.toRadians(latitude1)) * Math.cos(Math.toRadians(latitude2)) * Math.pow(Math.sin(dLon / 2.0), 2);
+
+		return 2.0 * EARTH_RADIUS * Math.atan2(Math.sqrt(a), Math.sqrt(1.0 - a));
+	}
+
+	// ----- private methods -----
+	private void collect(final double minLatitude, final double minLongitude, final double maxLatitude, final double maxLongitude, final Set<MemoryIdentity> result) {
+
+		final int minRow    = row(minLatitude);
+		final int maxRow    = row(maxLatitude);
+		final int minColumn = column(minLongitude);
+		final int maxColumn = column(maxLongitude);
+		final long count    = (long)(maxRow - minRow + 1) * (long)(maxColumn - minColumn + 1);
+
+		if (count > cells.size()) {
+
+			// large area, scan the occupied cells instead
+			for (final Map.Entry<Long, Set<MemoryIdentity>> entry : cells.entrySet()) {
+
+				final long cell  = entry.getKey();
+				final int row    = (int)(cell >> 32);
+				final int column = (int)cell;
+
+				if (row >= minRow && row <= maxRow && column >= minColumn && column <= maxColumn) {
+					result.addAll(entry.getValue());
+				}
+			}
+
+		} else {
+
+			for (int row = minRow; row <= maxRow; row++) {
+
+				for (int column = minColumn; column <= maxColumn; column++) {
+
+					final Set<MemoryIdentity> ids = cells.get(key(row, column));
+					if (ids != null) {
+
+						result.addAll(ids);
+					}
+				}
+			}
+		}
+	}
+
+	private Long getCell(final Object latitude, final Object longitude) {
+
+		if (latitude instanceof Number && longitude instanceof Number) {
+
+			final double lat = ((Number)latitude).doubleValue();
+			final double lon = ((Number)longitude).doubleValue();
+
+			if (lat >= -90.0 && lat <= 90.0 && lon >= -180.0 && lon <= 180.0) {
+
+				return key(row(lat), column(lon));
+			}
+		}
+
+		return null;
+	}
+
+	private int row(final double latitude) {
+		return (int)Math.floor((Math.max(-90.0, Math.min(90.0, latitude)) + 90.0) / cellSize);
+	}
+
+	private int column(final double longitude) {
+		return (int)Math.floor((Math.max(-180.0, Math.min(180.0, longitude)) + 180.0) / cellSize);
+	}
+
+	private long key(final int row, final int column) {
+		return ((long)row << 32) | (column & 0xffffffffL);
+	}
+
+	private double wrap(final double longitude) {
+
+		if (longitude < -180.0) {
+			return longitude + 360.0;
+		}
+
+		if (longitude > 180.0) {
+			return longitude - 360.0;
+		}
+
+		return longitude;
+	}
+}
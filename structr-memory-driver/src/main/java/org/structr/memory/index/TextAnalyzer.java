@@ -0,0 +1,116 @@
+/*
+ * Copyright (C) 2010-2020 Structr GmbH
+ *
+ * This file is part of Structr <http://structr.org>.
+ *
+ * Structr is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * Structr is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Structr.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.structr.memory.index;
+
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+/**
+ * Splits string values into words and words into lowercase trigrams. A
+ * substring of a value contains only complete trigrams of the words it
+ * spans, so the trigrams of the query words are a necessary condition
+ * for a match.
+ *
+ * Words longer than the maximum length are not indexed, values that
+ * contain such a word are reported as not analyzable instead.
+ */
+public class TextAnalyzer {
+
+	public static final int GRAM_LENGTH = 3;
+
+	private int maxLength = 30;
+
+	public TextAnalyzer(final int maxLength) {
+		this.maxLength = maxLength;
+	}
+
+	/**
+	 * Returns the terms of the given value, or null if the value cannot
+	 * be analyzed.
+	 */
+	public Set<String> analyze(final Object value) {
+
+		if (!(value instanceof String)) {
+			return null;
+		}
+
+		final Set<String> terms = new LinkedHashSet<>();
+
+		for (final String word : split(((String)value).toLowerCase())) {
+
+			if (word.length() > maxLength) {
+				return null;
+			}
+
+			addTerms(word, terms);
+		}
+
+		return terms;
+	}
+
+	/**
+	 * Returns the terms that every value containing the given string must
+	 * have, or null if the query is too short to use the index.
+	 */
+	public Set<String> analyzeQuery(final String query) {
+
+		final Set<String> terms = new LinkedHashSet<>();
+
+		for (final String word : split(query.toLowerCase())) {
+
+			addTerms(word, terms);
+		}
+
+		if (terms.isEmpty()) {
+			return null;
+		}
+
+		return terms;
+	}
+
+	// ----- private methods -----
+	private void addTerms(final String word, final Set<String> terms) {
+
+		for (int i=0; i<=word.length() - GRAM_LENGTH; i++) {
+
+			terms.add(word.substring(i, i + GRAM_LENGTH));
+		}
+	}
+
+	private Set<String> split(final String value) {
+
+		final Set<String> words = new LinkedHashSet<>();
+		final int length        = value.length();
+		int start               = 0;
+
+		for (int i=0; i<=length; i++) {
+
+			if (i == length || !Character.isLetterOrDigit(value.charAt(i))) {
+
+				if (i > start) {
+					words.add(value.substring(start, i));
+				}
+
+				start = i + 1;
+			}
+		}
+
+		return words;
+	}
+}
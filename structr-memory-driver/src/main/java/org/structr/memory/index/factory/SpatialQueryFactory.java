@@ -21,7 +21,9 @@ package org.structr.memory.index.factory;
 import org.structr.api.index.AbstractIndex;
 import org.structr.api.index.AbstractQueryFactory;
 import org.structr.api.search.QueryPredicate;
+import org.structr.api.search.SpatialQuery;
 import org.structr.memory.index.MemoryQuery;
+import org.structr.memory.index.predicate.DistancePredicate;
 
 /**
  *
@@ -35,40 +37,24 @@ public class SpatialQueryFactory extends AbstractQueryFactory<MemoryQuery> {
 	@Override
 	public boolean createQuery(final QueryPredicate predicate, final MemoryQuery query, final boolean isFirst) {
 
-		/*
-
 		if (predicate instanceof SpatialQuery) {
 
 			checkOccur(query, predicate.getOccurrence(), isFirst);
 
 			final SpatialQuery spatial = (SpatialQuery)predicate;
-			final StringBuilder buf    = new StringBuilder();
 			final Double[] coords      = spatial.getCoords();
+			final Double distance      = spatial.getDistance();
 
-			if (coords == null || coords.length != 2)  {
+			if (coords == null || coords.length != 2 || coords[0] == null || coords[1] == null || distance == null)  {
 				return false;
 			}
 
-			buf.append("distance(point({latitude:");
-			buf.append(coords[0]);
-			buf.append(",longitude:");
-			buf.append(coords[1]);
-			buf.append("}), point({latitude: n.latitude, longitude: n.longitude}))");
-
-			// do not include nodes that have no lat/lon properties
-			query.beginGroup();
-			query.addSimpleParameter("latitude", "IS NOT", null);
-			query.and();
-			query.addSimpleParameter("longitude", "IS NOT", null);
-			query.and();
-			query.addSimpleParameter(buf.toString(), "<", spatial.getDistance() * 1000.0, false); // distance is in kilometers
-			query.endGroup();
+			// nodes without lat/lon properties are not included
+			query.addPredicate(new DistancePredicate<>(coords[0], coords[1], distance));
 
 			return true;
 		}
-		*/
 
 		return false;
 	}
-
 }
@@ -27,16 +27,31 @@ import org.structr.memory.MemoryEntity;
 public class MemoryLabelFilter<T extends MemoryEntity> implements Filter<T> {
 
 	private final Set<String> labels = new LinkedHashSet<>();
+	private boolean matchAll         = false;
 
 	public MemoryLabelFilter(final String label) {
 		this.labels.add(label);
 	}
 
 	public MemoryLabelFilter(final Set<String> labels) {
+		this(labels, false);
+	}
+
+	/**
+	 * Creates a filter that matches entities with any of the given labels
+	 * or, if matchAll is true, entities with all of the given labels.
+	 */
+	public MemoryLabelFilter(final Set<String> labels, final boolean matchAll) {
+
 		this.labels.addAll(labels);
+		this.matchAll = matchAll;
 	}
 
 	public Set<String> getLabels() {
 		return labels;
 	}
+
+	public boolean matchAll() {
+		return matchAll;
+	}
 }
@@ -0,0 +1,45 @@
+/*
+ * Copyright (C) 2010-2020 Structr GmbH
+ *
+ * This file is part of Structr <http://structr.org>.
+ *
+ * Structr is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * Structr is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Structr.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.structr.memory.index.filter;
+
+import java.util.List;
+import java.util.Set;
+import org.structr.api.Predicate;
+import org.structr.memory.MemoryEntity;
+
+/**
+ * Label filter that carries the property predicates of a query so that
+ * the repository can use a secondary index to find candidates. If no
+ * index can be used, this filter behaves like a MemoryLabelFilter.
+ */
+public class MemoryPropertyFilter<T extends MemoryEntity> extends MemoryLabelFilter<T> {
+
+	private List<Predicate<T>> predicates = null;
+
+	public MemoryPropertyFilter(final Set<String> labels, final List<Predicate<T>> predicates) {
+
+		super(labels);
+
+		this.predicates = predicates;
+	}
+
+	public List<Predicate<T>> getPredicates() {
+		return predicates;
+	}
+}
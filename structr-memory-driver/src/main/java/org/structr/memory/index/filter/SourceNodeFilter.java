@@ -26,12 +26,23 @@ import org.structr.memory.MemoryIdentity;
 public class SourceNodeFilter<T extends MemoryEntity> implements Filter<T> {
 
 	private MemoryIdentity sourceNode = null;
+	private String relType            = null;
 
 	public SourceNodeFilter(final MemoryIdentity sourceNode) {
+		this(sourceNode, null);
+	}
+
+	public SourceNodeFilter(final MemoryIdentity sourceNode, final String relType) {
+
 		this.sourceNode = sourceNode;
+		this.relType    = relType;
 	}
 
 	public MemoryIdentity getIdentity() {
 		return sourceNode;
 	}
+
+	public String getRelationshipType() {
+		return relType;
+	}
 }
@@ -26,12 +26,23 @@ import org.structr.memory.MemoryIdentity;
 public class TargetNodeFilter<T extends MemoryEntity> implements Filter<T> {
 
 	private MemoryIdentity targetNode = null;
+	private String relType            = null;
 
 	public TargetNodeFilter(final MemoryIdentity targetNode) {
+		this(targetNode, null);
+	}
+
+	public TargetNodeFilter(final MemoryIdentity targetNode, final String relType) {
+
 		this.targetNode = targetNode;
+		this.relType    = relType;
 	}
 
 	public MemoryIdentity getIdentity() {
 		return targetNode;
 	}
+
+	public String getRelationshipType() {
+		return relType;
+	}
 }
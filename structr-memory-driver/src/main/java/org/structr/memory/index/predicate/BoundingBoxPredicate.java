@@ -0,0 +1,85 @@
+/*
+ * Copyright (C) 2010-2020 Structr GmbH
+ *
+ * This file is part of Structr <http://structr.org>.
+ *
+ * Structr is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * Structr is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Structr.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.structr.memory.index.predicate;
+
+import org.structr.api.Predicate;
+import org.structr.api.graph.PropertyContainer;
+import org.structr.memory.index.SpatialIndex;
+
+/**
+ * Accepts entities whose latitude and longitude are within the given
+ * bounding box (inclusive). Longitude ranges that cross the antimeridian
+ * are given with minLongitude > maxLongitude.
+ */
+public class BoundingBoxPredicate<T extends PropertyContainer> implements Predicate<T> {
+
+	private double minLatitude  = 0.0;
+	private double minLongitude = 0.0;
+	private double maxLatitude  = 0.0;
+	private double maxLongitude = 0.0;
+
+	public BoundingBoxPredicate(final double minLatitude, final double minLongitude, final double maxLatitude, final double maxLongitude) {
+
+		this.minLatitude  = minLatitude;
+		this.minLongitude = minLongitude;
+		this.maxLatitude  = maxLatitude;
+		this.maxLongitude = maxLongitude;
+	}
+
+	public double getMinLatitude() {
+		return minLatitude;
+	}
+
+	public double getMinLongitude() {
+		return minLongitude;
+	}
+
+	public double getMaxLatitude() {
+		return maxLatitude;
+	}
+
+	public double getMaxLongitude() {
+		return maxLongitude;
+	}
+
+	@Override
+	public boolean accept(final T entity) {
+
+		final Object lat = entity.getProperty(SpatialIndex.LATITUDE_KEY);
+		final Object lon = entity.getProperty(SpatialIndex.LONGITUDE_KEY);
+
+		if (lat instanceof Number && lon instanceof Number) {
+
+			final double latitude  = ((Number)lat).doubleValue();
+			final double longitude = ((Number)lon).doubleValue();
+
+			if (latitude < minLatitude || latitude > maxLatitude) {
+				return false;
+			}
+
+			if (minLongitude > maxLongitude) {
+				return longitude >= minLongitude || longitude <= maxLongitude;
+			}
+
+			return longitude >= minLongitude && longitude <= maxLongitude;
+		}
+
+		return false;
+	}
+}
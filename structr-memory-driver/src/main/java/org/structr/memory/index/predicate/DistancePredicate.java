@@ -0,0 +1,67 @@
+/*
+ * Copyright (C) 2010-2020 Structr GmbH
+ *
+ * This file is part of Structr <http://structr.org>.
+ *
+ * Structr is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * Structr is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Structr.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.structr.memory.index.predicate;
+
+import org.structr.api.Predicate;
+import org.structr.api.graph.PropertyContainer;
+import org.structr.memory.index.SpatialIndex;
+
+/**
+ * Accepts entities whose latitude and longitude are within the given
+ * distance (in kilometers) of a position.
+ */
+public class DistancePredicate<T extends PropertyContainer> implements Predicate<T> {
+
+	private double latitude  = 0.0;
+	private double longitude = 0.0;
+	private double distance  = 0.0;
+
+	public DistancePredicate(final double latitude, final double longitude, final double distance) {
+
+		this.latitude  = latitude;
+		this.longitude = longitude;
+		this.distance  = distance;
+	}
+
+	public double getLatitude() {
+		return latitude;
+	}
+
+	public double getLongitude() {
+		return longitude;
+	}
+
+	public double getDistance() {
+		return distance;
+	}
+
+	@Override
+	public boolean accept(final T entity) {
+
+		final Object lat = entity.getProperty(SpatialIndex.LATITUDE_KEY);
+		final Object lon = entity.getProperty(SpatialIndex.LONGITUDE_KEY);
+
+		if (lat instanceof Number && lon instanceof Number) {
+
+			return SpatialIndex.distance(latitude, longitude, ((Number)lat).doubleValue(), ((Number)lon).doubleValue()) < distance * 1000.0;
+		}
+
+		return false;
+	}
+}
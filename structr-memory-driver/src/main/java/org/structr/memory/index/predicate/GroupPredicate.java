@@ -72,6 +72,14 @@ public class GroupPredicate<T> implements Predicate<T> {
 		this.conjunction = conj;
 	}
 
+	public Conjunction getConjunction() {
+		return conjunction;
+	}
+
+	public List<Predicate<T>> getPredicates() {
+		return predicates;
+	}
+
 	@Override
 	public boolean accept(final T value) {
 
@@ -51,6 +51,18 @@ public class RangePredicate<T extends PropertyContainer, V extends Comparable> i
 		return this;
 	}
 
+	public String getKey() {
+		return key;
+	}
+
+	public Comparable getRangeStart() {
+		return rangeStart;
+	}
+
+	public Comparable getRangeEnd() {
+		return rangeEnd;
+	}
+
 	@Override
 	public boolean accept(final T entity) {
 
@@ -34,6 +34,14 @@ public class StringContainsPredicate<T extends PropertyContainer> implements Pre
 		this.desiredValue = desiredValue;
 	}
 
+	public String getKey() {
+		return key;
+	}
+
+	public String getDesiredValue() {
+		return desiredValue;
+	}
+
 	@Override
 	public boolean accept(final T entity) {
 
@@ -41,6 +41,14 @@ public class ValuePredicate<T extends PropertyContainer, V> implements Predicate
 		return "VALUE(" + key + " = " + desiredValue + ")";
 	}
 
+	public String getKey() {
+		return key;
+	}
+
+	public V getDesiredValue() {
+		return desiredValue;
+	}
+
 	@Override
 	public boolean accept(final T entity) {
 
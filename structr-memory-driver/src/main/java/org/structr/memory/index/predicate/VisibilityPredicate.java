@@ -0,0 +1,127 @@
+/*
+ * Copyright (C) 2010-2020 Structr GmbH
+ *
+ * This file is part of Structr <http://structr.org>.
+ *
+ * Structr is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * Structr is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Structr.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.structr.memory.index.predicate;
+
+import java.util.Collection;
+import java.util.Set;
+import org.structr.api.Predicate;
+import org.structr.api.graph.Direction;
+import org.structr.api.graph.PropertyContainer;
+import org.structr.api.graph.Relationship;
+import org.structr.api.graph.RelationshipType;
+import org.structr.api.search.VisibilityQuery;
+import org.structr.memory.MemoryNode;
+
+/**
+ */
+public class VisibilityPredicate<T extends PropertyContainer> implements Predicate<T> {
+
+	private static final RelationshipType OWNS     = RelationshipType.forName("OWNS");
+	private static final RelationshipType SECURITY = RelationshipType.forName("SECURITY");
+
+	private VisibilityQuery visibilityQuery = null;
+
+	public VisibilityPredicate(final VisibilityQuery visibilityQuery) {
+		this.visibilityQuery = visibilityQuery;
+	}
+
+	@Override
+	public String toString() {
+		return "VISIBILITY(" + visibilityQuery.getPrincipalIds() + ")";
+	}
+
+	@Override
+	public boolean accept(final T entity) {
+
+		if (entity instanceof MemoryNode) {
+
+			final MemoryNode node              = (MemoryNode)entity;
+			final Set<String> principalIds     = visibilityQuery.getPrincipalIds();
+			final Set<String> propagatingTypes = visibilityQuery.getPropagatingRelationshipTypes();
+
+			if (Boolean.TRUE.equals(node.getProperty("visibleToPublicUsers"))) {
+				return true;
+			}
+
+			if (visibilityQuery.includeVisibleToAuthenticatedUsers() && Boolean.TRUE.equals(node.getProperty("visibleToAuthenticatedUsers"))) {
+				return true;
+			}
+
+			if (!principalIds.isEmpty()) {
+
+				if (isPrincipal(principalIds, node)) {
+					return true;
+				}
+
+				for (final Relationship rel : node.getRelationships(Direction.INCOMING, OWNS)) {
+
+					if (isPrincipal(principalIds, rel.getStartNode())) {
+						return true;
+					}
+				}
+
+				for (final Relationship rel : node.getRelationships(Direction.INCOMING, SECURITY)) {
+
+					if (allowsRead(rel.getProperty("allowed")) && isPrincipal(principalIds, rel.getStartNode())) {
+						return true;
+					}
+				}
+			}
+
+			if (!propagatingTypes.isEmpty()) {
+
+				for (final Relationship rel : node.getRelationships()) {
+
+					if (propagatingTypes.contains(rel.getType().name())) {
+						return true;
+					}
+				}
+			}
+		}
+
+		return false;
+	}
+
+	// ----- private methods -----
+	private boolean isPrincipal(final Set<String> principalIds, final PropertyContainer node) {
+
+		final Object id = node.getProperty("id");
+
+		return id != null && principalIds.contains(id);
+	}
+
+	private boolean allowsRead(final Object allowed) {
+
+		if (allowed instanceof Object[]) {
+
+			for (final Object value : (Object[])allowed) {
+
+				if ("read".equals(value)) {
+					return true;
+				}
+			}
+
+		} else if (allowed instanceof Collection) {
+
+			return ((Collection)allowed).contains("read");
+		}
+
+		return false;
+	}
+}
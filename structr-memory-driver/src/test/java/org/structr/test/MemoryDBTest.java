@@ -18,13 +18,58 @@
  */
 package org.structr.test;
 
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.ObjectOutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
 import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.PrimitiveIterator;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+import org.structr.api.Predicate;
+import org.structr.api.DatabaseFeature;
+import org.structr.api.RetryException;
 import org.structr.api.Transaction;
+import org.structr.api.config.Settings;
+import org.structr.api.graph.Direction;
 import org.structr.api.graph.Identity;
 import org.structr.api.graph.Node;
+import org.structr.api.graph.RelationshipType;
+import org.structr.api.search.Occurrence;
+import org.structr.api.search.QueryContext;
+import org.structr.api.search.SortOrder;
+import org.structr.api.search.SortSpec;
+import org.structr.api.search.SortType;
+import org.structr.api.search.VisibilityQuery;
+import org.structr.api.util.Iterables;
 import org.structr.memory.MemoryDatabaseService;
+import org.structr.memory.MemoryNode;
+import org.structr.memory.index.CompactBitmap;
+import org.structr.memory.index.MemoryNodeIndex;
+import org.structr.memory.index.MemoryQuery;
 import org.structr.memory.index.filter.MemoryLabelFilter;
+import org.structr.memory.index.filter.MemoryPropertyFilter;
+import org.structr.memory.index.predicate.BoundingBoxPredicate;
+import org.structr.memory.index.predicate.DistancePredicate;
+import org.structr.memory.index.predicate.RangePredicate;
+import org.structr.memory.index.predicate.StringContainsPredicate;
+import org.structr.memory.index.predicate.ValuePredicate;
+import org.structr.memory.index.predicate.VisibilityPredicate;
+import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.assertTrue;
 import org.testng.annotations.Test;
 
 /**
@@ -66,4 +111,1057 @@ public class MemoryDBTest {
 		}
 
 	}
+
+	@Test
+	public void testPropertyIndex() {
+
+		final MemoryDatabaseService service = new MemoryDatabaseService();
+
+		try (final Transaction tx = service.beginTx()) {
+
+			for (int i=0; i<100; i++) {
+
+				final Map<String, Object> data = new LinkedHashMap<>();
+
+				data.put("type", "Test");
+				data.put("name", "node" + i);
+				data.put("age",  i);
+
+				service.createNode("Test", null, data);
+			}
+
+			tx.success();
+		}
+
+		// create index after data exists
+		service.updateIndexConfiguration(Map.of("Test", Map.of("name", true, "age", true)), Map.of(), false);
+
+		try (final Transaction tx = service.beginTx()) {
+
+			assertEquals("Secondary index was not used for exact query", 1, Iterables.count(service.getFilteredNodes(propertyFilter(new ValuePredicate<>("name", "node42")))));
+			assertTrue("Secondary index was not used for range query", Iterables.count(service.getFilteredNodes(propertyFilter(new RangePredicate<>("age", 10, 19, Integer.class)))) < 20);
+			assertEquals("Invalid result for indexed range query", 10, count(service, new RangePredicate<>("age", 10, 19, Integer.class)));
+
+			// modify value in transaction
+			final MemoryNode node = Iterables.first(service.getFilteredNodes(propertyFilter(new ValuePredicate<>("name", "node42"))));
+			node.setProperty("name", "modified");
+
+			assertEquals("Uncommitted value not visible in indexed query", 1, count(service, new ValuePredicate<>("name", "modified")));
+			assertEquals("Uncommitted value not visible in indexed query", 0, count(service, new ValuePredicate<>("name", "node42")));
+
+			tx.success();
+		}
+
+		try (final Transaction tx = service.beginTx()) {
+
+			assertEquals("Secondary index was not updated on commit", 1, Iterables.count(service.getFilteredNodes(propertyFilter(new ValuePredicate<>("name", "modified")))));
+			assertEquals("Secondary index was not updated on commit", 0, Iterables.count(service.getFilteredNodes(propertyFilter(new ValuePredicate<>("name", "node42")))));
+
+			// create and delete
+			final Map<String, Object> data = new LinkedHashMap<>();
+			data.put("type", "Test");
+			data.put("name", "new");
+
+			service.createNode("Test", null, data);
+
+			final Predicate<MemoryNode> toDelete = new ValuePredicate<>("name", "node13");
+
+			for (final MemoryNode node : Iterables.filter(toDelete, service.getFilteredNodes(propertyFilter(toDelete)))) {
+				node.delete(true);
+			}
+
+			tx.success();
+		}
+
+		try (final Transaction tx = service.beginTx()) {
+
+			assertEquals("Secondary index was not updated on commit", 1, count(service, new ValuePredicate<>("name", "new")));
+			assertEquals("Secondary index was not updated on commit", 0, count(service, new ValuePredicate<>("name", "node13")));
+			assertEquals("Secondary index was not updated on commit", 9, count(service, new RangePredicate<>("age", 10, 19, Integer.class)));
+
+			tx.success();
+		}
+	}
+
+	@Test
+	public void testRelationshipTraversal() {
+
+		final MemoryDatabaseService service = new MemoryDatabaseService();
+		final RelationshipType type         = service.forName(RelationshipType.class, "LINK");
+		final RelationshipType other        = service.forName(RelationshipType.class, "OTHER");
+		final List<MemoryNode> nodes        = new ArrayList<>();
+		final int nodeCount                 = 2000;
+		final int degree                    = 20;
+
+		createGraph(service, nodes, type, nodeCount, degree);
+
+		try (final Transaction tx = service.beginTx()) {
+
+			final MemoryNode node = nodes.get(0);
+
+			// uncommitted relationships must be visible, deleted ones must not
+			node.createRelationshipTo(nodes.get(nodeCount / 2), other);
+			Iterables.first(node.getRelationships(Direction.OUTGOING, type)).delete(true);
+
+			assertEquals("Invalid number of outgoing relationships", degree, Iterables.count(node.getRelationships(Direction.OUTGOING)));
+			assertEquals("Invalid number of outgoing relationships", degree - 1, Iterables.count(node.getRelationships(Direction.OUTGOING, type)));
+			assertEquals("Invalid number of outgoing relationships", 1, Iterables.count(node.getRelationships(Direction.OUTGOING, other)));
+			assertEquals("Invalid number of incoming relationships", degree, Iterables.count(node.getRelationships(Direction.INCOMING, type)));
+			assertEquals("Invalid number of relationships", 2 * degree, Iterables.count(node.getRelationships()));
+
+			tx.failure();
+		}
+
+		long count = 0;
+
+		try (final Transaction tx = service.beginTx()) {
+
+			for (final MemoryNode node : nodes) {
+
+				count += Iterables.count(node.getRelationships(Direction.OUTGOING, type));
+				count += Iterables.count(node.getRelationships(Direction.INCOMING));
+			}
+
+			tx.success();
+		}
+
+		assertEquals("Invalid number of traversed relationships", 2L * nodeCount * degree, count);
+	}
+
+	/**
+	 * Traverses one million relationships. Excluded from the default test run,
+	 * use the "benchmark" profile to execute it.
+	 */
+	@Test(groups = "benchmark")
+	public void benchmarkRelationshipTraversal() {
+
+		final MemoryDatabaseService service = new MemoryDatabaseService();
+		final RelationshipType type         = service.forName(RelationshipType.class, "LINK");
+		final List<MemoryNode> nodes        = new ArrayList<>();
+		final int nodeCount                 = 10000;
+		final int degree                    = 100;
+
+		long t0 = System.currentTimeMillis();
+
+		createGraph(service, nodes, type, nodeCount, degree);
+
+		long t1 = System.currentTimeMillis();
+
+		System.out.println("Created " + (nodeCount * degree) + " relationships in " + (t1 - t0) + " ms");
+
+		long count = 0;
+
+		try (final Transaction tx = service.beginTx()) {
+
+			for (final MemoryNode node : nodes) {
+
+				count += Iterables.count(node.getRelationships(Direction.OUTGOING, type));
+			}
+
+			tx.success();
+		}
+
+		long t2 = System.currentTimeMillis();
+
+		System.out.println("Traversed " + count + " relationships in " + (t2 - t1) + " ms");
+
+		assertEquals("Invalid number of traversed relationships", (long)nodeCount * degree, count);
+	}
+
+	@Test
+	public void testCompactBitmap() {
+
+		final Random random          = new Random(42);
+		final CompactBitmap bitmap1  = new CompactBitmap();
+		final CompactBitmap bitmap2  = new CompactBitmap();
+		final TreeSet<Integer> set1  = new TreeSet<>();
+		final TreeSet<Integer> set2  = new TreeSet<>();
+
+		// mix of sparse and dense chunks
+		for (int i=0; i<200000; i++) {
+
+			final int value1 = random.nextInt(i % 2 == 0 ? 10000 : 1000000);
+			final int value2 = random.nextInt(i % 3 == 0 ? 10000 : 1000000);
+
+			assertEquals("Invalid CompactBitmap add result", set1.add(value1), bitmap1.add(value1));
+			assertEquals("Invalid CompactBitmap add result", set2.add(value2), bitmap2.add(value2));
+		}
+
+		for (int i=0; i<100000; i++) {
+
+			final int value = random.nextInt(1000000);
+
+			assertEquals("Invalid CompactBitmap remove result", set1.remove(value), bitmap1.remove(value));
+		}
+
+		final TreeSet<Integer> union        = new TreeSet<>(set1);
+		final TreeSet<Integer> intersection = new TreeSet<>(set1);
+
+		union.addAll(set2);
+		intersection.retainAll(set2);
+
+		assertEquals("Invalid CompactBitmap contents", set1, toSet(bitmap1));
+		assertEquals("Invalid CompactBitmap cardinality", set1.size(), bitmap1.cardinality());
+		assertEquals("Invalid CompactBitmap union", union, toSet(bitmap1.or(bitmap2)));
+		assertEquals("Invalid CompactBitmap intersection", intersection, toSet(bitmap1.and(bitmap2)));
+		assertEquals("Invalid CompactBitmap copy", set2, toSet(bitmap2.copy()));
+	}
+
+	@Test
+	public void testLabelQueries() {
+
+		final MemoryDatabaseService service = new MemoryDatabaseService();
+
+		try (final Transaction tx = service.beginTx()) {
+
+			for (int i=0; i<1000; i++) {
+
+				final Set<String> labels = i % 2 == 0 ? Set.of("Even") : Set.of("Odd");
+
+				service.createNode("Test", i % 3 == 0 ? Set.of("Three") : labels, Map.of("type", "Test"));
+			}
+
+			tx.success();
+		}
+
+		try (final Transaction tx = service.beginTx()) {
+
+			assertEquals("Invalid result for label query", 1000, Iterables.count(service.getNodesByLabel("Test")));
+			assertEquals("Invalid result for OR label query", 666, Iterables.count(service.getFilteredNodes(new MemoryLabelFilter<>(Set.of("Even", "Odd")))));
+			assertEquals("Invalid result for AND label query", 334, Iterables.count(service.getFilteredNodes(new MemoryLabelFilter<>(Set.of("Test", "Three"), true))));
+			assertEquals("Invalid result for AND label query", 0, Iterables.count(service.getFilteredNodes(new MemoryLabelFilter<>(Set.of("Even", "Three"), true))));
+
+			// delete nodes and change labels
+			for (final Node node : Iterables.toList(service.getNodesByLabel("Three"))) {
+				node.delete(true);
+			}
+
+			for (final Node node : service.getNodesByLabel("Odd")) {
+				node.addLabel("Changed");
+			}
+
+			tx.success();
+		}
+
+		try (final Transaction tx = service.beginTx()) {
+
+			assertEquals("Invalid result after deletion", 666, Iterables.count(service.getNodesByLabel("Test")));
+			assertEquals("Invalid result after deletion", 0, Iterables.count(service.getNodesByLabel("Three")));
+			assertEquals("Invalid result after label change", 333, Iterables.count(service.getNodesByLabel("Changed")));
+			assertEquals("Invalid result for type query", 666, Iterables.count(service.getNodesByTypeProperty("Test")));
+
+			tx.success();
+		}
+	}
+
+	@Test
+	public void testSnapshotIsolation() throws Exception {
+
+		final MemoryDatabaseService service = new MemoryDatabaseService();
+		final ExecutorService executor      = Executors.newSingleThreadExecutor();
+		final CountDownLatch readerStarted  = new CountDownLatch(1);
+		final CountDownLatch writerDone     = new CountDownLatch(1);
+		Identity id                         = null;
+
+		try (final Transaction tx = service.beginTx()) {
+
+			id = service.createNode("Test", Set.of("Test"), Map.of("type", "Test", "name", "initial")).getId();
+
+			tx.success();
+		}
+
+		final Identity nodeId = id;
+
+		// long-running reader in a separate thread
+		final Future<List<Object>> reader = executor.submit(() -> {
+
+			final List<Object> values = new ArrayList<>();
+
+			try (final Transaction tx = service.beginTx()) {
+
+				values.add(service.getNodeById(nodeId).getProperty("name"));
+
+				readerStarted.countDown();
+				writerDone.await();
+
+				values.add(service.getNodeById(nodeId).getProperty("name"));
+				values.add(Iterables.count(service.getNodesByLabel("Test")));
+				values.add(Iterables.count(service.getNodesByLabel("Changed")));
+
+				tx.success();
+			}
+
+			return values;
+		});
+
+		readerStarted.await();
+
+		try (final Transaction tx = service.beginTx()) {
+
+			final Node node = service.getNodeById(nodeId);
+
+			node.setProperty("name", "modified");
+			node.addLabel("Changed");
+
+			service.createNode("Test", Set.of("Test"), Map.of("type", "Test", "name", "new"));
+
+			tx.success();
+		}
+
+		writerDone.countDown();
+
+		assertEquals("Invalid snapshot isolation", List.of("initial", "initial", 1, 0), reader.get());
+
+		try (final Transaction tx = service.beginTx()) {
+
+			assertEquals("Committed value not visible", "modified", service.getNodeById(nodeId).getProperty("name"));
+			assertEquals("Committed node not visible", 2, Iterables.count(service.getNodesByLabel("Test")));
+			assertEquals("Committed label not visible", 1, Iterables.count(service.getNodesByLabel("Changed")));
+
+			tx.success();
+		}
+
+		// concurrent write to the same node must fail on commit
+		final CountDownLatch writerStarted = new CountDownLatch(1);
+		final CountDownLatch otherDone     = new CountDownLatch(1);
+
+		final Future<Boolean> writer = executor.submit(() -> {
+
+			try (final Transaction tx = service.beginTx()) {
+
+				service.getNodeById(nodeId).setProperty("name", "first");
+
+				writerStarted.countDown();
+				otherDone.await();
+
+				tx.success();
+
+			} catch (RetryException rex) {
+				return true;
+			}
+
+			return false;
+		});
+
+		writerStarted.await();
+
+		try (final Transaction tx = service.beginTx()) {
+
+			service.getNodeById(nodeId).setProperty("name", "second");
+
+			tx.success();
+		}
+
+		otherDone.countDown();
+
+		assertTrue("Write-write conflict was not detected", writer.get());
+
+		try (final Transaction tx = service.beginTx()) {
+
+			assertEquals("Invalid value after conflict", "second", service.getNodeById(nodeId).getProperty("name"));
+
+			tx.success();
+		}
+
+		// properties removed in the current transaction must not be reported
+		try (final Transaction tx = service.beginTx()) {
+
+			final Node node = service.getNodeById(nodeId);
+
+			node.removeProperty("name");
+
+			assertTrue("Removed property is still reported as present", !node.hasProperty("name"));
+			assertTrue("Removed property is still listed", !Iterables.toList(node.getPropertyKeys()).contains("name"));
+			assertTrue("Existing property is not listed", Iterables.toList(node.getPropertyKeys()).contains("type"));
+
+			tx.failure();
+		}
+
+		executor.shutdown();
+	}
+
+	@Test
+	public void testPersistence() throws Exception {
+
+		final Path directory = Files.createTempDirectory("structr-memory-test");
+
+		Settings.DatabasePath.setValue(directory.toString());
+		Settings.MemoryCheckpointInterval.setValue(3600);
+		Settings.MemoryPersistence.setValue(true);
+
+		try {
+
+			final MemoryDatabaseService service1 = new MemoryDatabaseService();
+			final List<Identity> ids             = new ArrayList<>();
+
+			assertTrue("Unable to initialize database", service1.initialize(null));
+
+			try (final Transaction tx = service1.beginTx()) {
+
+				Node previous = null;
+
+				for (int i=0; i<100; i++) {
+
+					final Node node = service1.createNode("Test", Set.of("Test"), Map.of("type", "Test", "name", "node" + i));
+
+					if (previous != null) {
+						previous.createRelationshipTo(node, service1.forName(RelationshipType.class, "NEXT"));
+					}
+
+					ids.add(node.getId());
+					previous = node;
+				}
+
+				tx.success();
+			}
+
+			try (final Transaction tx = service1.beginTx()) {
+
+				service1.getNodeById(ids.get(0)).setProperty("name", "modified");
+				service1.getNodeById(ids.get(1)).addLabel("Changed");
+				service1.getNodeById(ids.get(99)).delete(true);
+
+				tx.success();
+			}
+
+			// simulate a crash: no shutdown, data must be recovered from the write-ahead log
+			final MemoryDatabaseService service2 = new MemoryDatabaseService();
+
+			assertTrue("Unable to initialize database", service2.initialize(null));
+			assertPersistedState(service2, ids);
+
+			try (final Transaction tx = service2.beginTx()) {
+
+				service2.getNodeById(ids.get(2)).setProperty("name", "afterRecovery");
+
+				tx.success();
+			}
+
+			// regular shutdown writes a checkpoint
+			service2.shutdown();
+
+			final MemoryDatabaseService service3 = new MemoryDatabaseService();
+
+			assertTrue("Unable to initialize database", service3.initialize(null));
+			assertPersistedState(service3, ids);
+
+			try (final Transaction tx = service3.beginTx()) {
+
+				assertEquals("Invalid recovered property value", "afterRecovery", service3.getNodeById(ids.get(2)).getProperty("name"));
+
+				// new identities must not collide with recovered ones
+				final Node node = service3.createNode("Test", Set.of("Test"), Map.of("type", "Test", "name", "new"));
+
+				assertEquals("Identity collision after recovery", 0, ids.stream().filter(id -> id.equals(node.getId())).count());
+
+				tx.success();
+			}
+
+			service3.shutdown();
+
+		} finally {
+
+			Settings.MemoryPersistence.setValue(false);
+
+			for (final File file : directory.toFile().listFiles()) {
+				file.delete();
+			}
+
+			directory.toFile().delete();
+		}
+	}
+
+	@Test
+	public void testFailedCheckpoint() throws Exception {
+
+		final Path directory = Files.createTempDirectory("structr-memory-test");
+
+		// a directory with the name of the temporary checkpoint file makes the first checkpoint fail
+		final File blocker = new File(directory.toFile(), String.format("checkpoint-%020d.bin.tmp", 1L));
+
+		Settings.DatabasePath.setValue(directory.toString());
+		Settings.MemoryCheckpointInterval.setValue(3600);
+		Settings.MemoryPersistence.setValue(true);
+
+		try {
+
+			final MemoryDatabaseService service1 = new MemoryDatabaseService();
+			final Identity first;
+			final Identity second;
+
+			assertTrue("Unable to initialize database", service1.initialize(null));
+			assertTrue("Unable to create blocking directory", blocker.mkdir());
+
+			try (final Transaction tx = service1.beginTx()) {
+
+				first = service1.createNode("Test", Set.of("Test"), Map.of("type", "Test", "name", "first")).getId();
+
+				tx.success();
+			}
+
+			// checkpoint on shutdown fails, the log file must be kept
+			service1.shutdown();
+
+			assertEquals("Checkpoint should have failed", 0, directory.toFile().listFiles((dir, name) -> name.startsWith("checkpoint-") && name.endsWith(".bin")).length);
+
+			// recovery replays the log, the checkpoint after recovery fails again
+			final MemoryDatabaseService service2 = new MemoryDatabaseService();
+
+			assertTrue("Unable to initialize database", service2.initialize(null));
+			assertTrue("Unable to remove blocking directory", blocker.delete());
+
+			try (final Transaction tx = service2.beginTx()) {
+
+				second = service2.createNode("Test", Set.of("Test"), Map.of("type", "Test", "name", "second")).getId();
+
+				tx.success();
+			}
+
+			// this checkpoint succeeds and deletes the old log files, so it must contain both nodes
+			service2.shutdown();
+
+			final MemoryDatabaseService service3 = new MemoryDatabaseService();
+
+			assertTrue("Unable to initialize database", service3.initialize(null));
+
+			try (final Transaction tx = service3.beginTx()) {
+
+				assertEquals("Node of failed checkpoint was lost", "first", service3.getNodeById(first).getProperty("name"));
+				assertEquals("Node was lost", "second", service3.getNodeById(second).getProperty("name"));
+
+				tx.success();
+			}
+
+			service3.shutdown();
+
+		} finally {
+
+			Settings.MemoryPersistence.setValue(false);
+
+			for (final File file : directory.toFile().listFiles()) {
+				file.delete();
+			}
+
+			directory.toFile().delete();
+		}
+	}
+
+	@Test
+	public void testStorageMigration() throws Exception {
+
+		final Path directory = Files.createTempDirectory("structr-memory-test");
+		final File nodesFile = directory.resolve("nodes.bin.zip").toFile();
+		final Date date      = new Date();
+
+		// write two nodes in the previous storage format
+		try (final ZipOutputStream zos = new ZipOutputStream(new FileOutputStream(nodesFile))) {
+
+			zos.putNextEntry(new ZipEntry("data"));
+
+			final ObjectOutputStream out = new ObjectOutputStream(zos);
+
+			out.writeInt(1);
+			out.writeInt(2);
+
+			for (int i=0; i<2; i++) {
+
+				out.writeBoolean(true);
+				out.writeUTF("Test");
+				out.writeLong(1_000_000L + i);
+
+				out.writeInt(1);
+				out.writeUTF("Test");
+
+				out.writeInt(6);
+				out.writeUTF("type");
+				out.writeObject("Test");
+				out.writeUTF("name");
+				out.writeObject("legacy" + i);
+				out.writeUTF("tags");
+				out.writeObject(new String[] { "a", "b" });
+				out.writeUTF("count");
+				out.writeObject(42L);
+				out.writeUTF("date");
+				out.writeObject(date);
+				out.writeUTF("list");
+				out.writeObject(new ArrayList<>(List.of(1, 2.5, "three")));
+			}
+
+			out.flush();
+		}
+
+		Settings.DatabasePath.setValue(directory.toString());
+		Settings.MemoryCheckpointInterval.setValue(3600);
+		Settings.MemoryPersistence.setValue(true);
+
+		try {
+
+			for (int i=0; i<2; i++) {
+
+				final MemoryDatabaseService service = new MemoryDatabaseService();
+
+				assertTrue("Unable to initialize database", service.initialize(null));
+				assertTrue("Previous storage format was not migrated", !nodesFile.exists());
+
+				try (final Transaction tx = service.beginTx()) {
+
+					final List<Node> nodes = Iterables.toList(service.getNodesByLabel("Test"));
+
+					assertEquals("Invalid number of migrated nodes", 2, nodes.size());
+
+					for (final Node node : nodes) {
+
+						assertTrue("Invalid migrated property value", Arrays.equals(new String[] { "a", "b" }, (String[])node.getProperty("tags")));
+						assertEquals("Invalid migrated property value", 42L, node.getProperty("count"));
+						assertEquals("Invalid migrated property value", date, node.getProperty("date"));
+						assertEquals("Invalid migrated property value", List.of(1, 2.5, "three"), node.getProperty("list"));
+					}
+
+					tx.success();
+				}
+
+				service.shutdown();
+			}
+
+		} finally {
+
+			Settings.MemoryPersistence.setValue(false);
+
+			for (final File file : directory.toFile().listFiles()) {
+				file.delete();
+			}
+
+			directory.toFile().delete();
+		}
+	}
+
+	@Test
+	public void testSortedPaging() {
+
+		final MemoryDatabaseService service = new MemoryDatabaseService();
+		final Random random                 = new Random(42);
+
+		try (final Transaction tx = service.beginTx()) {
+
+			for (int i=0; i<500; i++) {
+
+				final Map<String, Object> data = new LinkedHashMap<>();
+
+				data.put("type", "Test");
+				data.put("name", "node" + i);
+
+				// some nodes have no value
+				if (i % 7 != 0) {
+					data.put("age", random.nextInt(50));
+				}
+
+				service.createNode("Test", null, data);
+			}
+
+			tx.success();
+		}
+
+		// sorted index for the primary sort key
+		service.updateIndexConfiguration(Map.of("Test", Map.of("age", true)), Map.of(), false);
+
+		try (final Transaction tx = service.beginTx()) {
+
+			// uncommitted changes are not in the index
+			for (final MemoryNode node : Iterables.filter(n -> "node10".equals(n.getProperty("name")) || "node20".equals(n.getProperty("name")), service.getFilteredNodes(new MemoryLabelFilter<>(Set.of("Test"))))) {
+				node.setProperty("age", -1);
+			}
+
+			for (final boolean descending : List.of(false, true)) {
+
+				final List<Node> expected = sortedQuery(service, descending, new QueryContext());
+
+				assertEquals("Invalid result size", 500, expected.size());
+
+				for (final int page : List.of(1, 2, 5)) {
+
+					final List<Node> actual = sortedQuery(service, descending, new QueryContext().page(20, page));
+
+					assertEquals("Invalid page size", 20, actual.size());
+					assertEquals("Paged sort result differs from full sort", expected.subList((page - 1) * 20, page * 20), actual);
+				}
+			}
+
+			tx.success();
+		}
+	}
+
+	@Test
+	public void testSpatialIndex() {
+
+		final MemoryDatabaseService service = new MemoryDatabaseService();
+		final Random random                 = new Random(42);
+
+		assertTrue("Spatial queries should be supported", service.supportsFeature(DatabaseFeature.SpatialQueries));
+
+		try (final Transaction tx = service.beginTx()) {
+
+			for (int i=0; i<2000; i++) {
+
+				final Map<String, Object> data = new LinkedHashMap<>();
+
+				data.put("type", "Test");
+				data.put("name", "node" + i);
+
+				// some nodes have no position
+				if (i % 10 != 0) {
+
+					data.put("latitude",  random.nextDouble() * 170.0 - 85.0);
+					data.put("longitude", random.nextDouble() * 360.0 - 180.0);
+				}
+
+				service.createNode("Test", null, data);
+			}
+
+			tx.success();
+		}
+
+		try (final Transaction tx = service.beginTx()) {
+
+			final List<Predicate<MemoryNode>> predicates = List.of(
+				new DistancePredicate<>(50.11, 8.68, 1000.0),
+				new DistancePredicate<>(-10.0, 179.5, 2500.0),
+				new DistancePredicate<>(84.0, 0.0, 500.0),
+				new BoundingBoxPredicate<>(10.0, 20.0, 40.0, 60.0),
+				new BoundingBoxPredicate<>(-30.0, 170.0, 30.0, -170.0)
+			);
+
+			for (final Predicate<MemoryNode> predicate : predicates) {
+
+				final int expected = Iterables.count(Iterables.filter(predicate, service.getFilteredNodes(new MemoryLabelFilter<>(Set.of("Test")))));
+				final int actual   = count(service, predicate);
+
+				assertTrue("Invalid test setup", expected > 0);
+				assertEquals("Invalid result for spatial query", expected, actual);
+				assertTrue("Spatial index was not used", Iterables.count(service.getFilteredNodes(propertyFilter(predicate))) < 2000);
+			}
+
+			// modify position in transaction
+			final MemoryNode node = Iterables.first(service.getFilteredNodes(propertyFilter(new ValuePredicate<>("name", "node1"))));
+
+			node.setProperty("latitude", 50.12);
+			node.setProperty("longitude", 8.69);
+
+			assertEquals("Uncommitted position not visible in spatial query", 1, count(service, new DistancePredicate<>(50.12, 8.69, 0.1)));
+
+			tx.success();
+		}
+
+		try (final Transaction tx = service.beginTx()) {
+
+			assertEquals("Spatial index was not updated on commit", 1, Iterables.count(service.getFilteredNodes(propertyFilter(new DistancePredicate<>(50.12, 8.69, 0.1)))));
+
+			tx.success();
+		}
+	}
+
+	@Test
+	public void testFulltextIndex() {
+
+		final MemoryDatabaseService service = new MemoryDatabaseService();
+		final String[] words                = { "alpha", "bravo", "charlie", "delta", "echo", "foxtrot", "golf", "hotel", "india", "juliett" };
+		final Random random                 = new Random(42);
+
+		try (final Transaction tx = service.beginTx()) {
+
+			for (int i=0; i<1000; i++) {
+
+				final Map<String, Object> data = new LinkedHashMap<>();
+				final StringBuilder buf        = new StringBuilder();
+
+				for (int j=0; j<5; j++) {
+					buf.append(words[random.nextInt(words.length)]).append(j % 2 == 0 ? " " : "-");
+				}
+
+				data.put("type", "Test");
+				data.put("name", "node" + i);
+				data.put("description", buf.toString());
+
+				service.createNode("Test", null, data);
+			}
+
+			// a word that exceeds the maximum length for indexing
+			service.createNode("Test", null, Map.of("type", "Test", "name", "long", "description", "supercalifragilisticexpialidociousandmore"));
+
+			tx.success();
+		}
+
+		service.updateIndexConfiguration(Map.of("Test", Map.of("description", true)), Map.of(), false);
+
+		try (final Transaction tx = service.beginTx()) {
+
+			for (final String query : List.of("Alpha", "lie del", "otel-in", "xtr", "ha b", "zulu", "ic", "expiali")) {
+
+				final Predicate<MemoryNode> predicate = new StringContainsPredicate<>("description", query);
+				final int expected                    = Iterables.count(Iterables.filter(predicate, service.getFilteredNodes(new MemoryLabelFilter<>(Set.of("Test")))));
+
+				assertEquals("Invalid result for fulltext query " + query, expected, count(service, predicate));
+			}
+
+			assertTrue("Fulltext index was not used", Iterables.count(service.getFilteredNodes(propertyFilter(new StringContainsPredicate<>("description", "foxtrot")))) < 1000);
+			assertEquals("Fulltext index was not used", 1, Iterables.count(service.getFilteredNodes(propertyFilter(new StringContainsPredicate<>("description", "zulu")))));
+
+			// modify value in transaction
+			final MemoryNode node = Iterables.first(service.getFilteredNodes(propertyFilter(new ValuePredicate<>("name", "node1"))));
+			node.setProperty("description", "kilo lima");
+
+			assertEquals("Uncommitted value not visible in fulltext query", 1, count(service, new StringContainsPredicate<>("description", "kilo")));
+
+			tx.success();
+		}
+
+		try (final Transaction tx = service.beginTx()) {
+
+			assertEquals("Fulltext index was not updated on commit", 2, Iterables.count(service.getFilteredNodes(propertyFilter(new StringContainsPredicate<>("description", "kilo")))));
+			assertEquals("Invalid result for fulltext query", 1, count(service, new StringContainsPredicate<>("description", "kilo")));
+
+			tx.success();
+		}
+	}
+
+	@Test
+	public void testVisibilityQuery() {
+
+		final MemoryDatabaseService service = new MemoryDatabaseService();
+
+		try (final Transaction tx = service.beginTx()) {
+
+			final Node user  = service.createNode("Principal", null, Map.of("type", "Principal", "id", "user"));
+			final Node group = service.createNode("Principal", null, Map.of("type", "Principal", "id", "group"));
+
+			service.createNode("Test", null, Map.of("type", "Test", "name", "public", "visibleToPublicUsers", true));
+			service.createNode("Test", null, Map.of("type", "Test", "name", "authenticated", "visibleToAuthenticatedUsers", true));
+
+			user.createRelationshipTo(service.createNode("Test", null, Map.of("type", "Test", "name", "owned")), RelationshipType.forName("OWNS"));
+			group.createRelationshipTo(service.createNode("Test", null, Map.of("type", "Test", "name", "readable")), RelationshipType.forName("SECURITY"), Map.of("allowed", new String[] { "read", "write" }));
+			user.createRelationshipTo(service.createNode("Test", null, Map.of("type", "Test", "name", "writable")), RelationshipType.forName("SECURITY"), Map.of("allowed", new String[] { "write" }));
+
+			final Node hidden = service.createNode("Test", null, Map.of("type", "Test", "name", "hidden"));
+			hidden.createRelationshipTo(service.createNode("Test", null, Map.of("type", "Test", "name", "propagated")), RelationshipType.forName("PROPAGATES"));
+
+			tx.success();
+		}
+
+		try (final Transaction tx = service.beginTx()) {
+
+			assertEquals("Invalid visibility query result", Set.of("public"), visibleNames(service, new TestVisibilityQuery(false, Set.of(), Set.of())));
+			assertEquals("Invalid visibility query result", Set.of("public", "authenticated"), visibleNames(service, new TestVisibilityQuery(true, Set.of("other"), Set.of())));
+			assertEquals("Invalid visibility query result", Set.of("public", "authenticated", "owned", "readable"), visibleNames(service, new TestVisibilityQuery(true, Set.of("user", "group"), Set.of())));
+			assertEquals("Invalid visibility query result", Set.of("public", "authenticated", "owned", "readable", "hidden", "propagated"), visibleNames(service, new TestVisibilityQuery(true, Set.of("user", "group"), Set.of("PROPAGATES"))));
+
+			tx.success();
+		}
+	}
+
+	// ----- private methods -----
+	private void assertPersistedState(final MemoryDatabaseService service, final List<Identity> ids) {
+
+		try (final Transaction tx = service.beginTx()) {
+
+			assertEquals("Invalid number of recovered nodes", 99, Iterables.count(service.getNodesByLabel("Test")));
+			assertEquals("Invalid number of recovered relationships", 98, Iterables.count(service.getAllRelationships()));
+			assertEquals("Invalid recovered property value", "modified", service.getNodeById(ids.get(0)).getProperty("name"));
+			assertEquals("Invalid recovered property value", "node50", service.getNodeById(ids.get(50)).getProperty("name"));
+			assertEquals("Invalid recovered label", 1, Iterables.count(service.getNodesByLabel("Changed")));
+			assertEquals("Invalid recovered relationship", 1, Iterables.count(service.getNodeById(ids.get(50)).getRelationships(Direction.OUTGOING)));
+
+			tx.success();
+		}
+	}
+
+	private Set<Integer> toSet(final CompactBitmap bitmap) {
+
+		final Set<Integer> result = new TreeSet<>();
+
+		for (final PrimitiveIterator.OfInt it = bitmap.iterator(); it.hasNext();) {
+			result.add(it.nextInt());
+		}
+
+		return result;
+	}
+
+	private MemoryPropertyFilter<MemoryNode> propertyFilter(final Predicate<MemoryNode> predicate) {
+		return new MemoryPropertyFilter<>(Set.of("Test"), List.of(predicate));
+	}
+
+	private List<Node> sortedQuery(final MemoryDatabaseService service, final boolean descending, final QueryContext queryContext) {
+
+		final MemoryQuery<Node> query = new MemoryQuery<>(queryContext);
+
+		query.addTypeLabel("Test");
+		query.sort(new TestSortOrder(new TestSortSpec("age", descending), new TestSortSpec("name", false)));
+
+		return Iterables.toList(((MemoryNodeIndex)service.nodeIndex()).getResult(query));
+	}
+
+	private Set<Object> visibleNames(final MemoryDatabaseService service, final VisibilityQuery visibilityQuery) {
+
+		final Set<Object> names = new TreeSet<>();
+
+		for (final MemoryNode node : Iterables.filter(new VisibilityPredicate<>(visibilityQuery), service.getFilteredNodes(new MemoryLabelFilter<>(Set.of("Test"))))) {
+			names.add(node.getProperty("name"));
+		}
+
+		return names;
+	}
+
+	private int count(final MemoryDatabaseService service, final Predicate<MemoryNode> predicate) {
+		return Iterables.count(Iterables.filter(predicate, service.getFilteredNodes(propertyFilter(predicate))));
+	}
+
+	private void createGraph(final MemoryDatabaseService service, final List<MemoryNode> nodes, final RelationshipType type, final int nodeCount, final int degree) {
+
+		try (final Transaction tx = service.beginTx()) {
+
+			for (int i=0; i<nodeCount; i++) {
+				nodes.add((MemoryNode)service.createNode("Test", null, Map.of("type", "Test")));
+			}
+
+			tx.success();
+		}
+
+		// create relationships in batches
+		for (int i=0; i<nodeCount; i+=1000) {
+
+			try (final Transaction tx = service.beginTx()) {
+
+				for (int j=i; j<Math.min(i+1000, nodeCount); j++) {
+
+					final MemoryNode source = nodes.get(j);
+
+					for (int k=1; k<=degree; k++) {
+
+						source.createRelationshipTo(nodes.get((j + k) % nodeCount), type);
+					}
+				}
+
+				tx.success();
+			}
+		}
+	}
+
+	// ----- nested classes -----
+	private static class TestSortOrder implements SortOrder {
+
+		private final List<SortSpec> specs;
+
+		public TestSortOrder(final SortSpec... specs) {
+			this.specs = List.of(specs);
+		}
+
+		@Override
+		public List<SortSpec> getSortElements() {
+			return specs;
+		}
+
+		@Override
+		public boolean isEmpty() {
+			return specs.isEmpty();
+		}
+
+		@Override
+		public int compare(final Object o1, final Object o2) {
+			throw new UnsupportedOperationException();
+		}
+	}
+
+	private static class TestSortSpec implements SortSpec {
+
+		private final boolean descending;
+		private final String key;
+
+		public TestSortSpec(final String key, final boolean descending) {
+
+			this.key        = key;
+			this.descending = descending;
+		}
+
+		@Override
+		public SortType getSortType() {
+			return SortType.Default;
+		}
+
+		@Override
+		public String getSortKey() {
+			return key;
+		}
+
+		@Override
+		public boolean sortDescending() {
+			return descending;
+		}
+	}
+
+	private static class TestVisibilityQuery implements VisibilityQuery {
+
+		private final Set<String> propagatingTypes;
+		private final Set<String> principalIds;
+		private final boolean authenticated;
+
+		public TestVisibilityQuery(final boolean authenticated, final Set<String> principalIds, final Set<String> propagatingTypes) {
+
+			this.propagatingTypes = propagatingTypes;
+			this.principalIds     = principalIds;
+			this.authenticated    = authenticated;
+		}
+
+		@Override
+		public boolean includeVisibleToAuthenticatedUsers() {
+			return authenticated;
+		}
+
+		@Override
+		public Set<String> getPrincipalIds() {
+			return principalIds;
+		}
+
+		@Override
+		public Set<String> getPropagatingRelationshipTypes() {
+			return propagatingTypes;
+		}
+
+		@Override
+		public Class getQueryType() {
+			return VisibilityQuery.class;
+		}
+
+		@Override
+		public String getName() {
+			return null;
+		}
+
+		@Override
+		public Class getType() {
+			return null;
+		}
+
+		@Override
+		public Object getValue() {
+			return null;
+		}
+
+		@Override
+		public String getLabel() {
+			return null;
+		}
+
+		@Override
+		public Occurrence getOccurrence() {
+			return Occurrence.REQUIRED;
+		}
+
+		@Override
+		public boolean isExactMatch() {
+			return true;
+		}
+
+		@Override
+		public SortOrder getSortOrder() {
+			return null;
+		}
+	}
 }
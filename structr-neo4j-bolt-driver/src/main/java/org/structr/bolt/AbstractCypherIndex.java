@@ -29,6 +29,7 @@ import org.structr.bolt.factory.SpatialQueryFactory;
 import org.structr.bolt.factory.ArrayQueryFactory;
 import org.structr.bolt.factory.KeywordQueryFactory;
 import org.structr.bolt.factory.UuidQueryFactory;
+import org.structr.bolt.factory.VisibilityQueryFactory;
 import java.util.Arrays;
 import java.util.Date;
 import java.util.HashMap;
@@ -120,6 +121,7 @@ abstract class AbstractCypherIndex<T extends PropertyContainer> extends Abstract
 		factories.put(UuidQuery.class,         new UuidQueryFactory(this));
 		factories.put(RelationshipQuery.class, new RelationshipQueryFactory(this));
 		factories.put(ComparisonQuery.class,   new ComparisonQueryFactory(this));
+		factories.put(VisibilityQuery.class,   new VisibilityQueryFactory(this));
 
 		converters.put(Boolean.class, new BooleanTypeConverter());
 		converters.put(String.class,  new StringTypeConverter());
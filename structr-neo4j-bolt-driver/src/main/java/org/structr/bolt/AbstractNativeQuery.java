@@ -20,12 +20,15 @@ package org.structr.bolt;
 
 import java.util.LinkedHashMap;
 import java.util.Map;
+import java.util.regex.Pattern;
 import org.structr.api.NativeQuery;
 
 /**
  */
 public abstract class AbstractNativeQuery<T> implements NativeQuery<T> {
 
+	private static final Pattern WRITE_CLAUSES     = Pattern.compile("\\b(CREATE|MERGE|DELETE|SET|REMOVE|CALL|FOREACH|LOAD)\\b", Pattern.CASE_INSENSITIVE);
+
 	protected final Map<String, Object> parameters = new LinkedHashMap<>();
 	protected String query                         = null;
 
@@ -39,6 +42,14 @@ public abstract class AbstractNativeQuery<T> implements NativeQuery<T> {
 		return query;
 	}
 
+	/**
+	 * Indicates whether this query contains no clause that can modify
+	 * the database. Procedure calls are treated as modifications.
+	 */
+	public boolean isReadOnly() {
+		return query != null && !WRITE_CLAUSES.matcher(query).find();
+	}
+
 	@Override
 	public void configure(final Map<String, Object> config) {
 
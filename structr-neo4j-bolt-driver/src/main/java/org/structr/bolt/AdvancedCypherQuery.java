@@ -18,6 +18,7 @@
  */
 package org.structr.bolt;
 
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.LinkedHashSet;
@@ -26,6 +27,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import org.apache.commons.lang3.StringUtils;
+import org.neo4j.driver.v1.Record;
 import org.structr.api.DatabaseService;
 import org.structr.api.config.Settings;
 import org.structr.api.graph.Direction;
@@ -52,6 +54,8 @@ public class AdvancedCypherQuery implements CypherQuery {
 	private AbstractCypherIndex<?> index            = null;
 	private SortOrder sortOrder                     = null;
 	private int fetchPage                           = 0;
+	private Long keysetId                           = null;
+	private Object keysetValue                      = null;
 	private int count                               = 0;
 	private QueryContext queryContext               = null;
 
@@ -69,7 +73,7 @@ public class AdvancedCypherQuery implements CypherQuery {
 			}
 		}
 
-		if (queryContext.isSuperuser() && requestedPageSize < Integer.MAX_VALUE) {
+		if ((queryContext.isSuperuser() || queryContext.isVisibilityFiltered()) && requestedPageSize < Integer.MAX_VALUE) {
 
 			final int firstRequestedIndex = (requestedPage - 1) * requestedPageSize;
 			final int firstFetchIndex     = (firstRequestedIndex / fetchSize);
@@ -88,7 +92,50 @@ public class AdvancedCypherQuery implements CypherQuery {
 
 	@Override
 	public void nextPage() {
+
 		fetchPage++;
+
+		// no position available, continue with SKIP
+		keysetId    = null;
+		keysetValue = null;
+	}
+
+	/**
+	 * Advances to the next page, using the position of the given record
+	 * (the last record of the current page) as the starting point for the
+	 * next page if the query supports keyset paging.
+	 */
+	public void nextPage(final Record lastRecord) {
+
+		if (lastRecord != null && supportsKeysetPaging()) {
+
+			fetchPage++;
+
+			keysetId    = lastRecord.get("n").asEntity().id();
+			keysetValue = lastRecord.containsKey("sortKey0") ? lastRecord.get("sortKey0").asObject() : null;
+
+		} else {
+
+			nextPage();
+		}
+	}
+
+	/**
+	 * Returns true if the pages of this query can be fetched by seeking
+	 * past the last record instead of skipping, which is the case for
+	 * single-type queries without optional parts that are sorted by a
+	 * single key. Unsorted queries use SKIP so that they don't need an
+	 * ORDER BY clause.
+	 */
+	public boolean supportsKeysetPaging() {
+
+		if (typeLabels.size() > 1 || hasOptionalParts || sortOrder == null) {
+			return false;
+		}
+
+		final List<SortSpec> specs = sortOrder.getSortElements();
+
+		return specs.size() == 1 && specs.get(0).getSortKey() != null;
 	}
 
 	@Override
@@ -103,6 +150,8 @@ public class AdvancedCypherQuery implements CypherQuery {
 	@Override
 	public String getStatement(final boolean paged) {
 
+		final boolean keyset        = paged && supportsKeysetPaging();
+		final String seek           = keyset && keysetId != null ? getKeysetCondition() : null;
 		final boolean hasPredicates = buffer.length() > 0;
 		final StringBuilder buf     = new StringBuilder();
 		final int typeCount         = typeLabels.size();
@@ -114,10 +163,7 @@ public class AdvancedCypherQuery implements CypherQuery {
 				buf.append(index.getQueryPrefix(getTypeQueryLabel(null), sourceTypeLabel, targetTypeLabel, hasPredicates, hasOptionalParts));
 				buf.append(getGraphPartForMatch());
 
-				if (hasPredicates) {
-					buf.append(" WHERE ");
-					buf.append(buffer);
-				}
+				appendWhereClause(buf, hasPredicates, seek);
 
 				buf.append(index.getQuerySuffix(this));
 				break;
@@ -127,10 +173,7 @@ public class AdvancedCypherQuery implements CypherQuery {
 				buf.append(index.getQueryPrefix(getTypeQueryLabel(Iterables.first(typeLabels)), sourceTypeLabel, targetTypeLabel, hasPredicates, hasOptionalParts));
 				buf.append(getGraphPartForMatch());
 
-				if (hasPredicates) {
-					buf.append(" WHERE ");
-					buf.append(buffer);
-				}
+				appendWhereClause(buf, hasPredicates, seek);
 
 				buf.append(index.getQuerySuffix(this));
 				break;
@@ -183,12 +226,22 @@ public class AdvancedCypherQuery implements CypherQuery {
 				sortSpecIndex++;
 				first = false;
 			}
+
+			if (keyset) {
+
+				// internal id as the tie-breaker for keyset paging
+				buf.append(", ID(n)");
+			}
 		}
 
 		if (paged) {
 
-			buf.append(" SKIP ");
-			buf.append(fetchPage * fetchSize);
+			if (seek == null) {
+
+				buf.append(" SKIP ");
+				buf.append(fetchPage * fetchSize);
+			}
+
 			buf.append(" LIMIT ");
 			buf.append(fetchSize);
 		}
@@ -356,6 +409,51 @@ public class AdvancedCypherQuery implements CypherQuery {
 		buffer.append(")");
 	}
 
+	/**
+	 * Adds a condition that matches nodes which are visible to public users
+	 * (optionally) visible to authenticated users, which are one of the
+	 * given principals or which are owned by or have a SECURITY relationship
+	 * that allows reading from one of them. Nodes with a relationship of
+	 * one of the given propagating types are included as well.
+	 */
+	public void addVisibilityParameters(final boolean includeVisibleToAuthenticatedUsers, final Set<String> principalIds, final Set<String> propagatingTypes) {
+
+		buffer.append("(n.`visibleToPublicUsers` = true");
+
+		if (includeVisibleToAuthenticatedUsers) {
+
+			buffer.append(" OR n.`visibleToAuthenticatedUsers` = true");
+		}
+
+		if (!principalIds.isEmpty()) {
+
+			final String paramKey = "param" + count++;
+
+			buffer.append(" OR n.`id` IN $");
+			buffer.append(paramKey);
+			buffer.append(" OR ANY(x IN [(n)<-[:OWNS]-(vp) | vp.`id`] WHERE x IN $");
+			buffer.append(paramKey);
+			buffer.append(") OR ANY(x IN [(n)<-[vr:SECURITY]-(vp) WHERE 'read' IN vr.`allowed` | vp.`id`] WHERE x IN $");
+			buffer.append(paramKey);
+			buffer.append(")");
+
+			parameters.put(paramKey, new ArrayList<>(principalIds));
+		}
+
+		if (!propagatingTypes.isEmpty()) {
+
+			final String paramKey = "param" + count++;
+
+			buffer.append(" OR ANY(x IN [(n)-[vr]-() | type(vr)] WHERE x IN $");
+			buffer.append(paramKey);
+			buffer.append(")");
+
+			parameters.put(paramKey, new ArrayList<>(propagatingTypes));
+		}
+
+		buffer.append(")");
+	}
+
 	public void addListParameter(final String key, final String operator, final Object value) {
 
 		if (value != null) {
@@ -444,6 +542,60 @@ public class AdvancedCypherQuery implements CypherQuery {
 	}
 
 	// ----- private methods -----
+	private void appendWhereClause(final StringBuilder buf, final boolean hasPredicates, final String seek) {
+
+		if (hasPredicates && seek != null) {
+
+			buf.append(" WHERE (");
+			buf.append(buffer);
+			buf.append(") AND ");
+			buf.append(seek);
+
+		} else if (hasPredicates) {
+
+			buf.append(" WHERE ");
+			buf.append(buffer);
+
+		} else if (seek != null) {
+
+			buf.append(" WHERE ");
+			buf.append(seek);
+		}
+	}
+
+	/**
+	 * Returns the condition that selects the records after the last record
+	 * of the previous page, using the same order as the ORDER BY clause
+	 * (nulls last in ascending and first in descending order, internal id
+	 * as the tie-breaker).
+	 */
+	private String getKeysetCondition() {
+
+		final SortSpec spec = sortOrder.getSortElements().get(0);
+		final String key    = "n.`" + spec.getSortKey() + "`";
+
+		parameters.put("keysetId", keysetId);
+
+		if (keysetValue == null) {
+
+			if (spec.sortDescending()) {
+
+				return "(" + key + " IS NOT NULL OR ID(n) > $keysetId)";
+			}
+
+			return "(" + key + " IS NULL AND ID(n) > $keysetId)";
+		}
+
+		parameters.put("keysetValue", keysetValue);
+
+		if (spec.sortDescending()) {
+
+			return "(" + key + " < $keysetValue OR (" + key + " = $keysetValue AND ID(n) > $keysetId))";
+		}
+
+		return "(" + key + " > $keysetValue OR (" + key + " = $keysetValue AND ID(n) > $keysetId) OR " + key + " IS NULL)";
+	}
+
 	private String getTypeQueryLabel(final String mainType) {
 
 		if (mainType != null) {
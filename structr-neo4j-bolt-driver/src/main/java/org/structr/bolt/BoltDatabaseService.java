@@ -25,9 +25,12 @@ import java.io.IOException;
 import java.io.Reader;
 import java.io.Writer;
 import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
 import java.util.LinkedList;
 import java.util.List;
@@ -61,10 +64,12 @@ import org.structr.api.NotInTransactionException;
 import org.structr.api.RetryException;
 import org.structr.api.Transaction;
 import org.structr.api.config.Settings;
+import org.structr.api.graph.Direction;
 import org.structr.api.graph.GraphProperties;
 import org.structr.api.graph.Identity;
 import org.structr.api.graph.Node;
 import org.structr.api.graph.Relationship;
+import org.structr.api.graph.RelationshipType;
 import org.structr.api.index.Index;
 import org.structr.api.search.ExactQuery;
 import org.structr.api.search.Occurrence;
@@ -73,6 +78,8 @@ import org.structr.api.search.QueryPredicate;
 import org.structr.api.search.SortOrder;
 import org.structr.api.search.TypeQuery;
 import org.structr.api.util.CountResult;
+import org.structr.api.util.Iterables;
+import org.structr.api.util.NodeSpec;
 import org.structr.api.util.NodeWithOwnerResult;
 
 /**
@@ -82,6 +89,7 @@ public class BoltDatabaseService extends AbstractDatabaseService implements Grap
 
 	private static final Logger logger                                = LoggerFactory.getLogger(BoltDatabaseService.class.getName());
 	private static final ThreadLocal<SessionTransaction> sessions     = new ThreadLocal<>();
+	private static final int BULK_CHUNK_SIZE                          = 1000;
 	private final Set<String> supportedQueryLanguages                 = new LinkedHashSet<>();
 	private Properties globalGraphProperties                          = null;
 	private CypherRelationshipIndex relationshipIndex                 = null;
@@ -286,7 +294,10 @@ public class BoltDatabaseService extends AbstractDatabaseService implements Grap
 				ownsRel.setModified();
 				ownsRel.stale();
 
-				((NodeWrapper)ownsRel.getStartNode()).setModified();
+				((NodeWrapper)ownsRel.getStartNode()).relationshipsModified();
+
+				getCurrentTransaction().created(securityRel);
+				getCurrentTransaction().created(ownsRel);
 
 				return new NodeWithOwnerResult(newNode, securityRel, ownsRel);
 			}
@@ -300,6 +311,84 @@ public class BoltDatabaseService extends AbstractDatabaseService implements Grap
 		return null;
 	}
 
+	@Override
+	public List<NodeWithOwnerResult> createNodes(final List<NodeSpec> specs) {
+
+		final NodeWithOwnerResult[] result                   = new NodeWithOwnerResult[specs.size()];
+		final Map<String, List<Map<String, Object>>> batches = new LinkedHashMap<>();
+
+		// group specs with identical statements so that each group can be created with a single UNWIND
+		for (int i=0; i<specs.size(); i++) {
+
+			final NodeSpec spec           = specs.get(i);
+			final Map<String, Object> row = new HashMap<>();
+
+			row.put("index",          i);
+			row.put("nodeProperties", spec.getProperties());
+
+			if (spec.hasOwner()) {
+
+				row.put("userId",             unwrap(spec.getOwnerId()));
+				row.put("ownsProperties",     spec.getOwnsProperties());
+				row.put("securityProperties", spec.getSecurityProperties());
+			}
+
+			batches.computeIfAbsent(getCreateNodesStatement(spec.getLabels(), spec.hasOwner()), k -> new ArrayList<>()).add(row);
+		}
+
+		try {
+
+			for (final Map.Entry<String, List<Map<String, Object>>> entry : batches.entrySet()) {
+
+				final List<Map<String, Object>> rows = entry.getValue();
+
+				for (int i=0; i<rows.size(); i+=BULK_CHUNK_SIZE) {
+
+					final Map<String, Object> parameters = new HashMap<>();
+
+					parameters.put("rows", rows.subList(i, Math.min(rows.size(), i + BULK_CHUNK_SIZE)));
+
+					for (final Map<String, Object> data : execute(entry.getKey(), parameters)) {
+
+						final NodeWrapper newNode             = (NodeWrapper)         data.get("n");
+						final RelationshipWrapper securityRel = (RelationshipWrapper) data.get("s");
+						final RelationshipWrapper ownsRel     = (RelationshipWrapper) data.get("o");
+
+						newNode.setModified();
+
+						if (securityRel != null && ownsRel != null) {
+
+							securityRel.setModified();
+							securityRel.stale();
+
+							ownsRel.setModified();
+							ownsRel.stale();
+
+							((NodeWrapper)ownsRel.getStartNode()).relationshipsModified();
+
+							getCurrentTransaction().created(securityRel);
+							getCurrentTransaction().created(ownsRel);
+						}
+
+						result[((Number)data.get("index")).intValue()] = new NodeWithOwnerResult(newNode, securityRel, ownsRel);
+					}
+				}
+			}
+
+		} catch (ClientException dex) {
+			throw SessionTransaction.translateClientException(dex);
+		} catch (DatabaseException dex) {
+			throw SessionTransaction.translateDatabaseException(dex);
+		}
+
+		return Arrays.asList(result);
+	}
+
+	@Override
+	public void prefetchRelationships(final Iterable<Identity> nodeIds, final Direction direction, final RelationshipType relationshipType) {
+		NodeWrapper.prefetchRelationships(this, Iterables.map(id -> unwrap(id), nodeIds), direction, relationshipType);
+	}
+
 	@Override
 	public Node getNodeById(final Identity id) {
 		return getNodeById(unwrap(id));
@@ -366,6 +455,9 @@ public class BoltDatabaseService extends AbstractDatabaseService implements Grap
 		buf.append(") DETACH DELETE n");
 
 		execute(buf.toString());
+
+		// relationships of other nodes may have been removed
+		getCurrentTransaction().unknownChanges();
 	}
 
 	@Override
@@ -650,7 +742,16 @@ public class BoltDatabaseService extends AbstractDatabaseService implements Grap
 
 		if (nativeQuery instanceof AbstractNativeQuery) {
 
-			return (T)((AbstractNativeQuery)nativeQuery).execute(getCurrentTransaction());
+			final AbstractNativeQuery query = (AbstractNativeQuery)nativeQuery;
+			final SessionTransaction tx     = getCurrentTransaction();
+
+			if (!query.isReadOnly()) {
+
+				// relationships modified by the query are not tracked by the transaction
+				tx.unknownChanges();
+			}
+
+			return (T)query.execute(tx);
 		}
 
 		throw new IllegalArgumentException("Unsupported query type " + nativeQuery.getClass().getName() + ".");
@@ -685,6 +786,8 @@ public class BoltDatabaseService extends AbstractDatabaseService implements Grap
 
 			execute("MATCH (n) DETACH DELETE n", Collections.emptyMap());
 		}
+
+		getCurrentTransaction().unknownChanges();
 	}
 
 	public SessionTransaction getCurrentTransaction() {
@@ -710,6 +813,10 @@ public class BoltDatabaseService extends AbstractDatabaseService implements Grap
 		return Settings.CypherDebugLoggingPing.getValue();
 	}
 
+	boolean batchWrites() {
+		return Settings.WriteBatching.getValue();
+	}
+
 	long unwrap(final Identity identity) {
 
 		if (identity instanceof BoltIdentity) {
@@ -835,6 +942,9 @@ public class BoltDatabaseService extends AbstractDatabaseService implements Grap
 
 			case AuthenticationRequired:
 				return true;
+
+			case VisibilityQueries:
+				return true;
 		}
 
 		return false;
@@ -849,11 +959,61 @@ public class BoltDatabaseService extends AbstractDatabaseService implements Grap
 	public Map<String, Map<String, Integer>> getCachesInfo() {
 		return Map.of(
 			"nodes",         NodeWrapper.nodeCache.getCacheInfo(),
-			"relationships", RelationshipWrapper.relationshipCache.getCacheInfo()
+			"relationships", RelationshipWrapper.relationshipCache.getCacheInfo(),
+			"resultStreaming", IterableQueueingRecordConsumer.getMetrics()
 		);
 	}
 
 	// ----- private methods -----
+	private String getCreateNodesStatement(final Set<String> labels, final boolean withOwner) {
+
+		final StringBuilder buf = new StringBuilder("UNWIND $rows AS row ");
+		final String tenantId   = getTenantIdentifier();
+
+		if (withOwner) {
+
+			buf.append("MATCH (u:NodeInterface:Principal");
+
+			if (tenantId != null) {
+
+				buf.append(":");
+				buf.append(tenantId);
+			}
+
+			buf.append(") WHERE ID(u) = row.userId CREATE (u)-[o:OWNS]->(n");
+
+		} else {
+
+			buf.append("CREATE (n");
+		}
+
+		if (tenantId != null) {
+
+			buf.append(":");
+			buf.append(tenantId);
+		}
+
+		for (final String label : labels) {
+
+			buf.append(":");
+			buf.append(label);
+		}
+
+		if (withOwner) {
+
+			buf.append(")<-[s:SECURITY]-(u)");
+			buf.append(" SET n += row.nodeProperties, o += row.ownsProperties, s += row.securityProperties");
+			buf.append(" RETURN row.index AS index, n, s, o");
+
+		} else {
+
+			buf.append(") SET n += row.nodeProperties");
+			buf.append(" RETURN row.index AS index, n");
+		}
+
+		return buf.toString();
+	}
+
 	private void createUUIDConstraint() {
 
 		// add UUID uniqueness constraint
@@ -139,14 +139,22 @@ abstract class EntityWrapper<T extends Entity> implements PropertyContainer, Cac
 		// only update values if actually different from what is stored
 		if (needsUpdate(key, value)) {
 
-			final Map<String, Object> map = new HashMap<>();
-			final String query            = getQueryPrefix() + " WHERE ID(n) = $id SET n.`" + key + "` = $value";
+			final WriteBuffer buffer = tx.getWriteBuffer();
+			if (buffer != null) {
 
-			map.put("id", id);
-			map.put("value", value);
+				buffer.setProperty(this, key, value);
 
-			// update entity handle
-			tx.set(query, map);
+			} else {
+
+				final Map<String, Object> map = new HashMap<>();
+				final String query            = getQueryPrefix() + " WHERE ID(n) = $id SET n.`" + key + "` = $value";
+
+				map.put("id", id);
+				map.put("value", value);
+
+				// update entity handle
+				tx.set(query, map);
+			}
 
 			// update data
 			accessData(true).put(key, value);
@@ -167,16 +175,25 @@ abstract class EntityWrapper<T extends Entity> implements PropertyContainer, Cac
 		// only update values if actually different from what is stored
 		if (!values.isEmpty()) {
 
-			final Map<String, Object> map = new HashMap<>();
-			final SessionTransaction tx   = db.getCurrentTransaction();
-			final String query            = getQueryPrefix() + " WHERE ID(n) = $id SET n += $properties";
+			final SessionTransaction tx = db.getCurrentTransaction();
+			final WriteBuffer buffer    = tx.getWriteBuffer();
 
-			// overwrite a potential "id" property
-			map.put("id", id);
-			map.put("properties", values);
+			if (buffer != null) {
 
-			// execute query
-			tx.set(query, map);
+				buffer.setProperties(this, values);
+
+			} else {
+
+				final Map<String, Object> map = new HashMap<>();
+				final String query            = getQueryPrefix() + " WHERE ID(n) = $id SET n += $properties";
+
+				// overwrite a potential "id" property
+				map.put("id", id);
+				map.put("properties", values);
+
+				// execute query
+				tx.set(query, map);
+			}
 
 			// update data
 			update(values);
@@ -190,14 +207,24 @@ abstract class EntityWrapper<T extends Entity> implements PropertyContainer, Cac
 
 		assertNotStale();
 
-		final SessionTransaction tx   = db.getCurrentTransaction();
-		final Map<String, Object> map = new HashMap<>();
-		final String query            = getQueryPrefix() + " WHERE ID(n) = $id SET n.`" + key + "` = Null";
+		final SessionTransaction tx = db.getCurrentTransaction();
+		final WriteBuffer buffer    = tx.getWriteBuffer();
 
-		map.put("id", id);
+		if (buffer != null) {
 
-		// execute query
-		tx.set(query, map);
+			// setting a property to null removes it
+			buffer.setProperty(this, key, null);
+
+		} else {
+
+			final Map<String, Object> map = new HashMap<>();
+			final String query            = getQueryPrefix() + " WHERE ID(n) = $id SET n.`" + key + "` = Null";
+
+			map.put("id", id);
+
+			// execute query
+			tx.set(query, map);
+		}
 
 		// remove key from data
 		accessData(true).put(key, null);
@@ -316,8 +343,11 @@ abstract class EntityWrapper<T extends Entity> implements PropertyContainer, Cac
 
 			try {
 
+				final Entity entity = tx.getEntity(getQueryPrefix() + " WHERE ID(n) = $id RETURN n", map);
+
 				// update data
-				update(tx.getEntity(getQueryPrefix() + " WHERE ID(n) = $id RETURN n", map).asMap());
+				update(entity.asMap());
+				onUpdate(entity);
 
 			} catch (NoSuchRecordException nex) {
 				throw new NotFoundException(nex);
@@ -327,6 +357,10 @@ abstract class EntityWrapper<T extends Entity> implements PropertyContainer, Cac
 		}
 	}
 
+	protected void onUpdate(final Entity entity) {
+		// can be overridden by subclasses to refresh additional state
+	}
+
 	// ----- private methods -----
 	private void update(final Map<String, Object> values) {
 		accessData(true).putAll(values);
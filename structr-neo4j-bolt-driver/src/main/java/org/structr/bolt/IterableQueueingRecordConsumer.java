@@ -19,34 +19,69 @@
 package org.structr.bolt;
 
 import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.NoSuchElementException;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.CompletableFuture;
-import java.util.concurrent.CompletionStage;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.Consumer;
 import org.neo4j.driver.v1.Record;
 import org.neo4j.driver.v1.StatementResultCursor;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.structr.api.util.QueryStatistics;
 
 /**
- *
+ * Streams the records of a paged query to a consuming thread. Records are
+ * pulled from the driver one by one only while the queue is below its
+ * capacity, so the driver stops reading from the network when the
+ * consumer is slow. The next page is requested by the consuming thread
+ * (which owns the transaction) when the queue drains below the low-water
+ * mark.
  */
 public class IterableQueueingRecordConsumer implements Iterable<Record>, Iterator<Record>, AutoCloseable, Consumer<Record> {
 
-	private static final Logger logger        = LoggerFactory.getLogger(IterableQueueingRecordConsumer.class);
-	private final BlockingQueue<Record> queue = new LinkedBlockingQueue<>();
-	private final AtomicInteger elementCount  = new AtomicInteger(0);
-	private final AtomicBoolean aborted       = new AtomicBoolean(false);
-	private final AtomicBoolean finished      = new AtomicBoolean(false);
-	private final AtomicBoolean added         = new AtomicBoolean(false);
-	private final AtomicBoolean started       = new AtomicBoolean(false);
-	private BoltDatabaseService db            = null;
-	private StatementResultCursor cursor      = null;
-	private AdvancedCypherQuery query         = null;
-	private Throwable throwable               = null;
+	private static final Logger logger              = LoggerFactory.getLogger(IterableQueueingRecordConsumer.class);
+	private static final Object PAGE_END            = new Object();
+	private static final Object END                 = new Object();
+	private static final int QUEUE_CAPACITY         = 10_000;
+	private static final int LOW_WATER_MARK         = QUEUE_CAPACITY / 4;
+	private static final long MAX_WAIT_MILLIS       = 180_000L;
+
+	// metrics for all consumers
+	private static final AtomicInteger queuedRecords = new AtomicInteger(0);
+	private static final AtomicInteger maxQueueDepth = new AtomicInteger(0);
+	private static final AtomicLong streamedRecords  = new AtomicLong(0L);
+	private static final AtomicLong fetchedPages     = new AtomicLong(0L);
+	private static final AtomicLong cancelledQueries = new AtomicLong(0L);
+	private static final AtomicLong waitCount        = new AtomicLong(0L);
+	private static final AtomicLong waitTime         = new AtomicLong(0L);
+
+	private final BlockingQueue<Object> queue        = new LinkedBlockingQueue<>();
+	private final AtomicInteger elementCount         = new AtomicInteger(0);
+	private final AtomicBoolean aborted              = new AtomicBoolean(false);
+	private final AtomicBoolean pageComplete         = new AtomicBoolean(false);
+	private final AtomicBoolean pulling              = new AtomicBoolean(false);
+	private final AtomicBoolean started              = new AtomicBoolean(false);
+	private final AtomicBoolean pageRecorded         = new AtomicBoolean(true);
+	private volatile StatementResultCursor cursor    = null;
+	private volatile Throwable throwable             = null;
+	private volatile Record lastRecord               = null;
+	private volatile Map<String, Object> pageParams  = null;
+	private volatile String pageStatement            = null;
+	private volatile String pageRequestInfo          = null;
+	private volatile long pageStartNanos             = 0L;
+	private BoltDatabaseService db                   = null;
+	private AdvancedCypherQuery query                = null;
+	private Record nextRecord                        = null;
+	private boolean finished                         = false;
 
 	public IterableQueueingRecordConsumer(final BoltDatabaseService db, final AdvancedCypherQuery query) {
 
@@ -56,11 +91,10 @@ public class IterableQueueingRecordConsumer implements Iterable<Record>, Iterato
 
 	public void start() {
 
-		final SessionTransaction tx = db.getCurrentTransaction();
-		tx.setIsPing(query.getQueryContext().isPing());
-		tx.collectRecords(query.getStatement(true), query.getParameters(), this);
+		if (!started.getAndSet(true)) {
 
-		started.set(true);
+			fetchPage(db.getCurrentTransaction());
+		}
 	}
 
 	@Override
@@ -68,94 +102,109 @@ public class IterableQueueingRecordConsumer implements Iterable<Record>, Iterato
 		return this;
 	}
 
+	/**
+	 * Cancels this query: no more records or pages are fetched and the
+	 * remaining records of the current cursor are discarded.
+	 */
 	@Override
 	public void close() {
-		aborted.set(true);
-		cursor.consumeAsync();
-	}
 
-	public void finish() {
+		if (!aborted.getAndSet(true)) {
+
+			final StatementResultCursor current = cursor;
+			if (current != null) {
 
-		// This method will only be called when all the records from the current
-		// result cursor have been consumed. We now need to decide whether we want
-		// to fetch more.
+				current.consumeAsync();
+			}
 
-		// This method will be called from a different thread, so there is no
-		// transaction context..
+			cancelledQueries.incrementAndGet();
+			clearQueue();
+			recordPage();
+		}
+	}
 
-		if (elementCount.get() == query.pageSize() && !aborted.get()) {
+	@Override
+	public boolean hasNext() {
 
-			query.nextPage();
+		if (nextRecord != null) {
+			return true;
+		}
 
-			// there are probably more results available
-			elementCount.set(0);
-			finished.set(false);
+		if (finished || aborted.get()) {
+			return false;
+		}
 
-			// signal other thread that new results should be fetched
-			started.set(false);
+		long waitingSince = System.currentTimeMillis();
 
-		} else {
+		while (true) {
 
-			finished.set(true);
-			added.set(true);
-		}
-	}
+			rethrow();
 
-	@Override
-	public boolean hasNext() {
+			Object element = queue.poll();
+			if (element == null) {
 
-		// make the consuming thread wait for results util elements have been
-		// added OR the producer has no more results (finished == true)
-		final long yieldStart = System.currentTimeMillis();
+				// make sure that records are on their way before waiting
+				requestRecords();
 
-		while (!added.get() || (!finished.get() && queue.isEmpty())) {
+				element = await();
+				if (element == null) {
 
-			if (throwable != null) {
+					if (aborted.get()) {
+						return false;
+					}
 
-				if (throwable instanceof RuntimeException) {
+					if (System.currentTimeMillis() > waitingSince + MAX_WAIT_MILLIS) {
 
-					throw (RuntimeException)throwable;
+						logger.warn("IterableQueueingRecordConsumer waited for {} seconds without receiving a record, aborting", MAX_WAIT_MILLIS / 1000);
+						logger.warn("statement: {}", query.getStatement(true));
 
-				} else {
+						close();
 
-					throw new RuntimeException(throwable);
+						return false;
+					}
+
+					continue;
 				}
 			}
 
-			// start fetching of next result portion while waiting for results
-			if (!started.getAndSet(true)) {
+			if (element == END) {
 
-				final SessionTransaction tx = db.getCurrentTransaction(false);
-				if (tx != null && !tx.isClosed()) {
+				finished = true;
+				rethrow();
 
-					tx.collectRecords(query.getStatement(true), query.getParameters(), this);
-				}
+				return false;
 			}
 
-			// wait for data (or exception)
-			try { Thread.yield(); } catch (Throwable t) {}
+			if (element == PAGE_END) {
 
-			if (System.currentTimeMillis() > yieldStart + 180_000) {
+				// next page is requested in the next iteration
+				waitingSince = System.currentTimeMillis();
+				continue;
+			}
 
-				logger.warn("#######################################################################################################");
-				logger.warn("IterableQueueingRecordConsumer waited for 3 minutes, aborting");
-				logger.warn("statement: {}", query.getStatement(true));
-				logger.warn("throwable: {}", throwable);
-				logger.warn("finished:  {}", finished.get());
-				logger.warn("added:     {}", added.get());
-				logger.warn("queue:     {}", queue);
-				logger.warn("#######################################################################################################");
+			queuedRecords.decrementAndGet();
+			streamedRecords.incrementAndGet();
 
-				break;
-			}
-		}
+			nextRecord = (Record)element;
 
-		return !queue.isEmpty();
+			// prefetch records and pages while the consumer works
+			requestRecords();
+
+			return true;
+		}
 	}
 
 	@Override
 	public Record next() {
-		return queue.poll();
+
+		if (!hasNext()) {
+			throw new NoSuchElementException();
+		}
+
+		final Record record = nextRecord;
+		nextRecord = null;
+
+		return record;
 	}
 
 	@Override
@@ -166,18 +215,285 @@ public class IterableQueueingRecordConsumer implements Iterable<Record>, Iterato
 		}
 
 		queue.add(t);
-		added.set(true);
+
+		// remember the position for keyset paging
+		lastRecord = t;
 
 		elementCount.incrementAndGet();
+
+		final int depth = queuedRecords.incrementAndGet();
+
+		maxQueueDepth.accumulateAndGet(depth, Math::max);
 	}
 
-	public CompletionStage<StatementResultCursor> start(final StatementResultCursor cursor) {
+	/**
+	 * Called when the cursor for the current page is available. This
+	 * method is called from a driver thread, so there is no transaction
+	 * context.
+	 */
+	public void start(final StatementResultCursor cursor) {
+
 		this.cursor = cursor;
-		return CompletableFuture.completedFuture(cursor);
+
+		if (aborted.get()) {
+
+			cursor.consumeAsync();
+
+		} else {
+
+			pull();
+		}
 	}
 
 	public Void exception(final Throwable t) {
-		this.throwable = t;
+
+		this.throwable = t instanceof CompletionException && t.getCause() != null ? t.getCause() : t;
+
+		recordPage();
+
+		queue.add(END);
+
 		return null;
 	}
-}
\ No newline at end of file
+
+	/**
+	 * Returns the streaming metrics of all consumers.
+	 */
+	public static Map<String, Integer> getMetrics() {
+
+		final Map<String, Integer> metrics = new LinkedHashMap<>();
+
+		metrics.put("queued",         queuedRecords.get());
+		metrics.put("maxQueued",      maxQueueDepth.get());
+		metrics.put("records",        (int)Math.min(Integer.MAX_VALUE, streamedRecords.get()));
+		metrics.put("pages",          (int)Math.min(Integer.MAX_VALUE, fetchedPages.get()));
+		metrics.put("cancelled",      (int)Math.min(Integer.MAX_VALUE, cancelledQueries.get()));
+		metrics.put("waits",          (int)Math.min(Integer.MAX_VALUE, waitCount.get()));
+		metrics.put("waitTimeMillis", (int)Math.min(Integer.MAX_VALUE, TimeUnit.NANOSECONDS.toMillis(waitTime.get())));
+
+		return metrics;
+	}
+
+	// ----- private methods -----
+	/**
+	 * Requests more records if the queue has drained below the low-water
+	 * mark, must be called from the consuming thread.
+	 */
+	private void requestRecords() {
+
+		if (aborted.get() || queue.size() > LOW_WATER_MARK) {
+			return;
+		}
+
+		if (!started.getAndSet(true)) {
+
+			// deferred query, start now that a transaction context exists
+			final SessionTransaction tx = db.getCurrentTransaction(false);
+			if (tx != null && !tx.isClosed()) {
+
+				fetchPage(tx);
+			}
+
+		} else if (pageComplete.getAndSet(false)) {
+
+			final SessionTransaction tx = db.getCurrentTransaction(false);
+			if (tx != null && !tx.isClosed()) {
+
+				query.nextPage(lastRecord);
+				elementCount.set(0);
+
+				fetchPage(tx);
+
+			} else {
+
+				queue.add(END);
+			}
+
+		} else if (cursor != null && !pulling.get()) {
+
+			pull();
+		}
+	}
+
+	private void fetchPage(final SessionTransaction tx) {
+
+		fetchedPages.incrementAndGet();
+
+		cursor = null;
+
+		// the page is recorded on a driver thread, so the request is captured here
+		pageStatement   = query.getStatement(true);
+		pageParams      = query.getParameters();
+		pageRequestInfo = QueryStatistics.getRequestInfo();
+		pageStartNanos  = System.nanoTime();
+
+		pageRecorded.set(false);
+
+		tx.setIsPing(query.getQueryContext().isPing());
+		tx.collectRecords(pageStatement, pageParams, this);
+	}
+
+	/**
+	 * Records the current page in the query statistics, with the number
+	 * of records streamed and the time until the page was complete.
+	 */
+	private void recordPage() {
+
+		if (!pageRecorded.getAndSet(true)) {
+
+			db.getQueryStatistics().record(pageStatement, pageParams, pageStartNanos, elementCount.get(), pageRequestInfo);
+		}
+	}
+
+	/**
+	 * Pulls records from the current cursor until the queue is full or the
+	 * cursor is exhausted. Records that are already buffered by the driver
+	 * are handled in a loop to avoid deep recursion.
+	 */
+	private void pull() {
+
+		if (!pulling.compareAndSet(false, true)) {
+			return;
+		}
+
+		final StatementResultCursor current = cursor;
+
+		while (current != null) {
+
+			final CompletableFuture<Record> future = current.nextAsync().toCompletableFuture();
+
+			if (!future.isDone()) {
+
+				future.whenComplete((record, t) -> {
+
+					if (handle(record, t)) {
+
+						pulling.set(false);
+						pull();
+					}
+				});
+
+				return;
+			}
+
+			try {
+
+				if (!handle(future.get(), null)) {
+					return;
+				}
+
+			} catch (InterruptedException | ExecutionException ex) {
+
+				handle(null, ex.getCause() != null ? ex.getCause() : ex);
+				return;
+			}
+		}
+
+		pulling.set(false);
+	}
+
+	/**
+	 * Handles the result of a single pull, returns true if pulling should
+	 * continue.
+	 */
+	private boolean handle(final Record record, final Throwable t) {
+
+		if (t != null) {
+
+			pulling.set(false);
+			exception(t);
+
+			return false;
+		}
+
+		if (record == null) {
+
+			pulling.set(false);
+			pageFinished();
+
+			return false;
+		}
+
+		accept(record);
+
+		if (aborted.get() || queue.size() >= QUEUE_CAPACITY) {
+
+			// the consumer resumes pulling when the queue has drained
+			pulling.set(false);
+
+			return false;
+		}
+
+		return true;
+	}
+
+	private void pageFinished() {
+
+		recordPage();
+
+		if (elementCount.get() == query.pageSize() && !aborted.get()) {
+
+			// there are probably more results available, signal consumer
+			// to fetch the next page from its own thread
+			pageComplete.set(true);
+			queue.add(PAGE_END);
+
+		} else {
+
+			queue.add(END);
+		}
+	}
+
+	private Object await() {
+
+		final long start = System.nanoTime();
+
+		try {
+
+			waitCount.incrementAndGet();
+
+			return queue.poll(1, TimeUnit.SECONDS);
+
+		} catch (InterruptedException iex) {
+
+			Thread.currentThread().interrupt();
+			close();
+
+		} finally {
+
+			waitTime.addAndGet(System.nanoTime() - start);
+		}
+
+		return null;
+	}
+
+	private void rethrow() {
+
+		if (throwable != null) {
+
+			aborted.set(true);
+			clearQueue();
+
+			if (throwable instanceof RuntimeException) {
+
+				throw (RuntimeException)throwable;
+
+			} else {
+
+				throw new RuntimeException(throwable);
+			}
+		}
+	}
+
+	private void clearQueue() {
+
+		Object element = null;
+
+		while ((element = queue.poll()) != null) {
+
+			if (element != END && element != PAGE_END) {
+				queuedRecords.decrementAndGet();
+			}
+		}
+	}
+}
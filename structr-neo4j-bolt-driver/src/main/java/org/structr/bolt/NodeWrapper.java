@@ -18,12 +18,19 @@
  */
 package org.structr.bolt;
 
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.TreeSet;
+import java.util.WeakHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 import org.apache.commons.lang.StringUtils;
+import org.neo4j.driver.v1.types.Entity;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.structr.api.NotFoundException;
@@ -42,9 +49,13 @@ import org.structr.api.util.Iterables;
 class NodeWrapper extends EntityWrapper<org.neo4j.driver.v1.types.Node> implements Node {
 
 	private static final Logger logger                                           = LoggerFactory.getLogger(NodeWrapper.class);
+	private static final int PREFETCH_CHUNK_SIZE                                 = 1000;
 	protected static FixedSizeCache<Long, NodeWrapper> nodeCache                 = null;
 
 	private final Map<String, Map<String, RelationshipResult>> relationshipCache = new HashMap<>();
+	private final AtomicLong relationshipVersion                                 = new AtomicLong();
+	private final Map<Object, Set<String>> txLabels                              = Collections.synchronizedMap(new WeakHashMap<>());
+	private final Set<String> labels                                             = new LinkedHashSet<>();
 	private boolean dontUseCache                                                 = false;
 
 	protected NodeWrapper() {
@@ -53,7 +64,10 @@ class NodeWrapper extends EntityWrapper<org.neo4j.driver.v1.types.Node> implemen
 	}
 
 	private NodeWrapper(final BoltDatabaseService db, final org.neo4j.driver.v1.types.Node node) {
+
 		super(db, node);
+
+		Iterables.addAll(labels, node.labels());
 	}
 
 	public static void initialize(final int cacheSize) {
@@ -74,21 +88,26 @@ class NodeWrapper extends EntityWrapper<org.neo4j.driver.v1.types.Node> implemen
 	@Override
 	public void onRemoveFromCache() {
 
-		relationshipCache.clear();
+		clearCaches();
 		this.stale = true;
 	}
 
 	@Override
 	public void clearCaches() {
 
-		relationshipCache.clear();
+		synchronized (relationshipCache) {
+
+			relationshipVersion.incrementAndGet();
+			relationshipCache.clear();
+		}
 	}
 
 	@Override
 	public void onClose() {
 
+		// the relationship caches are updated by the transaction, or cleared
+		// entirely if it executed native queries that modified the database
 		dontUseCache = false;
-		relationshipCache.clear();
 	}
 
 	@Override
@@ -125,17 +144,16 @@ class NodeWrapper extends EntityWrapper<org.neo4j.driver.v1.types.Node> implemen
 
 		final org.neo4j.driver.v1.types.Relationship rel = tx.getRelationship(buf.toString(), map);
 
-		setModified();
-		otherNode.setModified();
-
-		// clear caches
-		((NodeWrapper)endNode).relationshipCache.clear();
-		relationshipCache.clear();
+		// the shared relationship caches of both nodes are updated when the transaction is committed
+		otherNode.relationshipsModified();
+		relationshipsModified();
 
 		final RelationshipWrapper createdRelationship = RelationshipWrapper.newInstance(db, rel);
 
 		createdRelationship.setModified();
 
+		tx.created(createdRelationship);
+
 		return createdRelationship;
 	}
 
@@ -144,13 +162,24 @@ class NodeWrapper extends EntityWrapper<org.neo4j.driver.v1.types.Node> implemen
 
 		assertNotStale();
 
-		final SessionTransaction tx   = db.getCurrentTransaction();
-		final Map<String, Object> map = new HashMap<>();
-		final String tenantIdentifier = getTenantIdentifer(db);
+		final SessionTransaction tx = db.getCurrentTransaction();
+		final WriteBuffer buffer    = tx.getWriteBuffer();
+
+		if (buffer != null) {
+
+			buffer.addLabel(this, label);
 
-		map.put("id", id);
+		} else {
 
-		tx.set(concat("MATCH (n", tenantIdentifier, ") WHERE ID(n) = $id SET n :", label), map);
+			final Map<String, Object> map = new HashMap<>();
+			final String tenantIdentifier = getTenantIdentifer(db);
+
+			map.put("id", id);
+
+			tx.set(concat("MATCH (n", tenantIdentifier, ") WHERE ID(n) = $id SET n :", label), map);
+		}
+
+		accessLabels(true).add(label);
 
 		setModified();
 	}
@@ -160,13 +189,25 @@ class NodeWrapper extends EntityWrapper<org.neo4j.driver.v1.types.Node> implemen
 
 		assertNotStale();
 
-		final SessionTransaction tx   = db.getCurrentTransaction();
-		final Map<String, Object> map = new HashMap<>();
-		final String tenantIdentifier = getTenantIdentifer(db);
+		final SessionTransaction tx = db.getCurrentTransaction();
+		final WriteBuffer buffer    = tx.getWriteBuffer();
 
-		map.put("id", id);
+		if (buffer != null) {
+
+			buffer.removeLabel(this, label);
+
+		} else {
+
+			final Map<String, Object> map = new HashMap<>();
+			final String tenantIdentifier = getTenantIdentifer(db);
+
+			map.put("id", id);
+
+			tx.set(concat("MATCH (n", tenantIdentifier, ") WHERE ID(n) = $id REMOVE n:", label), map);
+		}
+
+		accessLabels(true).remove(label);
 
-		tx.set(concat("MATCH (n", tenantIdentifier, ") WHERE ID(n) = $id REMOVE n:", label), map);
 		setModified();
 	}
 
@@ -175,14 +216,42 @@ class NodeWrapper extends EntityWrapper<org.neo4j.driver.v1.types.Node> implemen
 
 		assertNotStale();
 
-		final SessionTransaction tx   = db.getCurrentTransaction();
-		final Map<String, Object> map = new HashMap<>();
-		final String tenantIdentifier = getTenantIdentifer(db);
+		final Set<String> data = accessLabels(false);
 
-		map.put("id", id);
+		synchronized (data) {
 
-		// execute query
-		return tx.getStrings(concat("MATCH (n", tenantIdentifier, ") WHERE ID(n) = $id RETURN LABELS(n)"), map);
+			return new ArrayList<>(data);
+		}
+	}
+
+	@Override
+	public void rollback(final Object transactionId) {
+
+		synchronized (this) {
+
+			txLabels.remove(transactionId);
+
+			super.rollback(transactionId);
+		}
+	}
+
+	@Override
+	public void commit(final Object transactionId) {
+
+		synchronized (this) {
+
+			final Set<String> changes = txLabels.remove(transactionId);
+			if (changes != null) {
+
+				synchronized (labels) {
+
+					labels.clear();
+					labels.addAll(changes);
+				}
+			}
+
+			super.commit(transactionId);
+		}
 	}
 
 	@Override
@@ -242,7 +311,7 @@ class NodeWrapper extends EntityWrapper<org.neo4j.driver.v1.types.Node> implemen
 		final RelationshipResult cache = getRelationshipCache(null, null);
 		final String tenantIdentifier  = getTenantIdentifer(db);
 
-		return cache.getResult(db, id, concat("(n", tenantIdentifier, ")-[r]-()"), "(n)-[]-()", "RETURN r ORDER BY r.internalTimestamp");
+		return cache.getResult(db, id, concat("(n", tenantIdentifier, ")-[r]-(o)"), "(n)-[]-()", "RETURN r, o ORDER BY r.internalTimestamp");
 	}
 
 	@Override
@@ -259,10 +328,10 @@ class NodeWrapper extends EntityWrapper<org.neo4j.driver.v1.types.Node> implemen
 				return getRelationships();
 
 			case OUTGOING:
-				return cache.getResult(db, id, concat("(n", tenantIdentifier, ")-[r]->()"), "(n)-[]->()", "RETURN r ORDER BY r.internalTimestamp");
+				return cache.getResult(db, id, concat("(n", tenantIdentifier, ")-[r]->(o)"), "(n)-[]->()", "RETURN r, o ORDER BY r.internalTimestamp");
 
 			case INCOMING:
-				return cache.getResult(db, id, concat("(n", tenantIdentifier , ")<-[r]-()"), "(n)<-[]-()", "RETURN r ORDER BY r.internalTimestamp");
+				return cache.getResult(db, id, concat("(n", tenantIdentifier , ")<-[r]-(o)"), "(n)<-[]-()", "RETURN r, o ORDER BY r.internalTimestamp");
 		}
 
 		return null;
@@ -280,13 +349,13 @@ class NodeWrapper extends EntityWrapper<org.neo4j.driver.v1.types.Node> implemen
 		switch (direction) {
 
 			case BOTH:
-				return cache.getResult(db, id, concat("(n", tenantIdentifier, ")-[r:", rel, "]-()"), concat("(n)-[:", rel, "]-()"), "RETURN r ORDER BY r.internalTimestamp");
+				return cache.getResult(db, id, concat("(n", tenantIdentifier, ")-[r:", rel, "]-(o)"), concat("(n)-[:", rel, "]-()"), "RETURN r, o ORDER BY r.internalTimestamp");
 
 			case OUTGOING:
-				return cache.getResult(db, id, concat("(n", tenantIdentifier, ")-[r:", rel, "]->()"), concat("(n)-[:", rel, "]->()"), "RETURN r ORDER BY r.internalTimestamp");
+				return cache.getResult(db, id, concat("(n", tenantIdentifier, ")-[r:", rel, "]->(o)"), concat("(n)-[:", rel, "]->()"), "RETURN r, o ORDER BY r.internalTimestamp");
 
 			case INCOMING:
-				return cache.getResult(db, id, concat("(n", tenantIdentifier, ")<-[r:", rel, "]-()"), concat("(n)<-[:", rel, "]-()"), "RETURN r ORDER BY r.internalTimestamp");
+				return cache.getResult(db, id, concat("(n", tenantIdentifier, ")<-[r:", rel, "]-(o)"), concat("(n)<-[:", rel, "]-()"), "RETURN r, o ORDER BY r.internalTimestamp");
 		}
 
 		return null;
@@ -295,6 +364,15 @@ class NodeWrapper extends EntityWrapper<org.neo4j.driver.v1.types.Node> implemen
 	@Override
 	public void delete(final boolean deleteRelationships) {
 
+		if (deleteRelationships) {
+
+			// register the relationships that are removed along with this node
+			for (final Relationship rel : Iterables.toList(getRelationships())) {
+
+				((RelationshipWrapper)rel).registerDeletion();
+			}
+		}
+
 		super.delete(deleteRelationships);
 
 		final SessionTransaction tx = db.getCurrentTransaction();
@@ -321,6 +399,45 @@ class NodeWrapper extends EntityWrapper<org.neo4j.driver.v1.types.Node> implemen
 		return result;
 	}
 
+	/**
+	 * Applies a committed relationship creation or deletion to all
+	 * relationship caches of this node that contain the relationship
+	 * type and direction, so that they don't need to be reloaded.
+	 */
+	public void relationshipCommitted(final RelationshipWrapper rel, final Direction direction, final boolean created) {
+
+		final String type = rel.getType().name();
+
+		synchronized (relationshipCache) {
+
+			// results that are being loaded concurrently must not be cached
+			relationshipVersion.incrementAndGet();
+
+			for (final String directionKey : new String[] { "*", Direction.BOTH.name(), direction.name() }) {
+
+				final Map<String, RelationshipResult> cache = relationshipCache.get(directionKey);
+				if (cache != null) {
+
+					for (final String typeKey : new String[] { "*", type }) {
+
+						final RelationshipResult result = cache.get(typeKey);
+						if (result != null) {
+
+							if (created) {
+
+								result.add(rel);
+
+							} else {
+
+								result.remove(rel);
+							}
+						}
+					}
+				}
+			}
+		}
+	}
+
 	public void addToCache(final RelationshipWrapper rel) {
 
 		synchronized (relationshipCache) {
@@ -339,7 +456,58 @@ class NodeWrapper extends EntityWrapper<org.neo4j.driver.v1.types.Node> implemen
 		return true;
 	}
 
+	@Override
+	protected void onUpdate(final Entity entity) {
+
+		if (entity instanceof org.neo4j.driver.v1.types.Node) {
+
+			synchronized (labels) {
+
+				labels.clear();
+				Iterables.addAll(labels, ((org.neo4j.driver.v1.types.Node)entity).labels());
+			}
+		}
+	}
+
+	// ----- package-private methods -----
+	void relationshipsModified() {
+
+		// bypass the shared relationship caches until the end of the transaction
+		dontUseCache = true;
+
+		setModified();
+	}
+
 	// ----- private methods -----
+	private Set<String> accessLabels(final boolean write) {
+
+		// read-only access does not need a transaction
+		final SessionTransaction tx = db.getCurrentTransaction(false);
+		if (tx != null) {
+
+			final Object transactionId = tx.getTransactionKey();
+			Set<String> copy           = txLabels.get(transactionId);
+
+			if (copy == null && write) {
+
+				synchronized (labels) {
+
+					copy = Collections.synchronizedSet(new LinkedHashSet<>(labels));
+				}
+
+				txLabels.put(transactionId, copy);
+
+				tx.accessed(this);
+			}
+
+			if (copy != null) {
+				return copy;
+			}
+		}
+
+		return labels;
+	}
+
 	private Map<String, RelationshipResult> getCache(final Direction direction) {
 
 		synchronized (relationshipCache) {
@@ -379,46 +547,125 @@ class NodeWrapper extends EntityWrapper<org.neo4j.driver.v1.types.Node> implemen
 	// ----- public static methods -----
 	public static NodeWrapper newInstance(final BoltDatabaseService db, final org.neo4j.driver.v1.types.Node node) {
 
-		synchronized (nodeCache) {
+		final NodeWrapper wrapper = nodeCache.get(node.id());
+		if (wrapper == null) { // || wrapper.stale) {
 
-			NodeWrapper wrapper = nodeCache.get(node.id());
-			if (wrapper == null) { // || wrapper.stale) {
+			// the cache is thread-safe, concurrent callers share the first instance
+			return nodeCache.putIfAbsent(node.id(), new NodeWrapper(db, node));
+		}
 
-				wrapper = new NodeWrapper(db, node);
-				nodeCache.put(node.id(), wrapper);
-			}
+		return wrapper;
+	}
 
-			return wrapper;
+	public static NodeWrapper newInstance(final BoltDatabaseService db, final long id) {
+
+		NodeWrapper wrapper = nodeCache.get(id);
+		if (wrapper == null) { // || wrapper.stale) {
+
+			final SessionTransaction tx   = db.getCurrentTransaction();
+			final String tenantIdentifier = getTenantIdentifer(db);
+			final Map<String, Object> map = new HashMap<>();
+
+			map.put("id", id);
+
+			final org.neo4j.driver.v1.types.Node node = tx.getNode(concat("MATCH (n", tenantIdentifier, ") WHERE ID(n) = $id RETURN DISTINCT n"), map);
+			if (node != null) {
+
+				wrapper = NodeWrapper.newInstance(db, node);
+
+			} else {
+
+				throw new NotFoundException("Node with ID " + id + " not found.");
+			}
 		}
+
+		return wrapper;
 	}
 
-	public static NodeWrapper newInstance(final BoltDatabaseService db, final long id) {
+	/**
+	 * Loads the relationships of the given nodes in a single query per
+	 * chunk of nodes, together with the nodes on their other end, and
+	 * stores them in the relationship caches of the nodes. Only nodes
+	 * that are already in the node cache and have not loaded the given
+	 * relationships yet are considered.
+	 */
+	public static void prefetchRelationships(final BoltDatabaseService db, final Iterable<Long> ids, final Direction direction, final RelationshipType relationshipType) {
 
-		synchronized (nodeCache) {
+		if (Settings.ForceResultStreaming.getValue()) {
+			return;
+		}
 
-			NodeWrapper wrapper = nodeCache.get(id);
-			if (wrapper == null) { // || wrapper.stale) {
+		final Direction actualDirection    = direction != null ? direction : Direction.BOTH;
+		final Direction cacheDirection     = relationshipType == null && Direction.BOTH.equals(actualDirection) ? null : actualDirection;
+		final Map<Long, NodeWrapper> nodes = new LinkedHashMap<>();
+		final Map<Long, Long> versions     = new HashMap<>();
 
-				final SessionTransaction tx   = db.getCurrentTransaction();
-				final String tenantIdentifier = getTenantIdentifer(db);
-				final Map<String, Object> map = new HashMap<>();
+		for (final Long id : ids) {
 
-				map.put("id", id);
+			final NodeWrapper node = nodeCache.get(id);
+			if (node != null && !node.stale && !node.dontUseCache && !node.getRelationshipCache(cacheDirection, relationshipType).isLoaded()) {
 
-				final org.neo4j.driver.v1.types.Node node = tx.getNode(concat("MATCH (n", tenantIdentifier, ") WHERE ID(n) = $id RETURN DISTINCT n"), map);
-				if (node != null) {
+				versions.put(id, node.relationshipVersion.get());
+				nodes.put(id, node);
+			}
+		}
 
-					wrapper = NodeWrapper.newInstance(db, node);
+		if (nodes.isEmpty()) {
+			return;
+		}
 
-					nodeCache.put(id, wrapper);
+		final SessionTransaction tx   = db.getCurrentTransaction();
+		final String tenantIdentifier = getTenantIdentifer(db);
+		final String rel              = relationshipType != null ? concat("r:", relationshipType.name()) : "r";
+		final List<Long> allIds       = new ArrayList<>(nodes.keySet());
+		String pattern                = null;
 
-				} else {
+		switch (actualDirection) {
 
-					throw new NotFoundException("Node with ID " + id + " not found.");
-				}
+			case OUTGOING:
+				pattern = concat("-[", rel, "]->");
+				break;
+
+			case INCOMING:
+				pattern = concat("<-[", rel, "]-");
+				break;
+
+			default:
+				pattern = concat("-[", rel, "]-");
+				break;
+		}
+
+		final String statement = concat("MATCH (n", tenantIdentifier, ")", pattern, "(o) WHERE ID(n) IN $ids RETURN ID(n) AS id, r, o ORDER BY r.internalTimestamp");
+
+		for (int i=0; i<allIds.size(); i+=PREFETCH_CHUNK_SIZE) {
+
+			final List<Long> chunk                      = allIds.subList(i, Math.min(allIds.size(), i + PREFETCH_CHUNK_SIZE));
+			final Map<Long, List<Relationship>> grouped = new HashMap<>();
+			final Map<String, Object> params            = new HashMap<>();
+
+			params.put("ids", chunk);
+
+			// the other nodes are put into the node cache by the result wrapper
+			for (final Map<String, Object> row : tx.run(statement, params)) {
+
+				final Long id = ((Number)row.get("id")).longValue();
+
+				grouped.computeIfAbsent(id, k -> new ArrayList<>()).add((Relationship)row.get("r"));
 			}
 
-			return wrapper;
+			for (final Long id : chunk) {
+
+				final NodeWrapper node = nodes.get(id);
+
+				synchronized (node.relationshipCache) {
+
+					// don't cache the result if relationships of this node were committed in the meantime
+					if (versions.get(id) == node.relationshipVersion.get()) {
+
+						node.getRelationshipCache(cacheDirection, relationshipType).prefetched(grouped.getOrDefault(id, Collections.emptyList()));
+					}
+				}
+			}
 		}
 	}
 
@@ -429,34 +676,25 @@ class NodeWrapper extends EntityWrapper<org.neo4j.driver.v1.types.Node> implemen
 
 	public static void expunge(final Set<Long> toRemove) {
 
-		synchronized (nodeCache) {
+		for (final Long id : toRemove) {
 
-			for (final Long id : toRemove) {
-
-				expunge(id);
-			}
+			expunge(id);
 		}
 	}
 
 	public static void expunge(final Long toRemove) {
 
-		synchronized (nodeCache) {
+		final NodeWrapper node = nodeCache.remove(toRemove);
+		if (node != null) {
 
-			final NodeWrapper node = nodeCache.remove(toRemove);
-			if (node != null) {
-
-				node.clearCaches();
-			}
+			node.clearCaches();
 		}
 	}
 
 	// ----- protected static methods -----
 	protected static void clearCache() {
 
-		synchronized (nodeCache) {
-
-			nodeCache.clear();
-		}
+		nodeCache.clear();
 	}
 
 	// ----- private static methods -----
@@ -499,7 +737,7 @@ class NodeWrapper extends EntityWrapper<org.neo4j.driver.v1.types.Node> implemen
 
 		private Set<Relationship> set = null;
 
-		public void add(final Relationship rel) {
+		public synchronized void add(final Relationship rel) {
 
 			if (set != null) {
 
@@ -507,6 +745,30 @@ class NodeWrapper extends EntityWrapper<org.neo4j.driver.v1.types.Node> implemen
 			}
 		}
 
+		public synchronized void remove(final Relationship rel) {
+
+			if (set != null) {
+
+				// the set is sorted by timestamp, so we need to compare the IDs
+				set.removeIf(r -> r.getId().equals(rel.getId()));
+			}
+		}
+
+		public synchronized boolean isLoaded() {
+			return set != null;
+		}
+
+		public synchronized void prefetched(final List<Relationship> rels) {
+
+			if (set == null) {
+
+				// create sorted set (important if nodes are added later on)
+				set = new TreeSet<>((o1, o2) -> { return compare("internalTimestamp", o1, o2); });
+
+				set.addAll(rels);
+			}
+		}
+
 		public synchronized Iterable<Relationship> getResult(final BoltDatabaseService db, final long id, final String match, final String pattern, final String returnStatement) {
 
 			final String whereStatement         = " WHERE ID(n) = $id ";
@@ -525,11 +787,19 @@ class NodeWrapper extends EntityWrapper<org.neo4j.driver.v1.types.Node> implemen
 				// else: return cached result
 				if (set == null) {
 
-					// create sorted set (important if nodes are added later on)
-					set = new TreeSet<>((o1, o2) -> { return compare("internalTimestamp", o1, o2); });
+					final long version          = relationshipVersion.get();
+					final Set<Relationship> tmp = new TreeSet<>((o1, o2) -> { return compare("internalTimestamp", o1, o2); });
 
 					// add elements
-					set.addAll(Iterables.toList(index.getResult(query)));
+					tmp.addAll(Iterables.toList(index.getResult(query)));
+
+					// don't cache the result if relationships of this node were committed in the meantime
+					if (version != relationshipVersion.get()) {
+						return tmp;
+					}
+
+					// sorted set (important if nodes are added later on)
+					set = tmp;
 				}
 
 				return set;
@@ -80,23 +80,25 @@ class RelationshipWrapper extends EntityWrapper<org.neo4j.driver.v1.types.Relati
 
 	public static void expunge(final Set<Long> toRemove) {
 
-		synchronized (relationshipCache) {
+		for (final Long id : toRemove) {
+			expunge(id);
+		}
+	}
 
-			for (final Long id : toRemove) {
-				expunge(id);
-			}
+	public static void evict(final Set<Long> toRemove) {
+
+		// remove without invalidating the relationship caches of the nodes
+		for (final Long id : toRemove) {
+			relationshipCache.remove(id);
 		}
 	}
 
 	public static void expunge(final Long toRemove) {
 
-		synchronized (relationshipCache) {
-
-			final RelationshipWrapper wrapper = relationshipCache.remove(toRemove);
-			if (wrapper != null) {
+		final RelationshipWrapper wrapper = relationshipCache.remove(toRemove);
+		if (wrapper != null) {
 
-				wrapper.clearCaches();
-			}
+			wrapper.clearCaches();
 		}
 	}
 
@@ -160,10 +162,49 @@ class RelationshipWrapper extends EntityWrapper<org.neo4j.driver.v1.types.Relati
 
 		super.delete(deleteRelationships);
 
+		registerDeletion();
+	}
+
+	/**
+	 * Registers the deletion of this relationship with the current
+	 * transaction so that the relationship caches of both nodes can
+	 * be updated when the transaction is committed.
+	 */
+	public void registerDeletion() {
+
 		final SessionTransaction tx = db.getCurrentTransaction();
 		tx.deleted(this);
 
-		clearCaches();
+		final NodeWrapper startNode = NodeWrapper.getCache().get(sourceNodeId);
+		if (startNode != null) {
+
+			startNode.relationshipsModified();
+		}
+
+		final NodeWrapper endNode = NodeWrapper.getCache().get(targetNodeId);
+		if (endNode != null) {
+
+			endNode.relationshipsModified();
+		}
+	}
+
+	/**
+	 * Applies the committed creation or deletion of this relationship to
+	 * the relationship caches of both nodes.
+	 */
+	public void committed(final boolean created) {
+
+		final NodeWrapper startNode = NodeWrapper.getCache().get(sourceNodeId);
+		if (startNode != null) {
+
+			startNode.relationshipCommitted(this, Direction.OUTGOING, created);
+		}
+
+		final NodeWrapper endNode = NodeWrapper.getCache().get(targetNodeId);
+		if (endNode != null) {
+
+			endNode.relationshipCommitted(this, Direction.INCOMING, created);
+		}
 	}
 
 	public Direction getDirectionForNode(final NodeWrapper node) {
@@ -193,55 +234,66 @@ class RelationshipWrapper extends EntityWrapper<org.neo4j.driver.v1.types.Relati
 
 	public static RelationshipWrapper newInstance(final BoltDatabaseService db, final org.neo4j.driver.v1.types.Relationship relationship) {
 
-		synchronized (relationshipCache) {
+		final RelationshipWrapper wrapper = relationshipCache.get(relationship.id());
+		if (wrapper == null) {
 
-			RelationshipWrapper wrapper = relationshipCache.get(relationship.id());
-			if (wrapper == null || wrapper.stale) {
+			// the cache is thread-safe, concurrent callers share the first instance
+			return relationshipCache.putIfAbsent(relationship.id(), new RelationshipWrapper(db, relationship));
+		}
 
-				wrapper = new RelationshipWrapper(db, relationship);
-				relationshipCache.put(relationship.id(), wrapper);
-			}
+		if (wrapper.stale) {
+
+			final RelationshipWrapper fresh = new RelationshipWrapper(db, relationship);
 
-			return wrapper;
+			relationshipCache.put(relationship.id(), fresh);
+
+			return fresh;
 		}
+
+		return wrapper;
 	}
 
 	public static RelationshipWrapper newInstance(final BoltDatabaseService db, final long id) {
 
-		synchronized (relationshipCache) {
+		RelationshipWrapper wrapper = relationshipCache.get(id);
+		if (wrapper == null || wrapper.stale) {
 
-			RelationshipWrapper wrapper = relationshipCache.get(id);
-			if (wrapper == null || wrapper.stale) {
+			final SessionTransaction tx   = db.getCurrentTransaction();
+			final Map<String, Object> map = new HashMap<>();
+			final StringBuilder buf       = new StringBuilder();
+			final String tenantIdentifier = db.getTenantIdentifier();
 
-				final SessionTransaction tx   = db.getCurrentTransaction();
-				final Map<String, Object> map = new HashMap<>();
-				final StringBuilder buf       = new StringBuilder();
-				final String tenantIdentifier = db.getTenantIdentifier();
+			map.put("id", id);
 
-				map.put("id", id);
+			buf.append("MATCH (");
 
-				buf.append("MATCH (");
+			if (tenantIdentifier != null) {
+				buf.append(":");
+				buf.append(tenantIdentifier);
+			}
 
-				if (tenantIdentifier != null) {
-					buf.append(":");
-					buf.append(tenantIdentifier);
-				}
+			buf.append(")-[n]-(");
 
-				buf.append(")-[n]-(");
+			if (tenantIdentifier != null) {
+				buf.append(":");
+				buf.append(tenantIdentifier);
+			}
 
-				if (tenantIdentifier != null) {
-					buf.append(":");
-					buf.append(tenantIdentifier);
-				}
+			buf.append(") WHERE ID(n) = $id RETURN n");
 
-				buf.append(") WHERE ID(n) = $id RETURN n");
+			final RelationshipWrapper fresh = new RelationshipWrapper(db, tx.getRelationship(buf.toString(), map));
 
-				wrapper = new RelationshipWrapper(db, tx.getRelationship(buf.toString(), map));
+			if (wrapper == null) {
 
-				relationshipCache.put(id, wrapper);
+				// the cache is thread-safe, concurrent callers share the first instance
+				return relationshipCache.putIfAbsent(id, fresh);
 			}
 
-			return wrapper;
+			relationshipCache.put(id, fresh);
+
+			return fresh;
 		}
+
+		return wrapper;
 	}
 }
@@ -21,6 +21,7 @@ package org.structr.bolt;
 import java.util.Collections;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.atomic.AtomicLong;
@@ -55,20 +56,24 @@ import org.structr.api.util.Iterables;
  */
 class SessionTransaction implements org.structr.api.Transaction {
 
-	private static final Logger logger                = LoggerFactory.getLogger(SessionTransaction.class);
-	private static final AtomicLong ID_SOURCE         = new AtomicLong();
-	private final Set<EntityWrapper> accessedEntities = new HashSet<>();
-	private final Set<EntityWrapper> modifiedEntities = new HashSet<>();
-	private final Set<Long> deletedNodes              = new HashSet<>();
-	private final Set<Long> deletedRels               = new HashSet<>();
-	private final Object transactionKey               = new Object();
-	private BoltDatabaseService db                    = null;
-	private Session session                           = null;
-	private Transaction tx                            = null;
-	private long transactionId                        = 0L;
-	private boolean closed                            = false;
-	private boolean success                           = false;
-	private boolean isPing                            = false;
+	private static final Logger logger                       = LoggerFactory.getLogger(SessionTransaction.class);
+	private static final AtomicLong ID_SOURCE                = new AtomicLong();
+	private final Set<EntityWrapper> accessedEntities        = new HashSet<>();
+	private final Set<EntityWrapper> modifiedEntities        = new HashSet<>();
+	private final Set<Long> deletedNodes                     = new HashSet<>();
+	private final Map<Long, RelationshipWrapper> deletedRels = new LinkedHashMap<>();
+	private final Map<Long, RelationshipWrapper> createdRels = new LinkedHashMap<>();
+	private final Object transactionKey                      = new Object();
+	private WriteBuffer writeBuffer                          = null;
+	private BoltDatabaseService db                           = null;
+	private Session session                                  = null;
+	private Transaction tx                                   = null;
+	private long transactionId                               = 0L;
+	private boolean closed                                   = false;
+	private boolean success                                  = false;
+	private boolean isPing                                   = false;
+	private boolean unknownChanges                           = false;
+	private boolean committed                                = false;
 
 	public SessionTransaction(final BoltDatabaseService db, final Session session) {
 
@@ -76,6 +81,10 @@ class SessionTransaction implements org.structr.api.Transaction {
 		this.session       = session;
 		this.tx            = session.beginTransaction(db.getTransactionConfig(transactionId));
 		this.db            = db;
+
+		if (db.batchWrites()) {
+			this.writeBuffer = new WriteBuffer();
+		}
 	}
 
 	public SessionTransaction(final BoltDatabaseService db, final Session session, final int timeoutInSeconds) {
@@ -86,6 +95,10 @@ class SessionTransaction implements org.structr.api.Transaction {
 		this.session       = session;
 		this.tx            = session.beginTransaction(config);
 		this.db            = db;
+
+		if (db.batchWrites()) {
+			this.writeBuffer = new WriteBuffer();
+		}
 	}
 
 	@Override
@@ -96,6 +109,9 @@ class SessionTransaction implements org.structr.api.Transaction {
 	@Override
 	public void success() {
 
+		// send buffered updates before the transaction can commit
+		flush();
+
 		tx.success();
 
 		// transaction must be marked successfull explicitly
@@ -105,8 +121,30 @@ class SessionTransaction implements org.structr.api.Transaction {
 	@Override
 	public void close() {
 
+		RuntimeException flushException = null;
+
+		if (success && writeBuffer != null && !writeBuffer.isEmpty()) {
+
+			// updates after success() must not be lost
+			try {
+
+				flush();
+
+			} catch (RuntimeException ex) {
+
+				flushException = ex;
+				success        = false;
+
+				tx.failure();
+			}
+		}
+
 		if (!success) {
 
+			if (writeBuffer != null) {
+				writeBuffer.clear();
+			}
+
 			for (final EntityWrapper entity : accessedEntities) {
 
 				entity.rollback(transactionKey);
@@ -119,16 +157,12 @@ class SessionTransaction implements org.structr.api.Transaction {
 
 		} else {
 
-			RelationshipWrapper.expunge(deletedRels);
+			RelationshipWrapper.evict(deletedRels.keySet());
 			NodeWrapper.expunge(deletedNodes);
 
 			for (final EntityWrapper entity : accessedEntities) {
 				entity.commit(transactionKey);
 			}
-
-			for (final EntityWrapper entity : modifiedEntities) {
-				entity.clearCaches();
-			}
 		}
 
 		// mark this transaction as closed BEFORE trying to actually close it
@@ -140,6 +174,8 @@ class SessionTransaction implements org.structr.api.Transaction {
 			tx.close();
 			session.close();
 
+			committed = success;
+
 		} catch (TransientException tex) {
 
 			// transient exceptions can be retried
@@ -153,11 +189,19 @@ class SessionTransaction implements org.structr.api.Transaction {
 				entity.onClose();
 			}
 
+			// relationship changes become visible to other transactions only
+			// after the commit, so the shared caches are updated afterwards
+			updateRelationshipCaches();
+
 			// make sure that the resources are freed
 			if (session.isOpen()) {
 				session.close();
 			}
 		}
+
+		if (flushException != null) {
+			throw flushException;
+		}
 	}
 
 	public boolean isClosed() {
@@ -193,8 +237,15 @@ class SessionTransaction implements org.structr.api.Transaction {
 
 		try {
 
+			flush();
 			logQuery(statement, map);
-			return tx.run(statement, map).next().get(0).asBoolean();
+
+			final long startNanos = System.nanoTime();
+			final boolean result  = tx.run(statement, map).next().get(0).asBoolean();
+
+			record(statement, map, startNanos, 1);
+
+			return result;
 
 		} catch (TransientException tex) {
 			closed = true;
@@ -235,8 +286,15 @@ class SessionTransaction implements org.structr.api.Transaction {
 
 		try {
 
+			flush();
 			logQuery(statement, map);
-			return tx.run(statement, map).next().get(0).asLong();
+
+			final long startNanos = System.nanoTime();
+			final long result     = tx.run(statement, map).next().get(0).asLong();
+
+			record(statement, map, startNanos, 1);
+
+			return result;
 
 		} catch (TransientException tex) {
 			closed = true;
@@ -256,13 +314,23 @@ class SessionTransaction implements org.structr.api.Transaction {
 
 		try {
 
+			flush();
 			logQuery(statement, map);
+
+			final long startNanos        = System.nanoTime();
 			final StatementResult result = tx.run(statement, map);
+
 			if (result.hasNext()) {
 
-				return result.next().get(0).asObject();
+				final Object value = result.next().get(0).asObject();
+
+				record(statement, map, startNanos, 1);
+
+				return value;
 			}
 
+			record(statement, map, startNanos, 0);
+
 		} catch (TransientException tex) {
 			closed = true;
 			throw new RetryException(tex);
@@ -283,8 +351,15 @@ class SessionTransaction implements org.structr.api.Transaction {
 
 		try {
 
+			flush();
 			logQuery(statement, map);
-			return tx.run(statement, map).next().get(0).asEntity();
+
+			final long startNanos = System.nanoTime();
+			final Entity result   = tx.run(statement, map).next().get(0).asEntity();
+
+			record(statement, map, startNanos, 1);
+
+			return result;
 
 		} catch (TransientException tex) {
 			closed = true;
@@ -304,11 +379,15 @@ class SessionTransaction implements org.structr.api.Transaction {
 
 		try {
 
+			flush();
 			logQuery(statement, map);
 
+			final long startNanos        = System.nanoTime();
 			final StatementResult result = tx.run(statement, map);
 			final Record single          = result.single();
 
+			record(statement, map, startNanos, 1);
+
 			return single.get(0).asNode();
 
 		} catch (TransientException tex) {
@@ -329,11 +408,15 @@ class SessionTransaction implements org.structr.api.Transaction {
 
 		try {
 
+			flush();
 			logQuery(statement, map);
 
+			final long startNanos        = System.nanoTime();
 			final StatementResult result = tx.run(statement, map);
 			final Record single          = result.single();
 
+			record(statement, map, startNanos, 1);
+
 			return single.get(0).asRelationship();
 
 		} catch (TransientException tex) {
@@ -352,12 +435,12 @@ class SessionTransaction implements org.structr.api.Transaction {
 
 	public void collectRecords(final String statement, final Map<String, Object> map, final IterableQueueingRecordConsumer consumer) {
 
+		flush();
 		logQuery(statement, map);
 
+		// the consumer records the statement when the page is complete
 		tx.runAsync(statement, map)
-			.thenCompose(cursor -> consumer.start(cursor))
-			.thenCompose(cursor -> cursor.forEachAsync(consumer::accept))
-			.thenAccept(summary -> consumer.finish())
+			.thenAccept(cursor -> consumer.start(cursor))
 			.exceptionally(t -> consumer.exception(t));
 	}
 
@@ -365,11 +448,16 @@ class SessionTransaction implements org.structr.api.Transaction {
 
 		try {
 
+			flush();
 			logQuery(statement, map);
+
+			final long startNanos        = System.nanoTime();
 			final StatementResult result = tx.run(statement, map);
 			final Record record          = result.next();
 			final Value value            = record.get(0);
 
+			record(statement, map, startNanos, 1);
+
 			return new IteratorWrapper<>(value.asList(Values.ofString()).iterator());
 
 		} catch (TransientException tex) {
@@ -390,8 +478,12 @@ class SessionTransaction implements org.structr.api.Transaction {
 
 		try {
 
+			flush();
 			logQuery(statement, map);
-			return Iterables.map(new RecordMapMapper(db), new IteratorWrapper<>(tx.run(statement, map)));
+
+			final long startNanos = System.nanoTime();
+
+			return Iterables.map(new RecordMapMapper(db), new IteratorWrapper<>(db.getQueryStatistics().track(statement, map, startNanos, tx.run(statement, map))));
 
 		} catch (TransientException tex) {
 			closed = true;
@@ -409,11 +501,41 @@ class SessionTransaction implements org.structr.api.Transaction {
 
 	public void set(final String statement, final Map<String, Object> map) {
 
+		flush();
+		execute(statement, map);
+	}
+
+	/**
+	 * Returns the buffer for property and label updates of this
+	 * transaction, or null if write batching is disabled.
+	 */
+	public WriteBuffer getWriteBuffer() {
+		return writeBuffer;
+	}
+
+	/**
+	 * Sends the buffered updates of this transaction to the database,
+	 * must be called before every statement that could observe them.
+	 */
+	public void flush() {
+
+		if (writeBuffer != null) {
+			writeBuffer.flush(this);
+		}
+	}
+
+	void execute(final String statement, final Map<String, Object> map) {
+
 		try {
 
 			logQuery(statement, map);
+
+			final long startNanos = System.nanoTime();
+
 			tx.run(statement, map).consume();
 
+			record(statement, map, startNanos, 0);
+
 		} catch (TransientException tex) {
 			closed = true;
 			throw new RetryException(tex);
@@ -459,7 +581,19 @@ class SessionTransaction implements org.structr.api.Transaction {
 	}
 
 	public void deleted(final RelationshipWrapper wrapper) {
-		deletedRels.add(wrapper.getDatabaseId());
+		deletedRels.put(wrapper.getDatabaseId(), wrapper);
+	}
+
+	public void created(final RelationshipWrapper wrapper) {
+		createdRels.put(wrapper.getDatabaseId(), wrapper);
+	}
+
+	/**
+	 * Indicates that this transaction modified relationships in a way that
+	 * can not be tracked, so the caches must be cleared after it is closed.
+	 */
+	public void unknownChanges() {
+		this.unknownChanges = true;
 	}
 
 	public boolean isDeleted(final EntityWrapper wrapper) {
@@ -469,7 +603,7 @@ class SessionTransaction implements org.structr.api.Transaction {
 		}
 
 		if (wrapper instanceof RelationshipWrapper) {
-			return deletedRels.contains(wrapper.getDatabaseId());
+			return deletedRels.containsKey(wrapper.getDatabaseId());
 		}
 
 		return false;
@@ -497,6 +631,40 @@ class SessionTransaction implements org.structr.api.Transaction {
 		return transactionKey;
 	}
 
+	// ----- private methods -----
+	private void record(final String statement, final Map<String, Object> map, final long startNanos, final long rows) {
+		db.getQueryStatistics().record(statement, map, startNanos, rows);
+	}
+
+	private void updateRelationshipCaches() {
+
+		if (unknownChanges) {
+
+			db.clearCaches();
+
+		} else if (committed) {
+
+			for (final RelationshipWrapper rel : createdRels.values()) {
+				rel.committed(true);
+			}
+
+			for (final RelationshipWrapper rel : deletedRels.values()) {
+				rel.committed(false);
+			}
+
+		} else {
+
+			// fall back to invalidation
+			for (final RelationshipWrapper rel : createdRels.values()) {
+				rel.clearCaches();
+			}
+
+			for (final RelationshipWrapper rel : deletedRels.values()) {
+				rel.clearCaches();
+			}
+		}
+	}
+
 	// ----- public static methods -----
 	public static RuntimeException translateClientException(final ClientException cex) {
 
@@ -0,0 +1,187 @@
+/*
+ * Copyright (C) 2010-2020 Structr GmbH
+ *
+ * This file is part of Structr <http://structr.org>.
+ *
+ * Structr is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * Structr is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Structr.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.structr.bolt;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Collects the property and label updates of a transaction per entity so
+ * that they can be sent to the database in a few batched statements
+ * instead of one round trip per update. The buffer must be flushed before
+ * every statement that could observe the updates.
+ */
+class WriteBuffer {
+
+	private static final int BATCH_SIZE = 1000;
+
+	private final Map<EntityWrapper, PendingUpdate> updates = new LinkedHashMap<>();
+
+	public boolean isEmpty() {
+		return updates.isEmpty();
+	}
+
+	public void clear() {
+		updates.clear();
+	}
+
+	public void setProperty(final EntityWrapper entity, final String key, final Object value) {
+		getUpdate(entity).properties.put(key, value);
+	}
+
+	public void setProperties(final EntityWrapper entity, final Map<String, Object> values) {
+		getUpdate(entity).properties.putAll(values);
+	}
+
+	public void addLabel(final NodeWrapper node, final String label) {
+
+		final PendingUpdate update = getUpdate(node);
+
+		update.removedLabels.remove(label);
+		update.addedLabels.add(label);
+	}
+
+	public void removeLabel(final NodeWrapper node, final String label) {
+
+		final PendingUpdate update = getUpdate(node);
+
+		update.addedLabels.remove(label);
+		update.removedLabels.add(label);
+	}
+
+	/**
+	 * Sends the buffered updates to the database. Property updates are
+	 * grouped by query prefix, label updates by the set of labels, since
+	 * labels cannot be parameterized.
+	 */
+	public void flush(final SessionTransaction tx) {
+
+		if (updates.isEmpty()) {
+			return;
+		}
+
+		final Map<String, List<Map<String, Object>>> propertyBatches = new LinkedHashMap<>();
+		final Map<String, List<Long>> labelBatches                   = new LinkedHashMap<>();
+
+		for (final Entry<EntityWrapper, PendingUpdate> entry : updates.entrySet()) {
+
+			final EntityWrapper entity = entry.getKey();
+			final PendingUpdate update = entry.getValue();
+			final Long id              = entity.getDatabaseId();
+
+			if (!update.properties.isEmpty()) {
+
+				final Map<String, Object> row = new HashMap<>();
+
+				row.put("id",    id);
+				row.put("props", update.properties);
+
+				propertyBatches.computeIfAbsent(entity.getQueryPrefix(), k -> new ArrayList<>()).add(row);
+			}
+
+			if (!update.addedLabels.isEmpty() || !update.removedLabels.isEmpty()) {
+
+				final StringBuilder buf = new StringBuilder(entity.getQueryPrefix());
+
+				buf.append(" WHERE ID(n) = id");
+
+				if (!update.addedLabels.isEmpty()) {
+
+					buf.append(" SET n");
+
+					for (final String label : update.addedLabels) {
+						buf.append(":").append(label);
+					}
+				}
+
+				if (!update.removedLabels.isEmpty()) {
+
+					buf.append(" REMOVE n");
+
+					for (final String label : update.removedLabels) {
+						buf.append(":").append(label);
+					}
+				}
+
+				labelBatches.computeIfAbsent(buf.toString(), k -> new ArrayList<>()).add(id);
+			}
+		}
+
+		// clear buffer before running the statements
+		updates.clear();
+
+		for (final Entry<String, List<Map<String, Object>>> batch : propertyBatches.entrySet()) {
+
+			final String statement = "UNWIND $batch AS row " + batch.getKey() + " WHERE ID(n) = row.id SET n += row.props";
+
+			for (final List<Map<String, Object>> chunk : partition(batch.getValue())) {
+
+				final Map<String, Object> map = new HashMap<>();
+
+				map.put("batch", chunk);
+
+				tx.execute(statement, map);
+			}
+		}
+
+		for (final Entry<String, List<Long>> batch : labelBatches.entrySet()) {
+
+			final String statement = "UNWIND $ids AS id " + batch.getKey();
+
+			for (final List<Long> chunk : partition(batch.getValue())) {
+
+				final Map<String, Object> map = new HashMap<>();
+
+				map.put("ids", chunk);
+
+				tx.execute(statement, map);
+			}
+		}
+	}
+
+	// ----- private methods -----
+	private PendingUpdate getUpdate(final EntityWrapper entity) {
+		return updates.computeIfAbsent(entity, k -> new PendingUpdate());
+	}
+
+	private <T> List<List<T>> partition(final List<T> list) {
+
+		final List<List<T>> result = new ArrayList<>();
+
+		for (int i=0; i<list.size(); i+=BATCH_SIZE) {
+			result.add(list.subList(i, Math.min(list.size(), i + BATCH_SIZE)));
+		}
+
+		return result;
+	}
+
+	// ----- nested classes -----
+	private static class PendingUpdate {
+
+		private final Map<String, Object> properties = new LinkedHashMap<>();
+		private final Set<String> addedLabels        = new TreeSet<>();
+		private final Set<String> removedLabels      = new TreeSet<>();
+	}
+}
@@ -0,0 +1,200 @@
+/*
+ * Copyright (C) 2010-2020 Structr GmbH
+ *
+ * This file is part of Structr <http://structr.org>.
+ *
+ * Structr is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * Structr is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Structr.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.structr.bolt;
+
+import java.util.List;
+import org.structr.api.search.QueryContext;
+import org.structr.api.search.SortOrder;
+import org.structr.api.search.SortSpec;
+import org.structr.api.search.SortType;
+import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.assertFalse;
+import static org.testng.AssertJUnit.assertNull;
+import static org.testng.AssertJUnit.assertTrue;
+import org.testng.annotations.Test;
+
+/**
+ * Tests the paging clauses of the generated Cypher statements.
+ */
+public class AdvancedCypherQueryTest {
+
+	@Test
+	public void testUnsortedQueryUsesSkip() throws Exception {
+
+		final AdvancedCypherQuery query = createQuery(null);
+
+		assertFalse(query.supportsKeysetPaging());
+		assertEquals("MATCH (n:Test) RETURN DISTINCT n SKIP 0 LIMIT 10", query.getStatement(true));
+
+		query.nextPage(TestDriver.record("n", TestDriver.node(5L, "Test")));
+
+		assertEquals("MATCH (n:Test) RETURN DISTINCT n SKIP 10 LIMIT 10", query.getStatement(true));
+	}
+
+	@Test
+	public void testMultipleSortKeysUseSkip() throws Exception {
+
+		final AdvancedCypherQuery query = createQuery(new TestSortOrder(new TestSortSpec("name", false), new TestSortSpec("age", true)));
+
+		assertFalse(query.supportsKeysetPaging());
+
+		query.nextPage(TestDriver.record("n", TestDriver.node(5L, "Test"), "sortKey0", "b", "sortKey1", 3L));
+
+		final String statement = query.getStatement(true);
+
+		assertFalse("Statement must not contain a keyset condition", statement.contains("WHERE"));
+		assertFalse("Statement must not contain the tie-breaker", statement.contains("ID(n)"));
+		assertTrue(statement.endsWith("sortKey1 DESC SKIP 10 LIMIT 10"));
+	}
+
+	@Test
+	public void testAscendingKeysetCondition() throws Exception {
+
+		final AdvancedCypherQuery query = createQuery(new TestSortOrder(new TestSortSpec("name", false)));
+
+		assertTrue(query.supportsKeysetPaging());
+		assertEquals("MATCH (n:Test) RETURN DISTINCT n, n.`name` AS sortKey0 ORDER BY sortKey0, ID(n) SKIP 0 LIMIT 10", query.getStatement(true));
+		assertEquals("Unpaged statement must not contain the tie-breaker", "MATCH (n:Test) RETURN DISTINCT n, n.`name` AS sortKey0 ORDER BY sortKey0", query.getStatement(false));
+
+		query.nextPage(TestDriver.record("n", TestDriver.node(5L, "Test"), "sortKey0", "b"));
+
+		assertEquals("MATCH (n:Test) WHERE (n.`name` > $keysetValue OR (n.`name` = $keysetValue AND ID(n) > $keysetId) OR n.`name` IS NULL) RETURN DISTINCT n, n.`name` AS sortKey0 ORDER BY sortKey0, ID(n) LIMIT 10", query.getStatement(true));
+		assertEquals(5L,  query.getParameters().get("keysetId"));
+		assertEquals("b", query.getParameters().get("keysetValue"));
+
+		// nulls are sorted last in ascending order
+		query.nextPage(TestDriver.record("n", TestDriver.node(7L, "Test"), "sortKey0", null));
+
+		assertEquals("MATCH (n:Test) WHERE (n.`name` IS NULL AND ID(n) > $keysetId) RETURN DISTINCT n, n.`name` AS sortKey0 ORDER BY sortKey0, ID(n) LIMIT 10", query.getStatement(true));
+		assertEquals(7L,  query.getParameters().get("keysetId"));
+	}
+
+	@Test
+	public void testDescendingKeysetCondition() throws Exception {
+
+		final AdvancedCypherQuery query = createQuery(new TestSortOrder(new TestSortSpec("name", true)));
+
+		assertTrue(query.supportsKeysetPaging());
+
+		// nulls are sorted first in descending order
+		query.nextPage(TestDriver.record("n", TestDriver.node(5L, "Test"), "sortKey0", null));
+
+		assertEquals("MATCH (n:Test) WHERE (n.`name` IS NOT NULL OR ID(n) > $keysetId) RETURN DISTINCT n, n.`name` AS sortKey0 ORDER BY sortKey0 DESC, ID(n) LIMIT 10", query.getStatement(true));
+
+		query.nextPage(TestDriver.record("n", TestDriver.node(9L, "Test"), "sortKey0", "b"));
+
+		assertEquals("MATCH (n:Test) WHERE (n.`name` < $keysetValue OR (n.`name` = $keysetValue AND ID(n) > $keysetId)) RETURN DISTINCT n, n.`name` AS sortKey0 ORDER BY sortKey0 DESC, ID(n) LIMIT 10", query.getStatement(true));
+		assertEquals(9L,  query.getParameters().get("keysetId"));
+		assertEquals("b", query.getParameters().get("keysetValue"));
+	}
+
+	@Test
+	public void testKeysetConditionWithPredicates() throws Exception {
+
+		final AdvancedCypherQuery query = createQuery(new TestSortOrder(new TestSortSpec("name", false)));
+
+		query.addSimpleParameter("age", "=", 3L);
+		query.nextPage(TestDriver.record("n", TestDriver.node(5L, "Test"), "sortKey0", "b"));
+
+		assertEquals("MATCH (n:NodeInterface:Test) WHERE (n.`age` = $param0) AND (n.`name` > $keysetValue OR (n.`name` = $keysetValue AND ID(n) > $keysetId) OR n.`name` IS NULL) RETURN DISTINCT n, n.`name` AS sortKey0 ORDER BY sortKey0, ID(n) LIMIT 10", query.getStatement(true));
+	}
+
+	@Test
+	public void testFirstPageWithoutRecord() throws Exception {
+
+		final AdvancedCypherQuery query = createQuery(new TestSortOrder(new TestSortSpec("name", false)));
+
+		// no position available
+		query.nextPage(null);
+
+		assertEquals("MATCH (n:Test) RETURN DISTINCT n, n.`name` AS sortKey0 ORDER BY sortKey0, ID(n) SKIP 10 LIMIT 10", query.getStatement(true));
+		assertNull(query.getParameters().get("keysetId"));
+	}
+
+	// ----- private methods -----
+	private AdvancedCypherQuery createQuery(final SortOrder sortOrder) throws Exception {
+
+		final BoltDatabaseService db    = new TestDriver().createDatabaseService();
+		final QueryContext queryContext = new QueryContext();
+
+		queryContext.overrideFetchSize(10);
+
+		final AdvancedCypherQuery query = new AdvancedCypherQuery(queryContext, new CypherNodeIndex(db), Integer.MAX_VALUE, 1);
+
+		query.typeLabel("Test");
+
+		if (sortOrder != null) {
+			query.sort(sortOrder);
+		}
+
+		return query;
+	}
+
+	// ----- nested classes -----
+	private static class TestSortOrder implements SortOrder {
+
+		private final List<SortSpec> specs;
+
+		public TestSortOrder(final SortSpec... specs) {
+			this.specs = List.of(specs);
+		}
+
+		@Override
+		public List<SortSpec> getSortElements() {
+			return specs;
+		}
+
+		@Override
+		public boolean isEmpty() {
+			return specs.isEmpty();
+		}
+
+		@Override
+		public int compare(final Object o1, final Object o2) {
+			throw new UnsupportedOperationException();
+		}
+	}
+
+	private static class TestSortSpec implements SortSpec {
+
+		private final boolean descending;
+		private final String key;
+
+		public TestSortSpec(final String key, final boolean descending) {
+
+			this.key        = key;
+			this.descending = descending;
+		}
+
+		@Override
+		public SortType getSortType() {
+			return SortType.Default;
+		}
+
+		@Override
+		public String getSortKey() {
+			return key;
+		}
+
+		@Override
+		public boolean sortDescending() {
+			return descending;
+		}
+	}
+}
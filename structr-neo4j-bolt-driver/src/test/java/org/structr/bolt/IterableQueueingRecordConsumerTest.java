@@ -0,0 +1,168 @@
+/*
+ * Copyright (C) 2010-2020 Structr GmbH
+ *
+ * This file is part of Structr <http://structr.org>.
+ *
+ * Structr is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * Structr is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Structr.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.structr.bolt;
+
+import java.util.ArrayList;
+import java.util.List;
+import org.neo4j.driver.v1.Record;
+import org.structr.api.Transaction;
+import org.structr.api.search.QueryContext;
+import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.assertFalse;
+import static org.testng.AssertJUnit.fail;
+import org.testng.annotations.Test;
+
+/**
+ * Tests the backpressure and error handling of the streaming record consumer.
+ */
+public class IterableQueueingRecordConsumerTest {
+
+	@Test
+	public void testBackpressure() throws Exception {
+
+		final TestDriver driver      = new TestDriver();
+		final BoltDatabaseService db = driver.createDatabaseService();
+		final List<Record> records   = createRecords(30_000);
+
+		driver.setResponder((statement, parameters) -> records);
+
+		try (final Transaction tx = db.beginTx()) {
+
+			final IterableQueueingRecordConsumer consumer = createConsumer(db);
+
+			consumer.start();
+
+			assertEquals("Pulling must stop at the queue capacity", 10_000, driver.getPulledRecords());
+
+			for (int i=0; i<7_499; i++) {
+				consumer.next();
+			}
+
+			assertEquals("Pulling must not resume above the low-water mark", 10_000, driver.getPulledRecords());
+
+			consumer.next();
+
+			assertEquals("Pulling must resume at the low-water mark", 17_500, driver.getPulledRecords());
+
+			int count = 7_500;
+
+			while (consumer.hasNext()) {
+
+				assertEquals(count, consumer.next().get("n").asNode().id());
+				count++;
+			}
+
+			assertEquals("All records must be delivered", 30_000, count);
+
+			tx.success();
+		}
+	}
+
+	@Test
+	public void testRunFailure() throws Exception {
+
+		final TestDriver driver      = new TestDriver();
+		final BoltDatabaseService db = driver.createDatabaseService();
+
+		driver.failAsyncRun(new IllegalStateException("Run failed"));
+
+		try (final Transaction tx = db.beginTx()) {
+
+			final IterableQueueingRecordConsumer consumer = createConsumer(db);
+
+			consumer.start();
+
+			try {
+
+				consumer.hasNext();
+				fail("A failed query must throw an exception in the consuming thread.");
+
+			} catch (IllegalStateException ex) {
+
+				assertEquals("Run failed", ex.getMessage());
+			}
+
+			assertFalse("A failed query must not return records", consumer.hasNext());
+		}
+	}
+
+	@Test
+	public void testPullFailure() throws Exception {
+
+		final TestDriver driver      = new TestDriver();
+		final BoltDatabaseService db = driver.createDatabaseService();
+		final List<Record> records   = createRecords(100);
+
+		driver.setResponder((statement, parameters) -> records);
+		driver.failPull(50, new IllegalStateException("Pull failed"));
+
+		try (final Transaction tx = db.beginTx()) {
+
+			final IterableQueueingRecordConsumer consumer = createConsumer(db);
+			int count                                     = 0;
+
+			consumer.start();
+
+			try {
+
+				while (consumer.hasNext()) {
+
+					consumer.next();
+					count++;
+				}
+
+				fail("A failure while streaming must throw an exception in the consuming thread.");
+
+			} catch (IllegalStateException ex) {
+
+				assertEquals("Pull failed", ex.getMessage());
+			}
+
+			assertEquals("No records must be pulled after the failure", 50, driver.getPulledRecords());
+			assertFalse("Records after the failure must not be returned", count > 50);
+			assertFalse("A failed query must not return records", consumer.hasNext());
+		}
+	}
+
+	// ----- private methods -----
+	private IterableQueueingRecordConsumer createConsumer(final BoltDatabaseService db) {
+
+		final QueryContext queryContext = new QueryContext();
+
+		// all records in a single page
+		queryContext.overrideFetchSize(100_000);
+
+		final AdvancedCypherQuery query = new AdvancedCypherQuery(queryContext, new CypherNodeIndex(db), Integer.MAX_VALUE, 1);
+
+		query.typeLabel("Test");
+
+		return new IterableQueueingRecordConsumer(db, query);
+	}
+
+	private List<Record> createRecords(final int count) {
+
+		final List<Record> records = new ArrayList<>();
+
+		for (int i=0; i<count; i++) {
+			records.add(TestDriver.record("n", TestDriver.node(i, "Test")));
+		}
+
+		return records;
+	}
+}
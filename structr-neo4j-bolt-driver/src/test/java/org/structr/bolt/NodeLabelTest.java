@@ -0,0 +1,143 @@
+/*
+ * Copyright (C) 2010-2020 Structr GmbH
+ *
+ * This file is part of Structr <http://structr.org>.
+ *
+ * Structr is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * Structr is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Structr.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.structr.bolt;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import org.structr.api.Transaction;
+import org.structr.api.util.Iterables;
+import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.assertFalse;
+import org.testng.annotations.Test;
+
+/**
+ * Tests the transaction-local label sets of nodes.
+ */
+public class NodeLabelTest {
+
+	private static final String RELOAD_STATEMENT = "MATCH (n) WHERE ID(n) = $id RETURN n";
+
+	@Test
+	public void testLabelsAfterCommit() throws Exception {
+
+		final TestDriver driver        = new TestDriver();
+		final BoltDatabaseService db   = driver.createDatabaseService();
+		final NodeWrapper node         = NodeWrapper.newInstance(db, TestDriver.node(1L, "Test"));
+		final ExecutorService executor  = Executors.newSingleThreadExecutor();
+
+		try (final Transaction tx = db.beginTx()) {
+
+			node.addLabel("Other");
+			node.removeLabel("Test");
+
+			assertEquals("Label changes must be visible in the transaction", Arrays.asList("Other"), Iterables.toList(node.getLabels()));
+
+			assertEquals("Label changes must not be visible in other transactions", Arrays.asList("Test"), executor.submit(() -> {
+
+				try (final Transaction other = db.beginTx()) {
+
+					final List<String> labels = Iterables.toList(node.getLabels());
+
+					other.success();
+
+					return labels;
+				}
+
+			}).get());
+
+			tx.success();
+
+		} finally {
+
+			executor.shutdownNow();
+		}
+
+		try (final Transaction tx = db.beginTx()) {
+
+			assertEquals("Committed label changes must be visible", Arrays.asList("Other"), Iterables.toList(node.getLabels()));
+			tx.success();
+		}
+
+		assertFalse("Committed labels must not be reloaded", driver.getStatements().contains(RELOAD_STATEMENT));
+	}
+
+	@Test
+	public void testLabelsAfterRollback() throws Exception {
+
+		final TestDriver driver      = new TestDriver();
+		final BoltDatabaseService db = driver.createDatabaseService();
+		final NodeWrapper node       = NodeWrapper.newInstance(db, TestDriver.node(2L, "Test"));
+
+		driver.setResponder((statement, parameters) -> {
+
+			if (RELOAD_STATEMENT.equals(statement)) {
+
+				return Arrays.asList(TestDriver.record("n", TestDriver.node(2L, "Test")));
+			}
+
+			return Collections.emptyList();
+		});
+
+		try (final Transaction tx = db.beginTx()) {
+
+			// no success() => rollback
+			node.addLabel("Other");
+			node.removeLabel("Test");
+		}
+
+		try (final Transaction tx = db.beginTx()) {
+
+			assertEquals("Rolled back label changes must be discarded", Arrays.asList("Test"), Iterables.toList(node.getLabels()));
+			tx.success();
+		}
+	}
+
+	@Test
+	public void testLabelsAfterRefresh() throws Exception {
+
+		final TestDriver driver      = new TestDriver();
+		final BoltDatabaseService db = driver.createDatabaseService();
+		final NodeWrapper node       = NodeWrapper.newInstance(db, TestDriver.node(3L, "Test"));
+
+		driver.setResponder((statement, parameters) -> {
+
+			if (RELOAD_STATEMENT.equals(statement)) {
+
+				// labels were modified by a different instance
+				return Arrays.asList(TestDriver.record("n", TestDriver.node(3L, "Test", "Refreshed")));
+			}
+
+			return Collections.emptyList();
+		});
+
+		// mark node as stale
+		node.onRemoveFromCache();
+
+		try (final Transaction tx = db.beginTx()) {
+
+			assertEquals("Stale nodes must refresh their labels", Arrays.asList("Test", "Refreshed"), Iterables.toList(node.getLabels()));
+			tx.success();
+		}
+
+		assertEquals(Arrays.asList(RELOAD_STATEMENT, TestDriver.COMMIT), driver.getStatements());
+	}
+}
@@ -0,0 +1,289 @@
+/*
+ * Copyright (C) 2010-2020 Structr GmbH
+ *
+ * This file is part of Structr <http://structr.org>.
+ *
+ * Structr is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * Structr is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Structr.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.structr.bolt;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.structr.api.Transaction;
+import org.structr.api.graph.Direction;
+import org.structr.api.graph.Relationship;
+import org.structr.api.graph.RelationshipType;
+import org.structr.api.util.Iterables;
+import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.assertFalse;
+import static org.testng.AssertJUnit.assertNotNull;
+import static org.testng.AssertJUnit.assertNull;
+import static org.testng.AssertJUnit.assertTrue;
+import org.testng.annotations.Test;
+
+/**
+ * Tests the maintenance of the shared relationship caches of nodes.
+ */
+public class RelationshipCacheTest {
+
+	private static final String LOAD_STATEMENT = "MATCH (n)-[r:KNOWS]->(o) WHERE ID(n) = $id";
+
+	@Test
+	public void testIncrementalAdd() throws Exception {
+
+		final TestDriver driver      = new TestDriver();
+		final BoltDatabaseService db = driver.createDatabaseService();
+		final AtomicInteger loads    = new AtomicInteger();
+		final RelationshipType knows = db.forName(RelationshipType.class, "KNOWS");
+		final NodeWrapper start      = NodeWrapper.newInstance(db, TestDriver.node(1L, "Test"));
+		final NodeWrapper end        = NodeWrapper.newInstance(db, TestDriver.node(3L, "Test"));
+
+		driver.setResponder((statement, parameters) -> {
+
+			if (statement.startsWith(LOAD_STATEMENT)) {
+
+				loads.incrementAndGet();
+
+				return Arrays.asList(TestDriver.record("r", TestDriver.relationship(10L, 1L, 2L, "KNOWS"), "o", TestDriver.node(2L, "Test")));
+			}
+
+			if (statement.contains("MERGE")) {
+
+				return Arrays.asList(TestDriver.record("r", TestDriver.relationship(11L, 1L, 3L, "KNOWS")));
+			}
+
+			return Collections.emptyList();
+		});
+
+		try (final Transaction tx = db.beginTx()) {
+
+			assertEquals(Arrays.asList(10L), getIds(db, start.getRelationships(Direction.OUTGOING, knows)));
+			tx.success();
+		}
+
+		try (final Transaction tx = db.beginTx()) {
+
+			start.createRelationshipTo(end, knows);
+			tx.success();
+		}
+
+		try (final Transaction tx = db.beginTx()) {
+
+			assertEquals("Committed relationships must be added to the cache", Arrays.asList(10L, 11L), getIds(db, start.getRelationships(Direction.OUTGOING, knows)));
+			tx.success();
+		}
+
+		assertEquals("Relationships must not be reloaded after a commit", 1, loads.get());
+	}
+
+	@Test
+	public void testIncrementalRemove() throws Exception {
+
+		final TestDriver driver      = new TestDriver();
+		final BoltDatabaseService db = driver.createDatabaseService();
+		final AtomicInteger loads    = new AtomicInteger();
+		final RelationshipType knows = db.forName(RelationshipType.class, "KNOWS");
+		final NodeWrapper start      = NodeWrapper.newInstance(db, TestDriver.node(1L, "Test"));
+
+		driver.setResponder((statement, parameters) -> {
+
+			if (statement.startsWith(LOAD_STATEMENT)) {
+
+				loads.incrementAndGet();
+
+				return Arrays.asList(
+					TestDriver.record("r", TestDriver.relationship(10L, 1L, 2L, "KNOWS"), "o", TestDriver.node(2L, "Test")),
+					TestDriver.record("r", TestDriver.relationship(11L, 1L, 3L, "KNOWS"), "o", TestDriver.node(3L, "Test"))
+				);
+			}
+
+			return Collections.emptyList();
+		});
+
+		try (final Transaction tx = db.beginTx()) {
+
+			final List<Relationship> rels = Iterables.toList(start.getRelationships(Direction.OUTGOING, knows));
+
+			assertEquals(2, rels.size());
+
+			rels.get(0).delete(true);
+
+			tx.success();
+		}
+
+		try (final Transaction tx = db.beginTx()) {
+
+			assertEquals("Committed deletions must be removed from the cache", Arrays.asList(11L), getIds(db, start.getRelationships(Direction.OUTGOING, knows)));
+			tx.success();
+		}
+
+		assertEquals("Relationships must not be reloaded after a commit", 1, loads.get());
+	}
+
+	@Test
+	public void testRollbackFallback() throws Exception {
+
+		final TestDriver driver      = new TestDriver();
+		final BoltDatabaseService db = driver.createDatabaseService();
+		final AtomicInteger loads    = new AtomicInteger();
+		final RelationshipType knows = db.forName(RelationshipType.class, "KNOWS");
+		final NodeWrapper start      = NodeWrapper.newInstance(db, TestDriver.node(1L, "Test"));
+		final NodeWrapper end        = NodeWrapper.newInstance(db, TestDriver.node(3L, "Test"));
+
+		driver.setResponder((statement, parameters) -> {
+
+			if (statement.startsWith(LOAD_STATEMENT)) {
+
+				loads.incrementAndGet();
+
+				return Arrays.asList(TestDriver.record("r", TestDriver.relationship(10L, 1L, 2L, "KNOWS"), "o", TestDriver.node(2L, "Test")));
+			}
+
+			if (statement.contains("MERGE")) {
+
+				return Arrays.asList(TestDriver.record("r", TestDriver.relationship(11L, 1L, 3L, "KNOWS")));
+			}
+
+			if (statement.endsWith("WHERE ID(n) = $id RETURN n")) {
+
+				// stale nodes are reloaded after a rollback
+				return Arrays.asList(TestDriver.record("n", TestDriver.node((Long)parameters.get("id"), "Test")));
+			}
+
+			return Collections.emptyList();
+		});
+
+		try (final Transaction tx = db.beginTx()) {
+
+			assertEquals(Arrays.asList(10L), getIds(db, start.getRelationships(Direction.OUTGOING, knows)));
+			tx.success();
+		}
+
+		try (final Transaction tx = db.beginTx()) {
+
+			// no success() => rollback
+			start.createRelationshipTo(end, knows);
+		}
+
+		try (final Transaction tx = db.beginTx()) {
+
+			assertEquals("Rolled back relationships must not be visible", Arrays.asList(10L), getIds(db, start.getRelationships(Direction.OUTGOING, knows)));
+			tx.success();
+		}
+
+		assertEquals("Relationship caches must be invalidated after a rollback", 2, loads.get());
+	}
+
+	@Test
+	public void testVersionGuard() throws Exception {
+
+		final TestDriver driver      = new TestDriver();
+		final BoltDatabaseService db = driver.createDatabaseService();
+		final AtomicInteger loads    = new AtomicInteger();
+		final RelationshipType knows = db.forName(RelationshipType.class, "KNOWS");
+		final NodeWrapper start      = NodeWrapper.newInstance(db, TestDriver.node(1L, "Test"));
+
+		driver.setResponder((statement, parameters) -> {
+
+			if (statement.startsWith(LOAD_STATEMENT)) {
+
+				if (loads.incrementAndGet() == 1) {
+
+					// simulate a concurrent commit while the result is being loaded
+					RelationshipWrapper.newInstance(db, TestDriver.relationship(12L, 1L, 4L, "KNOWS")).committed(true);
+				}
+
+				return Arrays.asList(TestDriver.record("r", TestDriver.relationship(10L, 1L, 2L, "KNOWS"), "o", TestDriver.node(2L, "Test")));
+			}
+
+			return Collections.emptyList();
+		});
+
+		try (final Transaction tx = db.beginTx()) {
+
+			assertEquals(Arrays.asList(10L), getIds(db, start.getRelationships(Direction.OUTGOING, knows)));
+			assertEquals(Arrays.asList(10L), getIds(db, start.getRelationships(Direction.OUTGOING, knows)));
+			assertEquals(Arrays.asList(10L), getIds(db, start.getRelationships(Direction.OUTGOING, knows)));
+			tx.success();
+		}
+
+		assertEquals("Results loaded during a concurrent commit must not be cached", 2, loads.get());
+	}
+
+	@Test
+	public void testWritingNativeQueryClearsCaches() throws Exception {
+
+		final TestDriver driver      = new TestDriver();
+		final BoltDatabaseService db = driver.createDatabaseService();
+		final RelationshipType knows = db.forName(RelationshipType.class, "KNOWS");
+		final NodeWrapper start      = NodeWrapper.newInstance(db, TestDriver.node(1L, "Test"));
+
+		driver.setResponder((statement, parameters) -> {
+
+			if (statement.startsWith(LOAD_STATEMENT)) {
+
+				return Arrays.asList(TestDriver.record("r", TestDriver.relationship(10L, 1L, 2L, "KNOWS"), "o", TestDriver.node(2L, "Test")));
+			}
+
+			return Collections.emptyList();
+		});
+
+		try (final Transaction tx = db.beginTx()) {
+
+			start.getRelationships(Direction.OUTGOING, knows);
+
+			Iterables.toList(db.execute(db.query("MATCH (n) RETURN n", Iterable.class)));
+
+			tx.success();
+		}
+
+		assertNotNull("Read-only native queries must not clear the caches", NodeWrapper.getCache().get(1L));
+
+		try (final Transaction tx = db.beginTx()) {
+
+			Iterables.toList(db.execute(db.query("MATCH (n), (m) WHERE ID(n) = 1 AND ID(m) = 2 CREATE (n)-[:KNOWS]->(m)", Iterable.class)));
+
+			tx.success();
+		}
+
+		assertNull("Native queries that modify the database must clear the caches", NodeWrapper.getCache().get(1L));
+	}
+
+	@Test
+	public void testReadOnlyDetection() {
+
+		assertTrue(new IterableQuery("MATCH (n) RETURN n").isReadOnly());
+		assertTrue(new IterableQuery("MATCH (n) WHERE n.settings = $value RETURN n.created").isReadOnly());
+
+		assertFalse(new IterableQuery("MATCH (n) SET n.name = 'test'").isReadOnly());
+		assertFalse(new IterableQuery("match (n) detach delete n").isReadOnly());
+		assertFalse(new IterableQuery("MERGE (n:Test) RETURN n").isReadOnly());
+		assertFalse(new IterableQuery("CALL db.labels()").isReadOnly());
+	}
+
+	// ----- private methods -----
+	private List<Long> getIds(final BoltDatabaseService db, final Iterable<Relationship> rels) {
+
+		final List<Long> ids = new ArrayList<>();
+
+		for (final Relationship rel : rels) {
+			ids.add(db.unwrap(rel.getId()));
+		}
+
+		return ids;
+	}
+}
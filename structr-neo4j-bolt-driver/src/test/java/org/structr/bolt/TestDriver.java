@@ -0,0 +1,364 @@
+/*
+ * Copyright (C) 2010-2020 Structr GmbH
+ *
+ * This file is part of Structr <http://structr.org>.
+ *
+ * Structr is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * Structr is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Structr.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.structr.bolt;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiFunction;
+import org.neo4j.driver.internal.InternalNode;
+import org.neo4j.driver.internal.InternalRecord;
+import org.neo4j.driver.internal.InternalRelationship;
+import org.neo4j.driver.v1.Driver;
+import org.neo4j.driver.v1.Record;
+import org.neo4j.driver.v1.Session;
+import org.neo4j.driver.v1.StatementResult;
+import org.neo4j.driver.v1.StatementResultCursor;
+import org.neo4j.driver.v1.Transaction;
+import org.neo4j.driver.v1.Value;
+import org.neo4j.driver.v1.Values;
+import org.neo4j.driver.v1.exceptions.NoSuchRecordException;
+import org.neo4j.driver.v1.types.Node;
+import org.neo4j.driver.v1.types.Relationship;
+
+/**
+ * In-memory stand-in for the Neo4j driver. All statements are logged, and
+ * the records of each statement are provided by a responder function. The
+ * end of a transaction is logged as COMMIT or ROLLBACK.
+ */
+class TestDriver {
+
+	public static final String COMMIT   = "COMMIT";
+	public static final String ROLLBACK = "ROLLBACK";
+
+	private final List<String> statements                                   = Collections.synchronizedList(new ArrayList<>());
+	private final AtomicInteger pulledRecords                               = new AtomicInteger(0);
+	private BiFunction<String, Map<String, Object>, List<Record>> responder = (statement, parameters) -> Collections.emptyList();
+	private RuntimeException commitFailure                                  = null;
+	private RuntimeException runFailure                                     = null;
+	private RuntimeException pullFailure                                    = null;
+	private int pullFailureIndex                                            = 0;
+
+	/**
+	 * Creates a database service that uses this driver, with fresh
+	 * node and relationship caches.
+	 */
+	public BoltDatabaseService createDatabaseService() throws ReflectiveOperationException {
+
+		final BoltDatabaseService db = new BoltDatabaseService();
+		final Field field            = BoltDatabaseService.class.getDeclaredField("driver");
+
+		field.setAccessible(true);
+		field.set(db, proxy(Driver.class, (name, args) -> {
+
+			switch (name) {
+
+				case "session":
+					return createSession();
+
+				case "close":
+					return null;
+			}
+
+			throw new UnsupportedOperationException(name);
+		}));
+
+		NodeWrapper.initialize(1000);
+		RelationshipWrapper.initialize(1000);
+
+		return db;
+	}
+
+	public List<String> getStatements() {
+
+		synchronized (statements) {
+			return new ArrayList<>(statements);
+		}
+	}
+
+	public void clearStatements() {
+		statements.clear();
+	}
+
+	public int getPulledRecords() {
+		return pulledRecords.get();
+	}
+
+	public void setResponder(final BiFunction<String, Map<String, Object>, List<Record>> responder) {
+		this.responder = responder;
+	}
+
+	/**
+	 * Makes the next commit fail with the given exception.
+	 */
+	public void failNextCommit(final RuntimeException failure) {
+		this.commitFailure = failure;
+	}
+
+	/**
+	 * Makes all asynchronous statements fail with the given exception.
+	 */
+	public void failAsyncRun(final RuntimeException failure) {
+		this.runFailure = failure;
+	}
+
+	/**
+	 * Makes asynchronous cursors fail with the given exception after the
+	 * given number of records.
+	 */
+	public void failPull(final int index, final RuntimeException failure) {
+
+		this.pullFailureIndex = index;
+		this.pullFailure      = failure;
+	}
+
+	// ----- public static methods -----
+	/**
+	 * Creates a record from alternating keys and values.
+	 */
+	public static Record record(final Object... keysAndValues) {
+
+		final List<String> keys = new ArrayList<>();
+		final Value[] values    = new Value[keysAndValues.length / 2];
+
+		for (int i=0; i<values.length; i++) {
+
+			keys.add((String)keysAndValues[i * 2]);
+			values[i] = Values.value(keysAndValues[i * 2 + 1]);
+		}
+
+		return new InternalRecord(keys, values);
+	}
+
+	public static Node node(final long id, final String... labels) {
+		return new InternalNode(id, Arrays.asList(labels), Collections.emptyMap());
+	}
+
+	public static Relationship relationship(final long id, final long startId, final long endId, final String type) {
+		return new InternalRelationship(id, startId, endId, type, Collections.singletonMap("internalTimestamp", Values.value(String.format("%020d", id))));
+	}
+
+	// ----- private methods -----
+	private Session createSession() {
+
+		final boolean[] open = { true };
+
+		return proxy(Session.class, (name, args) -> {
+
+			switch (name) {
+
+				case "beginTransaction":
+					return createTransaction();
+
+				case "isOpen":
+					return open[0];
+
+				case "close":
+					open[0] = false;
+					return null;
+			}
+
+			throw new UnsupportedOperationException(name);
+		});
+	}
+
+	private Transaction createTransaction() {
+
+		final boolean[] state = { false, false };
+
+		return proxy(Transaction.class, (name, args) -> {
+
+			switch (name) {
+
+				case "success":
+					state[0] = true;
+					return null;
+
+				case "failure":
+					state[1] = true;
+					return null;
+
+				case "isOpen":
+					return true;
+
+				case "close":
+					return close(state[0] && !state[1]);
+
+				case "run":
+					return createResult(respond(args).iterator());
+
+				case "runAsync":
+
+					final List<Record> records = respond(args);
+
+					if (runFailure != null) {
+						return failed(runFailure);
+					}
+
+					return CompletableFuture.completedFuture(createCursor(records.iterator()));
+			}
+
+			throw new UnsupportedOperationException(name);
+		});
+	}
+
+	private Object close(final boolean success) {
+
+		final RuntimeException failure = commitFailure;
+
+		if (success && failure == null) {
+
+			statements.add(COMMIT);
+
+		} else {
+
+			statements.add(ROLLBACK);
+		}
+
+		if (success && failure != null) {
+
+			commitFailure = null;
+			throw failure;
+		}
+
+		return null;
+	}
+
+	private List<Record> respond(final Object[] args) {
+
+		final String statement               = (String)args[0];
+		final Map<String, Object> parameters = args.length > 1 && args[1] instanceof Map ? (Map<String, Object>)args[1] : Collections.emptyMap();
+
+		statements.add(statement);
+
+		return responder.apply(statement, parameters);
+	}
+
+	private StatementResult createResult(final Iterator<Record> records) {
+
+		return proxy(StatementResult.class, (name, args) -> {
+
+			switch (name) {
+
+				case "hasNext":
+					return records.hasNext();
+
+				case "next":
+					return records.next();
+
+				case "single":
+
+					if (!records.hasNext()) {
+						throw new NoSuchRecordException("No records");
+					}
+
+					return records.next();
+
+				case "consume":
+
+					while (records.hasNext()) {
+						records.next();
+					}
+
+					return null;
+			}
+
+			throw new UnsupportedOperationException(name);
+		});
+	}
+
+	private StatementResultCursor createCursor(final Iterator<Record> records) {
+
+		final AtomicInteger index = new AtomicInteger(0);
+
+		return proxy(StatementResultCursor.class, (name, args) -> {
+
+			switch (name) {
+
+				case "nextAsync":
+
+					if (pullFailure != null && index.getAndIncrement() == pullFailureIndex) {
+						return failed(pullFailure);
+					}
+
+					if (records.hasNext()) {
+
+						pulledRecords.incrementAndGet();
+
+						return CompletableFuture.completedFuture(records.next());
+					}
+
+					return CompletableFuture.completedFuture(null);
+
+				case "consumeAsync":
+
+					while (records.hasNext()) {
+						records.next();
+					}
+
+					return CompletableFuture.completedFuture(null);
+			}
+
+			throw new UnsupportedOperationException(name);
+		});
+	}
+
+	// ----- private static methods -----
+	private static CompletableFuture<Object> failed(final Throwable t) {
+
+		final CompletableFuture<Object> future = new CompletableFuture<>();
+
+		future.completeExceptionally(t);
+
+		return future;
+	}
+
+	private static <T> T proxy(final Class<T> type, final Handler handler) {
+
+		return type.cast(Proxy.newProxyInstance(type.getClassLoader(), new Class[] { type }, (proxy, method, args) -> {
+
+			switch (method.getName()) {
+
+				case "hashCode":
+					return System.identityHashCode(proxy);
+
+				case "equals":
+					return proxy == args[0];
+
+				case "toString":
+					return type.getSimpleName();
+			}
+
+			return handler.handle(method.getName(), args != null ? args : new Object[0]);
+		}));
+	}
+
+	// ----- nested classes -----
+	private interface Handler {
+
+		Object handle(final String name, final Object[] args);
+	}
+}
@@ -0,0 +1,120 @@
+/*
+ * Copyright (C) 2010-2020 Structr GmbH
+ *
+ * This file is part of Structr <http://structr.org>.
+ *
+ * Structr is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * Structr is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Structr.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.structr.bolt;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.structr.api.Transaction;
+import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.assertTrue;
+import org.testng.annotations.Test;
+
+/**
+ * Tests the order in which buffered updates are sent to the database.
+ */
+public class WriteBufferTest {
+
+	@Test
+	public void testFlushBeforeRead() throws Exception {
+
+		final TestDriver driver           = new TestDriver();
+		final BoltDatabaseService db           = driver.createDatabaseService();
+		final Map<String, Object> flushed      = new HashMap<>();
+
+		driver.setResponder((statement, parameters) -> {
+
+			if (statement.startsWith("UNWIND $batch")) {
+
+				final List<Map<String, Object>> batch = (List)parameters.get("batch");
+
+				flushed.putAll((Map)batch.get(0).get("props"));
+			}
+
+			return Collections.singletonList(TestDriver.record("count", 1L));
+		});
+
+		try (final Transaction tx = db.beginTx()) {
+
+			final NodeWrapper node = NodeWrapper.newInstance(db, TestDriver.node(1L, "Test"));
+
+			node.setProperty("name", "first");
+			node.setProperty("name", "second");
+			node.setProperty("count", 3L);
+
+			assertTrue("Updates must be buffered until the next read", driver.getStatements().isEmpty());
+
+			db.getCurrentTransaction().getLong("MATCH (n) RETURN count(n)", new HashMap<>());
+
+			tx.success();
+		}
+
+		assertEquals("Buffered updates must be sent before the read", Arrays.asList(
+			"UNWIND $batch AS row MATCH (n) WHERE ID(n) = row.id SET n += row.props",
+			"MATCH (n) RETURN count(n)",
+			TestDriver.COMMIT
+		), driver.getStatements());
+
+		assertEquals("Updates of the same property must be coalesced", "second", flushed.get("name"));
+		assertEquals(3L, flushed.get("count"));
+	}
+
+	@Test
+	public void testFlushOnClose() throws Exception {
+
+		final TestDriver driver      = new TestDriver();
+		final BoltDatabaseService db = driver.createDatabaseService();
+
+		try (final Transaction tx = db.beginTx()) {
+
+			final NodeWrapper node = NodeWrapper.newInstance(db, TestDriver.node(2L, "Test"));
+
+			tx.success();
+
+			// updates after success() must be sent when the transaction is closed
+			node.setProperty("name", "test");
+			node.addLabel("Other");
+		}
+
+		assertEquals("Buffered updates must be sent before the commit", Arrays.asList(
+			"UNWIND $batch AS row MATCH (n) WHERE ID(n) = row.id SET n += row.props",
+			"UNWIND $ids AS id MATCH (n) WHERE ID(n) = id SET n:Other",
+			TestDriver.COMMIT
+		), driver.getStatements());
+	}
+
+	@Test
+	public void testDiscardOnRollback() throws Exception {
+
+		final TestDriver driver      = new TestDriver();
+		final BoltDatabaseService db = driver.createDatabaseService();
+
+		try (final Transaction tx = db.beginTx()) {
+
+			final NodeWrapper node = NodeWrapper.newInstance(db, TestDriver.node(3L, "Test"));
+
+			node.setProperty("name", "test");
+			node.removeLabel("Test");
+		}
+
+		assertEquals("Buffered updates must be discarded on rollback", Arrays.asList(TestDriver.ROLLBACK), driver.getStatements());
+	}
+}
@@ -21,13 +21,17 @@ package org.structr.rest.auth;
 import java.security.GeneralSecurityException;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.atomic.LongAdder;
 import javax.servlet.http.HttpServletRequest;
+import org.apache.commons.lang3.ArrayUtils;
 import org.apache.commons.lang3.StringUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.structr.api.config.Settings;
+import org.structr.api.util.FixedSizeCache;
 import org.structr.common.error.FrameworkException;
 import org.structr.common.error.UnlicensedScriptException;
 import org.structr.common.event.RuntimeEventLog;
@@ -53,8 +57,10 @@ import org.structr.schema.action.Actions;
  */
 public class AuthHelper {
 
-	public static final String STANDARD_ERROR_MSG = "Wrong username or password, or user is blocked. Check caps lock. Note: Username is case sensitive!";
-	private static final Logger logger            = LoggerFactory.getLogger(AuthHelper.class.getName());
+	public static final String STANDARD_ERROR_MSG                    = "Wrong username or password, or user is blocked. Check caps lock. Note: Username is case sensitive!";
+	private static final Logger logger                               = LoggerFactory.getLogger(AuthHelper.class.getName());
+	private static final FixedSizeCache<String, String> sessionCache = new FixedSizeCache<>("Session cache", 100000);
+	private static final LongAdder staleSessionEntries               = new LongAdder();
 
 	/**
 	 * Find a {@link Principal} for the given credential
@@ -198,8 +204,68 @@ public class AuthHelper {
 
 	public static Principal getPrincipalForSessionId(final String sessionId, final boolean isPing) {
 
-		return getPrincipalForCredential(StructrApp.key(Principal.class, "sessionIds"), new String[]{ sessionId }, isPing);
+		if (sessionId != null) {
 
+			final String principalId = sessionCache.get(sessionId);
+			if (principalId != null) {
+
+				final Principal principal = getPrincipalForCachedSessionId(principalId, sessionId);
+				if (principal != null) {
+
+					return principal;
+				}
+
+				// principal was deleted or session id was removed from it
+				sessionCache.remove(sessionId);
+				staleSessionEntries.increment();
+			}
+		}
+
+		final Principal principal = getPrincipalForCredential(StructrApp.key(Principal.class, "sessionIds"), new String[]{ sessionId }, isPing);
+		if (principal != null && sessionId != null) {
+
+			sessionCache.put(sessionId, principal.getUuid());
+		}
+
+		return principal;
+	}
+
+	/**
+	 * Stores the association between the given session id and principal
+	 * in the session cache, so that subsequent requests with this session
+	 * id do not need to search for the principal.
+	 *
+	 * @param sessionId
+	 * @param principal
+	 */
+	public static void cacheSessionId(final String sessionId, final Principal principal) {
+
+		if (sessionId != null && principal != null) {
+
+			sessionCache.put(sessionId, principal.getUuid());
+		}
+	}
+
+	/**
+	 * Removes the given session id from the session cache.
+	 *
+	 * @param sessionId
+	 */
+	public static void uncacheSessionId(final String sessionId) {
+
+		if (sessionId != null) {
+
+			sessionCache.remove(sessionId);
+		}
+	}
+
+	public static Map<String, Integer> getSessionCacheInfo() {
+
+		final Map<String, Integer> info = new LinkedHashMap<>(sessionCache.getCacheInfo());
+
+		info.put("stale", (int)Math.min(Integer.MAX_VALUE, staleSessionEntries.sum()));
+
+		return info;
 	}
 
 	public static void doLogin(final HttpServletRequest request, final Principal user) throws FrameworkException {
@@ -219,6 +285,7 @@ public class AuthHelper {
 
 			if (user.addSessionId(sessionId)) {
 
+				AuthHelper.cacheSessionId(sessionId, user);
 				AuthHelper.sendLoginNotification(user);
 
 			} else {
@@ -514,4 +581,27 @@ public class AuthHelper {
 	private static String getCryptoAlgorithm() {
 		return "Hmac" + Settings.TwoFactorAlgorithm.getValue();
 	}
+
+	/**
+	 * Returns the principal with the given id if the given session id is
+	 * still registered for it, so that cache entries of deleted principals
+	 * or of sessions that were removed by other means are not used.
+	 */
+	private static Principal getPrincipalForCachedSessionId(final String principalId, final String sessionId) {
+
+		try {
+
+			final Principal principal = StructrApp.getInstance().get(Principal.class, principalId);
+			if (principal != null && ArrayUtils.contains(principal.getProperty(StructrApp.key(Principal.class, "sessionIds")), sessionId)) {
+
+				return principal;
+			}
+
+		} catch (FrameworkException fex) {
+
+			logger.warn("Error while fetching principal for session: {}", fex.getMessage());
+		}
+
+		return null;
+	}
 }
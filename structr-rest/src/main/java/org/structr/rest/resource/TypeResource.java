@@ -18,6 +18,8 @@
  */
 package org.structr.rest.resource;
 
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
@@ -40,6 +42,7 @@ import org.structr.core.app.StructrApp;
 import org.structr.core.entity.AbstractNode;
 import org.structr.core.entity.AbstractRelationship;
 import org.structr.core.entity.Relation;
+import org.structr.core.graph.CreateNodeCommand;
 import org.structr.core.graph.NodeInterface;
 import org.structr.core.graph.RelationshipInterface;
 import org.structr.core.graph.Tx;
@@ -223,6 +226,87 @@ public class TypeResource extends WrappingResource {
 		}
 	}
 
+	/**
+	 * Creates nodes for all the given property sets in a single call to
+	 * the bulk creation method of {@link CreateNodeCommand} if the type
+	 * of this resource allows it, and falls back to {@link #doPost(Map)}
+	 * for each property set otherwise.
+	 */
+	public List<RestMethodResult> doBulkPost(final List<Map<String, Object>> propertySets) throws FrameworkException {
+
+		final List<RestMethodResult> results = new ArrayList<>();
+
+		if (supportsBulkPost(propertySets)) {
+
+			final App app                        = StructrApp.getInstance(securityContext);
+			final List<PropertyMap> propertyMaps = new ArrayList<>();
+
+			// experimental: instruct deserialization strategies to set properties on related nodes
+			securityContext.setAttribute("setNestedProperties", true);
+
+			for (final Map<String, Object> propertySet : propertySets) {
+
+				final PropertyMap properties = PropertyMap.inputTypeToJavaType(securityContext, entityClass, propertySet);
+
+				properties.put(AbstractNode.type, entityClass.getSimpleName());
+
+				propertyMaps.add(properties);
+			}
+
+			final List<NodeInterface> newNodes = app.command(CreateNodeCommand.class).execute(propertyMaps);
+
+			for (final NodeInterface newNode : newNodes) {
+
+				final RestMethodResult result = new RestMethodResult(HttpServletResponse.SC_CREATED);
+
+				if (newNode != null) {
+
+					result.addHeader("Location", buildLocationHeader(newNode));
+					result.addContent(newNode.getUuid());
+				}
+
+				results.add(result);
+			}
+
+		} else {
+
+			for (final Map<String, Object> propertySet : propertySets) {
+
+				results.add(doPost(propertySet));
+			}
+		}
+
+		return results;
+	}
+
+	/**
+	 * Indicates whether {@link #doBulkPost(List)} can create the nodes for
+	 * the given property sets in bulk, i.e. without calling
+	 * {@link #doPost(Map)} for each of them.
+	 */
+	public boolean supportsBulkPost(final List<Map<String, Object>> propertySets) {
+
+		if (!isNode || virtualType != null || entityClass == null || Modifier.isAbstract(entityClass.getModifiers())) {
+			return false;
+		}
+
+		if (!CreateNodeCommand.supportsBulkCreation(entityClass)) {
+			return false;
+		}
+
+		// subtypes given in the input might have creation callbacks
+		for (final Map<String, Object> propertySet : propertySets) {
+
+			final Object type = propertySet.get(AbstractNode.type.jsonName());
+			if (type != null && !entityClass.getSimpleName().equals(type)) {
+
+				return false;
+			}
+		}
+
+		return true;
+	}
+
 	@Override
 	public RestMethodResult doPut(final Map<String, Object> propertySet) throws FrameworkException {
 		throw new IllegalPathException("PUT not allowed on " + rawType + " collection resource");
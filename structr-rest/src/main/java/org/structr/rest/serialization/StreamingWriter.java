@@ -24,6 +24,7 @@ import java.io.Writer;
 import java.text.DecimalFormat;
 import java.text.DecimalFormatSymbols;
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
@@ -32,6 +33,7 @@ import java.util.LinkedList;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
+import java.util.NoSuchElementException;
 import java.util.Set;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
@@ -52,9 +54,11 @@ import org.structr.core.Value;
 import org.structr.core.app.StructrApp;
 import org.structr.core.converter.PropertyConverter;
 import org.structr.core.entity.AbstractNode;
+import org.structr.core.graph.NodeInterface;
 import org.structr.core.graph.Tx;
 import org.structr.core.property.PropertyKey;
 import org.structr.core.property.PropertyMap;
+import org.structr.core.property.RelationProperty;
 import org.structr.schema.Schema;
 
 /**
@@ -65,6 +69,7 @@ public abstract class StreamingWriter {
 
 	private static final Logger logger                   = LoggerFactory.getLogger(StreamingWriter.class.getName());
 	private static final Set<PropertyKey> idTypeNameOnly = new LinkedHashSet<>(Arrays.asList(GraphObject.id, AbstractNode.type, AbstractNode.name));
+	private static final int PREFETCH_CHUNK_SIZE         = 100;
 
 	private final ExecutorService threadPool              = Executors.newWorkStealingPool();
 	private final Map<String, Serializer> serializerCache = new LinkedHashMap<>();
@@ -464,7 +469,7 @@ public abstract class StreamingWriter {
 			final SecurityContext securityContext = parentWriter.getSecurityContext();
 			final int pageSize                    = parentWriter.getPageSize();
 			final int softLimit                   = securityContext.getSoftLimit(pageSize);
-			final Iterator iterator               = value.iterator();
+			final Iterator iterator               = depth <= outputNestingDepth ? new PrefetchingIterator(value.iterator(), localPropertyView, depth) : value.iterator();
 			final Object firstValue               = iterator.hasNext() ? iterator.next() : null;
 			final Object secondValue              = iterator.hasNext() ? iterator.next() : null;
 			long actualResultCount                = 0;
@@ -638,6 +643,44 @@ public abstract class StreamingWriter {
 		}
 	}
 
+	/**
+	 * Loads the related nodes of all relationship properties that will be
+	 * serialized for the given objects with one query per type and
+	 * property instead of one query per object and property.
+	 */
+	private void prefetch(final List<Object> objects, final String localPropertyView, final int depth) {
+
+		// nested objects in restricted views are rendered as (id, type, name) only
+		if (compactNestedProperties && depth > 0 && Schema.RestrictedViews.contains(localPropertyView)) {
+			return;
+		}
+
+		final Map<Class, List<GraphObject>> objectsByType = new LinkedHashMap<>();
+
+		for (final Object obj : objects) {
+
+			if (obj instanceof NodeInterface) {
+
+				objectsByType.computeIfAbsent(obj.getClass(), k -> new ArrayList<>()).add((GraphObject)obj);
+			}
+		}
+
+		for (final List<GraphObject> list : objectsByType.values()) {
+
+			final Set<PropertyKey> keys = list.get(0).getPropertyKeys(localPropertyView);
+			if (keys != null) {
+
+				for (final PropertyKey key : keys) {
+
+					if (key instanceof RelationProperty) {
+
+						((RelationProperty)key).prefetch(list);
+					}
+				}
+			}
+		}
+	}
+
 	private String getString(final Object value) {
 
 		if (value != null) {
@@ -647,6 +690,56 @@ public abstract class StreamingWriter {
 		throw new NullPointerException();
 	}
 
+	/**
+	 * Reads the source iterator in chunks and prefetches the related nodes
+	 * of each chunk before its elements are serialized.
+	 */
+	private class PrefetchingIterator implements Iterator {
+
+		private Iterator<Object> current = null;
+		private Iterator source          = null;
+		private String propertyView      = null;
+		private int depth                = 0;
+
+		public PrefetchingIterator(final Iterator source, final String propertyView, final int depth) {
+
+			this.propertyView = propertyView;
+			this.source       = source;
+			this.depth        = depth;
+		}
+
+		@Override
+		public boolean hasNext() {
+
+			if (current == null || !current.hasNext()) {
+
+				final List<Object> chunk = new ArrayList<>(PREFETCH_CHUNK_SIZE);
+
+				while (source.hasNext() && chunk.size() < PREFETCH_CHUNK_SIZE) {
+					chunk.add(source.next());
+				}
+
+				if (chunk.size() > 1) {
+					prefetch(chunk, propertyView, depth);
+				}
+
+				current = chunk.iterator();
+			}
+
+			return current.hasNext();
+		}
+
+		@Override
+		public Object next() {
+
+			if (!hasNext()) {
+				throw new NoSuchElementException();
+			}
+
+			return current.next();
+		}
+	}
+
 	private interface Operation {
 
 		public void run(final RestWriter writer, final Object o, final Set<Integer> visitedObjects) throws IOException;
@@ -33,22 +33,104 @@ import org.structr.core.graph.Tx;
 import org.structr.core.property.PropertyMap;
 
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 import org.structr.common.SecurityContext;
 import org.structr.core.entity.Principal;
 import org.structr.core.property.PropertyKey;
+import org.structr.rest.auth.AuthHelper;
 
 /**
+ * Session data store that persists the metadata of authenticated sessions
+ * in {@link SessionDataNode}s.
+ *
+ * In write-behind mode (see {@link Settings#SessionPersistenceMode}), session
+ * metadata is kept in memory, repeated saves of the same session are coalesced
+ * and written in one batched transaction per flush interval.
  */
 public class StructrSessionDataStore extends AbstractSessionDataStore {
 
 	private static final Logger logger       = LoggerFactory.getLogger(StructrSessionDataStore.class.getName());
 	private static final Services services   = Services.getInstance();
 
-	private static final Map<String, SessionData> anonymousSessionCache = new HashMap<>();
+	private static final Map<String, SessionData> anonymousSessionCache = new ConcurrentHashMap<>();
+
+	private final Map<String, SessionData> sessionMetadata = new ConcurrentHashMap<>();
+	private final Set<String> dirtySessions                = ConcurrentHashMap.newKeySet();
+	private final boolean writeBehind                      = "writebehind".equals(Settings.SessionPersistenceMode.getValue());
+	private ScheduledExecutorService flushExecutor         = null;
+	private volatile boolean sessionMetadataLoaded         = false;
+
+	@Override
+	protected void doStart() throws Exception {
+
+		super.doStart();
+
+		if (writeBehind) {
+
+			final long interval = Math.max(1, Settings.SessionFlushInterval.getValue(30));
+
+			flushExecutor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+
+				final Thread thread = new Thread(runnable, "SessionDataFlush");
+				thread.setDaemon(true);
+
+				return thread;
+			});
+
+			flushExecutor.scheduleWithFixedDelay(() -> {
+
+				try {
+
+					flush();
+
+				} catch (Throwable t) {
+
+					// an exception would cancel all subsequent executions
+					logger.warn("Unable to flush session data: {}", t.getMessage());
+				}
+
+			}, interval, interval, TimeUnit.SECONDS);
+		}
+	}
+
+	@Override
+	protected void doStop() throws Exception {
+
+		if (flushExecutor != null) {
+
+			flushExecutor.shutdown();
+			flushExecutor.awaitTermination(10, TimeUnit.SECONDS);
+			flushExecutor = null;
+		}
+
+		// write pending session metadata before the database goes away
+		if (writeBehind) {
+
+			try {
+
+				flush();
+
+			} catch (Throwable t) {
+
+				logger.warn("Unable to flush session data on shutdown: {}", t.getMessage());
+			}
+		}
+
+		super.doStop();
+	}
 
 	@Override
 	public void doStore(final String id, final SessionData data, final long lastSaveTime) throws Exception {
 
+		if (writeBehind) {
+
+			storeDeferred(id, data);
+			return;
+		}
+
 		assertInitialized();
 
 		final SecurityContext ctx = SecurityContext.getSuperUserInstance();
@@ -65,13 +147,7 @@ public class StructrSessionDataStore extends AbstractSessionDataStore {
 				final SessionDataNode node = getOrCreateSessionDataNode(app, id);
 				if (node != null) {
 
-					final PropertyMap properties = new PropertyMap();
-
-					properties.put(SessionDataNode.lastAccessed, new Date(data.getLastAccessed()));
-					properties.put(SessionDataNode.contextPath, data.getContextPath());
-					properties.put(SessionDataNode.vhost, data.getVhost());
-
-					node.setProperties(ctx, properties);
+					node.setProperties(ctx, getSessionProperties(data));
 				}
 
 				tx.success();
@@ -93,10 +169,17 @@ public class StructrSessionDataStore extends AbstractSessionDataStore {
 
 		assertInitialized();
 
-		for (Map.Entry<String,SessionData> entry : anonymousSessionCache.entrySet()) {
-			SessionData data = entry.getValue();
-			if ( (new Date().getTime() - data.getLastAccessed()) > sessionTimeout) {
-				candidates.add(entry.getKey());
+		addExpired(anonymousSessionCache, candidates, sessionTimeout);
+
+		if (writeBehind) {
+
+			loadSessionMetadata();
+
+			if (sessionMetadataLoaded) {
+
+				addExpired(sessionMetadata, candidates, sessionTimeout);
+
+				return candidates;
 			}
 		}
 
@@ -127,7 +210,7 @@ public class StructrSessionDataStore extends AbstractSessionDataStore {
 	@Override
 	public boolean exists(final String id) throws Exception {
 
-		if (anonymousSessionCache.containsKey(id)) {
+		if (anonymousSessionCache.containsKey(id) || sessionMetadata.containsKey(id)) {
 			return true;
 		}
 
@@ -154,8 +237,16 @@ public class StructrSessionDataStore extends AbstractSessionDataStore {
 	@Override
 	public SessionData load(final String id) throws Exception {
 
-		if (anonymousSessionCache.containsKey(id)) {
-			return anonymousSessionCache.get(id);
+		final SessionData anonymousData = anonymousSessionCache.get(id);
+		if (anonymousData != null) {
+
+			return anonymousData;
+		}
+
+		final SessionData cachedData = sessionMetadata.get(id);
+		if (cachedData != null) {
+
+			return cachedData;
 		}
 
 		assertInitialized();
@@ -168,15 +259,11 @@ public class StructrSessionDataStore extends AbstractSessionDataStore {
 			final SessionDataNode node = app.nodeQuery(SessionDataNode.class).and(SessionDataNode.sessionId, id).getFirst();
 			if (node != null) {
 
-				result = new SessionData(
-					id,
-					node.getProperty(SessionDataNode.contextPath),
-					node.getProperty(SessionDataNode.vhost),
-					node.getCreatedDate().getTime(),
-					node.getLastModifiedDate().getTime(),
-					node.getLastModifiedDate().getTime(),
-					-1
-				);
+				result = createSessionData(id, node);
+
+				if (writeBehind) {
+					sessionMetadata.putIfAbsent(id, result);
+				}
 			}
 
 			tx.success();
@@ -192,11 +279,17 @@ public class StructrSessionDataStore extends AbstractSessionDataStore {
 	@Override
 	public boolean delete(final String id) throws Exception {
 
-		if (anonymousSessionCache.containsKey(id)) {
-			anonymousSessionCache.remove(id);
+		if (anonymousSessionCache.remove(id) != null) {
 			return true;
 		}
 
+		// make sure a concurrent flush does not re-create the node
+		synchronized (this) {
+
+			sessionMetadata.remove(id);
+			dirtySessions.remove(id);
+		}
+
 		assertInitialized();
 
 		final App app = StructrApp.getInstance();
@@ -221,6 +314,51 @@ public class StructrSessionDataStore extends AbstractSessionDataStore {
 		return false;
 	}
 
+	/**
+	 * Writes the metadata of all sessions that changed since the last flush
+	 * in a single transaction. Sessions that could not be written are kept
+	 * for the next flush.
+	 */
+	public synchronized void flush() {
+
+		if (dirtySessions.isEmpty()) {
+			return;
+		}
+
+		assertInitialized();
+
+		final SecurityContext ctx = SecurityContext.getSuperUserInstance();
+		final App app             = StructrApp.getInstance(ctx);
+		final List<String> ids    = new ArrayList<>(dirtySessions);
+
+		dirtySessions.removeAll(ids);
+
+		try (final Tx tx = app.tx()) {
+
+			for (final String id : ids) {
+
+				final SessionData data = sessionMetadata.get(id);
+				if (data != null) {
+
+					final SessionDataNode node = getOrCreateSessionDataNode(app, id);
+					if (node != null) {
+
+						node.setProperties(ctx, getSessionProperties(data));
+					}
+				}
+			}
+
+			tx.success();
+
+		} catch (Throwable t) {
+
+			// retry with the next flush
+			dirtySessions.addAll(ids);
+
+			logger.warn("Unable to flush session data for {} sessions: {}", ids.size(), t.getMessage());
+		}
+	}
+
 
 	// ----- private methods -----
 	private void assertInitialized() {
@@ -246,6 +384,116 @@ public class StructrSessionDataStore extends AbstractSessionDataStore {
 		return node;
 	}
 
+	private PropertyMap getSessionProperties(final SessionData data) {
+
+		final PropertyMap properties = new PropertyMap();
+
+		properties.put(SessionDataNode.lastAccessed, new Date(data.getLastAccessed()));
+		properties.put(SessionDataNode.contextPath, data.getContextPath());
+		properties.put(SessionDataNode.vhost, data.getVhost());
+
+		return properties;
+	}
+
+	private SessionData createSessionData(final String id, final SessionDataNode node) {
+
+		return new SessionData(
+			id,
+			node.getProperty(SessionDataNode.contextPath),
+			node.getProperty(SessionDataNode.vhost),
+			node.getCreatedDate().getTime(),
+			node.getLastModifiedDate().getTime(),
+			node.getLastModifiedDate().getTime(),
+			-1
+		);
+	}
+
+	private void addExpired(final Map<String, SessionData> sessions, final Set<String> candidates, final long sessionTimeout) {
+
+		final long now = System.currentTimeMillis();
+
+		for (final Map.Entry<String, SessionData> entry : sessions.entrySet()) {
+
+			if ((now - entry.getValue().getLastAccessed()) > sessionTimeout) {
+				candidates.add(entry.getKey());
+			}
+		}
+	}
+
+	/**
+	 * Records the session in memory, the database is updated by the next flush.
+	 * Only the first save of a session needs to look up its principal.
+	 */
+	private void storeDeferred(final String id, final SessionData data) {
+
+		if (sessionMetadata.containsKey(id)) {
+
+			sessionMetadata.put(id, data);
+			dirtySessions.add(id);
+
+			return;
+		}
+
+		assertInitialized();
+
+		final App app = StructrApp.getInstance();
+
+		try (final Tx tx = app.tx()) {
+
+			final Principal user = AuthHelper.getPrincipalForSessionId(id);
+
+			tx.success();
+
+			if (user != null) {
+
+				anonymousSessionCache.remove(id);
+				sessionMetadata.put(id, data);
+				dirtySessions.add(id);
+
+			} else {
+
+				anonymousSessionCache.put(id, data);
+			}
+
+		} catch (FrameworkException ex) {
+
+			logger.info("Unable to store session data for session id " + id + ".", ex);
+		}
+	}
+
+	/**
+	 * Loads the metadata of sessions that were persisted before this store
+	 * was started, so that expiry can be determined from memory.
+	 */
+	private void loadSessionMetadata() {
+
+		if (sessionMetadataLoaded) {
+			return;
+		}
+
+		final App app = StructrApp.getInstance();
+
+		try (final Tx tx = app.tx()) {
+
+			for (final SessionDataNode node : app.nodeQuery(SessionDataNode.class).getAsList()) {
+
+				final String id = node.getProperty(SessionDataNode.sessionId);
+				if (id != null) {
+
+					sessionMetadata.putIfAbsent(id, createSessionData(id, node));
+				}
+			}
+
+			tx.success();
+
+			sessionMetadataLoaded = true;
+
+		} catch (FrameworkException ex) {
+
+			logger.info("Unable to load session data.", ex);
+		}
+	}
+
 	@Override
 	public SessionData doLoad(String id) throws Exception {
 		return load(id);
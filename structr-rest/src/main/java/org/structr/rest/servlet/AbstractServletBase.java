@@ -18,13 +18,19 @@
  */
 package org.structr.rest.servlet;
 
+import java.io.IOException;
 import java.util.Arrays;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
 import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import org.apache.commons.lang3.StringUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.structr.api.config.Settings;
+import org.structr.api.util.QueryStatistics;
 import org.structr.common.error.FrameworkException;
 import org.structr.core.Services;
 import org.structr.rest.common.StatsCallback;
@@ -39,6 +45,27 @@ public abstract class AbstractServletBase extends HttpServlet {
 		this.stats = stats;
 	}
 
+	@Override
+	public void service(final ServletRequest request, final ServletResponse response) throws ServletException, IOException {
+
+		if (request instanceof HttpServletRequest) {
+
+			final HttpServletRequest httpRequest = (HttpServletRequest)request;
+
+			// make the request available in the slow query log
+			QueryStatistics.setRequestInfo(httpRequest.getMethod() + " " + httpRequest.getRequestURI());
+		}
+
+		try {
+
+			super.service(request, response);
+
+		} finally {
+
+			QueryStatistics.setRequestInfo(null);
+		}
+	}
+
 	protected void setCustomResponseHeaders(final HttpServletResponse response) {
 
 		if (response != null) {
@@ -63,6 +63,7 @@ import org.structr.core.property.PropertyKey;
 import org.structr.rest.RestMethodResult;
 import org.structr.rest.common.CsvHelper;
 import org.structr.rest.resource.Resource;
+import org.structr.rest.resource.TypeResource;
 import org.structr.rest.service.HttpServiceServlet;
 import org.structr.schema.parser.DatePropertyParser;
 
@@ -89,6 +90,9 @@ public class CsvServlet extends AbstractDataServlet implements HttpServiceServle
 	public static final char DEFAULT_QUOTE_CHARACTER_COLLECTION_CONTENTS = '"';
 
 
+	// batches are created inside the enclosing transaction, so a failing row rolls back exactly
+	// the same rows as before (the whole import, or the current chunk with periodic commit)
+	private static final int BULK_CREATION_BATCH_SIZE   = 1000;
 	private static final String REMOVE_LINE_BREAK_PARAM = "nolinebreaks";
 	private static final String WRITE_BOM = "bom";
 
@@ -319,11 +323,7 @@ public class CsvServlet extends AbstractDataServlet implements HttpServiceServle
 
 									currentChunkNo++;
 
-									for (final JsonInput propertySet : currentChunk) {
-
-										handleCsvPropertySet(results, resource, propertySet);
-
-									}
+									handleCsvPropertySets(results, resource, currentChunk);
 
 									tx.success();
 
@@ -347,11 +347,21 @@ public class CsvServlet extends AbstractDataServlet implements HttpServiceServle
 
 							try (final Tx tx = app.tx()) {
 
+								final List<JsonInput> batch = new ArrayList<>();
+
 								for (final JsonInput propertySet : csv) {
 
-									handleCsvPropertySet(results, resource, propertySet);
+									batch.add(propertySet);
+
+									if (batch.size() >= BULK_CREATION_BATCH_SIZE) {
+
+										handleCsvPropertySets(results, resource, batch);
+										batch.clear();
+									}
 								}
 
+								handleCsvPropertySets(results, resource, batch);
+
 								tx.success();
 
 							} catch (RetryException ddex) {
@@ -503,6 +513,52 @@ public class CsvServlet extends AbstractDataServlet implements HttpServiceServle
 		return "csv";
 	}
 
+	/**
+	 * Creates the given rows in the current transaction, in bulk if the resource supports it.
+	 *
+	 * Since the failing row of a bulk-created batch cannot be determined, an error is reported
+	 * once for the whole batch, referring to its size and first row. All other rows are created
+	 * one by one, so the failing row is reported.
+	 */
+	private void handleCsvPropertySets(final List<RestMethodResult> results, final Resource resource, final List<JsonInput> propertySets) throws FrameworkException {
+
+		if (propertySets.isEmpty()) {
+			return;
+		}
+
+		if (resource instanceof TypeResource) {
+
+			final TypeResource typeResource      = (TypeResource)resource;
+			final List<Map<String, Object>> maps = new ArrayList<>();
+
+			for (final JsonInput propertySet : propertySets) {
+
+				maps.add(convertPropertySetToMap(propertySet));
+			}
+
+			if (typeResource.supportsBulkPost(maps)) {
+
+				try {
+
+					results.addAll(typeResource.doBulkPost(maps));
+
+				} catch (FrameworkException fxe) {
+
+					broadcastImportError(fxe, propertySets.size() + " rows, starting with " + propertySets.get(0));
+
+					throw fxe;
+				}
+
+				return;
+			}
+		}
+
+		for (final JsonInput propertySet : propertySets) {
+
+			handleCsvPropertySet(results, resource, propertySet);
+		}
+	}
+
 	private void handleCsvPropertySet (final List<RestMethodResult> results, final Resource resource, final JsonInput propertySet) throws FrameworkException {
 
 		try {
@@ -511,19 +567,24 @@ public class CsvServlet extends AbstractDataServlet implements HttpServiceServle
 
 		} catch (FrameworkException fxe) {
 
-			logger.warn("CSV Import Error: " + fxe.getMessage() + "\n" + fxe.toString() + "\n{}", propertySet);
-
-			final Map<String, Object> data = new LinkedHashMap();
-			data.put("type", "CSV_IMPORT_ERROR");
-			data.put("title", "CSV Import Error");
-			data.put("text", fxe.getMessage() + "<br>" + fxe.toString() + "<br>" + propertySet.toString());
-			data.put("username", securityContext.getUser(false).getName());
-			TransactionCommand.simpleBroadcastGenericMessage(data);
+			broadcastImportError(fxe, propertySet);
 
 			throw fxe;
 		}
 	}
 
+	private void broadcastImportError(final FrameworkException fxe, final Object input) {
+
+		logger.warn("CSV Import Error: " + fxe.getMessage() + "\n" + fxe.toString() + "\n{}", input);
+
+		final Map<String, Object> data = new LinkedHashMap();
+		data.put("type", "CSV_IMPORT_ERROR");
+		data.put("title", "CSV Import Error");
+		data.put("text", fxe.getMessage() + "<br>" + fxe.toString() + "<br>" + input.toString());
+		data.put("username", securityContext.getUser(false).getName());
+		TransactionCommand.simpleBroadcastGenericMessage(data);
+	}
+
 	private static String escapeForCsv(final Object value) {
 
 		String result;
@@ -39,6 +39,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.structr.api.config.Settings;
 import org.structr.core.Services;
+import org.structr.rest.auth.AuthHelper;
 import org.structr.rest.common.Stats;
 import org.structr.rest.service.HttpService;
 
@@ -143,6 +144,27 @@ public class HealthCheckServlet extends AbstractDataServlet {
 							);
 						}
 
+						final Map<String, Integer> streamingInfo = info.get("resultStreaming");
+						if (streamingInfo != null) {
+
+							embedGroup(details, "database:streaming",
+								embedValue("queued records",     streamingInfo.get("queued"),         null, "pass"),
+								embedValue("max queued records", streamingInfo.get("maxQueued"),      null, "pass"),
+								embedValue("wait count",         streamingInfo.get("waits"),          null, "pass"),
+								embedValue("wait time",          streamingInfo.get("waitTimeMillis"), "ms", "pass")
+							);
+						}
+
+						final Map<String, Integer> sessionCacheInfo = AuthHelper.getSessionCacheInfo();
+
+						embedGroup(details, "cache:session",
+							embedValue("size",   sessionCacheInfo.get("max"),    null, "pass"),
+							embedValue("count",  sessionCacheInfo.get("size"),   null, "pass"),
+							embedValue("hits",   sessionCacheInfo.get("hits"),   null, "pass"),
+							embedValue("misses", sessionCacheInfo.get("misses"), null, "pass"),
+							embedValue("stale",  sessionCacheInfo.get("stale"),  null, "pass")
+						);
+
 						final HttpService httpService = Services.getInstance().getService(HttpService.class, "default");
 						if (httpService != null) {
 
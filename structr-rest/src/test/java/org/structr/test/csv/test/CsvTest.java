@@ -576,4 +576,63 @@ public class CsvTest extends StructrCsvTest {
 		assertEquals(testOneCSVWithDefaultCharacters5EntriesNoError, resultString);
 
 	}
+
+	/**
+	 * Test CSV import of more rows than fit into a single bulk creation batch
+	 */
+	@Test
+	public void test11CsvImportWithMultipleBatches() {
+
+		RestAssured.given().contentType("text/csv; charset=UTF-8").body(createTestOneCSV(2500, -1)).expect().statusCode(201).when().post(csvUrl + testOneResource);
+
+		try (final Tx tx = app.tx()) {
+
+			final List<TestOne> testOnes = app.nodeQuery(TestOne.class).sort(TestOne.anInt).getAsList();
+			assertEquals(2500, testOnes.size());
+
+			for (int i=0; i<2500; i++) {
+
+				assertEquals("TestOne-" + i, testOnes.get(i).getName());
+			}
+
+			tx.success();
+
+		} catch (FrameworkException ex) {
+			fail();
+		}
+	}
+
+	/**
+	 * Test CSV import where a row in a later bulk creation batch fails
+	 */
+	@Test
+	public void test12CsvImportWithMultipleBatchesWithError() {
+
+		RestAssured.given().contentType("text/csv; charset=UTF-8").body(createTestOneCSV(2500, 1500)).expect().statusCode(422).when().post(csvUrl + testOneResource);
+
+		try (final Tx tx = app.tx()) {
+
+			// all batches share the import transaction, so nothing must be created
+			final int testOneCount = app.nodeQuery(TestOne.class).getAsList().size();
+			assertEquals(0, testOneCount);
+
+			tx.success();
+
+		} catch (FrameworkException ex) {
+			fail();
+		}
+	}
+
+	// ----- private methods -----
+	private String createTestOneCSV(final int count, final int errorRow) {
+
+		final StringBuilder buf = new StringBuilder("\"type\";\"name\";\"anInt\"\r\n");
+
+		for (int i=0; i<count; i++) {
+
+			buf.append("\"TestOne\";\"TestOne-").append(i).append("\";\"").append(i == errorRow ? "ERROR" : i).append("\"\r\n");
+		}
+
+		return buf.toString();
+	}
 }
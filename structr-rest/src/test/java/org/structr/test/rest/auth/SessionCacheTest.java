@@ -0,0 +1,194 @@
+/*
+ * Copyright (C) 2010-2020 Structr GmbH
+ *
+ * This file is part of Structr <http://structr.org>.
+ *
+ * Structr is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * Structr is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Structr.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.structr.test.rest.auth;
+
+import java.lang.reflect.Proxy;
+import javax.servlet.http.HttpServletRequest;
+import org.structr.common.error.FrameworkException;
+import org.structr.core.entity.Principal;
+import org.structr.core.graph.Tx;
+import org.structr.rest.auth.AuthHelper;
+import org.structr.rest.auth.SessionHelper;
+import org.structr.test.rest.common.StructrRestTestBase;
+import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.assertNotNull;
+import static org.testng.AssertJUnit.assertNull;
+import static org.testng.AssertJUnit.fail;
+import org.testng.annotations.Test;
+
+/**
+ * Tests the invalidation of the session cache in {@link AuthHelper}.
+ */
+public class SessionCacheTest extends StructrRestTestBase {
+
+	@Test
+	public void testInvalidationOnLogout() {
+
+		final String sessionId = "session-logout";
+		final Principal user   = createUserWithSession(sessionId);
+
+		assertPrincipalForSessionId(sessionId, user);
+
+		final int stale = getCacheInfo("stale");
+
+		try (final Tx tx = app.tx()) {
+
+			AuthHelper.doLogout(createRequest(sessionId), user);
+			tx.success();
+
+		} catch (FrameworkException fex) {
+			logger.warn("", fex);
+			fail("Unexpected exception");
+		}
+
+		assertPrincipalForSessionId(sessionId, null);
+
+		// the entry was removed on logout, so it is not detected as stale
+		assertEquals(stale, getCacheInfo("stale"));
+	}
+
+	@Test
+	public void testInvalidationOnClearSession() {
+
+		final String sessionId = "session-clear";
+		final Principal user   = createUserWithSession(sessionId);
+
+		assertPrincipalForSessionId(sessionId, user);
+
+		final int stale = getCacheInfo("stale");
+
+		try (final Tx tx = app.tx()) {
+
+			SessionHelper.clearSession(sessionId);
+			tx.success();
+
+		} catch (FrameworkException fex) {
+			logger.warn("", fex);
+			fail("Unexpected exception");
+		}
+
+		assertPrincipalForSessionId(sessionId, null);
+		assertEquals(stale, getCacheInfo("stale"));
+	}
+
+	@Test
+	public void testInvalidationOnPrincipalDeletion() {
+
+		final String sessionId = "session-delete";
+		final Principal user   = createUserWithSession(sessionId);
+
+		assertPrincipalForSessionId(sessionId, user);
+
+		final int stale = getCacheInfo("stale");
+
+		try (final Tx tx = app.tx()) {
+
+			app.delete(user);
+			tx.success();
+
+		} catch (FrameworkException fex) {
+			logger.warn("", fex);
+			fail("Unexpected exception");
+		}
+
+		// the entry of the deleted principal is detected and evicted on the next lookup
+		assertPrincipalForSessionId(sessionId, null);
+		assertEquals(stale + 1, getCacheInfo("stale"));
+
+		assertPrincipalForSessionId(sessionId, null);
+		assertEquals(stale + 1, getCacheInfo("stale"));
+	}
+
+	@Test
+	public void testCacheHitAfterLookup() {
+
+		final String sessionId = "session-hit";
+		final Principal user   = createUserWithSession(sessionId);
+
+		assertPrincipalForSessionId(sessionId, user);
+
+		final int hits = getCacheInfo("hits");
+
+		assertPrincipalForSessionId(sessionId, user);
+
+		assertEquals(hits + 1, getCacheInfo("hits"));
+	}
+
+	// ----- private methods -----
+	private Principal createUserWithSession(final String sessionId) {
+
+		try (final Tx tx = app.tx()) {
+
+			final Principal user = app.create(Principal.class, "user");
+
+			user.addSessionId(sessionId);
+			AuthHelper.cacheSessionId(sessionId, user);
+
+			tx.success();
+
+			return user;
+
+		} catch (FrameworkException fex) {
+			logger.warn("", fex);
+			fail("Unexpected exception");
+		}
+
+		return null;
+	}
+
+	private void assertPrincipalForSessionId(final String sessionId, final Principal expected) {
+
+		try (final Tx tx = app.tx()) {
+
+			final Principal principal = AuthHelper.getPrincipalForSessionId(sessionId);
+
+			if (expected != null) {
+
+				assertNotNull(principal);
+				assertEquals(expected.getUuid(), principal.getUuid());
+
+			} else {
+
+				assertNull(principal);
+			}
+
+			tx.success();
+
+		} catch (FrameworkException fex) {
+			logger.warn("", fex);
+			fail("Unexpected exception");
+		}
+	}
+
+	private int getCacheInfo(final String key) {
+		return AuthHelper.getSessionCacheInfo().get(key);
+	}
+
+	private HttpServletRequest createRequest(final String sessionId) {
+
+		return (HttpServletRequest)Proxy.newProxyInstance(HttpServletRequest.class.getClassLoader(), new Class[] { HttpServletRequest.class }, (proxy, method, args) -> {
+
+			if ("getRequestedSessionId".equals(method.getName())) {
+				return sessionId;
+			}
+
+			return null;
+		});
+	}
+}
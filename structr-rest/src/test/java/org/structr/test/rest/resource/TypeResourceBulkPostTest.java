@@ -0,0 +1,267 @@
+/*
+ * Copyright (C) 2010-2020 Structr GmbH
+ *
+ * This file is part of Structr <http://structr.org>.
+ *
+ * Structr is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * Structr is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Structr.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.structr.test.rest.resource;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import javax.servlet.http.HttpServletResponse;
+import org.structr.api.util.ResultStream;
+import org.structr.common.ResultTransformer;
+import org.structr.common.SecurityContext;
+import org.structr.common.error.FrameworkException;
+import org.structr.core.GraphObject;
+import org.structr.core.entity.AbstractNode;
+import org.structr.core.graph.Tx;
+import org.structr.rest.RestMethodResult;
+import org.structr.rest.resource.TypeResource;
+import org.structr.test.rest.common.StructrRestTestBase;
+import org.structr.test.rest.entity.TestOne;
+import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.assertFalse;
+import static org.testng.AssertJUnit.assertNotNull;
+import static org.testng.AssertJUnit.assertTrue;
+import static org.testng.AssertJUnit.fail;
+import org.testng.annotations.Test;
+
+/**
+ * Tests for the bulk creation of nodes in {@link TypeResource}.
+ */
+public class TypeResourceBulkPostTest extends StructrRestTestBase {
+
+	@Test
+	public void testBulkPost() {
+
+		final List<String> uuids = new ArrayList<>();
+
+		try (final Tx tx = app.tx()) {
+
+			final TestTypeResource resource      = createResource("test_one");
+
+			assertTrue(resource.supportsBulkPost(createPropertySets("TestOne", null, "TestOne")));
+
+			final List<RestMethodResult> results = resource.doBulkPost(createPropertySets("TestOne", null, "TestOne"));
+
+			assertEquals("Bulk creation should not fall back to doPost", 0, resource.postCount);
+			assertEquals("Bulk creation should return one result per property set", 3, results.size());
+
+			for (final RestMethodResult result : results) {
+
+				assertEquals(HttpServletResponse.SC_CREATED, result.getResponseCode());
+				assertNotNull(result.getHeaders().get("Location"));
+
+				uuids.add((String)result.getContent().get(0));
+			}
+
+			tx.success();
+
+		} catch (FrameworkException fex) {
+
+			logger.warn("", fex);
+			fail("Unexpected exception");
+		}
+
+		try (final Tx tx = app.tx()) {
+
+			assertEquals(3, app.nodeQuery(TestOne.class).getAsList().size());
+
+			// results must be returned in input order
+			for (int i=0; i<3; i++) {
+
+				final TestOne node = app.get(TestOne.class, uuids.get(i));
+
+				assertNotNull(node);
+				assertEquals("node" + i, node.getName());
+				assertEquals((Integer)i, node.getProperty(TestOne.anInt));
+			}
+
+			tx.success();
+
+		} catch (FrameworkException fex) {
+
+			logger.warn("", fex);
+			fail("Unexpected exception");
+		}
+	}
+
+	@Test
+	public void testMixedTypesFallBackToPost() {
+
+		try (final Tx tx = app.tx()) {
+
+			final TestTypeResource resource = createResource("test_one");
+
+			assertFalse(resource.supportsBulkPost(createPropertySets("TestOne", "TestTwo", "TestOne")));
+
+			resource.doBulkPost(createPropertySets("TestOne", "TestTwo", "TestOne"));
+
+			assertEquals("Mixed types should fall back to doPost", 3, resource.postCount);
+
+			tx.success();
+
+		} catch (FrameworkException fex) {
+
+			logger.warn("", fex);
+			fail("Unexpected exception");
+		}
+	}
+
+	@Test
+	public void testAbstractTypeFallsBackToPost() {
+
+		try (final Tx tx = app.tx()) {
+
+			final TestTypeResource resource = createResource("test_one");
+
+			resource.setEntityClass(AbstractNode.class);
+
+			assertFalse(resource.supportsBulkPost(createPropertySets(null, null)));
+
+			resource.doBulkPost(createPropertySets(null, null));
+
+			assertEquals("Abstract types should fall back to doPost", 2, resource.postCount);
+
+			tx.success();
+
+		} catch (FrameworkException fex) {
+
+			logger.warn("", fex);
+			fail("Unexpected exception");
+		}
+	}
+
+	@Test
+	public void testVirtualTypeFallsBackToPost() {
+
+		try (final Tx tx = app.tx()) {
+
+			final TestTypeResource resource = createResource("test_one");
+
+			resource.setVirtualType(new TestTransformer());
+
+			assertFalse(resource.supportsBulkPost(createPropertySets(null, null)));
+
+			resource.doBulkPost(createPropertySets(null, null));
+
+			assertEquals("Virtual types should fall back to doPost", 2, resource.postCount);
+
+			tx.success();
+
+		} catch (FrameworkException fex) {
+
+			logger.warn("", fex);
+			fail("Unexpected exception");
+		}
+
+		try (final Tx tx = app.tx()) {
+
+			assertEquals("Fallback should not create nodes in bulk", 0, app.nodeQuery(TestOne.class).getAsList().size());
+
+			tx.success();
+
+		} catch (FrameworkException fex) {
+
+			logger.warn("", fex);
+			fail("Unexpected exception");
+		}
+	}
+
+	// ----- private methods -----
+	private TestTypeResource createResource(final String rawType) throws FrameworkException {
+
+		final TestTypeResource resource = new TestTypeResource();
+
+		resource.checkAndConfigure(rawType, securityContext, null);
+
+		return resource;
+	}
+
+	private List<Map<String, Object>> createPropertySets(final String... types) {
+
+		final List<Map<String, Object>> propertySets = new ArrayList<>();
+
+		for (int i=0; i<types.length; i++) {
+
+			final Map<String, Object> propertySet = new LinkedHashMap<>();
+
+			if (types[i] != null) {
+				propertySet.put("type", types[i]);
+			}
+
+			propertySet.put("name", "node" + i);
+			propertySet.put("anInt", i);
+
+			propertySets.add(propertySet);
+		}
+
+		return propertySets;
+	}
+
+	// ----- nested classes -----
+	private static class TestTypeResource extends TypeResource {
+
+		private int postCount = 0;
+
+		@Override
+		public RestMethodResult doPost(final Map<String, Object> propertySet) throws FrameworkException {
+
+			postCount++;
+
+			return new RestMethodResult(HttpServletResponse.SC_CREATED);
+		}
+
+		@Override
+		protected String buildLocationHeader(final GraphObject newObject) {
+
+			// no request available to build the base URI from
+			return "/" + rawType + "/" + newObject.getUuid();
+		}
+
+		public void setEntityClass(final Class entityClass) {
+			this.entityClass = entityClass;
+		}
+
+		public void setVirtualType(final ResultTransformer virtualType) {
+			this.virtualType = virtualType;
+		}
+	}
+
+	private static class TestTransformer implements ResultTransformer {
+
+		@Override
+		public String getSourceType() {
+			return "TestOne";
+		}
+
+		@Override
+		public ResultStream transformOutput(final SecurityContext securityContext, final Class sourceType, final ResultStream result) throws FrameworkException {
+			return result;
+		}
+
+		@Override
+		public void transformInput(final SecurityContext securityContext, final Class type, final Map<String, Object> propertySet) throws FrameworkException {
+		}
+
+		@Override
+		public boolean isPrimitiveArray() {
+			return false;
+		}
+	}
+}
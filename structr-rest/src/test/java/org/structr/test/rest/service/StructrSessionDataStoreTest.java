@@ -0,0 +1,256 @@
+/*
+ * Copyright (C) 2010-2020 Structr GmbH
+ *
+ * This file is part of Structr <http://structr.org>.
+ *
+ * Structr is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * Structr is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Structr.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.structr.test.rest.service;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.eclipse.jetty.server.session.SessionData;
+import org.structr.api.config.Settings;
+import org.structr.common.error.FrameworkException;
+import org.structr.core.entity.Principal;
+import org.structr.core.entity.SessionDataNode;
+import org.structr.core.graph.Tx;
+import org.structr.rest.service.StructrSessionDataStore;
+import org.structr.test.rest.common.StructrRestTestBase;
+import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.assertFalse;
+import static org.testng.AssertJUnit.assertTrue;
+import static org.testng.AssertJUnit.fail;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+/**
+ * Tests the write-behind mode of {@link StructrSessionDataStore}.
+ */
+public class StructrSessionDataStoreTest extends StructrRestTestBase {
+
+	@BeforeMethod
+	public void enableWriteBehind() {
+		Settings.SessionPersistenceMode.setValue("writebehind");
+	}
+
+	@AfterMethod
+	public void disableWriteBehind() {
+		Settings.SessionPersistenceMode.setValue(Settings.SessionPersistenceMode.getDefaultValue());
+	}
+
+	@Test
+	public void testCoalescedSaves() {
+
+		final StructrSessionDataStore store = new StructrSessionDataStore();
+		final String sessionId              = "session-coalesced";
+		final long now                      = System.currentTimeMillis();
+
+		createUserWithSession(sessionId);
+
+		try {
+
+			store.doStore(sessionId, createSessionData(sessionId, now - 3000), 0);
+			store.doStore(sessionId, createSessionData(sessionId, now - 2000), 0);
+			store.doStore(sessionId, createSessionData(sessionId, now - 1000), 0);
+
+		} catch (Exception ex) {
+			logger.warn("", ex);
+			fail("Unexpected exception");
+		}
+
+		// nothing is written before the flush
+		assertEquals(0, getSessionDataNodes(sessionId).size());
+
+		store.flush();
+
+		final List<SessionDataNode> nodes = getSessionDataNodes(sessionId);
+
+		assertEquals(1, nodes.size());
+
+		try (final Tx tx = app.tx()) {
+
+			assertEquals(now - 1000, nodes.get(0).getProperty(SessionDataNode.lastAccessed).getTime());
+			tx.success();
+
+		} catch (FrameworkException fex) {
+			logger.warn("", fex);
+			fail("Unexpected exception");
+		}
+	}
+
+	@Test
+	public void testExpiredSessionsFromMemory() {
+
+		final StructrSessionDataStore store = new StructrSessionDataStore();
+		final long timeout                  = Settings.SessionTimeout.getValue(1800) * 1000L;
+		final long now                      = System.currentTimeMillis();
+
+		createUserWithSession("session-expired");
+		createUserWithSession("session-active");
+
+		try {
+
+			store.doStore("session-expired", createSessionData("session-expired", now - 2 * timeout), 0);
+			store.doStore("session-active",  createSessionData("session-active",  now), 0);
+
+		} catch (Exception ex) {
+			logger.warn("", ex);
+			fail("Unexpected exception");
+		}
+
+		// the sessions were not flushed, so the expiry can only be determined from memory
+		final Set<String> expired = store.doGetExpired(new HashSet<>());
+
+		assertTrue(expired.contains("session-expired"));
+		assertFalse(expired.contains("session-active"));
+		assertEquals(0, getSessionDataNodes("session-expired").size());
+	}
+
+	@Test
+	public void testDeleteRacingFlush() {
+
+		final ExecutorService executor = Executors.newFixedThreadPool(2);
+		final long now                 = System.currentTimeMillis();
+
+		try {
+
+			for (int i=0; i<10; i++) {
+
+				final StructrSessionDataStore store = new StructrSessionDataStore();
+				final CountDownLatch latch          = new CountDownLatch(1);
+				final String sessionId              = "session-race-" + i;
+
+				createUserWithSession(sessionId);
+
+				store.doStore(sessionId, createSessionData(sessionId, now), 0);
+
+				final Future<?> flush  = executor.submit(() -> {
+
+					latch.await();
+					store.flush();
+
+					return null;
+				});
+
+				final Future<?> delete = executor.submit(() -> {
+
+					latch.await();
+					store.delete(sessionId);
+
+					return null;
+				});
+
+				latch.countDown();
+
+				flush.get();
+				delete.get();
+
+				// a flush must never re-create the node of a deleted session
+				assertEquals(0, getSessionDataNodes(sessionId).size());
+				assertFalse(store.exists(sessionId));
+
+				store.flush();
+
+				assertEquals(0, getSessionDataNodes(sessionId).size());
+			}
+
+		} catch (Exception ex) {
+			logger.warn("", ex);
+			fail("Unexpected exception");
+
+		} finally {
+
+			executor.shutdownNow();
+		}
+	}
+
+	@Test
+	public void testFlushOnStop() {
+
+		final TestSessionDataStore store = new TestSessionDataStore();
+		final String sessionId           = "session-stop";
+
+		createUserWithSession(sessionId);
+
+		try {
+
+			store.doStore(sessionId, createSessionData(sessionId, System.currentTimeMillis()), 0);
+
+			assertEquals(0, getSessionDataNodes(sessionId).size());
+
+			store.stopStore();
+
+		} catch (Exception ex) {
+			logger.warn("", ex);
+			fail("Unexpected exception");
+		}
+
+		assertEquals(1, getSessionDataNodes(sessionId).size());
+	}
+
+	// ----- private methods -----
+	private void createUserWithSession(final String sessionId) {
+
+		try (final Tx tx = app.tx()) {
+
+			final Principal user = app.create(Principal.class, "user-" + sessionId);
+
+			user.addSessionId(sessionId);
+
+			tx.success();
+
+		} catch (FrameworkException fex) {
+			logger.warn("", fex);
+			fail("Unexpected exception");
+		}
+	}
+
+	private List<SessionDataNode> getSessionDataNodes(final String sessionId) {
+
+		final List<SessionDataNode> nodes = new ArrayList<>();
+
+		try (final Tx tx = app.tx()) {
+
+			nodes.addAll(app.nodeQuery(SessionDataNode.class).and(SessionDataNode.sessionId, sessionId).getAsList());
+
+			tx.success();
+
+		} catch (FrameworkException fex) {
+			logger.warn("", fex);
+			fail("Unexpected exception");
+		}
+
+		return nodes;
+	}
+
+	private SessionData createSessionData(final String sessionId, final long lastAccessed) {
+		return new SessionData(sessionId, "/", "0.0.0.0", lastAccessed, lastAccessed, lastAccessed, -1);
+	}
+
+	// ----- nested classes -----
+	private static class TestSessionDataStore extends StructrSessionDataStore {
+
+		public void stopStore() throws Exception {
+			doStop();
+		}
+	}
+}
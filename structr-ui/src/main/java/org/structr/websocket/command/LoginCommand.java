@@ -131,6 +131,7 @@ public class LoginCommand extends AbstractCommand {
 
 							} else {
 
+								AuthHelper.cacheSessionId(sessionId, user);
 								AuthHelper.sendLoginNotification(user);
 
 								// store token in response data